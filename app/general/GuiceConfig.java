@@ -2,7 +2,11 @@ package general;
 
 import com.google.inject.AbstractModule;
 
+import daos.common.LobCompressionMigration;
+import daos.common.ResultDataFileStore;
+import daos.common.StudyRunCache;
 import general.common.Common;
+import models.common.CompressedLobConverter;
 import play.libs.akka.AkkaGuiceSupport;
 
 /**
@@ -18,6 +22,14 @@ public class GuiceConfig extends AbstractModule implements AkkaGuiceSupport {
 		bind(Common.class).asEagerSingleton();
 		bind(Initializer.class).asEagerSingleton();
 		bind(OnStartStop.class).asEagerSingleton();
+		// Registers its Hibernate listener before the first entity is changed
+		bind(StudyRunCache.class).asEagerSingleton();
+		// The JPA converter is created by Hibernate: it gets its LobCodec
+		// during the injector's creation, before the first entity is stored
+		requestStaticInjection(CompressedLobConverter.class);
+		bind(LobCompressionMigration.class).asEagerSingleton();
+		// Registers its Hibernate listener before the first entity is changed
+		bind(ResultDataFileStore.class).asEagerSingleton();
 	}
 
 }
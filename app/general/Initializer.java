@@ -1,7 +1,6 @@
 package general;
 
 import java.io.File;
-import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -9,8 +8,6 @@ import javax.inject.Singleton;
 import daos.common.GroupResultDao;
 import daos.common.UserDao;
 import general.common.Common;
-import models.common.GroupResult;
-import models.common.GroupResult.GroupState;
 import models.common.User;
 import play.Logger;
 import play.db.jpa.JPAApi;
@@ -50,7 +47,7 @@ public class Initializer {
 	public void initialize() {
 		checkAdmin();
 		checkStudyAssetsRootDir();
-//		checkGroupResults();
+		checkGroupResults();
 		Logger.info(CLASS_NAME + ": JATOS initialized");
 	}
 
@@ -84,20 +81,29 @@ public class Initializer {
 	}
 
 	/**
-	 * Check that all group results are in state FINISHED
+	 * Finishes all orphaned group results (not finished but without active
+	 * members) in one bulk update. Groups that still have active members stay
+	 * - their GroupDispatchers are created again when their members
+	 * reconnect. If several JATOS nodes share the database the groups might
+	 * be in use by another node - then nothing is done.
 	 */
 	private void checkGroupResults() {
-		jpa.withTransaction(() -> {
-			List<GroupResult> groupResultList = groupResultDao.findAllNotFinished();
-			for (GroupResult groupresult : groupResultList) {
-				if (groupresult.getGroupState() == GroupState.STARTED) {
-					groupresult.setGroupState(GroupState.FINISHED);
-					groupResultDao.update(groupresult);
-					Logger.info(CLASS_NAME + ".checkGroupResults: No group results should be "
-							+ "in state STARTED, but group result " + groupresult.getId()
-							+ " was. Finish it now.");
-				}
-			}
-		});
+		if (common.isMultiNodeEnabled()) {
+			return;
+		}
+		int[] finished = { 0 };
+		try {
+			jpa.withTransaction(() -> {
+				finished[0] = groupResultDao.finishAllOrphaned();
+			});
+		} catch (RuntimeException e) {
+			Logger.error(CLASS_NAME + ".checkGroupResults: couldn't finish "
+					+ "orphaned group results", e);
+			return;
+		}
+		if (finished[0] > 0) {
+			Logger.info(CLASS_NAME + ".checkGroupResults: Finished "
+					+ finished[0] + " orphaned group results");
+		}
 	}
 }
@@ -1,6 +1,7 @@
 package daos.common;
 
 import javax.inject.Singleton;
+import javax.persistence.LockModeType;
 
 import models.common.Batch;
 import play.db.jpa.JPA;
@@ -29,4 +30,12 @@ public class BatchDao extends AbstractDao {
 		return JPA.em().find(Batch.class, id);
 	}
 
+	/**
+	 * Locks the batch's row in the database until the transaction ends. Other
+	 * transactions (e.g. on other JATOS nodes) that want to lock it wait.
+	 */
+	public void lock(Batch batch) {
+		JPA.em().lock(batch, LockModeType.PESSIMISTIC_WRITE);
+	}
+
 }
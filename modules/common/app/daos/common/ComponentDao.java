@@ -2,6 +2,8 @@ package daos.common;
 
 import java.util.List;
 
+import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
@@ -18,6 +20,16 @@ import play.db.jpa.JPA;
 @Singleton
 public class ComponentDao extends AbstractDao {
 
+	/**
+	 * Provider because the StudyRunCache depends on this DAO
+	 */
+	private final Provider<StudyRunCache> studyRunCache;
+
+	@Inject
+	ComponentDao(Provider<StudyRunCache> studyRunCache) {
+		this.studyRunCache = studyRunCache;
+	}
+
 	public void create(Component component) {
 		persist(component);
 	}
@@ -76,7 +88,9 @@ public class ComponentDao extends AbstractDao {
 
 	/**
 	 * Change the position of the given Component within its study. The position
-	 * is like a index of a list but starts at 1 instead of 0.
+	 * is like a index of a list but starts at 1 instead of 0. It's a bulk
+	 * update that bypasses the persistence context - so the StudyRunCache has
+	 * to be told explicitly.
 	 */
 	public void changePosition(Component component, int newPosition) {
 		String queryStr = "UPDATE Component SET componentList_order = "
@@ -86,6 +100,8 @@ public class ComponentDao extends AbstractDao {
 		query.setParameter("newIndex", newPosition - 1);
 		query.setParameter("id", component.getId());
 		query.executeUpdate();
+		studyRunCache.get().invalidateComponent(component.getId(),
+				component.getStudy().getId());
 	}
 
 }
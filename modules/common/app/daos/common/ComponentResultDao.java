@@ -1,14 +1,21 @@
 package daos.common;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.PreparedStatement;
 import java.util.List;
 
 import javax.inject.Singleton;
+import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.hibernate.Session;
+
 import models.common.Component;
 import models.common.ComponentResult;
 import play.db.jpa.JPA;
+import utils.common.LobCodec;
 
 /**
  * DAO for ComponentResult entity
@@ -34,10 +41,48 @@ public class ComponentResultDao extends AbstractDao {
 		super.refresh(componentResult);
 	}
 
+	/**
+	 * Streams the given data directly into the ComponentResult's data column
+	 * without holding it in memory as a String. The data field of the given
+	 * (managed) entity isn't updated. Pending changes are flushed first so
+	 * they can't overwrite the streamed data afterwards. The data aren't
+	 * compressed, but they are escaped like in the CompressedLobConverter.
+	 */
+	public void updateData(ComponentResult componentResult, Reader data)
+			throws IOException {
+		Reader encoded = LobCodec.encode(data);
+		if (componentResult.getDataRef() != null) {
+			// Drop the reference into the ResultDataFileStore (flushed below)
+			componentResult.setData(null);
+		}
+		EntityManager em = JPA.em();
+		em.flush();
+		em.unwrap(Session.class).doWork(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(
+					"UPDATE ComponentResult SET data = ? WHERE id = ?")) {
+				statement.setCharacterStream(1, encoded);
+				statement.setLong(2, componentResult.getId());
+				statement.executeUpdate();
+			}
+		});
+	}
+
 	public ComponentResult findById(Long id) {
 		return JPA.em().find(ComponentResult.class, id);
 	}
 
+	/**
+	 * Returns the number of ComponentResults that reference the given result
+	 * data in the ResultDataFileStore.
+	 */
+	public long countByDataRef(String dataRef) {
+		String queryStr = "SELECT COUNT(cr) FROM ComponentResult cr WHERE cr.dataRef=:dataRef";
+		Query query = JPA.em().createQuery(queryStr);
+		Number result = (Number) query.setParameter("dataRef", dataRef)
+				.getSingleResult();
+		return result.longValue();
+	}
+
 	/**
 	 * Returns the number of ComponentResults belonging to the given Component.
 	 */
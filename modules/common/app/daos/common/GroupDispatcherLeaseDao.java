@@ -0,0 +1,84 @@
+package daos.common;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+import javax.inject.Singleton;
+import javax.persistence.TypedQuery;
+
+import models.common.GroupDispatcherLease;
+import play.db.jpa.JPA;
+
+/**
+ * DAO for GroupDispatcherLease. Leases are taken, renewed and released with
+ * conditional bulk updates, so two JATOS nodes can't take the same lease at
+ * the same time.
+ * 
+ * @author Kristian Lange
+ */
+@Singleton
+public class GroupDispatcherLeaseDao extends AbstractDao {
+
+	/**
+	 * Persists a new lease. Throws a PersistenceException if there is already
+	 * a lease for this GroupResult (e.g. another node was faster).
+	 */
+	public void create(GroupDispatcherLease lease) {
+		persist(lease);
+		JPA.em().flush();
+	}
+
+	public GroupDispatcherLease findById(Long groupResultId) {
+		return JPA.em().find(GroupDispatcherLease.class, groupResultId);
+	}
+
+	/**
+	 * Takes over the lease of the given GroupResult if it's already the
+	 * given owner's or if it's expired. Returns true if the lease is now the
+	 * owner's.
+	 */
+	public boolean takeOver(Long groupResultId, String owner, Timestamp now,
+			Timestamp expires) {
+		String queryStr = "UPDATE GroupDispatcherLease l "
+				+ "SET l.owner=:owner, l.expires=:expires "
+				+ "WHERE l.groupResultId=:groupResultId "
+				+ "AND (l.owner=:owner OR l.expires<:now)";
+		int updated = JPA.em().createQuery(queryStr)
+				.setParameter("owner", owner).setParameter("expires", expires)
+				.setParameter("groupResultId", groupResultId)
+				.setParameter("now", now).executeUpdate();
+		return updated > 0;
+	}
+
+	/**
+	 * Extends the given owner's leases of the given GroupResults. Returns the
+	 * IDs of the GroupResults whose leases the owner still holds.
+	 */
+	public List<Long> renew(Collection<Long> groupResultIds, String owner,
+			Timestamp expires) {
+		String updateStr = "UPDATE GroupDispatcherLease l "
+				+ "SET l.expires=:expires "
+				+ "WHERE l.groupResultId IN :groupResultIds AND l.owner=:owner";
+		JPA.em().createQuery(updateStr).setParameter("expires", expires)
+				.setParameter("groupResultIds", groupResultIds)
+				.setParameter("owner", owner).executeUpdate();
+		String queryStr = "SELECT l.groupResultId FROM GroupDispatcherLease l "
+				+ "WHERE l.groupResultId IN :groupResultIds AND l.owner=:owner";
+		TypedQuery<Long> query = JPA.em().createQuery(queryStr, Long.class);
+		return query.setParameter("groupResultIds", groupResultIds)
+				.setParameter("owner", owner).getResultList();
+	}
+
+	/**
+	 * Removes the lease of the given GroupResult if it's the given owner's
+	 */
+	public void release(Long groupResultId, String owner) {
+		String queryStr = "DELETE FROM GroupDispatcherLease l "
+				+ "WHERE l.groupResultId=:groupResultId AND l.owner=:owner";
+		JPA.em().createQuery(queryStr)
+				.setParameter("groupResultId", groupResultId)
+				.setParameter("owner", owner).executeUpdate();
+	}
+
+}
@@ -1,14 +1,21 @@
 package daos.common;
 
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
 import java.util.List;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.hibernate.Session;
+
 import models.common.Batch;
 import models.common.GroupResult;
 import models.common.GroupResult.GroupState;
 import play.db.jpa.JPA;
+import utils.common.LobCodec;
 
 /**
  * DAO for GroupResult
@@ -18,6 +25,26 @@ import play.db.jpa.JPA;
 @Singleton
 public class GroupResultDao extends AbstractDao {
 
+	/**
+	 * Condition of a GroupDispatcher's updates in multi-node mode: the
+	 * GroupResult is only changed if the GroupDispatcher's node still holds
+	 * the group's unexpired lease. This way a GroupDispatcher that lost its
+	 * lease (e.g. its node couldn't reach the database for too long) can't
+	 * overwrite what the node that took the group over wrote (fencing).
+	 */
+	private static final String LEASE_FENCE = " AND EXISTS (SELECT l FROM GroupDispatcherLease l "
+			+ "WHERE l.groupResultId=gr.id AND l.owner=:leaseOwner AND l.expires>:now)";
+
+	private static final String LEASE_FENCE_SQL = " AND EXISTS (SELECT 1 FROM GroupDispatcherLease l "
+			+ "WHERE l.groupResultId = GroupResult.id AND l.owner = ? AND l.expires > ?)";
+
+	private final LobCodec lobCodec;
+
+	@Inject
+	GroupResultDao(LobCodec lobCodec) {
+		this.lobCodec = lobCodec;
+	}
+
 	public void create(GroupResult groupResult) {
 		persist(groupResult);
 	}
@@ -80,4 +107,113 @@ public class GroupResultDao extends AbstractDao {
 		return query.getResultList();
 	}
 
+	/**
+	 * Writes the given group session into the GroupResult with the given ID
+	 * with a single conditional update: a GroupResult that is finished (maybe
+	 * just now by another transaction) keeps its deleted session data. If
+	 * leaseOwner isn't null (multi-node mode) it's fenced by the group's lease
+	 * too. The data are encoded like the CompressedLobConverter does. Returns
+	 * the number of changed GroupResults (0 or 1).
+	 */
+	public int updateGroupSession(Long id, String sessionData,
+			long sessionVersion, String leaseOwner) {
+		String sql = "UPDATE GroupResult SET groupSessionData = ?, "
+				+ "groupSessionVersion = ? WHERE id = ? AND groupState <> ?";
+		if (leaseOwner != null) {
+			sql += LEASE_FENCE_SQL;
+		}
+		String updateSql = sql;
+		int[] updated = { 0 };
+		JPA.em().unwrap(Session.class).doWork(connection -> {
+			try (PreparedStatement statement = connection
+					.prepareStatement(updateSql)) {
+				statement.setString(1, lobCodec.encode(sessionData));
+				statement.setLong(2, sessionVersion);
+				statement.setLong(3, id);
+				statement.setInt(4, GroupState.FINISHED.ordinal());
+				if (leaseOwner != null) {
+					statement.setString(5, leaseOwner);
+					statement.setTimestamp(6,
+							new Timestamp(System.currentTimeMillis()));
+				}
+				updated[0] = statement.executeUpdate();
+			}
+		});
+		return updated[0];
+	}
+
+	/**
+	 * Puts the GroupResult with the given ID in state FIXED - unless it's
+	 * finished already. If leaseOwner isn't null (multi-node mode) it's fenced
+	 * by the group's lease. Returns the number of changed GroupResults (0 or
+	 * 1).
+	 */
+	public int fix(Long id, String leaseOwner) {
+		String queryStr = "UPDATE GroupResult gr SET gr.groupState=:fixed "
+				+ "WHERE gr.id=:id AND gr.groupState <> :finished";
+		return fenced(queryStr, leaseOwner)
+				.setParameter("fixed", GroupState.FIXED).setParameter("id", id)
+				.setParameter("finished", GroupState.FINISHED).executeUpdate();
+	}
+
+	/**
+	 * Writes the snapshot of the GroupResult's GroupDispatcher - and nothing
+	 * else, so the rest of the row (e.g. the group session) isn't rewritten.
+	 * A finished GroupResult isn't changed. If leaseOwner isn't null
+	 * (multi-node mode) it's fenced by the group's lease. Returns the number
+	 * of changed GroupResults (0 or 1).
+	 */
+	public int updateDispatcherSnapshot(Long id, long epoch, long seq,
+			boolean stopped, String leaseOwner) {
+		String queryStr = "UPDATE GroupResult gr "
+				+ "SET gr.dispatcherEpoch=:epoch, gr.dispatcherSeq=:seq, gr.dispatcherStopped=:stopped "
+				+ "WHERE gr.id=:id AND gr.groupState <> :finished";
+		return fenced(queryStr, leaseOwner).setParameter("epoch", epoch)
+				.setParameter("seq", seq).setParameter("stopped", stopped)
+				.setParameter("id", id)
+				.setParameter("finished", GroupState.FINISHED).executeUpdate();
+	}
+
+	/**
+	 * Creates the update query - with the LEASE_FENCE if leaseOwner isn't
+	 * null
+	 */
+	private Query fenced(String queryStr, String leaseOwner) {
+		if (leaseOwner == null) {
+			return JPA.em().createQuery(queryStr);
+		}
+		return JPA.em().createQuery(queryStr + LEASE_FENCE)
+				.setParameter("leaseOwner", leaseOwner)
+				.setParameter("now", new Timestamp(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Deletes the group session data and the dispatcher snapshot of the
+	 * GroupResult with the given ID, e.g. when it's finished. Returns the
+	 * number of changed GroupResults (0 or 1).
+	 */
+	public int clearGroupSession(Long id) {
+		String queryStr = "UPDATE GroupResult gr SET gr.groupSessionData=null, "
+				+ "gr.dispatcherEpoch=null, gr.dispatcherSeq=null, "
+				+ "gr.dispatcherStopped=false WHERE gr.id=:id";
+		return JPA.em().createQuery(queryStr).setParameter("id", id)
+				.executeUpdate();
+	}
+
+	/**
+	 * Finishes all orphaned GroupResults in one bulk update: groups that
+	 * aren't finished yet but have no active members anymore. Their group
+	 * session data and dispatcher snapshot are deleted. Returns the number of
+	 * finished GroupResults.
+	 */
+	public int finishAllOrphaned() {
+		String queryStr = "UPDATE GroupResult gr SET gr.groupState=:finished, "
+				+ "gr.groupSessionData=null, gr.dispatcherEpoch=null, "
+				+ "gr.dispatcherSeq=null, gr.dispatcherStopped=false "
+				+ "WHERE gr.groupState <> :finished "
+				+ "AND gr.activeMemberList IS EMPTY";
+		return JPA.em().createQuery(queryStr)
+				.setParameter("finished", GroupState.FINISHED).executeUpdate();
+	}
+
 }
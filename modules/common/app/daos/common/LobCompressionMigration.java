@@ -0,0 +1,190 @@
+package daos.common;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.hibernate.Session;
+
+import general.common.Common;
+import general.common.Metrics;
+import play.Logger;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
+import utils.common.LobCodec;
+
+/**
+ * Counts the compression of large text columns (see LobCodec) and, if
+ * configured (jatos.lobCompression.migrate), compresses all existing rows
+ * that were stored uncompressed. The migration runs in the background in
+ * small batches, each one in its own transaction and with its rows locked, so
+ * it doesn't get in the way of running studies. It starts from the beginning
+ * with every JATOS start - already compressed rows are just skipped.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class LobCompressionMigration {
+
+	private static final String CLASS_NAME = LobCompressionMigration.class
+			.getSimpleName();
+
+	public static final String METRIC_PREFIX = "lobCompression.";
+
+	private static final int BATCH_SIZE = 50;
+
+	private static final long BATCH_INTERVAL_MS = 1000;
+
+	/**
+	 * Rows bigger than this (in characters) aren't migrated: they'd have to be
+	 * held in memory several times
+	 */
+	private static final int MAX_MIGRATION_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * All compressed columns: table name and column name
+	 */
+	private static final String[][] COLUMNS = {
+			{ "ComponentResult", "data" },
+			{ "StudyResult", "studySessionData" },
+			{ "GroupResult", "groupSessionData" }, { "Study", "jsonData" } };
+
+	private final JPAApi jpa;
+	private final Metrics metrics;
+	private final LobCodec lobCodec;
+
+	private int columnIndex = 0;
+	private long lastId = 0;
+
+	@Inject
+	LobCompressionMigration(Common common, JPAApi jpa, Metrics metrics,
+			LobCodec lobCodec, ApplicationLifecycle lifecycle) {
+		this.jpa = jpa;
+		this.metrics = metrics;
+		this.lobCodec = lobCodec;
+		metrics.registerGauge(METRIC_PREFIX + "compressed",
+				lobCodec::getCompressedCount);
+		metrics.registerGauge(METRIC_PREFIX + "bytesBefore",
+				lobCodec::getBytesBeforeCompression);
+		metrics.registerGauge(METRIC_PREFIX + "bytesAfter",
+				lobCodec::getBytesAfterCompression);
+		metrics.registerGauge(METRIC_PREFIX + "bytesSaved",
+				() -> lobCodec.getBytesBeforeCompression()
+						- lobCodec.getBytesAfterCompression());
+		if (!common.isLobCompressionMigrate()) {
+			return;
+		}
+
+		ScheduledExecutorService executor = Executors
+				.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable,
+							"lob-compression-migration");
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.scheduleWithFixedDelay(() -> migrateNextBatch(executor),
+				BATCH_INTERVAL_MS, BATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		lifecycle.addStopHook(() -> {
+			executor.shutdownNow();
+			return F.Promise.pure(null);
+		});
+		Logger.info(CLASS_NAME + ": started compression of existing rows");
+	}
+
+	private void migrateNextBatch(ScheduledExecutorService executor) {
+		if (columnIndex >= COLUMNS.length) {
+			Logger.info(CLASS_NAME + ": compression of existing rows done");
+			executor.shutdown();
+			return;
+		}
+		String table = COLUMNS[columnIndex][0];
+		String column = COLUMNS[columnIndex][1];
+		try {
+			AtomicInteger rowCount = new AtomicInteger();
+			AtomicLong lastSeenId = new AtomicLong(lastId);
+			jpa.withTransaction(() -> JPA.em().unwrap(Session.class)
+					.doWork(connection -> rowCount.set(migrateBatch(
+							connection, table, column, lastSeenId))));
+			// Move on only after the batch is committed
+			lastId = lastSeenId.get();
+			if (rowCount.get() < BATCH_SIZE) {
+				// This column is done: go on with the next one
+				columnIndex++;
+				lastId = 0;
+			}
+		} catch (Throwable e) {
+			// Try again with the next run
+			Logger.error(CLASS_NAME + ".migrateNextBatch: " + table + "."
+					+ column, e);
+		}
+	}
+
+	/**
+	 * Compresses the next batch of rows of the given column after the given
+	 * ID. Returns the number of rows looked at and sets lastSeenId to the
+	 * last one's ID.
+	 */
+	private int migrateBatch(Connection connection, String table,
+			String column, AtomicLong lastSeenId) throws SQLException {
+		List<Long> ids = new ArrayList<>();
+		List<String> values = new ArrayList<>();
+		String selectSql = "SELECT id, " + column + " FROM " + table
+				+ " WHERE id > ? AND " + column + " IS NOT NULL AND LENGTH("
+				+ column + ") >= ? AND LENGTH(" + column
+				+ ") <= ? ORDER BY id LIMIT ? FOR UPDATE";
+		try (PreparedStatement select = connection
+				.prepareStatement(selectSql)) {
+			select.setLong(1, lastSeenId.get());
+			select.setInt(2, LobCodec.MIN_LENGTH);
+			select.setInt(3, MAX_MIGRATION_LENGTH);
+			select.setInt(4, BATCH_SIZE);
+			try (ResultSet resultSet = select.executeQuery()) {
+				while (resultSet.next()) {
+					ids.add(resultSet.getLong(1));
+					values.add(resultSet.getString(2));
+				}
+			}
+		}
+
+		int migrated = 0;
+		try (PreparedStatement update = connection.prepareStatement(
+				"UPDATE " + table + " SET " + column + " = ? WHERE id = ?")) {
+			for (int i = 0; i < ids.size(); i++) {
+				String value = values.get(i);
+				if (LobCodec.isEncoded(value)) {
+					continue;
+				}
+				String encoded = lobCodec.encode(value);
+				if (encoded.equals(value)) {
+					continue;
+				}
+				update.setString(1, encoded);
+				update.setLong(2, ids.get(i));
+				update.addBatch();
+				migrated++;
+			}
+			if (migrated > 0) {
+				update.executeBatch();
+			}
+		}
+		if (!ids.isEmpty()) {
+			lastSeenId.set(ids.get(ids.size() - 1));
+		}
+		metrics.add(METRIC_PREFIX + "migratedRows", migrated);
+		return ids.size();
+	}
+
+}
@@ -0,0 +1,369 @@
+package daos.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Striped;
+
+import general.common.Common;
+import general.common.Metrics;
+import play.Logger;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
+
+/**
+ * Content-addressed file store for result data (optional, see
+ * jatos.resultDataFileStore.enabled). Each result data is stored in a file
+ * named after the SHA-256 hash of its content, sharded into two levels of
+ * directories by the hash's first four characters. The ComponentResult holds
+ * only this reference and the size. Files are read memory-mapped.
+ *
+ * Identical result data are stored only once. Hence a file can only be
+ * removed if no ComponentResult references it anymore: a Hibernate event
+ * listener collects references that were changed or removed and a sweeper
+ * deletes their files after checking the database. A file that was stored
+ * again within the last GRACE_PERIOD_MS is kept, since the ComponentResult
+ * referencing it might not be committed yet.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultDataFileStore {
+
+	private static final String CLASS_NAME = ResultDataFileStore.class
+			.getSimpleName();
+
+	public static final String METRIC_PREFIX = "resultDataFileStore.";
+
+	private static final String TEMP_DIR_NAME = "tmp";
+
+	private static final long SWEEP_INTERVAL_MS = 60 * 1000;
+
+	private static final long GRACE_PERIOD_MS = 10 * 60 * 1000;
+
+	private static final int DECODE_BUFFER_SIZE = 8192;
+
+	private final boolean enabled;
+	private final File root;
+	private final Metrics metrics;
+	private final JPAApi jpa;
+	private final ComponentResultDao componentResultDao;
+
+	/**
+	 * Guards storing and deleting of the same file
+	 */
+	private final Striped<Lock> fileLocks = Striped.lazyWeakLock(256);
+
+	/**
+	 * References that might not be used anymore
+	 */
+	private final ConcurrentLinkedQueue<String> releasedRefs = new ConcurrentLinkedQueue<>();
+
+	@Inject
+	ResultDataFileStore(Common common, Metrics metrics, JPAApi jpa,
+			ComponentResultDao componentResultDao,
+			ApplicationLifecycle lifecycle) {
+		this.enabled = common.isResultDataFileStoreEnabled();
+		this.root = new File(common.getResultDataFileStorePath());
+		this.metrics = metrics;
+		this.jpa = jpa;
+		this.componentResultDao = componentResultDao;
+		// Even if disabled there might be files from earlier
+		jpa.withTransaction(() -> registerEventListener());
+
+		ScheduledExecutorService executor = Executors
+				.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable,
+							"result-data-file-store");
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.scheduleWithFixedDelay(this::sweepSafely, SWEEP_INTERVAL_MS,
+				SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		lifecycle.addStopHook(() -> {
+			executor.shutdownNow();
+			return F.Promise.pure(null);
+		});
+	}
+
+	private void registerEventListener() {
+		SessionFactoryImplementor sessionFactory = JPA.em()
+				.getEntityManagerFactory()
+				.unwrap(SessionFactoryImplementor.class);
+		EventListenerRegistry registry = sessionFactory.getServiceRegistry()
+				.getService(EventListenerRegistry.class);
+		ResultDataFileStoreEventListener listener = new ResultDataFileStoreEventListener(
+				this);
+		registry.appendListeners(EventType.POST_UPDATE, listener);
+		registry.appendListeners(EventType.POST_DELETE, listener);
+	}
+
+	/**
+	 * Is true if new result data should be stored here
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Stores the given UTF-8 encoded result data and returns their reference
+	 * and size. The file is fsync'ed before this method returns.
+	 */
+	public StoredData store(InputStream data) throws IOException {
+		File tempDir = new File(root, TEMP_DIR_NAME);
+		if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+			throw new IOException(
+					"Couldn't create directory " + tempDir.getPath());
+		}
+		File tempFile = File.createTempFile("resultdata", ".tmp", tempDir);
+		try {
+			MessageDigest digest = newDigest();
+			long size;
+			try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+					StandardOpenOption.WRITE)) {
+				OutputStream out = new DigestOutputStream(
+						Channels.newOutputStream(channel), digest);
+				size = copy(data, out);
+				out.flush();
+				channel.force(false);
+			}
+			String ref = BaseEncoding.base16().lowerCase()
+					.encode(digest.digest());
+			File file = getFile(ref);
+			Lock lock = fileLocks.get(ref);
+			lock.lock();
+			try {
+				if (file.exists()) {
+					// Same data stored already: just mark it as used again
+					file.setLastModified(System.currentTimeMillis());
+					metrics.increment(METRIC_PREFIX + "deduplicated");
+				} else {
+					moveIntoPlace(tempFile, file);
+					metrics.increment(METRIC_PREFIX + "stored");
+				}
+			} finally {
+				lock.unlock();
+			}
+			return new StoredData(ref, size);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	private void moveIntoPlace(File tempFile, File file) throws IOException {
+		File parentDir = file.getParentFile();
+		if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
+			throw new IOException(
+					"Couldn't create directory " + parentDir.getPath());
+		}
+		try {
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException e) {
+			// Someone else was faster - it's the same content anyway
+		}
+	}
+
+	/**
+	 * Returns the result data with the given reference as a String
+	 */
+	public String read(String ref) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		appendTo(ref, sb, Integer.MAX_VALUE);
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes the result data with the given reference straight from the
+	 * memory-mapped file into the given StringBuilder, without building an
+	 * intermediate String. Stops after maxChars characters.
+	 */
+	public void appendTo(String ref, StringBuilder sb, int maxChars)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(getFile(ref).toPath(),
+				StandardOpenOption.READ)) {
+			long bytesToMap = Math.min(channel.size(),
+					(long) maxChars * 4);
+			if (bytesToMap > Integer.MAX_VALUE) {
+				throw new IOException("Result data too big: " + ref);
+			}
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, bytesToMap);
+			decode(bytes, sb, maxChars);
+		}
+		metrics.increment(METRIC_PREFIX + "reads");
+	}
+
+	private void decode(ByteBuffer bytes, StringBuilder sb, int maxChars) {
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+		int remaining = maxChars;
+		while (remaining > 0) {
+			CoderResult result = decoder.decode(bytes, chars, true);
+			chars.flip();
+			int length = Math.min(chars.remaining(), remaining);
+			sb.append(chars, 0, length);
+			remaining -= length;
+			chars.clear();
+			if (result.isUnderflow()) {
+				break;
+			}
+		}
+		if (remaining > 0) {
+			decoder.flush(chars);
+			chars.flip();
+			sb.append(chars, 0, Math.min(chars.remaining(), remaining));
+		}
+	}
+
+	/**
+	 * Called by the event listener if a ComponentResult doesn't use the given
+	 * reference anymore. Its file is deleted by the next sweep if no other
+	 * ComponentResult uses it.
+	 */
+	void release(String ref) {
+		releasedRefs.add(ref);
+	}
+
+	private void sweepSafely() {
+		try {
+			sweep();
+		} catch (Throwable e) {
+			// Never let an exception cancel the scheduled task
+			Logger.error(CLASS_NAME + ".sweepSafely", e);
+		}
+	}
+
+	private void sweep() {
+		List<String> refs = new ArrayList<>();
+		String ref;
+		while ((ref = releasedRefs.poll()) != null) {
+			refs.add(ref);
+		}
+		if (refs.isEmpty()) {
+			return;
+		}
+		List<String> unreferenced = new ArrayList<>();
+		jpa.withTransaction(() -> {
+			for (String releasedRef : refs) {
+				if (componentResultDao.countByDataRef(releasedRef) == 0) {
+					unreferenced.add(releasedRef);
+				}
+			}
+		});
+		for (String unreferencedRef : unreferenced) {
+			delete(unreferencedRef);
+		}
+	}
+
+	private void delete(String ref) {
+		File file = getFile(ref);
+		Lock lock = fileLocks.get(ref);
+		lock.lock();
+		try {
+			if (!file.exists()) {
+				return;
+			}
+			if (System.currentTimeMillis()
+					- file.lastModified() < GRACE_PERIOD_MS) {
+				// Stored again recently: check again later
+				releasedRefs.add(ref);
+				return;
+			}
+			Files.delete(file.toPath());
+			metrics.increment(METRIC_PREFIX + "deleted");
+		} catch (IOException e) {
+			Logger.warn(CLASS_NAME + ".delete: couldn't delete "
+					+ file.getPath(), e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private File getFile(String ref) {
+		if (!ref.matches("[0-9a-f]{64}")) {
+			throw new IllegalArgumentException("Invalid reference " + ref);
+		}
+		return new File(root, ref.substring(0, 2) + File.separator
+				+ ref.substring(2, 4) + File.separator + ref);
+	}
+
+	private static long copy(InputStream in, OutputStream out)
+			throws IOException {
+		byte[] buffer = new byte[DECODE_BUFFER_SIZE];
+		long size = 0;
+		int length;
+		while ((length = in.read(buffer)) != -1) {
+			out.write(buffer, 0, length);
+			size += length;
+		}
+		return size;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reference and size of stored result data
+	 */
+	public static class StoredData {
+		private final String ref;
+		private final long size;
+
+		StoredData(String ref, long size) {
+			this.ref = ref;
+			this.size = size;
+		}
+
+		public String getRef() {
+			return ref;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+}
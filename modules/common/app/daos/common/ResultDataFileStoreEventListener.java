@@ -0,0 +1,62 @@
+package daos.common;
+
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+import models.common.ComponentResult;
+
+/**
+ * Hibernate event listener that tells the {@link ResultDataFileStore} about
+ * every reference to result data that a ComponentResult doesn't use anymore,
+ * because the ComponentResult was removed or its data changed.
+ *
+ * @author Kristian Lange
+ */
+class ResultDataFileStoreEventListener
+		implements PostUpdateEventListener, PostDeleteEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String DATA_REF_PROPERTY = "dataRef";
+
+	private final transient ResultDataFileStore resultDataFileStore;
+
+	ResultDataFileStoreEventListener(ResultDataFileStore resultDataFileStore) {
+		this.resultDataFileStore = resultDataFileStore;
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		if (!(event.getEntity() instanceof ComponentResult)
+				|| event.getOldState() == null) {
+			return;
+		}
+		int index = event.getPersister().getEntityMetamodel()
+				.getPropertyIndex(DATA_REF_PROPERTY);
+		Object oldRef = event.getOldState()[index];
+		Object newRef = event.getState()[index];
+		if (oldRef != null && !oldRef.equals(newRef)) {
+			resultDataFileStore.release((String) oldRef);
+		}
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		if (!(event.getEntity() instanceof ComponentResult)) {
+			return;
+		}
+		String ref = ((ComponentResult) event.getEntity()).getDataRef();
+		if (ref != null) {
+			resultDataFileStore.release(ref);
+		}
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return false;
+	}
+
+}
@@ -1,5 +1,6 @@
 package daos.common;
 
+import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Singleton;
@@ -9,6 +10,8 @@ import javax.persistence.TypedQuery;
 import models.common.Batch;
 import models.common.Study;
 import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import models.common.workers.Worker;
 import play.db.jpa.JPA;
 
 /**
@@ -19,6 +22,12 @@ import play.db.jpa.JPA;
 @Singleton
 public class StudyResultDao extends AbstractDao {
 
+	/**
+	 * States of a StudyResult that is 'done'
+	 */
+	private static final List<StudyState> DONE_STATES = Arrays.asList(
+			StudyState.FINISHED, StudyState.ABORTED, StudyState.FAIL);
+
 	public void create(StudyResult studyResult) {
 		super.persist(studyResult);
 	}
@@ -106,4 +115,73 @@ public class StudyResultDao extends AbstractDao {
 				.setParameter("workerType", workerType).getResultList();
 	}
 
+	/**
+	 * Returns the last StudyResult (the one with the highest ID) of the given
+	 * worker and study or null if there is none. Uses the index on worker and
+	 * study instead of loading the worker's whole StudyResult list.
+	 */
+	public StudyResult findLastByWorkerAndStudy(Worker worker, Study study) {
+		String queryStr = "SELECT sr FROM StudyResult sr "
+				+ "WHERE sr.worker=:worker AND sr.study=:study "
+				+ "ORDER BY sr.id DESC";
+		List<StudyResult> studyResultList = JPA.em()
+				.createQuery(queryStr, StudyResult.class)
+				.setParameter("worker", worker).setParameter("study", study)
+				.setMaxResults(1).getResultList();
+		return studyResultList.isEmpty() ? null : studyResultList.get(0);
+	}
+
+	/**
+	 * Returns all StudyResults of the given worker and study that aren't 'done'
+	 * (state FINISHED, ABORTED or FAIL).
+	 */
+	public List<StudyResult> findAllUnfinishedByWorkerAndStudy(Worker worker,
+			Study study) {
+		String queryStr = "SELECT sr FROM StudyResult sr "
+				+ "WHERE sr.worker=:worker AND sr.study=:study "
+				+ "AND sr.studyState NOT IN (:doneStates) ORDER BY sr.id";
+		TypedQuery<StudyResult> query = JPA.em().createQuery(queryStr,
+				StudyResult.class);
+		return query.setParameter("worker", worker)
+				.setParameter("study", study)
+				.setParameter("doneStates", DONE_STATES).getResultList();
+	}
+
+	/**
+	 * Returns true if the given worker has at least one StudyResult of the
+	 * given study that is 'done' (state FINISHED, ABORTED or FAIL).
+	 */
+	public boolean existsDoneByWorkerAndStudy(Worker worker, Study study) {
+		String queryStr = "SELECT sr.id FROM StudyResult sr "
+				+ "WHERE sr.worker=:worker AND sr.study=:study "
+				+ "AND sr.studyState IN (:doneStates)";
+		return !JPA.em().createQuery(queryStr).setParameter("worker", worker)
+				.setParameter("study", study)
+				.setParameter("doneStates", DONE_STATES).setMaxResults(1)
+				.getResultList().isEmpty();
+	}
+
+	/**
+	 * Returns true if the given worker has at least one StudyResult of the
+	 * given study - no matter in which state.
+	 */
+	public boolean existsByWorkerAndStudy(Worker worker, Study study) {
+		String queryStr = "SELECT sr.id FROM StudyResult sr "
+				+ "WHERE sr.worker=:worker AND sr.study=:study";
+		return !JPA.em().createQuery(queryStr).setParameter("worker", worker)
+				.setParameter("study", study).setMaxResults(1).getResultList()
+				.isEmpty();
+	}
+
+	/**
+	 * Returns true if the given worker has at least one StudyResult - no
+	 * matter of which study or in which state.
+	 */
+	public boolean existsByWorker(Worker worker) {
+		String queryStr = "SELECT sr.id FROM StudyResult sr "
+				+ "WHERE sr.worker=:worker";
+		return !JPA.em().createQuery(queryStr).setParameter("worker", worker)
+				.setMaxResults(1).getResultList().isEmpty();
+	}
+
 }
@@ -0,0 +1,241 @@
+package daos.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+
+import general.common.Metrics;
+import models.common.Batch;
+import models.common.Component;
+import models.common.Study;
+import play.Logger;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAApi;
+
+/**
+ * Read-through cache of the study run's metadata: Study, Batch and Component.
+ * They are needed with every publix request but change only if a user edits
+ * them in the GUI.
+ *
+ * The actual snapshots are held in Hibernate's second-level cache (entity
+ * regions of Study, Batch and Component, see hibernate-ehcache.xml), so the
+ * entities returned here are still ordinary managed entities of the current
+ * persistence context. This class counts hits and misses and keeps a version
+ * number for each study, batch and component. A version changes after a
+ * transaction that changed the entity is completed. Everything that derives
+ * data from these entities (e.g. pre-serialized JSON) can use the versions as
+ * part of its cache key.
+ *
+ * Invalidation happens automatically with every update or removal of these
+ * entities (or their cached collections) via a Hibernate event listener.
+ * Changes that don't go through the persistence context (e.g. bulk JPQL
+ * updates) have to call one of the invalidate methods.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class StudyRunCache {
+
+	private static final String CLASS_NAME = StudyRunCache.class
+			.getSimpleName();
+
+	public static final String METRIC_PREFIX = "studyRunCache.";
+
+	private final Metrics metrics;
+	private final StudyDao studyDao;
+	private final BatchDao batchDao;
+	private final ComponentDao componentDao;
+
+	/**
+	 * Source of all versions: strictly increasing during one JATOS run
+	 */
+	private final AtomicLong versionSequence = new AtomicLong();
+
+	private final ConcurrentMap<Long, Long> studyVersions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Long, Long> batchVersions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Long, Long> componentVersions = new ConcurrentHashMap<>();
+
+	@Inject
+	StudyRunCache(JPAApi jpa, Metrics metrics, StudyDao studyDao,
+			BatchDao batchDao, ComponentDao componentDao) {
+		this.metrics = metrics;
+		this.studyDao = studyDao;
+		this.batchDao = batchDao;
+		this.componentDao = componentDao;
+		jpa.withTransaction(() -> registerEventListener());
+	}
+
+	/**
+	 * Registers the listener that invalidates this cache with every change of
+	 * a Study, Batch or Component.
+	 */
+	private void registerEventListener() {
+		SessionFactoryImplementor sessionFactory = JPA.em()
+				.getEntityManagerFactory()
+				.unwrap(SessionFactoryImplementor.class);
+		EventListenerRegistry registry = sessionFactory.getServiceRegistry()
+				.getService(EventListenerRegistry.class);
+		StudyRunCacheEventListener listener = new StudyRunCacheEventListener(
+				this);
+		registry.appendListeners(EventType.POST_UPDATE, listener);
+		registry.appendListeners(EventType.POST_DELETE, listener);
+		registry.appendListeners(EventType.POST_COLLECTION_RECREATE,
+				listener);
+		registry.appendListeners(EventType.POST_COLLECTION_UPDATE, listener);
+		registry.appendListeners(EventType.POST_COLLECTION_REMOVE, listener);
+		Logger.info(CLASS_NAME + ": registered Hibernate event listener");
+	}
+
+	public Study findStudy(Long studyId) {
+		countLookup(Study.class, studyId, "study");
+		return studyDao.findById(studyId);
+	}
+
+	public Batch findBatch(Long batchId) {
+		countLookup(Batch.class, batchId, "batch");
+		return batchDao.findById(batchId);
+	}
+
+	public Component findComponent(Long componentId) {
+		countLookup(Component.class, componentId, "component");
+		return componentDao.findById(componentId);
+	}
+
+	private void countLookup(Class<?> entityClass, Long id, String name) {
+		if (id == null) {
+			return;
+		}
+		boolean hit = JPA.em().getEntityManagerFactory().getCache()
+				.contains(entityClass, id);
+		metrics.increment(METRIC_PREFIX + name + (hit ? ".hits" : ".misses"));
+	}
+
+	/**
+	 * Returns the latest version handed out so far. Read it before loading an
+	 * entity: if the entity's version is still lower or equal afterwards, the
+	 * loaded state belongs to that version and derived data can be cached
+	 * under it.
+	 */
+	public long getEpoch() {
+		return versionSequence.get();
+	}
+
+	public long getStudyVersion(Long studyId) {
+		return studyVersions.getOrDefault(studyId, 0l);
+	}
+
+	public long getBatchVersion(Long batchId) {
+		return batchVersions.getOrDefault(batchId, 0l);
+	}
+
+	public long getComponentVersion(Long componentId) {
+		return componentVersions.getOrDefault(componentId, 0l);
+	}
+
+	/**
+	 * Invalidates the given study, together with its cached component and
+	 * batch lists, after the current transaction is completed.
+	 */
+	public void invalidateStudy(Long studyId) {
+		invalidateStudy(studyId, currentSession());
+	}
+
+	/**
+	 * Invalidates the given batch after the current transaction is completed.
+	 */
+	public void invalidateBatch(Long batchId) {
+		invalidateBatch(batchId, currentSession());
+	}
+
+	/**
+	 * Invalidates the given component (and its study) after the current
+	 * transaction is completed.
+	 */
+	public void invalidateComponent(Long componentId, Long studyId) {
+		invalidateComponent(componentId, studyId, currentSession());
+	}
+
+	/**
+	 * Called by the event listener with every change of an entity.
+	 */
+	void entityChanged(Object entity, EventSource session) {
+		if (entity instanceof Study) {
+			invalidateStudy(((Study) entity).getId(), session);
+		} else if (entity instanceof Batch) {
+			invalidateBatch(((Batch) entity).getId(), session);
+		} else if (entity instanceof Component) {
+			Component component = (Component) entity;
+			Long studyId = (component.getStudy() != null)
+					? component.getStudy().getId() : null;
+			invalidateComponent(component.getId(), studyId, session);
+		}
+	}
+
+	private void invalidateStudy(Long studyId, EventSource session) {
+		if (studyId == null) {
+			return;
+		}
+		afterTransactionCompletion(session, () -> {
+			SessionFactoryImplementor sessionFactory = session.getFactory();
+			sessionFactory.getCache().evictEntity(Study.class, studyId);
+			sessionFactory.getCache().evictCollection(
+					Study.class.getName() + ".componentList", studyId);
+			sessionFactory.getCache().evictCollection(
+					Study.class.getName() + ".batchList", studyId);
+			nextVersion(studyVersions, studyId);
+		});
+	}
+
+	private void invalidateBatch(Long batchId, EventSource session) {
+		if (batchId == null) {
+			return;
+		}
+		afterTransactionCompletion(session, () -> {
+			session.getFactory().getCache().evictEntity(Batch.class, batchId);
+			nextVersion(batchVersions, batchId);
+		});
+	}
+
+	private void invalidateComponent(Long componentId, Long studyId,
+			EventSource session) {
+		if (componentId != null) {
+			afterTransactionCompletion(session, () -> {
+				session.getFactory().getCache().evictEntity(Component.class,
+						componentId);
+				nextVersion(componentVersions, componentId);
+			});
+		}
+		// The study's component list contains some of the component's fields
+		invalidateStudy(studyId, session);
+	}
+
+	/**
+	 * Runs the given invalidation once the current transaction is completed
+	 * (regardless whether it was committed or rolled back). If we'd change the
+	 * version earlier another request could load the old state from the DB
+	 * and use it together with the new version.
+	 */
+	private void afterTransactionCompletion(EventSource session,
+			Runnable invalidation) {
+		session.getActionQueue().registerProcess((success,
+				sessionImplementor) -> invalidation.run());
+		metrics.increment(METRIC_PREFIX + "invalidations");
+	}
+
+	private void nextVersion(ConcurrentMap<Long, Long> versions, Long id) {
+		versions.put(id, versionSequence.incrementAndGet());
+	}
+
+	private EventSource currentSession() {
+		return JPA.em().unwrap(EventSource.class);
+	}
+
+}
@@ -0,0 +1,68 @@
+package daos.common;
+
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Hibernate event listener that tells the {@link StudyRunCache} about every
+ * changed or removed entity and every changed collection (the collection's
+ * owner is passed on). Inserts aren't interesting: a new component or batch
+ * changes the collection of its study.
+ *
+ * @author Kristian Lange
+ */
+class StudyRunCacheEventListener implements PostUpdateEventListener,
+		PostDeleteEventListener, PostCollectionRecreateEventListener,
+		PostCollectionUpdateEventListener, PostCollectionRemoveEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient StudyRunCache studyRunCache;
+
+	StudyRunCacheEventListener(StudyRunCache studyRunCache) {
+		this.studyRunCache = studyRunCache;
+	}
+
+	@Override
+	public void onPostUpdate(PostUpdateEvent event) {
+		studyRunCache.entityChanged(event.getEntity(), event.getSession());
+	}
+
+	@Override
+	public void onPostDelete(PostDeleteEvent event) {
+		studyRunCache.entityChanged(event.getEntity(), event.getSession());
+	}
+
+	@Override
+	public boolean requiresPostCommitHanding(EntityPersister persister) {
+		return false;
+	}
+
+	@Override
+	public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+		studyRunCache.entityChanged(event.getAffectedOwnerOrNull(),
+				event.getSession());
+	}
+
+	@Override
+	public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+		studyRunCache.entityChanged(event.getAffectedOwnerOrNull(),
+				event.getSession());
+	}
+
+	@Override
+	public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+		studyRunCache.entityChanged(event.getAffectedOwnerOrNull(),
+				event.getSession());
+	}
+
+}
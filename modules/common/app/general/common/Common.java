@@ -33,6 +33,147 @@ public class Common {
 	 */
 	private static final String DEFAULT_STUDY_ASSETS_ROOT_PATH = "study_assets_root";
 
+	/**
+	 * Property name in application config to switch on the write-behind
+	 * journal for result data
+	 */
+	private static final String PROPERTY_RESULT_JOURNAL_ENABLED = "jatos.resultJournal.enabled";
+
+	/**
+	 * Property name in application config for the path in the file system to
+	 * the directory of the result journal
+	 */
+	private static final String PROPERTY_RESULT_JOURNAL_PATH = "jatos.resultJournal.path";
+
+	/**
+	 * Default path of the result journal's directory in case it wasn't
+	 * specified in the config
+	 */
+	private static final String DEFAULT_RESULT_JOURNAL_PATH = "journal";
+
+	/**
+	 * Property name in application config to switch on the compression of
+	 * large text columns (result data, session data)
+	 */
+	private static final String PROPERTY_LOB_COMPRESSION_ENABLED = "jatos.lobCompression.enabled";
+
+	/**
+	 * Property name in application config to compress existing, uncompressed
+	 * rows in the background
+	 */
+	private static final String PROPERTY_LOB_COMPRESSION_MIGRATE = "jatos.lobCompression.migrate";
+
+	/**
+	 * Property name in application config to store result data in files
+	 * instead of in the database
+	 */
+	private static final String PROPERTY_RESULT_DATA_FILE_STORE_ENABLED = "jatos.resultDataFileStore.enabled";
+
+	/**
+	 * Property name in application config for the path in the file system to
+	 * the result data file store
+	 */
+	private static final String PROPERTY_RESULT_DATA_FILE_STORE_PATH = "jatos.resultDataFileStore.path";
+
+	/**
+	 * Default path of the result data file store in case it wasn't specified
+	 * in the config
+	 */
+	private static final String DEFAULT_RESULT_DATA_FILE_STORE_PATH = "result_data";
+
+	/**
+	 * Property name in application config for the interval in which changed
+	 * group session data are persisted
+	 */
+	private static final String PROPERTY_GROUP_SESSION_PERSIST_INTERVAL = "jatos.groupSession.persistInterval";
+
+	/**
+	 * Default interval in ms in which changed group session data are persisted
+	 */
+	private static final long DEFAULT_GROUP_SESSION_PERSIST_INTERVAL = 1000;
+
+	/**
+	 * Property name in application config for the max number of messages
+	 * waiting to be sent to one group channel
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_OUTBOUND_QUEUE_SIZE = "jatos.groupChannel.outboundQueueSize";
+
+	private static final int DEFAULT_GROUP_CHANNEL_OUTBOUND_QUEUE_SIZE = 256;
+
+	/**
+	 * Property name in application config for the max number of messages per
+	 * second sent to one group channel (0 means unlimited)
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_OUTBOUND_RATE = "jatos.groupChannel.outboundRate";
+
+	private static final int DEFAULT_GROUP_CHANNEL_OUTBOUND_RATE = 200;
+
+	/**
+	 * Property name in application config for what happens if a group
+	 * channel's outbound queue is full: DROP_OLDEST, COALESCE or DISCONNECT
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_OVERFLOW_POLICY = "jatos.groupChannel.overflowPolicy";
+
+	private static final String DEFAULT_GROUP_CHANNEL_OVERFLOW_POLICY = "COALESCE";
+
+	/**
+	 * Property name in application config for the max number of messages per
+	 * second a client can send via its group channel (0 means unlimited)
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_INBOUND_RATE = "jatos.groupChannel.inboundRate";
+
+	private static final int DEFAULT_GROUP_CHANNEL_INBOUND_RATE = 0;
+
+	/**
+	 * Property name in application config for the number of broadcast group
+	 * messages a GroupDispatcher keeps to resume group channels
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_REPLAY_BUFFER_SIZE = "jatos.groupChannel.replayBufferSize";
+
+	private static final int DEFAULT_GROUP_CHANNEL_REPLAY_BUFFER_SIZE = 256;
+
+	/**
+	 * Property name in application config for the interval in which the JATOS
+	 * server pings the client of each group channel (0 switches heartbeats
+	 * off)
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_HEARTBEAT_INTERVAL = "jatos.groupChannel.heartbeatInterval";
+
+	private static final long DEFAULT_GROUP_CHANNEL_HEARTBEAT_INTERVAL = 10000;
+
+	/**
+	 * Property name in application config for how long a group channel's
+	 * client can be silent before its group channel is closed
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_HEARTBEAT_TIMEOUT = "jatos.groupChannel.heartbeatTimeout";
+
+	private static final long DEFAULT_GROUP_CHANNEL_HEARTBEAT_TIMEOUT = 30000;
+
+	/**
+	 * Property name in application config for how long a member whose group
+	 * channel was closed due to the heartbeat timeout keeps its place in the
+	 * group without a new group channel (0 keeps it forever). Not used in
+	 * multi-node mode.
+	 */
+	private static final String PROPERTY_GROUP_CHANNEL_EVICTION_GRACE = "jatos.groupChannel.evictionGrace";
+
+	private static final long DEFAULT_GROUP_CHANNEL_EVICTION_GRACE = 120000;
+
+	/**
+	 * Property name in application config for whether several JATOS nodes
+	 * share the group dispatching (they need the same database and Akka
+	 * remoting)
+	 */
+	private static final String PROPERTY_MULTI_NODE_ENABLED = "jatos.multiNode.enabled";
+
+	/**
+	 * Property name in application config for how long a node owns a group's
+	 * GroupDispatcher without renewing its lease
+	 */
+	private static final String PROPERTY_MULTI_NODE_LEASE_DURATION = "jatos.multiNode.leaseDuration";
+
+	private static final long DEFAULT_MULTI_NODE_LEASE_DURATION = 30000;
+
 	/**
 	 * JATOS' absolute base path without trailing '/.'
 	 */
@@ -50,12 +191,147 @@ public class Common {
 	 */
 	private final boolean inMemoryDb;
 
+	/**
+	 * Is true if result data are written into the journal first and
+	 * asynchronously into the database.
+	 */
+	private final boolean resultJournalEnabled;
+
+	/**
+	 * Path in the file system to the result journal's directory
+	 */
+	private final String resultJournalPath;
+
+	/**
+	 * Is true if large text columns are stored compressed
+	 */
+	private final boolean lobCompressionEnabled;
+
+	/**
+	 * Is true if existing rows are compressed in the background
+	 */
+	private final boolean lobCompressionMigrate;
+
+	/**
+	 * Is true if new result data are stored in the result data file store
+	 */
+	private final boolean resultDataFileStoreEnabled;
+
+	/**
+	 * Path in the file system to the result data file store
+	 */
+	private final String resultDataFileStorePath;
+
+	/**
+	 * Interval in ms in which a GroupDispatcher persists changed group session
+	 * data
+	 */
+	private final long groupSessionPersistInterval;
+
+	/**
+	 * Max number of messages waiting to be sent to one group channel
+	 */
+	private final int groupChannelOutboundQueueSize;
+
+	/**
+	 * Max number of messages per second sent to one group channel
+	 */
+	private final int groupChannelOutboundRate;
+
+	/**
+	 * What happens if a group channel's outbound queue is full
+	 */
+	private final String groupChannelOverflowPolicy;
+
+	/**
+	 * Max number of messages per second a client can send via its group
+	 * channel
+	 */
+	private final int groupChannelInboundRate;
+
+	/**
+	 * Number of broadcast group messages a GroupDispatcher keeps to resume
+	 * group channels
+	 */
+	private final int groupChannelReplayBufferSize;
+
+	/**
+	 * Interval in ms in which the group channels' clients are pinged
+	 */
+	private final long groupChannelHeartbeatInterval;
+
+	/**
+	 * Time in ms after which a silent group channel is closed
+	 */
+	private final long groupChannelHeartbeatTimeout;
+
+	/**
+	 * Time in ms after which a member of a closed silent group channel is
+	 * moved to the group's history if it didn't come back
+	 */
+	private final long groupChannelEvictionGrace;
+
+	/**
+	 * Is true if several JATOS nodes share the group dispatching
+	 */
+	private final boolean multiNodeEnabled;
+
+	/**
+	 * Duration in ms of a node's lease on a group's GroupDispatcher
+	 */
+	private final long multiNodeLeaseDuration;
+
 	@Inject
 	Common(Application application, Configuration configuration) {
 		this.basepath = fillBasePath(application);
 		this.studyAssetsRootPath = fillStudyAssetsRootPath(configuration);
 		this.inMemoryDb = configuration.getString("db.default.url").contains(
 				"jdbc:h2:mem:");
+		this.resultJournalEnabled = configuration
+				.getBoolean(PROPERTY_RESULT_JOURNAL_ENABLED, false);
+		this.resultJournalPath = fillPath(configuration,
+				PROPERTY_RESULT_JOURNAL_PATH, DEFAULT_RESULT_JOURNAL_PATH);
+		this.lobCompressionEnabled = configuration
+				.getBoolean(PROPERTY_LOB_COMPRESSION_ENABLED, false);
+		this.lobCompressionMigrate = lobCompressionEnabled && configuration
+				.getBoolean(PROPERTY_LOB_COMPRESSION_MIGRATE, false);
+		this.resultDataFileStoreEnabled = configuration
+				.getBoolean(PROPERTY_RESULT_DATA_FILE_STORE_ENABLED, false);
+		this.resultDataFileStorePath = fillPath(configuration,
+				PROPERTY_RESULT_DATA_FILE_STORE_PATH,
+				DEFAULT_RESULT_DATA_FILE_STORE_PATH);
+		this.groupSessionPersistInterval = configuration.getMilliseconds(
+				PROPERTY_GROUP_SESSION_PERSIST_INTERVAL,
+				DEFAULT_GROUP_SESSION_PERSIST_INTERVAL);
+		this.groupChannelOutboundQueueSize = configuration.getInt(
+				PROPERTY_GROUP_CHANNEL_OUTBOUND_QUEUE_SIZE,
+				DEFAULT_GROUP_CHANNEL_OUTBOUND_QUEUE_SIZE);
+		this.groupChannelOutboundRate = configuration.getInt(
+				PROPERTY_GROUP_CHANNEL_OUTBOUND_RATE,
+				DEFAULT_GROUP_CHANNEL_OUTBOUND_RATE);
+		this.groupChannelOverflowPolicy = configuration.getString(
+				PROPERTY_GROUP_CHANNEL_OVERFLOW_POLICY,
+				DEFAULT_GROUP_CHANNEL_OVERFLOW_POLICY);
+		this.groupChannelInboundRate = configuration.getInt(
+				PROPERTY_GROUP_CHANNEL_INBOUND_RATE,
+				DEFAULT_GROUP_CHANNEL_INBOUND_RATE);
+		this.groupChannelReplayBufferSize = configuration.getInt(
+				PROPERTY_GROUP_CHANNEL_REPLAY_BUFFER_SIZE,
+				DEFAULT_GROUP_CHANNEL_REPLAY_BUFFER_SIZE);
+		this.groupChannelHeartbeatInterval = configuration.getMilliseconds(
+				PROPERTY_GROUP_CHANNEL_HEARTBEAT_INTERVAL,
+				DEFAULT_GROUP_CHANNEL_HEARTBEAT_INTERVAL);
+		this.groupChannelHeartbeatTimeout = configuration.getMilliseconds(
+				PROPERTY_GROUP_CHANNEL_HEARTBEAT_TIMEOUT,
+				DEFAULT_GROUP_CHANNEL_HEARTBEAT_TIMEOUT);
+		this.groupChannelEvictionGrace = configuration.getMilliseconds(
+				PROPERTY_GROUP_CHANNEL_EVICTION_GRACE,
+				DEFAULT_GROUP_CHANNEL_EVICTION_GRACE);
+		this.multiNodeEnabled = configuration
+				.getBoolean(PROPERTY_MULTI_NODE_ENABLED, false);
+		this.multiNodeLeaseDuration = configuration.getMilliseconds(
+				PROPERTY_MULTI_NODE_LEASE_DURATION,
+				DEFAULT_MULTI_NODE_LEASE_DURATION);
 	}
 
 	private String fillBasePath(Application application) {
@@ -94,6 +370,24 @@ public class Common {
 		return tempStudyAssetsRootPath;
 	}
 
+	/**
+	 * Reads a path from the config or takes the default one. Relative paths
+	 * are relative to JATOS' base path.
+	 */
+	private String fillPath(Configuration configuration, String property,
+			String defaultPath) {
+		String tempPath = configuration.getString(property);
+		if (tempPath == null || tempPath.trim().isEmpty()) {
+			tempPath = defaultPath;
+		}
+		tempPath = tempPath.replace("~", System.getProperty("user.home"))
+				.replace("/", File.separator);
+		if (!tempPath.startsWith(File.separator)) {
+			tempPath = this.basepath + File.separator + tempPath;
+		}
+		return tempPath;
+	}
+
 	public String getBasepath() {
 		return basepath;
 	}
@@ -106,4 +400,72 @@ public class Common {
 		return inMemoryDb;
 	}
 
+	public boolean isResultJournalEnabled() {
+		return resultJournalEnabled;
+	}
+
+	public String getResultJournalPath() {
+		return resultJournalPath;
+	}
+
+	public boolean isLobCompressionEnabled() {
+		return lobCompressionEnabled;
+	}
+
+	public boolean isLobCompressionMigrate() {
+		return lobCompressionMigrate;
+	}
+
+	public boolean isResultDataFileStoreEnabled() {
+		return resultDataFileStoreEnabled;
+	}
+
+	public String getResultDataFileStorePath() {
+		return resultDataFileStorePath;
+	}
+
+	public long getGroupSessionPersistInterval() {
+		return groupSessionPersistInterval;
+	}
+
+	public int getGroupChannelOutboundQueueSize() {
+		return groupChannelOutboundQueueSize;
+	}
+
+	public int getGroupChannelOutboundRate() {
+		return groupChannelOutboundRate;
+	}
+
+	public String getGroupChannelOverflowPolicy() {
+		return groupChannelOverflowPolicy;
+	}
+
+	public int getGroupChannelInboundRate() {
+		return groupChannelInboundRate;
+	}
+
+	public int getGroupChannelReplayBufferSize() {
+		return groupChannelReplayBufferSize;
+	}
+
+	public long getGroupChannelHeartbeatInterval() {
+		return groupChannelHeartbeatInterval;
+	}
+
+	public long getGroupChannelHeartbeatTimeout() {
+		return groupChannelHeartbeatTimeout;
+	}
+
+	public long getGroupChannelEvictionGrace() {
+		return groupChannelEvictionGrace;
+	}
+
+	public boolean isMultiNodeEnabled() {
+		return multiNodeEnabled;
+	}
+
+	public long getMultiNodeLeaseDuration() {
+		return multiNodeLeaseDuration;
+	}
+
 }
@@ -45,6 +45,9 @@ public class MessagesStrings {
 	public static final String BATCH_MAX_TOTAL_MEMBERS = "Group's max total members size must be greater or equal than the max active member size.";
 	public static final String BATCH_MAX_TOTAL_WORKER_SET = "Batch's max total worker size must be set if you want to limit it.";
 	public static final String BATCH_MAX_TOTAL_WORKERS = "Batch's max total worker size must be at least 1.";
+	public static final String BATCH_MIN_START_MEMBERS_SET = "Group's min start members size must be set if you want a waiting room.";
+	public static final String BATCH_MIN_START_MEMBERS = "Group's min start members size must be at least 1 and not greater than the max active or max total member size.";
+	public static final String BATCH_GROUP_MATCHING_ATTRIBUTE_SET = "The name of the URL query parameter must be set if the group matching is by attribute.";
 	
 	// User
 	public static final String WRONG_OLD_PASSWORD = "Wrong old password";
@@ -53,6 +56,7 @@ public class MessagesStrings {
 	public static final String THIS_EMAIL_IS_ALREADY_REGISTERED = "This email address is already registered.";
 	public static final String YOUVE_BEEN_LOGGED_OUT = "You've been logged out";
 	public static final String ONLY_ADMIN_CAN_SEE_LOGS = "Only an admin can see the logs";
+	public static final String ONLY_ADMIN_CAN_SEE_METRICS = "Only an admin can see the metrics";
 	public static final String COULDNT_OPEN_LOG = "Couldn't open log file";
 
 	// Export / import
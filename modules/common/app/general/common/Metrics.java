@@ -0,0 +1,77 @@
+package general.common;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.inject.Singleton;
+
+/**
+ * Simple in-memory registry of JATOS' internal metrics. Counters are cheap to
+ * increment from many threads at once. Gauges are suppliers that are only
+ * evaluated when a snapshot is taken. All metrics are reset with every JATOS
+ * start. The admin can see them in the GUI under /jatos/admin/metrics.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class Metrics {
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+	/**
+	 * Increments the counter with the given name by one. Creates the counter
+	 * if it doesn't exist yet.
+	 */
+	public void increment(String name) {
+		add(name, 1);
+	}
+
+	/**
+	 * Adds the given delta to the counter with the given name. Creates the
+	 * counter if it doesn't exist yet.
+	 */
+	public void add(String name, long delta) {
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * Returns the current value of the counter with the given name or 0 if
+	 * there is no such counter.
+	 */
+	public long getCount(String name) {
+		LongAdder counter = counters.get(name);
+		return (counter != null) ? counter.sum() : 0;
+	}
+
+	/**
+	 * Registers a gauge under the given name. An already registered gauge with
+	 * the same name is replaced.
+	 */
+	public void registerGauge(String name, Supplier<? extends Number> gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Returns the current values of all counters and gauges sorted by their
+	 * names.
+	 */
+	public SortedMap<String, Number> snapshot() {
+		SortedMap<String, Number> snapshot = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().sum());
+		}
+		for (Map.Entry<String, Supplier<? extends Number>> entry : gauges
+				.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		return snapshot;
+	}
+
+}
@@ -3,9 +3,12 @@ package models.common;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -15,6 +18,9 @@ import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 
@@ -32,8 +38,20 @@ import utils.common.JsonUtils;
  */
 @Entity
 @Table(name = "Batch")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Batch {
 
+	/**
+	 * How a new member is matched with one of the open groups of this batch
+	 */
+	public enum GroupMatching {
+		FILL_FIRST, // Group with the most active members
+		BALANCED, // Group with the fewest active members
+		ROUND_ROBIN, // Next group in turn
+		ATTRIBUTE; // Group with the same tag (fill first within the tag)
+	}
+
 	@Id
 	@GeneratedValue
 	@JsonView({ JsonUtils.JsonForPublix.class })
@@ -92,6 +110,31 @@ public class Batch {
 	@JsonView({ JsonUtils.JsonForPublix.class, JsonUtils.JsonForIO.class })
 	private Integer maxTotalWorkers = null;
 
+	/**
+	 * How new members are matched with the open groups of this batch. If it's
+	 * null FILL_FIRST is used. This property is only used if this batch
+	 * belongs to a group study.
+	 */
+	@JsonView({ JsonUtils.JsonForPublix.class, JsonUtils.JsonForIO.class })
+	@Enumerated(EnumType.STRING)
+	private GroupMatching groupMatching = GroupMatching.FILL_FIRST;
+
+	/**
+	 * Name of the URL query parameter that holds a member's tag if
+	 * groupMatching is ATTRIBUTE. Only members with the same tag are matched.
+	 */
+	@JsonView({ JsonUtils.JsonForPublix.class, JsonUtils.JsonForIO.class })
+	private String groupMatchingAttribute = null;
+
+	/**
+	 * Number of members that have to be in a group before the group is started
+	 * (waiting room). Until then all new members are put into this group. If
+	 * there is no waiting room the value is null. This property is only used
+	 * if this batch belongs to a group study.
+	 */
+	@JsonView({ JsonUtils.JsonForPublix.class, JsonUtils.JsonForIO.class })
+	private Integer minStartMembers = null;
+
 	/**
 	 * Set of workers that is created in this batch. Workers can be created
 	 * before the study starts (PersonalMultipleWorker or PersonalSingleWorker)
@@ -112,6 +155,7 @@ public class Batch {
 	 */
 	@JsonView({ JsonUtils.JsonForPublix.class, JsonUtils.JsonForIO.class })
 	@ElementCollection
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	private Set<String> allowedWorkerTypes = new HashSet<>();
 
 	public Batch() {
@@ -181,6 +225,30 @@ public class Batch {
 		this.maxTotalWorkers = maxTotalWorkers;
 	}
 
+	public GroupMatching getGroupMatching() {
+		return groupMatching;
+	}
+
+	public void setGroupMatching(GroupMatching groupMatching) {
+		this.groupMatching = groupMatching;
+	}
+
+	public String getGroupMatchingAttribute() {
+		return groupMatchingAttribute;
+	}
+
+	public void setGroupMatchingAttribute(String groupMatchingAttribute) {
+		this.groupMatchingAttribute = groupMatchingAttribute;
+	}
+
+	public Integer getMinStartMembers() {
+		return minStartMembers;
+	}
+
+	public void setMinStartMembers(Integer minStartMembers) {
+		this.minStartMembers = minStartMembers;
+	}
+
 	public void setAllowedWorkerTypes(Set<String> allowedWorkerTypes) {
 		this.allowedWorkerTypes = allowedWorkerTypes;
 	}
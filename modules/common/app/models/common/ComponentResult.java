@@ -4,6 +4,7 @@ import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Date;
 
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
@@ -14,6 +15,8 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -23,9 +26,15 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  * Domain model / entity of a component result. It's used by JPA and JSON
  * marshaling.
  * 
+ * Updates write only the changed columns (@DynamicUpdate): large result data
+ * are streamed directly into the data column (see
+ * ComponentResultDao.updateData) and must not be overwritten by a later update
+ * of e.g. the component state.
+ * 
  * @author Kristian Lange
  */
 @Entity
+@DynamicUpdate
 @Table(name = "ComponentResult")
 @JsonPropertyOrder(value = { "id", "startDate", "workerId", "workerType",
 		"componentState" })
@@ -92,9 +101,23 @@ public class ComponentResult {
 	 * component. It can be any string and doesn't have to be in JSON format.
 	 */
 	@Lob
+	@Convert(converter = CompressedLobConverter.class)
 	@JsonIgnore
 	private String data;
 
+	/**
+	 * If the result data are stored in the ResultDataFileStore instead of in
+	 * 'data' this is their reference (hash of their content). Otherwise null.
+	 */
+	@JsonIgnore
+	private String dataRef;
+
+	/**
+	 * Size in bytes of the result data in the ResultDataFileStore
+	 */
+	@JsonIgnore
+	private Long dataSize;
+
 	/**
 	 * Error message in case something went wrong with the component (state is
 	 * FAIL). Can be left null.
@@ -160,14 +183,43 @@ public class ComponentResult {
 		return this.component;
 	}
 
+	/**
+	 * Sets the result data. A reference to data in the ResultDataFileStore is
+	 * removed.
+	 */
 	public void setData(String data) {
 		this.data = data;
+		this.dataRef = null;
+		this.dataSize = null;
 	}
 
+	/**
+	 * Returns the result data if they are stored in the database. Use
+	 * {@link #getDataRef()} to check whether they are in the
+	 * ResultDataFileStore.
+	 */
 	public String getData() {
 		return this.data;
 	}
 
+	/**
+	 * Sets a reference to result data in the ResultDataFileStore. Data in the
+	 * database are removed.
+	 */
+	public void setDataRef(String dataRef, long dataSize) {
+		this.data = null;
+		this.dataRef = dataRef;
+		this.dataSize = dataSize;
+	}
+
+	public String getDataRef() {
+		return this.dataRef;
+	}
+
+	public Long getDataSize() {
+		return this.dataSize;
+	}
+
 	public void setErrorMsg(String errorMsg) {
 		this.errorMsg = errorMsg;
 	}
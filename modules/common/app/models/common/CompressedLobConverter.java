@@ -0,0 +1,38 @@
+package models.common;
+
+import javax.inject.Inject;
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import utils.common.LobCodec;
+
+/**
+ * JPA converter for large text columns that are stored compressed (see
+ * {@link LobCodec}). It has to be applied explicitly with
+ * '@Convert(converter = CompressedLobConverter.class)'.
+ *
+ * Hibernate and not Guice creates the converter. It gets the configured
+ * LobCodec by Guice's static injection (requested in GuiceConfig), which
+ * happens during the creation of the injector before any other component is
+ * created. Without Guice nothing is compressed.
+ *
+ * @author Kristian Lange
+ */
+@Converter
+public class CompressedLobConverter
+		implements AttributeConverter<String, String> {
+
+	@Inject
+	private static LobCodec lobCodec = new LobCodec(false);
+
+	@Override
+	public String convertToDatabaseColumn(String attribute) {
+		return lobCodec.encode(attribute);
+	}
+
+	@Override
+	public String convertToEntityAttribute(String dbData) {
+		return LobCodec.decode(dbData);
+	}
+
+}
@@ -0,0 +1,81 @@
+package models.common;
+
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Model and DB entity of a lease on a group's GroupDispatcher. If several
+ * JATOS nodes share the group dispatching, only the node that holds the lease
+ * of a group runs its GroupDispatcher. The other nodes forward the messages of
+ * their group channels to this node. A lease has to be renewed before it
+ * expires - otherwise another node can take it over.
+ * 
+ * @author Kristian Lange
+ */
+@Entity
+@Table(name = "GroupDispatcherLease")
+public class GroupDispatcherLease {
+
+	/**
+	 * ID of the GroupResult whose GroupDispatcher is leased
+	 */
+	@Id
+	private Long groupResultId;
+
+	/**
+	 * Akka address of the JATOS node that holds the lease, e.g.
+	 * akka.tcp://application@10.0.0.1:2552
+	 */
+	@Column(nullable = false)
+	private String owner;
+
+	/**
+	 * Time and date when the lease expires if it isn't renewed
+	 */
+	@Column(nullable = false)
+	private Timestamp expires;
+
+	public GroupDispatcherLease() {
+	}
+
+	public GroupDispatcherLease(Long groupResultId, String owner,
+			Timestamp expires) {
+		this.groupResultId = groupResultId;
+		this.owner = owner;
+		this.expires = expires;
+	}
+
+	public Long getGroupResultId() {
+		return groupResultId;
+	}
+
+	public void setGroupResultId(Long groupResultId) {
+		this.groupResultId = groupResultId;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public Timestamp getExpires() {
+		return expires;
+	}
+
+	public void setExpires(Timestamp expires) {
+		this.expires = expires;
+	}
+
+	@Override
+	public String toString() {
+		return groupResultId + " " + owner + " " + expires;
+	}
+
+}
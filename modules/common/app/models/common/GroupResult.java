@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
@@ -18,6 +19,7 @@ import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
  * Model and DB entity of a group result. A group result defines some properties
@@ -64,19 +66,53 @@ public class GroupResult {
 	 * groupSessionData. It will be deleted after the group is finished. It's
 	 * stored as a normal string but jatos.js is converting it into JSON. We use
 	 * versioning to prevent concurrent changes of the data. It's initialised
-	 * with an empty JSON object.
+	 * with an empty JSON object. It's not updatable: it's only written by the
+	 * GroupResultDao's targeted updates, so merging a stale GroupResult can't
+	 * overwrite it.
 	 */
 	@Lob
+	@Convert(converter = CompressedLobConverter.class)
+	@Column(updatable = false)
 	private String groupSessionData = "{}";
 
 	/**
 	 * Current version of the groupSessionData. With each change of the data it
 	 * is increased by 1. We use versioning to prevent concurrent changes of the
-	 * data.
+	 * data. Not updatable like the groupSessionData.
 	 */
-	@Column(nullable = false)
+	@Column(nullable = false, updatable = false)
 	private Long groupSessionVersion = 1l;
 
+	/**
+	 * Tag of the members of this group if the batch matches its members by
+	 * an attribute (Batch.GroupMatching.ATTRIBUTE). It's the tag of the member
+	 * who created the group. Null otherwise.
+	 */
+	private String matchingTag;
+
+	/**
+	 * Snapshot of this group's GroupDispatcher: the epoch and the sequence
+	 * number of the last message sent to all members. It's written
+	 * periodically while the GroupDispatcher runs. If dispatcherStopped is
+	 * true the GroupDispatcher stopped orderly and the snapshot is exact - a
+	 * new GroupDispatcher can continue with it and the members can resume.
+	 * Otherwise messages might have been sent after the last snapshot. A
+	 * change of the active members makes it inexact too: while no
+	 * GroupDispatcher runs it doesn't get a sequence number. Not updatable
+	 * like the groupSessionData.
+	 */
+	@JsonIgnore
+	@Column(updatable = false)
+	private Long dispatcherEpoch;
+
+	@JsonIgnore
+	@Column(updatable = false)
+	private Long dispatcherSeq;
+
+	@JsonIgnore
+	@Column(updatable = false)
+	private boolean dispatcherStopped = false;
+
 	@OneToOne(fetch = FetchType.LAZY)
 	@JoinColumn(name = "batch_id")
 	private Batch batch;
@@ -153,6 +189,38 @@ public class GroupResult {
 		this.groupSessionVersion = groupSessionVersion;
 	}
 
+	public String getMatchingTag() {
+		return matchingTag;
+	}
+
+	public void setMatchingTag(String matchingTag) {
+		this.matchingTag = matchingTag;
+	}
+
+	public Long getDispatcherEpoch() {
+		return dispatcherEpoch;
+	}
+
+	public void setDispatcherEpoch(Long dispatcherEpoch) {
+		this.dispatcherEpoch = dispatcherEpoch;
+	}
+
+	public Long getDispatcherSeq() {
+		return dispatcherSeq;
+	}
+
+	public void setDispatcherSeq(Long dispatcherSeq) {
+		this.dispatcherSeq = dispatcherSeq;
+	}
+
+	public boolean isDispatcherStopped() {
+		return dispatcherStopped;
+	}
+
+	public void setDispatcherStopped(boolean dispatcherStopped) {
+		this.dispatcherStopped = dispatcherStopped;
+	}
+
 	public Batch getBatch() {
 		return batch;
 	}
@@ -187,10 +255,12 @@ public class GroupResult {
 
 	public void removeActiveMember(StudyResult studyResult) {
 		activeMemberList.remove(studyResult);
+		this.dispatcherStopped = false;
 	}
 
 	public void addActiveMember(StudyResult studyResult) {
 		activeMemberList.add(studyResult);
+		this.dispatcherStopped = false;
 	}
 
 	public void setHistoryMemberList(Set<StudyResult> historyMemberList) {
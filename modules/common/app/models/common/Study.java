@@ -6,7 +6,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
@@ -19,6 +21,9 @@ import javax.persistence.OneToMany;
 import javax.persistence.OrderColumn;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
@@ -43,6 +48,8 @@ import utils.common.JsonUtils;
  */
 @Entity
 @Table(name = "Study")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Study {
 
 	/**
@@ -111,6 +118,7 @@ public class Study {
 	 * Data in JSON format that are responded after public APIs 'getData' call.
 	 */
 	@Lob
+	@Convert(converter = CompressedLobConverter.class)
 	@JsonView({ JsonUtils.JsonForPublix.class, JsonUtils.JsonForIO.class })
 	private String jsonData;
 
@@ -133,6 +141,7 @@ public class Study {
 	@OneToMany(fetch = FetchType.LAZY)
 	@OrderColumn(name = "componentList_order")
 	@JoinColumn(name = "study_id")
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	// Not using mappedBy because of
 	// http://stackoverflow.com/questions/2956171/jpa-2-0-ordercolumn-annotation-in-hibernate-3-5
 	private List<Component> componentList = new ArrayList<>();
@@ -144,6 +153,7 @@ public class Study {
 	@OneToMany(fetch = FetchType.LAZY)
 	@OrderColumn(name = "batchList_order")
 	@JoinColumn(name = "study_id")
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	// Not using mappedBy because of
 	// http://stackoverflow.com/questions/2956171/jpa-2-0-ordercolumn-annotation-in-hibernate-3-5
 	private List<Batch> batchList = new ArrayList<>();
@@ -6,6 +6,8 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
+import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
@@ -78,8 +80,18 @@ public class StudyResult {
 	 * into JSON. It's initialised with an empty JSON object.
 	 */
 	@Lob
+	@Convert(converter = CompressedLobConverter.class)
 	private String studySessionData = "{}";
 
+	/**
+	 * Version of the studySessionData: it's increased by 1 with each change of
+	 * the data. Caches of data that contain the study session data (e.g. the
+	 * init data's ETag) use it instead of looking at the data themselves.
+	 */
+	@JsonIgnore
+	@Column(nullable = false)
+	private Long studySessionVersion = 1l;
+
 	/**
 	 * Study this StudyResult belongs to. This relationship is unidirectional.
 	 */
@@ -110,7 +122,7 @@ public class StudyResult {
 
 	@JsonIgnore
 	@ManyToOne(fetch = FetchType.LAZY)
-	@JoinColumn(name = "worker_id", insertable = false, updatable = false, nullable = false)
+	@JoinColumn(name = "worker_id", nullable = false)
 	private Worker worker;
 
 	/**
@@ -199,12 +211,17 @@ public class StudyResult {
 
 	public void setStudySessionData(String studySessionData) {
 		this.studySessionData = studySessionData;
+		this.studySessionVersion++;
 	}
 
 	public String getStudySessionData() {
 		return this.studySessionData;
 	}
 
+	public Long getStudySessionVersion() {
+		return studySessionVersion;
+	}
+
 	public void setStudy(Study study) {
 		this.study = study;
 	}
@@ -12,9 +12,8 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
-import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
-import javax.persistence.OrderColumn;
+import javax.persistence.OrderBy;
 import javax.persistence.Table;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -53,15 +52,14 @@ public abstract class Worker {
 	private Long id;
 
 	/**
-	 * Ordered list of StudyResults this worker has produced while running
-	 * studies. This relationship is bidirectional.
+	 * List of StudyResults this worker has produced while running studies,
+	 * ordered by their creation (ID). This relationship is bidirectional and
+	 * owned by StudyResult.worker. Lookups of a single StudyResult should use
+	 * StudyResultDao's queries instead of loading this list.
 	 */
 	@JsonIgnore
-	@OneToMany(fetch = FetchType.LAZY)
-	@OrderColumn(name = "studyResultList_order")
-	@JoinColumn(name = "worker_id")
-	// Not using mappedBy because of
-	// http://stackoverflow.com/questions/2956171/jpa-2-0-ordercolumn-annotation-in-hibernate-3-5
+	@OneToMany(mappedBy = "worker", fetch = FetchType.LAZY)
+	@OrderBy("id")
 	private List<StudyResult> studyResultList = new ArrayList<>();
 
 	public Worker() {
@@ -123,6 +121,7 @@ public abstract class Worker {
 	}
 
 	public void addStudyResult(StudyResult studyResult) {
+		studyResult.setWorker(this);
 		studyResultList.add(studyResult);
 	}
 
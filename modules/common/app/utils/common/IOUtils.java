@@ -41,6 +41,13 @@ public class IOUtils {
 
 	private static final int MAX_FILENAME_LENGTH = 100;
 
+	/**
+	 * Directory within the study assets root where compressed copies of study
+	 * assets files are cached (StudyAssetsCompressor). It starts with a '.'
+	 * and therefore can't be a study assets directory.
+	 */
+	public static final String COMPRESSED_DIR_NAME = ".compressed";
+
 	private final Common common;
 
 	@Inject
@@ -185,7 +192,8 @@ public class IOUtils {
 	}
 
 	/**
-	 * Remove study assets' directory if exists.
+	 * Remove study assets' directory if exists - together with its cached
+	 * compressed files.
 	 */
 	public void removeStudyAssetsDir(String dirName) throws IOException {
 		File dir = getFileSecurely(common.getStudyAssetsRootPath(), dirName);
@@ -196,6 +204,41 @@ public class IOUtils {
 			throw new IOException(MessagesStrings.dirPathIsntDir(dir.getName()));
 		}
 		FileUtils.deleteDirectory(dir);
+		removeCompressedFiles(dirName, "");
+	}
+
+	/**
+	 * Removes the cached compressed files of the given study assets directory
+	 * (filePath is empty) or of one file within it. Nothing would delete them
+	 * otherwise. The cached files of a file have its name followed by the
+	 * file's size and modification time.
+	 */
+	private void removeCompressedFiles(String dirName, String filePath)
+			throws IOException {
+		String compressedRootPath = generateStudyAssetsPath(COMPRESSED_DIR_NAME);
+		if (dirName.trim().isEmpty()
+				|| !new File(compressedRootPath).isDirectory()) {
+			return;
+		}
+		File compressedDir = getFileSecurely(compressedRootPath, dirName);
+		if (filePath.trim().isEmpty()) {
+			FileUtils.deleteQuietly(compressedDir);
+			return;
+		}
+		if (!compressedDir.isDirectory()) {
+			return;
+		}
+		File compressedFile = getFileSecurely(
+				compressedDir.getAbsolutePath(), filePath);
+		File parentDir = compressedFile.getParentFile();
+		String prefix = compressedFile.getName() + ".";
+		File[] files = parentDir.listFiles((dir, name) -> name.startsWith(prefix)
+				&& name.substring(prefix.length()).matches("\\d+-\\d+\\.gz"));
+		if (files != null) {
+			for (File file : files) {
+				FileUtils.deleteQuietly(file);
+			}
+		}
 	}
 
 	/**
@@ -300,6 +343,8 @@ public class IOUtils {
 							.studyAssetsDirNotCreatedBecauseExists(targetDir
 									.getName()));
 		}
+		// Left over from an earlier study assets dir with the same name
+		removeCompressedFiles(targetDirName, "");
 		FileUtils.moveDirectory(srcDir, targetDir);
 	}
 
@@ -366,6 +411,7 @@ public class IOUtils {
 			throw new IOException(MessagesStrings.studyAssetsDirNotRenamed(
 					oldDir.getName(), newDir.getName()));
 		}
+		removeCompressedFiles(oldDirName, "");
 	}
 
 	/**
@@ -403,6 +449,7 @@ public class IOUtils {
 			throw new IOException(MessagesStrings.htmlFileNotRenamed(
 					oldHtmlFilePath, newHtmlFilePath));
 		}
+		removeCompressedFiles(studyAssetName, oldHtmlFilePath);
 	}
 
 	/**
@@ -0,0 +1,269 @@
+package utils.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Applies a JSON Patch (RFC 6902) to a JSON document. All six operations (add,
+ * remove, replace, move, copy, test) are supported. Paths are JSON Pointers
+ * (RFC 6901). The operations are applied in order to a copy of the document:
+ * if one of them fails none of them is applied and the given document stays
+ * unchanged.
+ *
+ * @author Kristian Lange
+ */
+public class JsonPatch {
+
+	public static final String OP = "op";
+	public static final String PATH = "path";
+	public static final String FROM = "from";
+	public static final String VALUE = "value";
+
+	/**
+	 * Applies the given patch to a copy of the given document and returns the
+	 * patched copy. A null document is treated like an empty JSON object.
+	 *
+	 * @param patch
+	 *            JSON array of patch operations
+	 * @param document
+	 *            JSON document the patch is applied to
+	 * @return The patched document
+	 * @throws JsonPatchException
+	 *             If the patch is malformed or one of its operations couldn't
+	 *             be applied (e.g. a path doesn't exist or a test failed)
+	 */
+	public static JsonNode apply(JsonNode patch, JsonNode document)
+			throws JsonPatchException {
+		if (patch == null || !patch.isArray()) {
+			throw new JsonPatchException(
+					"Patch must be an array of operations");
+		}
+		JsonNode result = (document != null) ? document.deepCopy()
+				: JsonUtils.OBJECTMAPPER.createObjectNode();
+		for (JsonNode operation : patch) {
+			result = applyOperation(operation, result);
+		}
+		return result;
+	}
+
+	private static JsonNode applyOperation(JsonNode operation,
+			JsonNode document) throws JsonPatchException {
+		if (operation == null || !operation.isObject()) {
+			throw new JsonPatchException("Operation must be an object");
+		}
+		String op = getText(operation, OP);
+		String pathPointer = getText(operation, PATH);
+		List<String> path = parsePointer(pathPointer);
+		switch (op) {
+		case "add":
+			return add(document, path, getValue(operation).deepCopy());
+		case "remove":
+			remove(document, path);
+			return document;
+		case "replace":
+			return replace(document, path, getValue(operation).deepCopy());
+		case "move": {
+			List<String> from = parsePointer(getText(operation, FROM));
+			if (from.equals(path)) {
+				// Checks that the value exists - otherwise nothing to do
+				get(document, from);
+				return document;
+			}
+			if (isPrefix(from, path)) {
+				throw new JsonPatchException("Can't move " + toPointer(from)
+						+ " into one of its children");
+			}
+			JsonNode value = remove(document, from);
+			return add(document, path, value);
+		}
+		case "copy": {
+			List<String> from = parsePointer(getText(operation, FROM));
+			return add(document, path, get(document, from).deepCopy());
+		}
+		case "test":
+			if (!get(document, path).equals(getValue(operation))) {
+				throw new JsonPatchException(
+						"Test failed at " + pathPointer);
+			}
+			return document;
+		default:
+			throw new JsonPatchException("Unknown operation " + op);
+		}
+	}
+
+	private static JsonNode add(JsonNode document, List<String> path,
+			JsonNode value) throws JsonPatchException {
+		if (path.isEmpty()) {
+			return value;
+		}
+		JsonNode parent = getParent(document, path);
+		String token = path.get(path.size() - 1);
+		if (parent.isObject()) {
+			((ObjectNode) parent).set(token, value);
+		} else {
+			ArrayNode array = (ArrayNode) parent;
+			if ("-".equals(token)) {
+				array.add(value);
+			} else {
+				array.insert(parseIndex(token, array.size(), path), value);
+			}
+		}
+		return document;
+	}
+
+	/**
+	 * Removes the value at the given path and returns it
+	 */
+	private static JsonNode remove(JsonNode document, List<String> path)
+			throws JsonPatchException {
+		if (path.isEmpty()) {
+			throw new JsonPatchException("Can't remove the whole document");
+		}
+		JsonNode parent = getParent(document, path);
+		String token = path.get(path.size() - 1);
+		if (parent.isObject()) {
+			if (!parent.has(token)) {
+				throw new JsonPatchException("No value at " + toPointer(path));
+			}
+			return ((ObjectNode) parent).remove(token);
+		} else {
+			ArrayNode array = (ArrayNode) parent;
+			return array.remove(parseIndex(token, array.size() - 1, path));
+		}
+	}
+
+	private static JsonNode replace(JsonNode document, List<String> path,
+			JsonNode value) throws JsonPatchException {
+		if (path.isEmpty()) {
+			return value;
+		}
+		JsonNode parent = getParent(document, path);
+		String token = path.get(path.size() - 1);
+		if (parent.isObject()) {
+			if (!parent.has(token)) {
+				throw new JsonPatchException("No value at " + toPointer(path));
+			}
+			((ObjectNode) parent).set(token, value);
+		} else {
+			ArrayNode array = (ArrayNode) parent;
+			array.set(parseIndex(token, array.size() - 1, path), value);
+		}
+		return document;
+	}
+
+	/**
+	 * Returns the object or array that contains the last token of the path
+	 */
+	private static JsonNode getParent(JsonNode document, List<String> path)
+			throws JsonPatchException {
+		JsonNode parent = get(document, path.subList(0, path.size() - 1));
+		if (!parent.isObject() && !parent.isArray()) {
+			throw new JsonPatchException(
+					"No object or array at parent of " + toPointer(path));
+		}
+		return parent;
+	}
+
+	private static JsonNode get(JsonNode document, List<String> path)
+			throws JsonPatchException {
+		JsonNode node = document;
+		for (String token : path) {
+			if (node.isObject()) {
+				node = node.get(token);
+			} else if (node.isArray()) {
+				node = node.get(parseIndex(token, node.size() - 1, path));
+			} else {
+				node = null;
+			}
+			if (node == null) {
+				throw new JsonPatchException("No value at " + toPointer(path));
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Parses an array index. It must be between 0 and maxIndex.
+	 */
+	private static int parseIndex(String token, int maxIndex,
+			List<String> path) throws JsonPatchException {
+		if (!token.matches("0|[1-9][0-9]{0,8}")) {
+			throw new JsonPatchException(
+					"Invalid array index in " + toPointer(path));
+		}
+		int index = Integer.parseInt(token);
+		if (index > maxIndex) {
+			throw new JsonPatchException(
+					"Array index out of bounds in " + toPointer(path));
+		}
+		return index;
+	}
+
+	/**
+	 * Parses a JSON Pointer into its unescaped tokens
+	 */
+	private static List<String> parsePointer(String pointer)
+			throws JsonPatchException {
+		if (pointer.isEmpty()) {
+			return Collections.emptyList();
+		}
+		if (!pointer.startsWith("/")) {
+			throw new JsonPatchException("Invalid JSON Pointer " + pointer);
+		}
+		List<String> tokens = new ArrayList<>();
+		for (String token : pointer.substring(1).split("/", -1)) {
+			tokens.add(token.replace("~1", "/").replace("~0", "~"));
+		}
+		return tokens;
+	}
+
+	private static String toPointer(List<String> path) {
+		StringBuilder pointer = new StringBuilder();
+		for (String token : path) {
+			pointer.append('/')
+					.append(token.replace("~", "~0").replace("/", "~1"));
+		}
+		return pointer.toString();
+	}
+
+	private static boolean isPrefix(List<String> prefix, List<String> path) {
+		return prefix.size() < path.size()
+				&& path.subList(0, prefix.size()).equals(prefix);
+	}
+
+	private static String getText(JsonNode operation, String field)
+			throws JsonPatchException {
+		JsonNode node = operation.get(field);
+		if (node == null || !node.isTextual()) {
+			throw new JsonPatchException("Operation needs '" + field + "'");
+		}
+		return node.asText();
+	}
+
+	private static JsonNode getValue(JsonNode operation)
+			throws JsonPatchException {
+		JsonNode value = operation.get(VALUE);
+		if (value == null) {
+			throw new JsonPatchException("Operation needs '" + VALUE + "'");
+		}
+		return value;
+	}
+
+	/**
+	 * Thrown if a patch is malformed or couldn't be applied
+	 */
+	public static class JsonPatchException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		public JsonPatchException(String message) {
+			super(message);
+		}
+	}
+
+}
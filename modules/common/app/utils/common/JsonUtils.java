@@ -1,7 +1,9 @@
 package utils.common;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -10,6 +12,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.hibernate.Hibernate;
@@ -23,6 +26,7 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import daos.common.ResultDataFileStore;
 import models.common.Batch;
 import models.common.Component;
 import models.common.ComponentResult;
@@ -54,6 +58,13 @@ public class JsonUtils {
 	public static final ObjectMapper OBJECTMAPPER = new ObjectMapper()
 			.setTimeZone(TimeZone.getDefault());
 
+	private final ResultDataFileStore resultDataFileStore;
+
+	@Inject
+	JsonUtils(ResultDataFileStore resultDataFileStore) {
+		this.resultDataFileStore = resultDataFileStore;
+	}
+
 	/**
 	 * Helper class for selectively marshaling an Object to JSON. Only fields of
 	 * that Object that are annotated with this class will be serialised. The
@@ -125,36 +136,56 @@ public class JsonUtils {
 		return valid;
 	}
 
+	/**
+	 * Marshalling an Object into JSON as UTF-8 bytes. It only considers fields
+	 * that are annotated with 'JsonForPublix'.
+	 */
+	public byte[] asJsonBytesForPublix(Object obj)
+			throws JsonProcessingException {
+		ObjectWriter objectWriter = OBJECTMAPPER
+				.writerWithView(JsonForPublix.class);
+		return objectWriter.writeValueAsBytes(obj);
+	}
+
 	/**
 	 * Returns init data that are requested during initialisation of each
-	 * component run: Marshals the study properties and the component properties
-	 * and puts them together with the session data (stored in StudyResult) into
-	 * a new JSON object.
+	 * component run: Puts the already marshaled study properties, batch
+	 * properties, component list and component properties together with the
+	 * session data (stored in StudyResult) into a new JSON object. The
+	 * marshaled parts are copied as they are and not parsed again.
 	 */
-	public JsonNode initData(Batch batch, StudyResult studyResult, Study study,
-			Component component) throws IOException {
-		String studyProperties = asJsonForPublix(study);
-		String batchProperties = asJsonForPublix(batch);
-		ArrayNode componentList = getComponentListForInitData(study);
-		String componentProperties = asJsonForPublix(component);
-		String studySessionData = studyResult.getStudySessionData();
-		ObjectNode initData = OBJECTMAPPER.createObjectNode();
-		initData.put("studySessionData", studySessionData);
-		// This is ugly: first marshaling, now unmarshaling again
-		initData.set("studyProperties", OBJECTMAPPER.readTree(studyProperties));
-		initData.set("batchProperties", OBJECTMAPPER.readTree(batchProperties));
-		initData.set("componentList", componentList);
-		initData.set("componentProperties",
-				OBJECTMAPPER.readTree(componentProperties));
-		return initData;
+	public byte[] initData(byte[] studyProperties, byte[] batchProperties,
+			byte[] componentList, byte[] componentProperties,
+			String studySessionData) throws IOException {
+		byte[] studySessionDataJson = OBJECTMAPPER
+				.writeValueAsBytes(studySessionData);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				studySessionDataJson.length + studyProperties.length
+						+ batchProperties.length + componentList.length
+						+ componentProperties.length + 128);
+		writeJsonField(out, "{\"studySessionData\":", studySessionDataJson);
+		writeJsonField(out, ",\"studyProperties\":", studyProperties);
+		writeJsonField(out, ",\"batchProperties\":", batchProperties);
+		writeJsonField(out, ",\"componentList\":", componentList);
+		writeJsonField(out, ",\"componentProperties\":",
+				componentProperties);
+		out.write('}');
+		return out.toByteArray();
+	}
+
+	private void writeJsonField(ByteArrayOutputStream out, String prefix,
+			byte[] value) throws IOException {
+		out.write(prefix.getBytes(StandardCharsets.UTF_8));
+		out.write(value);
 	}
 
 	/**
-	 * Returns an JSON ArrayNode with with a component list intended for use in
+	 * Returns JSON (as UTF-8 bytes) with a component list intended for use in
 	 * jatos.js initData. For each component it adds only the bare minimum of
 	 * data.
 	 */
-	private ArrayNode getComponentListForInitData(Study study) {
+	public byte[] componentListForInitData(Study study)
+			throws JsonProcessingException {
 		ArrayNode componentList = OBJECTMAPPER.createArrayNode();
 		for (Component tempComponent : study.getComponentList()) {
 			ObjectNode componentNode = OBJECTMAPPER.createObjectNode();
@@ -164,7 +195,7 @@ public class JsonUtils {
 			componentNode.put("reloadable", tempComponent.isReloadable());
 			componentList.add(componentNode);
 		}
-		return componentList;
+		return OBJECTMAPPER.writeValueAsBytes(componentList);
 	}
 
 	/**
@@ -174,6 +205,17 @@ public class JsonUtils {
 	public String componentResultDataForUI(ComponentResult componentResult) {
 		final int MAX_CHAR_PER_RESULT = 1000;
 		String data = componentResult.getData();
+		if (componentResult.getDataRef() != null) {
+			// Read only the beginning from the file store
+			StringBuilder sb = new StringBuilder();
+			try {
+				resultDataFileStore.appendTo(componentResult.getDataRef(), sb,
+						MAX_CHAR_PER_RESULT + 1);
+				data = sb.toString();
+			} catch (IOException e) {
+				Logger.error(CLASS_NAME + ".componentResultDataForUI", e);
+			}
+		}
 		if (data != null) {
 			// Escape HTML tags and &
 			data = data.replace("&", "&amp").replace("<", "&lt;").replace(">",
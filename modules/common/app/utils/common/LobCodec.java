@@ -0,0 +1,218 @@
+package utils.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import general.common.Common;
+
+/**
+ * Compression of large text columns (result data, session data, study JSON
+ * data). A compressed value starts with a format header followed by the
+ * Base64 encoded deflate stream. Values without the header are plain text -
+ * that's how rows written before compression existed stay readable. Short or
+ * incompressible values are stored as plain text too.
+ *
+ * A plain value that starts with the header's control character (e.g. result
+ * data posted with a forged header) would be mistaken for an encoded value.
+ * It's stored behind its own header (PLAIN_HEADER) instead.
+ *
+ * Compression is off by default (jatos.lobCompression.enabled) - compressed
+ * values are still decoded then. Whether values get compressed is fixed with
+ * the LobCodec's creation. Decoding and escaping don't depend on it and are
+ * static.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class LobCodec {
+
+	/**
+	 * Format header of deflate compressed values. It starts with a control
+	 * character that doesn't appear at the beginning of text, JSON or XML.
+	 */
+	public static final String DEFLATE_HEADER = "\u0001deflate:";
+
+	/**
+	 * Format header of plain values that start with HEADER_MARK themselves
+	 */
+	public static final String PLAIN_HEADER = "\u0001plain:";
+
+	/**
+	 * First character of every format header
+	 */
+	private static final char HEADER_MARK = '\u0001';
+
+	/**
+	 * Values shorter than this aren't worth compressing
+	 */
+	public static final int MIN_LENGTH = 512;
+
+	private final boolean compressionEnabled;
+
+	private final LongAdder compressedCount = new LongAdder();
+	private final LongAdder bytesBeforeCompression = new LongAdder();
+	private final LongAdder bytesAfterCompression = new LongAdder();
+
+	@Inject
+	LobCodec(Common common) {
+		this(common.isLobCompressionEnabled());
+	}
+
+	public LobCodec(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	public static boolean isCompressed(String value) {
+		return value != null && value.startsWith(DEFLATE_HEADER);
+	}
+
+	/**
+	 * Returns true if the given value from the database starts with a format
+	 * header (it's compressed or an escaped plain value)
+	 */
+	public static boolean isEncoded(String value) {
+		return value != null && !value.isEmpty()
+				&& value.charAt(0) == HEADER_MARK;
+	}
+
+	/**
+	 * Returns the value to store in the database: compressed if that's worth
+	 * it, otherwise unchanged - or behind PLAIN_HEADER if it could be mistaken
+	 * for an encoded value.
+	 */
+	public String encode(String value) {
+		if (value == null) {
+			return null;
+		}
+		String compressed = compress(value);
+		if (compressed != null) {
+			return compressed;
+		}
+		return isEncoded(value) ? PLAIN_HEADER + value : value;
+	}
+
+	/**
+	 * Like {@link #encode(String)} but for data that are streamed into the
+	 * database: they are never compressed, but a stream that could be mistaken
+	 * for an encoded value gets PLAIN_HEADER in front.
+	 */
+	public static Reader encode(Reader value) throws IOException {
+		PushbackReader reader = new PushbackReader(value,
+				PLAIN_HEADER.length() + 1);
+		int first = reader.read();
+		if (first == -1) {
+			return reader;
+		}
+		reader.unread(first);
+		if (first == HEADER_MARK) {
+			reader.unread(PLAIN_HEADER.toCharArray());
+		}
+		return reader;
+	}
+
+	/**
+	 * Returns the compressed value or null if compression is switched off or
+	 * not worth it
+	 */
+	private String compress(String value) {
+		if (!compressionEnabled || value.length() < MIN_LENGTH) {
+			return null;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				bytes.length / 4);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+			}
+		} finally {
+			deflater.end();
+		}
+		String encoded = DEFLATE_HEADER
+				+ Base64.getEncoder().encodeToString(out.toByteArray());
+		if (encoded.length() >= bytes.length) {
+			return null;
+		}
+		compressedCount.increment();
+		bytesBeforeCompression.add(bytes.length);
+		bytesAfterCompression.add(encoded.length());
+		return encoded;
+	}
+
+	/**
+	 * Returns the original value of a value read from the database
+	 */
+	public static String decode(String value) {
+		if (value != null && value.startsWith(PLAIN_HEADER)) {
+			return value.substring(PLAIN_HEADER.length());
+		}
+		if (!isCompressed(value)) {
+			return value;
+		}
+		byte[] compressed = Base64.getDecoder()
+				.decode(value.substring(DEFLATE_HEADER.length()));
+		Inflater inflater = new Inflater(true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				compressed.length * 4);
+		try {
+			inflater.setInput(compressed);
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput()
+						|| inflater.needsDictionary())) {
+					throw new IllegalStateException(
+							"Truncated compressed value");
+				}
+				out.write(buffer, 0, length);
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupt compressed value", e);
+		} finally {
+			inflater.end();
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Number of values that were compressed by this LobCodec
+	 */
+	public long getCompressedCount() {
+		return compressedCount.sum();
+	}
+
+	/**
+	 * UTF-8 size of all values that were compressed by this LobCodec
+	 */
+	public long getBytesBeforeCompression() {
+		return bytesBeforeCompression.sum();
+	}
+
+	/**
+	 * Size of all values compressed by this LobCodec
+	 */
+	public long getBytesAfterCompression() {
+		return bytesAfterCompression.sum();
+	}
+
+}
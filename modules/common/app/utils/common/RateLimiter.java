@@ -0,0 +1,81 @@
+package utils.common;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Simple token bucket: allows a number of permits per second and up to one
+ * second worth of permits at once (burst). A rate of 0 or less means
+ * unlimited.
+ *
+ * It's not thread-safe - it's meant to be used within one Akka Actor.
+ *
+ * @author Kristian Lange
+ */
+public class RateLimiter {
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private final boolean unlimited;
+	private final double permitsPerNano;
+	private final double maxPermits;
+	private final LongSupplier nanoClock;
+	private double permits;
+	private long lastRefill;
+
+	public RateLimiter(int permitsPerSecond) {
+		this(permitsPerSecond, System::nanoTime);
+	}
+
+	/**
+	 * @param permitsPerSecond
+	 *            Max number of permits per second
+	 * @param nanoClock
+	 *            Returns the current time in nanoseconds (e.g. System.nanoTime)
+	 */
+	public RateLimiter(int permitsPerSecond, LongSupplier nanoClock) {
+		this.unlimited = permitsPerSecond <= 0;
+		this.permitsPerNano = permitsPerSecond / NANOS_PER_SECOND;
+		this.maxPermits = permitsPerSecond;
+		this.nanoClock = nanoClock;
+		this.permits = maxPermits;
+		this.lastRefill = nanoClock.getAsLong();
+	}
+
+	/**
+	 * Takes one permit if there is one. Returns true if it got one.
+	 */
+	public boolean tryAcquire() {
+		if (unlimited) {
+			return true;
+		}
+		refill();
+		if (permits < 1) {
+			return false;
+		}
+		permits--;
+		return true;
+	}
+
+	/**
+	 * Returns the time in nanoseconds until the next permit is available (0 if
+	 * there is one right now).
+	 */
+	public long nanosUntilNextPermit() {
+		if (unlimited) {
+			return 0;
+		}
+		refill();
+		if (permits >= 1) {
+			return 0;
+		}
+		return (long) Math.ceil((1 - permits) / permitsPerNano);
+	}
+
+	private void refill() {
+		long now = nanoClock.getAsLong();
+		permits = Math.min(maxPermits,
+				permits + (now - lastRefill) * permitsPerNano);
+		lastRefill = now;
+	}
+
+}
@@ -0,0 +1,14 @@
+# Result data in the result data file store
+
+# --- !Ups
+
+ALTER TABLE `ComponentResult` ADD COLUMN `dataRef` varchar(64) DEFAULT NULL;
+ALTER TABLE `ComponentResult` ADD COLUMN `dataSize` bigint(20) DEFAULT NULL;
+ALTER TABLE `ComponentResult` ADD KEY `IDX_ComponentResult_dataRef` (`dataRef`);
+
+
+# --- !Downs
+
+DROP INDEX `IDX_ComponentResult_dataRef` ON `ComponentResult`;
+ALTER TABLE `ComponentResult` DROP COLUMN `dataSize`;
+ALTER TABLE `ComponentResult` DROP COLUMN `dataRef`;
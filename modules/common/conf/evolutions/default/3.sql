@@ -0,0 +1,10 @@
+# Index for looking up a worker's StudyResults of a study
+
+# --- !Ups
+
+ALTER TABLE `StudyResult` ADD KEY `IDX_StudyResult_worker_study` (`worker_id`,`study_id`);
+
+
+# --- !Downs
+
+DROP INDEX `IDX_StudyResult_worker_study` ON `StudyResult`;
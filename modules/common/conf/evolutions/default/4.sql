@@ -0,0 +1,16 @@
+# Group matching strategies and waiting rooms of batches
+
+# --- !Ups
+
+ALTER TABLE `Batch` ADD COLUMN `groupMatching` varchar(255) DEFAULT NULL;
+ALTER TABLE `Batch` ADD COLUMN `groupMatchingAttribute` varchar(255) DEFAULT NULL;
+ALTER TABLE `Batch` ADD COLUMN `minStartMembers` int(11) DEFAULT NULL;
+ALTER TABLE `GroupResult` ADD COLUMN `matchingTag` varchar(255) DEFAULT NULL;
+
+
+# --- !Downs
+
+ALTER TABLE `GroupResult` DROP COLUMN `matchingTag`;
+ALTER TABLE `Batch` DROP COLUMN `minStartMembers`;
+ALTER TABLE `Batch` DROP COLUMN `groupMatchingAttribute`;
+ALTER TABLE `Batch` DROP COLUMN `groupMatching`;
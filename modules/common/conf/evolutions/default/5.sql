@@ -0,0 +1,15 @@
+# Leases on GroupDispatchers for several JATOS nodes sharing the group dispatching
+
+# --- !Ups
+
+CREATE TABLE `GroupDispatcherLease` (
+  `groupResultId` bigint(20) NOT NULL,
+  `owner` varchar(255) NOT NULL,
+  `expires` datetime NOT NULL,
+  PRIMARY KEY (`groupResultId`)
+) DEFAULT CHARSET=utf8;
+
+
+# --- !Downs
+
+DROP TABLE `GroupDispatcherLease`;
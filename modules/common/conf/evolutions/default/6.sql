@@ -0,0 +1,14 @@
+# Snapshots of the GroupDispatchers
+
+# --- !Ups
+
+ALTER TABLE `GroupResult` ADD COLUMN `dispatcherEpoch` bigint(20) DEFAULT NULL;
+ALTER TABLE `GroupResult` ADD COLUMN `dispatcherSeq` bigint(20) DEFAULT NULL;
+ALTER TABLE `GroupResult` ADD COLUMN `dispatcherStopped` tinyint(1) NOT NULL DEFAULT 0;
+
+
+# --- !Downs
+
+ALTER TABLE `GroupResult` DROP COLUMN `dispatcherStopped`;
+ALTER TABLE `GroupResult` DROP COLUMN `dispatcherSeq`;
+ALTER TABLE `GroupResult` DROP COLUMN `dispatcherEpoch`;
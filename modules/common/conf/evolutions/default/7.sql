@@ -0,0 +1,10 @@
+# Version of the study session data
+
+# --- !Ups
+
+ALTER TABLE `StudyResult` ADD COLUMN `studySessionVersion` bigint(20) NOT NULL DEFAULT 1;
+
+
+# --- !Downs
+
+ALTER TABLE `StudyResult` DROP COLUMN `studySessionVersion`;
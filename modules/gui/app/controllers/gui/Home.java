@@ -22,6 +22,7 @@ import controllers.gui.actionannotations.JatosGuiAction.JatosGui;
 import daos.common.StudyDao;
 import exceptions.gui.JatosGuiException;
 import general.common.MessagesStrings;
+import general.common.Metrics;
 
 /**
  * Controller that provides actions for the home view.
@@ -41,17 +42,20 @@ public class Home extends Controller {
 	private final UserService userService;
 	private final BreadcrumbsService breadcrumbsService;
 	private final StudyDao studyDao;
+	private final Metrics metrics;
 
 	@Inject
 	Home(IOUtils ioUtils, JatosGuiExceptionThrower jatosGuiExceptionThrower,
 			JsonUtils jsonUtils, UserService userService,
-			BreadcrumbsService breadcrumbsService, StudyDao studyDao) {
+			BreadcrumbsService breadcrumbsService, StudyDao studyDao,
+			Metrics metrics) {
 		this.ioUtils = ioUtils;
 		this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
 		this.jsonUtils = jsonUtils;
 		this.userService = userService;
 		this.breadcrumbsService = breadcrumbsService;
 		this.studyDao = studyDao;
+		this.metrics = metrics;
 	}
 
 	/**
@@ -104,4 +108,21 @@ public class Home extends Controller {
 		}
 		return ok(ioUtils.readApplicationLog(lineLimit));
 	}
+
+	/**
+	 * Returns JATOS' internal metrics (e.g. cache hits and misses) as JSON
+	 * only if admin is logged in.
+	 */
+	@Transactional
+	public Result metrics() throws JatosGuiException {
+		Logger.info(CLASS_NAME + ".metrics: " + "logged-in user's email "
+				+ session(Users.SESSION_EMAIL));
+		User loggedInUser = userService.retrieveLoggedInUser();
+		if (!loggedInUser.getEmail().equals(UserService.ADMIN_EMAIL)) {
+			jatosGuiExceptionThrower.throwHome(
+					MessagesStrings.ONLY_ADMIN_CAN_SEE_METRICS,
+					Http.Status.FORBIDDEN);
+		}
+		return ok(JsonUtils.asJsonNode(metrics.snapshot()));
+	}
 }
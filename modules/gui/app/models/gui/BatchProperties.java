@@ -9,6 +9,7 @@ import org.jsoup.Jsoup;
 import org.jsoup.safety.Whitelist;
 
 import general.common.MessagesStrings;
+import models.common.Batch.GroupMatching;
 import play.data.validation.ValidationError;
 
 /**
@@ -18,8 +19,9 @@ import play.data.validation.ValidationError;
  * database entity is {@link models.common.Batch}.
  * 
  * An active member is a member who joined a group and is still member of this
- * group. maxActiveMemberLimited, maxActiveMembers, maxTotalMemberLimited and
- * maxTotalMembers are properties for groups.
+ * group. maxActiveMemberLimited, maxActiveMembers, maxTotalMemberLimited,
+ * maxTotalMembers, minStartMemberLimited, minStartMembers, groupMatching and
+ * groupMatchingAttribute are properties for groups.
  * 
  * @author Kristian Lange (2015)
  */
@@ -35,6 +37,10 @@ public class BatchProperties {
 	public static final String MAX_TOTAL_MEMBER_LIMITED = "maxTotalMemberLimited";
 	public static final String MAX_TOTAL_WORKERS = "maxTotalWorkers";
 	public static final String MAX_TOTAL_WORKER_LIMITED = "maxTotalWorkerLimited";
+	public static final String MIN_START_MEMBERS = "minStartMembers";
+	public static final String MIN_START_MEMBER_LIMITED = "minStartMemberLimited";
+	public static final String GROUP_MATCHING = "groupMatching";
+	public static final String GROUP_MATCHING_ATTRIBUTE = "groupMatchingAttribute";
 	public static final String ALLOWED_WORKER_TYPES = "allowedWorkerTypes";
 	public static final String WORKERS = "workers";
 
@@ -86,6 +92,28 @@ public class BatchProperties {
 	 */
 	private Integer maxTotalWorkers = null;
 
+	/**
+	 * Set to true if groups have a waiting room (= a group starts only after
+	 * minStartMembers joined). False otherwise.
+	 */
+	private boolean minStartMemberLimited = false;
+
+	/**
+	 * Number of members a group needs to start
+	 */
+	private Integer minStartMembers = null;
+
+	/**
+	 * How new members are matched with the open groups
+	 */
+	private GroupMatching groupMatching = GroupMatching.FILL_FIRST;
+
+	/**
+	 * Name of the URL query parameter with the member's tag if groupMatching
+	 * is ATTRIBUTE
+	 */
+	private String groupMatchingAttribute = null;
+
 	/**
 	 * Set of worker types that are allowed to run in this batch. If the worker
 	 * type is not in this list, it has no permission to run this study.
@@ -164,6 +192,38 @@ public class BatchProperties {
 		this.maxTotalWorkers = maxTotalWorkers;
 	}
 
+	public boolean isMinStartMemberLimited() {
+		return minStartMemberLimited;
+	}
+
+	public void setMinStartMemberLimited(boolean minStartMemberLimited) {
+		this.minStartMemberLimited = minStartMemberLimited;
+	}
+
+	public Integer getMinStartMembers() {
+		return minStartMembers;
+	}
+
+	public void setMinStartMembers(Integer minStartMembers) {
+		this.minStartMembers = minStartMembers;
+	}
+
+	public GroupMatching getGroupMatching() {
+		return groupMatching;
+	}
+
+	public void setGroupMatching(GroupMatching groupMatching) {
+		this.groupMatching = groupMatching;
+	}
+
+	public String getGroupMatchingAttribute() {
+		return groupMatchingAttribute;
+	}
+
+	public void setGroupMatchingAttribute(String groupMatchingAttribute) {
+		this.groupMatchingAttribute = groupMatchingAttribute;
+	}
+
 	public void setAllowedWorkerTypes(Set<String> allowedWorkerTypes) {
 		this.allowedWorkerTypes = allowedWorkerTypes;
 	}
@@ -221,6 +281,30 @@ public class BatchProperties {
 			errorList.add(new ValidationError(MAX_TOTAL_WORKERS,
 					MessagesStrings.BATCH_MAX_TOTAL_WORKER_SET));
 		}
+		if (minStartMemberLimited && minStartMembers == null) {
+			errorList.add(new ValidationError(MIN_START_MEMBERS,
+					MessagesStrings.BATCH_MIN_START_MEMBERS_SET));
+		}
+		if (minStartMemberLimited && minStartMembers != null
+				&& (minStartMembers < 1
+						|| (maxActiveMemberLimited && maxActiveMembers != null
+								&& minStartMembers > maxActiveMembers)
+						|| (maxTotalMemberLimited && maxTotalMembers != null
+								&& minStartMembers > maxTotalMembers))) {
+			errorList.add(new ValidationError(MIN_START_MEMBERS,
+					MessagesStrings.BATCH_MIN_START_MEMBERS));
+		}
+		if (groupMatching == GroupMatching.ATTRIBUTE
+				&& (groupMatchingAttribute == null
+						|| groupMatchingAttribute.trim().isEmpty())) {
+			errorList.add(new ValidationError(GROUP_MATCHING_ATTRIBUTE,
+					MessagesStrings.BATCH_GROUP_MATCHING_ATTRIBUTE_SET));
+		}
+		if (groupMatchingAttribute != null
+				&& !Jsoup.isValid(groupMatchingAttribute, Whitelist.none())) {
+			errorList.add(new ValidationError(GROUP_MATCHING_ATTRIBUTE,
+					MessagesStrings.NO_HTML_ALLOWED));
+		}
 
 		return errorList.isEmpty() ? null : errorList;
 	}
@@ -54,6 +54,9 @@ public class BatchService {
 		clone.setMaxActiveMembers(batch.getMaxActiveMembers());
 		clone.setMaxTotalMembers(batch.getMaxTotalMembers());
 		clone.setMaxTotalWorkers(batch.getMaxTotalWorkers());
+		clone.setMinStartMembers(batch.getMinStartMembers());
+		clone.setGroupMatching(batch.getGroupMatching());
+		clone.setGroupMatchingAttribute(batch.getGroupMatchingAttribute());
 		batch.getWorkerList().forEach(clone::addWorker);
 		batch.getAllowedWorkerTypes().forEach(clone::addAllowedWorkerType);
 		return clone;
@@ -114,6 +117,10 @@ public class BatchService {
 		batch.setMaxActiveMembers(updatedBatchProps.getMaxActiveMembers());
 		batch.setMaxTotalMembers(updatedBatchProps.getMaxTotalMembers());
 		batch.setMaxTotalWorkers(updatedBatchProps.getMaxTotalWorkers());
+		batch.setMinStartMembers(updatedBatchProps.getMinStartMembers());
+		batch.setGroupMatching(updatedBatchProps.getGroupMatching());
+		batch.setGroupMatchingAttribute(
+				updatedBatchProps.getGroupMatchingAttribute());
 		batch.getAllowedWorkerTypes().clear();
 		updatedBatchProps.getAllowedWorkerTypes()
 				.forEach(batch::addAllowedWorkerType);
@@ -131,6 +138,12 @@ public class BatchService {
 		props.setMaxTotalMemberLimited(batch.getMaxTotalMembers() != null);
 		props.setMaxTotalWorkerLimited(batch.getMaxTotalWorkers() != null);
 		props.setMaxTotalWorkers(batch.getMaxTotalWorkers());
+		props.setMinStartMembers(batch.getMinStartMembers());
+		props.setMinStartMemberLimited(batch.getMinStartMembers() != null);
+		if (batch.getGroupMatching() != null) {
+			props.setGroupMatching(batch.getGroupMatching());
+		}
+		props.setGroupMatchingAttribute(batch.getGroupMatchingAttribute());
 		batch.getAllowedWorkerTypes().forEach(props::addAllowedWorkerType);
 		return props;
 	}
@@ -154,6 +167,13 @@ public class BatchService {
 		} else {
 			batch.setMaxTotalWorkers(null);
 		}
+		if (props.isMinStartMemberLimited()) {
+			batch.setMinStartMembers(props.getMinStartMembers());
+		} else {
+			batch.setMinStartMembers(null);
+		}
+		batch.setGroupMatching(props.getGroupMatching());
+		batch.setGroupMatchingAttribute(props.getGroupMatchingAttribute());
 		props.getAllowedWorkerTypes().forEach(batch::addAllowedWorkerType);
 		return batch;
 	}
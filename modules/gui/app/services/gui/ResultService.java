@@ -1,5 +1,7 @@
 package services.gui;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -9,6 +11,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import daos.common.ComponentResultDao;
+import daos.common.ResultDataFileStore;
 import daos.common.StudyResultDao;
 import exceptions.gui.BadRequestException;
 import exceptions.gui.NotFoundException;
@@ -29,12 +32,15 @@ public class ResultService {
 
 	private final ComponentResultDao componentResultDao;
 	private final StudyResultDao studyResultDao;
+	private final ResultDataFileStore resultDataFileStore;
 
 	@Inject
 	ResultService(ComponentResultDao componentResultDao,
-			StudyResultDao studyResultDao) {
+			StudyResultDao studyResultDao,
+			ResultDataFileStore resultDataFileStore) {
 		this.componentResultDao = componentResultDao;
 		this.studyResultDao = studyResultDao;
+		this.resultDataFileStore = resultDataFileStore;
 	}
 
 	/**
@@ -120,9 +126,8 @@ public class ResultService {
 		Iterator<StudyResult> iterator = studyResultList.iterator();
 		while (iterator.hasNext()) {
 			StudyResult studyResult = iterator.next();
-			String componentResultData = componentResultDataToString(
-					studyResult.getComponentResultList());
-			sb.append(componentResultData);
+			appendComponentResultData(studyResult.getComponentResultList(),
+					sb);
 			if (iterator.hasNext()) {
 				sb.append("\n");
 			}
@@ -136,18 +141,36 @@ public class ResultService {
 	public String componentResultDataToString(
 			List<ComponentResult> componentResultList) {
 		StringBuilder sb = new StringBuilder();
+		appendComponentResultData(componentResultList, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends all ComponentResult's data to the StringBuilder each in a
+	 * separate line. Data in the ResultDataFileStore are read directly into
+	 * the StringBuilder.
+	 */
+	private void appendComponentResultData(
+			List<ComponentResult> componentResultList, StringBuilder sb) {
 		Iterator<ComponentResult> iterator = componentResultList.iterator();
 		while (iterator.hasNext()) {
 			ComponentResult componentResult = iterator.next();
-			String data = componentResult.getData();
-			if (data != null) {
-				sb.append(data);
-				if (iterator.hasNext()) {
-					sb.append("\n");
+			if (componentResult.getDataRef() != null) {
+				try {
+					resultDataFileStore.appendTo(componentResult.getDataRef(),
+							sb, Integer.MAX_VALUE);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
+			} else if (componentResult.getData() != null) {
+				sb.append(componentResult.getData());
+			} else {
+				continue;
+			}
+			if (iterator.hasNext()) {
+				sb.append("\n");
 			}
 		}
-		return sb.toString();
 	}
 
 }
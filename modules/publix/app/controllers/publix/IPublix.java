@@ -6,8 +6,6 @@ import play.libs.F.Promise;
 import play.mvc.Result;
 import play.mvc.WebSocket;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
 import exceptions.publix.PublixException;
 
 /**
@@ -79,13 +77,22 @@ public interface IPublix {
 	 * GroupResult) and open a WebSocket (group channel). Only works if this
 	 * study is a group study. All group data are stored in a GroupResult and
 	 * the group channels will be handled by a GroupDispatcher which uses Akka.
+	 * The optional query parameter 'protocolVersion' specifies the version of
+	 * the group channel protocol (default is 1, see GroupDispatcherProtocol).
+	 * With protocol version 2 the optional query parameters 'epoch' and
+	 * 'lastSeq' let a client that lost its group channel resume: it gets only
+	 * the messages it missed instead of a snapshot of the whole group. With
+	 * protocol version 3 the client has to answer the server's pings - a
+	 * client that is silent for too long loses its group channel. If the
+	 * batch matches its members by an attribute the optional query parameter
+	 * 'matchingTag' holds the member's tag.
 	 * 
 	 * @param studyId
 	 *            Study's ID
 	 * @return WebSocket that transports JSON strings.
 	 * @throws PublixException
 	 */
-	WebSocket<JsonNode> joinGroup(Long studyId) throws PublixException;
+	WebSocket<String> joinGroup(Long studyId) throws PublixException;
 
 	/**
 	 * HTTP type: Ajax GET request
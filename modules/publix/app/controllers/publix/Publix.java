@@ -1,11 +1,10 @@
 package controllers.publix;
 
 import java.io.IOException;
+import java.util.concurrent.locks.Lock;
 
 import javax.inject.Singleton;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
 import daos.common.ComponentResultDao;
 import daos.common.GroupResultDao;
 import daos.common.StudyResultDao;
@@ -15,6 +14,7 @@ import exceptions.publix.InternalServerErrorPublixException;
 import exceptions.publix.NoContentPublixException;
 import exceptions.publix.NotFoundPublixException;
 import exceptions.publix.PublixException;
+import exceptions.publix.ServiceUnavailablePublixException;
 import models.common.Batch;
 import models.common.Component;
 import models.common.ComponentResult;
@@ -28,18 +28,23 @@ import play.Logger;
 import play.db.jpa.JPAApi;
 import play.libs.F.Promise;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.WebSocket;
 import services.publix.HttpHelpers;
+import services.publix.InitDataCache;
+import services.publix.InitDataCache.InitData;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixHelpers;
 import services.publix.PublixUtils;
+import services.publix.ResultDataBuffer;
 import services.publix.StudyAuthorisation;
 import services.publix.group.ChannelService;
 import services.publix.group.GroupService;
 import services.publix.group.WebSocketBuilder;
+import services.publix.group.akka.messages.GroupDispatcherProtocol;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ResumePosition;
 import utils.common.ControllerUtils;
-import utils.common.JsonUtils;
 
 /**
  * Abstract controller class for all controllers that implement the IPublix
@@ -54,6 +59,10 @@ public abstract class Publix<T extends Worker> extends Controller
 	public static final String WORKER_ID = "workerId";
 	public static final String BATCH_ID = "batchId";
 	public static final String STUDY_ASSETS = "studyAssets";
+	public static final String GROUP_PROTOCOL_VERSION = "protocolVersion";
+	public static final String GROUP_RESUME_EPOCH = "epoch";
+	public static final String GROUP_RESUME_SEQ = "lastSeq";
+	public static final String GROUP_MATCHING_TAG = "matchingTag";
 
 	private static final String CLASS_NAME = Publix.class.getSimpleName();
 
@@ -64,7 +73,7 @@ public abstract class Publix<T extends Worker> extends Controller
 	protected final ChannelService channelService;
 	protected final PublixErrorMessages errorMessages;
 	protected final StudyAssets studyAssets;
-	protected final JsonUtils jsonUtils;
+	protected final InitDataCache initDataCache;
 	protected final ComponentResultDao componentResultDao;
 	protected final StudyResultDao studyResultDao;
 	protected final GroupResultDao groupResultDao;
@@ -72,7 +81,7 @@ public abstract class Publix<T extends Worker> extends Controller
 	public Publix(JPAApi jpa, PublixUtils<T> publixUtils,
 			StudyAuthorisation<T> studyAuthorisation, GroupService groupService,
 			ChannelService channelService, PublixErrorMessages errorMessages,
-			StudyAssets studyAssets, JsonUtils jsonUtils,
+			StudyAssets studyAssets, InitDataCache initDataCache,
 			ComponentResultDao componentResultDao,
 			StudyResultDao studyResultDao, GroupResultDao groupResultDao) {
 		this.jpa = jpa;
@@ -82,7 +91,7 @@ public abstract class Publix<T extends Worker> extends Controller
 		this.channelService = channelService;
 		this.errorMessages = errorMessages;
 		this.studyAssets = studyAssets;
-		this.jsonUtils = jsonUtils;
+		this.initDataCache = initDataCache;
 		this.componentResultDao = componentResultDao;
 		this.studyResultDao = studyResultDao;
 		this.groupResultDao = groupResultDao;
@@ -111,11 +120,8 @@ public abstract class Publix<T extends Worker> extends Controller
 							.finishStudy(studyId, false, e.getMessage())));
 		}
 		publixUtils.writeIdCookie(worker, batch, studyResult, componentResult);
-		String urlPath = StudyAssets.getComponentUrlPath(study.getDirName(),
-				component);
-		String urlWithQueryStr = HttpHelpers.getUrlWithQueryString(
-				request().uri(), request().host(), urlPath);
-		return studyAssets.forwardTo(urlWithQueryStr);
+		return Promise.pure(studyAssets
+				.retrieveComponentHtmlFile(study.getDirName(), component));
 	}
 
 	@Override
@@ -158,6 +164,8 @@ public abstract class Publix<T extends Worker> extends Controller
 		Logger.info(CLASS_NAME + ".getInitData: studyId " + studyId + ", "
 				+ "componentId " + componentId + ", " + "workerId "
 				+ session(WORKER_ID));
+		// Has to be retrieved before the study, batch or component are loaded
+		long initDataCacheEpoch = initDataCache.getEpoch();
 		T worker = publixUtils.retrieveTypedWorker(session(WORKER_ID));
 		Study study = publixUtils.retrieveStudy(studyId);
 		Batch batch = publixUtils.retrieveBatch(session(BATCH_ID));
@@ -179,41 +187,104 @@ public abstract class Publix<T extends Worker> extends Controller
 		componentResult.setComponentState(ComponentState.DATA_RETRIEVED);
 		componentResultDao.update(componentResult);
 
-		return ok(jsonUtils.initData(batch, studyResult, study, component));
+		InitData initData = initDataCache.initData(initDataCacheEpoch, batch,
+				studyResult, study, component);
+		// Browser has to revalidate each time but can reuse its copy if the
+		// init data didn't change (e.g. same component and session data)
+		String eTag = initData.getETag();
+		response().setHeader(CACHE_CONTROL, "no-cache");
+		response().setHeader(ETAG, eTag);
+		if (eTag.equals(request().getHeader(IF_NONE_MATCH))) {
+			return status(NOT_MODIFIED);
+		}
+		return ok(initData.getJson()).as("application/json; charset=utf-8");
 	}
 
 	@Override
 	// Due to returning a WebSocket and not a Result we don't throw exceptions
-	public WebSocket<JsonNode> joinGroup(Long studyId) {
+	public WebSocket<String> joinGroup(Long studyId) {
 		Logger.info(CLASS_NAME + ".joinGroup: studyId " + studyId + ", "
 				+ "workerId " + session(WORKER_ID));
 		String workerIdStr = session(WORKER_ID);
+		int protocolVersion = getGroupProtocolVersion();
+		ResumePosition resumePosition = getGroupResumePosition();
+		String matchingTag = request().getQueryString(GROUP_MATCHING_TAG);
 		// The @Transactional annotation can only be used with Actions.
 		// Since WebSockets aren't considered Actions in Play we have to do
 		// it manually. Additionally we have to catch the PublixExceptions
 		// manually because the PublixAction wouldn't send a rejected WebSocket
 		// but normal HTTP responses.
+		// Joins of the same batch are serialized until the transaction is
+		// committed - otherwise two could take the last place in a group
 		try {
-			StudyResult studyResult = jpa.withTransaction(() -> {
-				return joinGroup(studyId, workerIdStr);
-			});
+			StudyResult studyResult;
+			Lock batchLock = groupService.lockBatch(session(BATCH_ID));
+			try {
+				studyResult = jpa.withTransaction(() -> {
+					return joinGroup(studyId, workerIdStr, matchingTag);
+				});
+			} finally {
+				batchLock.unlock();
+			}
 			// openGroupChannel has to be outside of the transaction
-			return channelService.openGroupChannel(studyResult);
+			return channelService.openGroupChannel(studyResult,
+					protocolVersion, resumePosition);
 		} catch (NotFoundPublixException e) {
 			Logger.info(CLASS_NAME + ".joinGroup: " + e.getMessage());
 			return WebSocketBuilder.reject(notFound());
 		} catch (ForbiddenPublixException e) {
 			Logger.info(CLASS_NAME + ".joinGroup: " + e.getMessage());
 			return WebSocketBuilder.reject(forbidden());
+		} catch (ServiceUnavailablePublixException e) {
+			// The batch's groups are busy - the study can try to join again
+			Logger.info(CLASS_NAME + ".joinGroup: " + e.getMessage());
+			return WebSocketBuilder
+					.reject(status(Http.Status.SERVICE_UNAVAILABLE));
 		} catch (Throwable e) {
 			Logger.error(CLASS_NAME + ".joinGroup: ", e);
 			return WebSocketBuilder.reject(internalServerError());
 		}
 	}
 
-	private StudyResult joinGroup(Long studyId, String workerIdStr)
-			throws ForbiddenPublixException, NotFoundPublixException,
-			InternalServerErrorPublixException {
+	/**
+	 * Returns the version of the group channel protocol the client asks for in
+	 * the query string. Clients that don't say anything get version 1.
+	 */
+	private int getGroupProtocolVersion() {
+		String protocolVersion = request()
+				.getQueryString(GROUP_PROTOCOL_VERSION);
+		if (protocolVersion != null) {
+			try {
+				return Integer.parseInt(protocolVersion);
+			} catch (NumberFormatException e) {
+				// Use the default
+			}
+		}
+		return GroupDispatcherProtocol.PROTOCOL_VERSION_FULL;
+	}
+
+	/**
+	 * Returns the position in the group channel's messages where the client
+	 * wants to resume (given in the query string) or null if it doesn't want
+	 * to resume.
+	 */
+	private ResumePosition getGroupResumePosition() {
+		String epoch = request().getQueryString(GROUP_RESUME_EPOCH);
+		String lastSeq = request().getQueryString(GROUP_RESUME_SEQ);
+		if (epoch == null || lastSeq == null) {
+			return null;
+		}
+		try {
+			return new ResumePosition(Long.parseLong(epoch),
+					Long.parseLong(lastSeq));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private StudyResult joinGroup(Long studyId, String workerIdStr,
+			String matchingTag) throws ForbiddenPublixException,
+			NotFoundPublixException, InternalServerErrorPublixException {
 		T worker = publixUtils.retrieveTypedWorker(workerIdStr);
 		Study study = publixUtils.retrieveStudy(studyId);
 		Batch batch = publixUtils.retrieveBatch(session(BATCH_ID));
@@ -229,7 +300,8 @@ public abstract class Publix<T extends Worker> extends Controller
 					+ "workerId " + workerIdStr
 					+ " already member of group result " + groupResult.getId());
 		} else {
-			GroupResult groupResult = groupService.join(studyResult, batch);
+			GroupResult groupResult = groupService.join(studyResult, batch,
+					matchingTag);
 			channelService.sendJoinedMsg(studyResult);
 			Logger.info(CLASS_NAME + ".joinGroup: studyId " + studyId + ", "
 					+ "workerId " + workerIdStr + " joined group result "
@@ -241,7 +313,8 @@ public abstract class Publix<T extends Worker> extends Controller
 	@Override
 	public Result reassignGroup(Long studyId)
 			throws ForbiddenPublixException, NoContentPublixException,
-			InternalServerErrorPublixException, NotFoundPublixException {
+			InternalServerErrorPublixException, NotFoundPublixException,
+			ServiceUnavailablePublixException {
 		Logger.info(CLASS_NAME + ".reassignGroup: studyId " + studyId + ", "
 				+ "workerId " + session(WORKER_ID));
 		String workerIdStr = session(WORKER_ID);
@@ -305,8 +378,7 @@ public abstract class Publix<T extends Worker> extends Controller
 				.retrieveWorkersLastStudyResult(worker, study);
 		String studySessionData = HttpHelpers
 				.getDataFromRequestBody(request().body());
-		studyResult.setStudySessionData(studySessionData);
-		studyResultDao.update(studyResult);
+		publixUtils.setStudySessionData(studyResult, studySessionData);
 		return ok();
 	}
 
@@ -334,11 +406,11 @@ public abstract class Publix<T extends Worker> extends Controller
 					.finishStudy(studyId, false, error));
 		}
 
-		String resultData = HttpHelpers
-				.getDataFromRequestBody(request().body());
-		componentResult.setData(resultData);
-		componentResult.setComponentState(ComponentState.RESULTDATA_POSTED);
-		componentResultDao.update(componentResult);
+		try (ResultDataBuffer resultData = HttpHelpers
+				.readDataFromRequestBody(request())) {
+			publixUtils.setResultData(studyResult, componentResult,
+					resultData);
+		}
 		return ok();
 	}
 
@@ -367,14 +439,8 @@ public abstract class Publix<T extends Worker> extends Controller
 					.finishStudy(studyId, false, error));
 		}
 
-		if (successful) {
-			componentResult.setComponentState(ComponentState.FINISHED);
-			componentResult.setErrorMsg(errorMsg);
-		} else {
-			componentResult.setComponentState(ComponentState.FAIL);
-			componentResult.setErrorMsg(errorMsg);
-		}
-		componentResultDao.update(componentResult);
+		publixUtils.finishComponent(studyResult, componentResult, successful,
+				errorMsg);
 		return ok();
 	}
 
@@ -4,8 +4,7 @@ import java.io.IOException;
 
 import javax.inject.Singleton;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
+import controllers.publix.StudyRunLockAction.StudyRunLocked;
 import controllers.publix.workers.GeneralSinglePublix;
 import controllers.publix.workers.JatosPublix;
 import controllers.publix.workers.MTPublix;
@@ -26,6 +25,7 @@ import play.Logger;
 import play.Play;
 import play.db.jpa.Transactional;
 import play.libs.F.Promise;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.WebSocket;
@@ -53,6 +53,11 @@ import services.publix.PublixErrorMessages;
  * 5. Requests coming from an General Single run will be forwarded to
  * GeneralSinglePublix. They use the GeneralSingleWorker.<br>
  * 
+ * All actions that change a running study run are annotated with
+ * {@link StudyRunLocked} (before @Transactional): requests of the same study
+ * run, e.g. a jatos.js retry and its still running original request, are
+ * processed one after another.
+ * 
  * @author Kristian Lange
  */
 @Singleton
@@ -64,6 +69,12 @@ public class PublixInterceptor extends Controller implements IPublix {
 
 	public static final String WORKER_TYPE = "workerType";
 
+	/**
+	 * Max size of submitted result data. They are parsed as raw body (bigger
+	 * ones are buffered on disk by Play) and streamed into the database.
+	 */
+	public static final int RESULT_DATA_MAX_LENGTH = 64 * 1024 * 1024;
+
 	@Override
 	@Transactional
 	public Result startStudy(Long studyId, Long batchId)
@@ -103,6 +114,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Promise<Result> startComponent(Long studyId, Long componentId)
 			throws PublixException {
@@ -137,6 +149,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Promise<Result> startComponentByPosition(Long studyId,
 			Integer position) throws PublixException {
@@ -173,6 +186,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result startNextComponent(Long studyId) throws PublixException {
 		Result result = null;
@@ -206,6 +220,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result getInitData(Long studyId, Long componentId)
 			throws PublixException, IOException {
@@ -241,9 +256,9 @@ public class PublixInterceptor extends Controller implements IPublix {
 
 	@Override
 	@Transactional
-	public WebSocket<JsonNode> joinGroup(Long studyId)
+	public WebSocket<String> joinGroup(Long studyId)
 			throws BadRequestPublixException {
-		WebSocket<JsonNode> result = null;
+		WebSocket<String> result = null;
 		switch (getWorkerTypeFromSession()) {
 		case MTWorker.WORKER_TYPE:
 		case MTSandboxWorker.WORKER_TYPE:
@@ -272,6 +287,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result reassignGroup(Long studyId) throws PublixException {
 		Result result = null;
@@ -303,6 +319,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result leaveGroup(Long studyId)
 			throws BadRequestPublixException, NotFoundPublixException,
@@ -336,6 +353,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result setStudySessionData(Long studyId) throws PublixException {
 		Result result = null;
@@ -369,7 +387,10 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
+	@BodyParser.Of(value = BodyParser.Raw.class,
+			maxLength = RESULT_DATA_MAX_LENGTH)
 	public Result submitResultData(Long studyId, Long componentId)
 			throws PublixException {
 		Result result = null;
@@ -403,6 +424,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result finishComponent(Long studyId, Long componentId,
 			Boolean successful, String errorMsg) throws PublixException {
@@ -440,6 +462,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result abortStudy(Long studyId, String message)
 			throws PublixException {
@@ -474,6 +497,7 @@ public class PublixInterceptor extends Controller implements IPublix {
 	}
 
 	@Override
+	@StudyRunLocked
 	@Transactional
 	public Result finishStudy(Long studyId, Boolean successful, String errorMsg)
 			throws PublixException {
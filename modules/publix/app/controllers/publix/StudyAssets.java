@@ -2,12 +2,15 @@ package controllers.publix;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import com.google.common.base.Strings;
-import com.ning.http.client.providers.netty.response.NettyResponse;
 
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.NotFoundPublixException;
@@ -15,11 +18,14 @@ import general.common.Common;
 import general.common.MessagesStrings;
 import models.common.Component;
 import play.Logger;
-import play.libs.F.Promise;
-import play.libs.ws.WSClient;
 import play.mvc.Controller;
 import play.mvc.Result;
+import services.publix.ByteRange;
+import services.publix.HttpHelpers;
 import services.publix.PublixErrorMessages;
+import services.publix.StudyAssetsCompressor;
+import services.publix.StudyAssetsCompressor.CompressedFile;
+import services.publix.StudyAssetsFileCache;
 import utils.common.ControllerUtils;
 import utils.common.IOUtils;
 
@@ -40,23 +46,36 @@ public class StudyAssets extends Controller {
 	 */
 	public static final String URL_STUDY_ASSETS = "study_assets";
 
-	private final WSClient ws;
+	/**
+	 * Max number of bytes sent in one partial response. Browsers ask for
+	 * open-ended ranges (e.g. 'bytes=1000-') while playing video or audio and
+	 * just request the next part.
+	 */
+	private static final long MAX_RANGE_LENGTH = 4 * 1024 * 1024;
+
 	private final IOUtils ioUtils;
 	private final Common common;
 	private final PublixErrorMessages errorMessages;
+	private final StudyAssetsFileCache studyAssetsFileCache;
+	private final StudyAssetsCompressor studyAssetsCompressor;
 
 	@Inject
-	StudyAssets(WSClient ws, IOUtils ioUtils, Common common,
-			PublixErrorMessages errorMessages) {
-		this.ws = ws;
+	StudyAssets(IOUtils ioUtils, Common common,
+			PublixErrorMessages errorMessages,
+			StudyAssetsFileCache studyAssetsFileCache,
+			StudyAssetsCompressor studyAssetsCompressor) {
 		this.ioUtils = ioUtils;
 		this.common = common;
 		this.errorMessages = errorMessages;
+		this.studyAssetsFileCache = studyAssetsFileCache;
+		this.studyAssetsCompressor = studyAssetsCompressor;
 	}
 
 	/**
 	 * Action called while routing. Translates the given file path from the URL
-	 * into a file path of the OS's file system and returns the file.
+	 * into a file path of the OS's file system and returns the file. Supports
+	 * conditional requests (ETag and Last-Modified), single byte ranges and
+	 * compressed variants of the file (see {@link StudyAssetsCompressor}).
 	 */
 	public Result versioned(String filePath) {
 		File file;
@@ -87,9 +106,138 @@ public class StudyAssets extends Controller {
 				return notFound(views.html.publix.error.render(errorMsg));
 			}
 		}
+		return sendFile(file, filePath);
+	}
+
+	private Result sendFile(File file, String filePath) {
+		long lastModified = file.lastModified();
+		long fileLength = file.length();
+		String eTag = "\"" + Long.toHexString(lastModified) + "-"
+				+ Long.toHexString(fileLength) + "\"";
+		response().setHeader(LAST_MODIFIED,
+				HttpHelpers.formatHttpDate(lastModified));
+		response().setHeader(ACCEPT_RANGES, "bytes");
+		response().setHeader(VARY, ACCEPT_ENCODING);
+		if (isNotModified(eTag, lastModified)) {
+			response().setHeader(ETAG, eTag);
+			return status(NOT_MODIFIED);
+		}
+		String contentType = contentType(file);
+
+		// Range requests are always answered with the uncompressed file
+		ByteRange range = ByteRange.parse(request().getHeader(RANGE),
+				fileLength);
+		if (range != null && isIfRangeFulfilled(eTag, lastModified)) {
+			response().setHeader(ETAG, eTag);
+			return sendRange(file, range, fileLength, contentType);
+		}
+
+		CompressedFile compressedFile = studyAssetsCompressor.findCompressed(
+				file, filePath, request().getHeader(ACCEPT_ENCODING));
+		if (compressedFile != null) {
+			response().setHeader(ETAG,
+					variantETag(eTag, compressedFile.getEncoding()));
+			response().setHeader(CONTENT_ENCODING,
+					compressedFile.getEncoding());
+			return ok(compressedFile.getFile(), true).as(contentType);
+		}
+		response().setHeader(ETAG, eTag);
 		return ok(file, true);
 	}
 
+	/**
+	 * Returns the given range of the file (206) or 416 if the range is outside
+	 * of the file. The file content is read with positional reads and not
+	 * longer than MAX_RANGE_LENGTH.
+	 */
+	private Result sendRange(File file, ByteRange range, long fileLength,
+			String contentType) {
+		if (!range.isSatisfiable()) {
+			response().setHeader(CONTENT_RANGE,
+					range.toContentRange(fileLength));
+			return status(REQUESTED_RANGE_NOT_SATISFIABLE);
+		}
+		ByteRange limitedRange = range.limit(MAX_RANGE_LENGTH);
+		ByteBuffer buffer = ByteBuffer
+				.allocate((int) limitedRange.getLength());
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			long position = limitedRange.getStart();
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				position += read;
+			}
+		} catch (IOException e) {
+			Logger.info(CLASS_NAME + ".sendRange: failed reading from "
+					+ file.getPath());
+			return internalServerError();
+		}
+		if (buffer.hasRemaining()) {
+			// File got shorter meanwhile
+			limitedRange = limitedRange.limit(buffer.position());
+		}
+		response().setHeader(CONTENT_RANGE,
+				limitedRange.toContentRange(fileLength));
+		byte[] content = Arrays.copyOf(buffer.array(), buffer.position());
+		return status(PARTIAL_CONTENT, content).as(contentType);
+	}
+
+	/**
+	 * Checks the request's 'If-None-Match' and (if there is no such header)
+	 * 'If-Modified-Since' header.
+	 */
+	private boolean isNotModified(String eTag, long lastModified) {
+		String ifNoneMatch = request().getHeader(IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim().replaceFirst("^W/", "");
+				if (tag.equals("*") || tag.equals(eTag)
+						|| tag.equals(variantETag(eTag,
+								StudyAssetsCompressor.GZIP))
+						|| tag.equals(variantETag(eTag,
+								StudyAssetsCompressor.BROTLI))) {
+					return true;
+				}
+			}
+			return false;
+		}
+		long ifModifiedSince = HttpHelpers
+				.parseHttpDate(request().getHeader(IF_MODIFIED_SINCE));
+		// HTTP dates have only a precision of seconds
+		return ifModifiedSince >= 0
+				&& lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * A range request with an 'If-Range' header is only answered with the
+	 * range if the file didn't change.
+	 */
+	private boolean isIfRangeFulfilled(String eTag, long lastModified) {
+		String ifRange = request().getHeader(IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals(eTag);
+		}
+		return HttpHelpers.parseHttpDate(ifRange) / 1000 == lastModified
+				/ 1000;
+	}
+
+	private String variantETag(String eTag, String encoding) {
+		return eTag.substring(0, eTag.length() - 1) + "-" + encoding + "\"";
+	}
+
+	private String contentType(File file) {
+		scala.Option<String> mimeType = play.api.libs.MimeTypes
+				.forFileName(file.getName());
+		return mimeType.isDefined() ? mimeType.get()
+				: "application/octet-stream";
+	}
+
 	/**
 	 * Throws a ForbiddenPublixException if this request is not allowed to
 	 * access the study assets given in the filePath. For comparison it needs
@@ -126,27 +274,35 @@ public class StudyAssets extends Controller {
 	}
 
 	/**
-	 * Like an internal redirect or an proxy. The URL in the browser doesn't
-	 * change. Additionally it adds a header with the study assets name which is
-	 * stored in the session. The study assets name is needed by
-	 * StudyAssets.versioned to verify whether this study run is allowed to
-	 * access those study assets.
+	 * Returns the HTML file of the given component. The file is read directly
+	 * from the study assets directory (or the cache) and not via an additional
+	 * HTTP request. The URL in the browser doesn't change.
 	 */
-	public Promise<Result> forwardTo(String url) {
-		return ws.url(url)
-				.setHeader(Publix.STUDY_ASSETS, session(Publix.STUDY_ASSETS))
-				.get().map(response -> {
-					// Prevent browser from caching pages - this would be an
-					// security issue and additionally confuse the study flow
-					response().setHeader("Cache-control", "no-cache, no-store");
-					// Play's WSResponse has problems with the UTF-8 encoding
-					// (at least in version 2.4.3). So we use the underlying
-					// NettyResponse.
-					NettyResponse nettyResponse = (NettyResponse) response
-							.getUnderlying();
-					return ok(nettyResponse.getResponseBody("UTF-8"))
-							.as("text/html; charset=utf-8");
-				});
+	public Result retrieveComponentHtmlFile(String studyAssetsDirName,
+			Component component) throws NotFoundPublixException {
+		if (Strings.isNullOrEmpty(studyAssetsDirName)
+				|| Strings.isNullOrEmpty(component.getHtmlFilePath())) {
+			throw new NotFoundPublixException(
+					MessagesStrings.htmlFilePathEmpty(component.getId()));
+		}
+		String filePath = studyAssetsDirName + File.separator
+				+ component.getHtmlFilePath().replace("/", File.separator);
+		byte[] html;
+		try {
+			File file = ioUtils.getExistingFileSecurely(
+					common.getStudyAssetsRootPath(), filePath);
+			html = studyAssetsFileCache.read(file);
+		} catch (IOException e) {
+			Logger.info(CLASS_NAME + ".retrieveComponentHtmlFile: failed "
+					+ "loading from path " + common.getStudyAssetsRootPath()
+					+ File.separator + filePath);
+			throw new NotFoundPublixException(
+					errorMessages.studyAssetsFileNotFound(filePath));
+		}
+		// Prevent browser from caching pages - this would be an security issue
+		// and additionally confuse the study flow
+		response().setHeader("Cache-control", "no-cache, no-store");
+		return ok(html).as("text/html; charset=utf-8");
 	}
 
 }
@@ -0,0 +1,83 @@
+package controllers.publix;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+
+import controllers.publix.StudyRunLockAction.StudyRunLocked;
+import exceptions.publix.ServiceUnavailablePublixException;
+import play.Logger;
+import play.libs.F;
+import play.libs.F.Promise;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.With;
+import services.publix.PublixErrorMessages;
+import services.publix.StudyRunLocks;
+
+/**
+ * For all actions annotated with @StudyRunLocked: serializes requests of the
+ * same study run (worker ID from the session and study ID from the URL path)
+ * with the {@link StudyRunLocks}. The annotation has to be put before
+ * the @Transactional annotation, so the lock is held until the transaction is
+ * committed. If the lock isn't free after a short wait the request is
+ * rejected with a 503 and a Retry-After header - like any other
+ * PublixException it's an error page if it isn't an Ajax request.
+ * 
+ * @author Kristian Lange
+ */
+public class StudyRunLockAction extends Action<StudyRunLocked> {
+
+	private static final String CLASS_NAME = StudyRunLockAction.class
+			.getSimpleName();
+
+	@With(StudyRunLockAction.class)
+	@Target({ ElementType.TYPE, ElementType.METHOD })
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface StudyRunLocked {
+	}
+
+	private final StudyRunLocks studyRunLocks;
+
+	@Inject
+	StudyRunLockAction(StudyRunLocks studyRunLocks) {
+		this.studyRunLocks = studyRunLocks;
+	}
+
+	public F.Promise<Result> call(Http.Context ctx) throws Throwable {
+		String workerId = ctx.session().get(Publix.WORKER_ID);
+		String studyId = getStudyIdFromPath(ctx.request().path());
+		if (workerId == null || studyId == null) {
+			// No study run yet - the action itself will complain
+			return delegate.call(ctx);
+		}
+		Lock lock = studyRunLocks.lock(workerId, studyId);
+		if (lock == null) {
+			Logger.info(CLASS_NAME + ".call: timeout while waiting for "
+					+ "another request of the study run with workerId "
+					+ workerId + " and studyId " + studyId);
+			return Promise.<Result> pure(new ServiceUnavailablePublixException(
+					PublixErrorMessages.STUDY_RUN_BUSY,
+					StudyRunLocks.RETRY_AFTER_SECONDS).getSimpleResult());
+		}
+		try {
+			return delegate.call(ctx);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * All Publix URL paths start with /publix/:studyId/
+	 */
+	private String getStudyIdFromPath(String path) {
+		String[] segments = path.split("/");
+		return segments.length > 2 ? segments[2] : null;
+	}
+
+}
@@ -17,6 +17,7 @@ import models.common.workers.GeneralSingleWorker;
 import play.Logger;
 import play.db.jpa.JPAApi;
 import play.mvc.Result;
+import services.publix.InitDataCache;
 import services.publix.ResultCreator;
 import services.publix.WorkerCreator;
 import services.publix.group.ChannelService;
@@ -24,7 +25,6 @@ import services.publix.group.GroupService;
 import services.publix.workers.GeneralSingleErrorMessages;
 import services.publix.workers.GeneralSinglePublixUtils;
 import services.publix.workers.GeneralSingleStudyAuthorisation;
-import utils.common.JsonUtils;
 
 /**
  * Implementation of JATOS' public API for general single study runs (open to
@@ -57,10 +57,10 @@ public class GeneralSinglePublix extends Publix<GeneralSingleWorker>
 			ResultCreator resultCreator, WorkerCreator workerCreator,
 			GroupService groupService, ChannelService channelService,
 			GeneralSingleErrorMessages errorMessages, StudyAssets studyAssets,
-			JsonUtils jsonUtils, ComponentResultDao componentResultDao,
+			InitDataCache initDataCache, ComponentResultDao componentResultDao,
 			StudyResultDao studyResultDao, GroupResultDao groupResultDao) {
 		super(jpa, publixUtils, studyAuthorisation, groupService,
-				channelService, errorMessages, studyAssets, jsonUtils,
+				channelService, errorMessages, studyAssets, initDataCache,
 				componentResultDao, studyResultDao, groupResultDao);
 		this.publixUtils = publixUtils;
 		this.studyAuthorisation = studyAuthorisation;
@@ -24,6 +24,7 @@ import play.libs.F.Promise;
 import play.mvc.Controller;
 import play.mvc.Result;
 import services.publix.HttpHelpers;
+import services.publix.InitDataCache;
 import services.publix.PublixHelpers;
 import services.publix.ResultCreator;
 import services.publix.group.ChannelService;
@@ -32,7 +33,6 @@ import services.publix.workers.JatosErrorMessages;
 import services.publix.workers.JatosPublixUtils;
 import services.publix.workers.JatosStudyAuthorisation;
 import utils.common.ControllerUtils;
-import utils.common.JsonUtils;
 
 /**
  * Implementation of JATOS' public API for studies and components that are
@@ -91,11 +91,11 @@ public class JatosPublix extends Publix<JatosWorker> implements IPublix {
 			JatosStudyAuthorisation studyAuthorisation,
 			ResultCreator resultCreator, GroupService groupService,
 			ChannelService channelService, JatosErrorMessages errorMessages,
-			StudyAssets studyAssets, JsonUtils jsonUtils,
+			StudyAssets studyAssets, InitDataCache initDataCache,
 			ComponentResultDao componentResultDao,
 			StudyResultDao studyResultDao, GroupResultDao groupResultDao) {
 		super(jpa, publixUtils, studyAuthorisation, groupService,
-				channelService, errorMessages, studyAssets, jsonUtils,
+				channelService, errorMessages, studyAssets, initDataCache,
 				componentResultDao, studyResultDao, groupResultDao);
 		this.publixUtils = publixUtils;
 		this.studyAuthorisation = studyAuthorisation;
@@ -191,11 +191,8 @@ public class JatosPublix extends Publix<JatosWorker> implements IPublix {
 							.finishStudy(studyId, false, e.getMessage())));
 		}
 		publixUtils.writeIdCookie(worker, batch, studyResult, componentResult);
-		String urlPath = StudyAssets.getComponentUrlPath(study.getDirName(),
-				component);
-		String urlWithQueryStr = HttpHelpers.getUrlWithQueryString(
-				request().uri(), request().host(), urlPath);
-		return studyAssets.forwardTo(urlWithQueryStr);
+		return Promise.pure(studyAssets
+				.retrieveComponentHtmlFile(study.getDirName(), component));
 	}
 
 	@Override
@@ -22,6 +22,7 @@ import models.common.workers.MTWorker;
 import play.Logger;
 import play.db.jpa.JPAApi;
 import play.mvc.Result;
+import services.publix.InitDataCache;
 import services.publix.PublixHelpers;
 import services.publix.ResultCreator;
 import services.publix.WorkerCreator;
@@ -31,7 +32,6 @@ import services.publix.workers.MTErrorMessages;
 import services.publix.workers.MTPublixUtils;
 import services.publix.workers.MTStudyAuthorisation;
 import utils.common.ControllerUtils;
-import utils.common.JsonUtils;
 
 /**
  * Implementation of JATOS' public API for studies that are started via MTurk. A
@@ -70,12 +70,12 @@ public class MTPublix extends Publix<MTWorker> implements IPublix {
 			ResultCreator resultCreator, WorkerCreator workerCreator,
 			GroupService groupService, ChannelService channelService,
 			MTErrorMessages errorMessages, StudyAssets studyAssets,
-			JsonUtils jsonUtils,  
+			InitDataCache initDataCache,  
 			ComponentResultDao componentResultDao,
 			StudyResultDao studyResultDao, MTWorkerDao mtWorkerDao,
 			GroupResultDao groupResultDao) {
 		super(jpa, publixUtils, studyAuthorisation, groupService,
-				channelService, errorMessages, studyAssets, jsonUtils,
+				channelService, errorMessages, studyAssets, initDataCache,
 				 componentResultDao, studyResultDao,
 				groupResultDao);
 		this.publixUtils = publixUtils;
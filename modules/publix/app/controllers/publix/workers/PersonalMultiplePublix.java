@@ -17,13 +17,13 @@ import models.common.workers.PersonalMultipleWorker;
 import play.Logger;
 import play.db.jpa.JPAApi;
 import play.mvc.Result;
+import services.publix.InitDataCache;
 import services.publix.ResultCreator;
 import services.publix.group.ChannelService;
 import services.publix.group.GroupService;
 import services.publix.workers.PersonalMultipleErrorMessages;
 import services.publix.workers.PersonalMultiplePublixUtils;
 import services.publix.workers.PersonalMultipleStudyAuthorisation;
-import utils.common.JsonUtils;
 
 /**
  * Implementation of JATOS' public API for studies run by
@@ -50,11 +50,11 @@ public class PersonalMultiplePublix extends Publix<PersonalMultipleWorker>
 			ResultCreator resultCreator, GroupService groupService,
 			ChannelService channelService,
 			PersonalMultipleErrorMessages errorMessages,
-			StudyAssets studyAssets, JsonUtils jsonUtils,
+			StudyAssets studyAssets, InitDataCache initDataCache,
 			ComponentResultDao componentResultDao,
 			StudyResultDao studyResultDao, GroupResultDao groupResultDao) {
 		super(jpa, publixUtils, studyAuthorisation, groupService,
-				channelService, errorMessages, studyAssets, jsonUtils,
+				channelService, errorMessages, studyAssets, initDataCache,
 				componentResultDao, studyResultDao, groupResultDao);
 		this.publixUtils = publixUtils;
 		this.studyAuthorisation = studyAuthorisation;
@@ -17,13 +17,13 @@ import models.common.workers.PersonalSingleWorker;
 import play.Logger;
 import play.db.jpa.JPAApi;
 import play.mvc.Result;
+import services.publix.InitDataCache;
 import services.publix.ResultCreator;
 import services.publix.group.ChannelService;
 import services.publix.group.GroupService;
 import services.publix.workers.PersonalSingleErrorMessages;
 import services.publix.workers.PersonalSinglePublixUtils;
 import services.publix.workers.PersonalSingleStudyAuthorisation;
-import utils.common.JsonUtils;
 
 /**
  * Implementation of JATOS' public API for personal single study runs (runs with
@@ -51,10 +51,10 @@ public class PersonalSinglePublix extends Publix<PersonalSingleWorker>
 			ResultCreator resultCreator, GroupService groupService,
 			ChannelService channelService,
 			PersonalSingleErrorMessages errorMessages, StudyAssets studyAssets,
-			JsonUtils jsonUtils, ComponentResultDao componentResultDao,
+			InitDataCache initDataCache, ComponentResultDao componentResultDao,
 			StudyResultDao studyResultDao, GroupResultDao groupResultDao) {
 		super(jpa, publixUtils, studyAuthorisation, groupService,
-				channelService, errorMessages, studyAssets, jsonUtils,
+				channelService, errorMessages, studyAssets, initDataCache,
 				componentResultDao, studyResultDao, groupResultDao);
 		this.publixUtils = publixUtils;
 		this.studyAuthorisation = studyAuthorisation;
@@ -0,0 +1,31 @@
+package exceptions.publix;
+
+import org.apache.http.HttpStatus;
+
+import play.mvc.Http;
+import play.mvc.Result;
+
+/**
+ * The request can't be handled right now (e.g. a lock is busy) - the client
+ * should try again after retryAfterSeconds.
+ */
+@SuppressWarnings("serial")
+public class ServiceUnavailablePublixException extends PublixException {
+
+	private final int retryAfterSeconds;
+
+	public ServiceUnavailablePublixException(String message,
+			int retryAfterSeconds) {
+		super(message, HttpStatus.SC_SERVICE_UNAVAILABLE);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	@Override
+	public Result getSimpleResult() {
+		Http.Context.current().response().setHeader(
+				Http.HeaderNames.RETRY_AFTER,
+				String.valueOf(retryAfterSeconds));
+		return super.getSimpleResult();
+	}
+
+}
@@ -8,9 +8,11 @@ import models.common.workers.JatosWorker;
 import models.common.workers.MTWorker;
 import models.common.workers.PersonalMultipleWorker;
 import models.common.workers.PersonalSingleWorker;
-import play.libs.akka.AkkaGuiceSupport;
 import services.publix.StudyAuthorisation;
-import services.publix.group.akka.actors.GroupDispatcherRegistry;
+import services.publix.group.GroupAllocator;
+import services.publix.group.akka.GroupDispatcherRegistry;
+import services.publix.journal.ResultJournal;
+import services.publix.journal.ResultJournalApplier;
 import services.publix.PublixUtils;
 import services.publix.workers.GeneralSinglePublixUtils;
 import services.publix.workers.GeneralSingleStudyAuthorisation;
@@ -28,7 +30,7 @@ import services.publix.workers.PersonalSingleStudyAuthorisation;
  * 
  * @author Kristian Lange (2015)
  */
-public class PublixGuiceModule extends AbstractModule implements AkkaGuiceSupport {
+public class PublixGuiceModule extends AbstractModule {
 
 	@Override
 	protected void configure() {
@@ -56,8 +58,13 @@ public class PublixGuiceModule extends AbstractModule implements AkkaGuiceSuppor
 		bind(new TypeLiteral<PublixUtils<PersonalSingleWorker>>() {
 		}).to(PersonalSinglePublixUtils.class);
 
-		// Config which Akka actors should be handled by Guice
-		bindActor(GroupDispatcherRegistry.class, "group-dispatcher-registry-actor");
+		// Result journal has to recover and start applying right away
+		bind(ResultJournal.class).asEagerSingleton();
+		bind(ResultJournalApplier.class).asEagerSingleton();
+		// Index of the open groups is built during start
+		bind(GroupAllocator.class).asEagerSingleton();
+		// Other JATOS nodes need the GroupDispatcherGateway from the start
+		bind(GroupDispatcherRegistry.class).asEagerSingleton();
 	}
 
 }
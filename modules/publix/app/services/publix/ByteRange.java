@@ -0,0 +1,105 @@
+package services.publix;
+
+/**
+ * A single byte range of a file as requested by a HTTP 'Range' header (RFC
+ * 7233). Only single ranges in bytes are supported - anything else is ignored
+ * and the whole file is sent. Start and end are inclusive.
+ *
+ * @author Kristian Lange
+ */
+public class ByteRange {
+
+	private static final String BYTES_UNIT = "bytes=";
+
+	/**
+	 * The requested range doesn't overlap with the file
+	 */
+	public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+	private final long start;
+	private final long end;
+
+	private ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parses the given 'Range' header for a file with the given length.
+	 * Returns null if the header is missing, malformed or asks for more than
+	 * one range - in all these cases the whole file should be sent. Returns
+	 * UNSATISFIABLE if the range is outside of the file.
+	 */
+	public static ByteRange parse(String rangeHeader, long fileLength) {
+		if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT)) {
+			return null;
+		}
+		String range = rangeHeader.substring(BYTES_UNIT.length()).trim();
+		int dashIndex = range.indexOf('-');
+		if (range.contains(",") || dashIndex < 0) {
+			return null;
+		}
+		String startStr = range.substring(0, dashIndex).trim();
+		String endStr = range.substring(dashIndex + 1).trim();
+		try {
+			if (startStr.isEmpty()) {
+				// Suffix range: the last n bytes
+				long suffixLength = Long.parseLong(endStr);
+				if (suffixLength <= 0 || fileLength == 0) {
+					return UNSATISFIABLE;
+				}
+				return new ByteRange(Math.max(0, fileLength - suffixLength),
+						fileLength - 1);
+			}
+			long start = Long.parseLong(startStr);
+			long end = endStr.isEmpty() ? fileLength - 1
+					: Long.parseLong(endStr);
+			if (start < 0 || end < start) {
+				return null;
+			}
+			if (start >= fileLength) {
+				return UNSATISFIABLE;
+			}
+			return new ByteRange(start, Math.min(end, fileLength - 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a range with the same start but not longer than maxLength.
+	 */
+	public ByteRange limit(long maxLength) {
+		if (!isSatisfiable() || getLength() <= maxLength) {
+			return this;
+		}
+		return new ByteRange(start, start + maxLength - 1);
+	}
+
+	public boolean isSatisfiable() {
+		return start >= 0;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Value of the 'Content-Range' header for this range
+	 */
+	public String toContentRange(long fileLength) {
+		if (!isSatisfiable()) {
+			return "bytes */" + fileLength;
+		}
+		return "bytes " + start + "-" + end + "/" + fileLength;
+	}
+
+}
@@ -1,11 +1,50 @@
 package services.publix;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 
+import exceptions.publix.BadRequestPublixException;
+import exceptions.publix.InternalServerErrorPublixException;
+import exceptions.publix.PublixException;
 import exceptions.publix.UnsupportedMediaTypePublixException;
+import play.Logger;
+import play.mvc.Http;
+import play.mvc.Http.RawBuffer;
 import play.mvc.Http.RequestBody;
+import utils.common.JsonUtils;
 import utils.common.XMLUtils;
 
 /**
@@ -13,6 +52,12 @@ import utils.common.XMLUtils;
  */
 public class HttpHelpers {
 
+	private static final String CLASS_NAME = HttpHelpers.class
+			.getSimpleName();
+
+	private static final DateTimeFormatter HTTP_DATE_FORMATTER = DateTimeFormatter.RFC_1123_DATE_TIME
+			.withZone(ZoneOffset.UTC);
+
 	/**
 	 * Retrieves the text from the request body and returns it as a String. If
 	 * the content is in JSON or XML format it's parsed to bring the String into
@@ -44,6 +89,166 @@ public class HttpHelpers {
 				PublixErrorMessages.SUBMITTED_DATA_UNKNOWN_FORMAT);
 	}
 	
+	/**
+	 * Like {@link #getDataFromRequestBody(RequestBody)} but for large data: it
+	 * reads the raw request body (BodyParser.Raw) as a stream and writes it
+	 * into a {@link ResultDataBuffer}. JSON is validated and brought into the
+	 * same compact format token by token without building a tree in memory.
+	 * If the body wasn't parsed as raw it falls back to
+	 * getDataFromRequestBody.
+	 */
+	public static ResultDataBuffer readDataFromRequestBody(Http.Request request)
+			throws PublixException {
+		RawBuffer raw = request.body().asRaw();
+		try {
+			if (raw == null) {
+				return ResultDataBuffer
+						.of(getDataFromRequestBody(request.body()));
+			}
+			String contentType = request
+					.getHeader(Http.HeaderNames.CONTENT_TYPE);
+			String mediaType = getMediaType(contentType);
+			ResultDataBuffer buffer = new ResultDataBuffer();
+			try (InputStream in = openRawStream(raw);
+					OutputStream out = buffer.getOutputStream()) {
+				if (isJson(mediaType)) {
+					normalizeJson(in, out);
+				} else if (isXml(mediaType)) {
+					normalizeXml(in, out);
+				} else if (mediaType.startsWith("text/")) {
+					copyText(in, getCharset(contentType), out);
+				} else {
+					throw new UnsupportedMediaTypePublixException(
+							PublixErrorMessages.SUBMITTED_DATA_UNKNOWN_FORMAT);
+				}
+			} catch (PublixException | IOException e) {
+				buffer.close();
+				throw e;
+			}
+			return buffer;
+		} catch (IOException e) {
+			Logger.error(CLASS_NAME + ".readDataFromRequestBody", e);
+			throw new InternalServerErrorPublixException(
+					PublixErrorMessages.COULDNT_STORE_RESULT);
+		}
+	}
+
+	private static InputStream openRawStream(RawBuffer raw)
+			throws IOException {
+		byte[] bytes = raw.asBytes();
+		if (bytes != null) {
+			return new ByteArrayInputStream(bytes);
+		}
+		return new FileInputStream(raw.asFile());
+	}
+
+	private static String getMediaType(String contentType) {
+		if (contentType == null) {
+			return "";
+		}
+		int paramIndex = contentType.indexOf(';');
+		String mediaType = paramIndex >= 0
+				? contentType.substring(0, paramIndex) : contentType;
+		return mediaType.trim().toLowerCase();
+	}
+
+	private static Charset getCharset(String contentType) {
+		if (contentType != null) {
+			for (String param : contentType.split(";")) {
+				String[] keyValue = param.trim().split("=", 2);
+				if (keyValue.length == 2
+						&& keyValue[0].trim().equalsIgnoreCase("charset")) {
+					try {
+						return Charset.forName(
+								keyValue[1].trim().replace("\"", ""));
+					} catch (IllegalCharsetNameException
+							| UnsupportedCharsetException e) {
+						break;
+					}
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	private static boolean isJson(String mediaType) {
+		return mediaType.equals("application/json")
+				|| mediaType.equals("text/json") || mediaType.endsWith("+json");
+	}
+
+	private static boolean isXml(String mediaType) {
+		return mediaType.equals("application/xml")
+				|| mediaType.equals("text/xml") || mediaType.endsWith("+xml");
+	}
+
+	/**
+	 * Copies exactly one JSON value from in to out in compact format (the
+	 * same as JsonNode.toString()).
+	 */
+	private static void normalizeJson(InputStream in, OutputStream out)
+			throws IOException, BadRequestPublixException {
+		JsonFactory factory = JsonUtils.OBJECTMAPPER.getFactory();
+		try (JsonParser parser = factory.createParser(in);
+				JsonGenerator generator = factory.createGenerator(out,
+						JsonEncoding.UTF8)) {
+			if (parser.nextToken() == null) {
+				throw new BadRequestPublixException(
+						PublixErrorMessages.SUBMITTED_DATA_INVALID_JSON);
+			}
+			generator.copyCurrentStructure(parser);
+			if (parser.nextToken() != null) {
+				throw new BadRequestPublixException(
+						PublixErrorMessages.SUBMITTED_DATA_INVALID_JSON);
+			}
+		} catch (JsonProcessingException e) {
+			throw new BadRequestPublixException(
+					PublixErrorMessages.SUBMITTED_DATA_INVALID_JSON);
+		}
+	}
+
+	/**
+	 * XML needs a DOM to be normalized - but at least it's built from the
+	 * stream and written back into one.
+	 */
+	private static void normalizeXml(InputStream in, OutputStream out)
+			throws BadRequestPublixException {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory
+					.newInstance();
+			factory.setFeature(
+					"http://apache.org/xml/features/disallow-doctype-decl",
+					true);
+			factory.setNamespaceAware(true);
+			Document xml = factory.newDocumentBuilder().parse(in);
+			TransformerFactory.newInstance().newTransformer().transform(
+					new DOMSource(xml), new StreamResult(out));
+		} catch (ParserConfigurationException | SAXException | IOException
+				| TransformerException e) {
+			throw new BadRequestPublixException(
+					PublixErrorMessages.SUBMITTED_DATA_UNKNOWN_FORMAT);
+		}
+	}
+
+	private static void copyText(InputStream in, Charset charset,
+			OutputStream out) throws IOException {
+		if (charset.equals(StandardCharsets.UTF_8)) {
+			byte[] bytes = new byte[8192];
+			int length;
+			while ((length = in.read(bytes)) != -1) {
+				out.write(bytes, 0, length);
+			}
+			return;
+		}
+		Reader reader = new InputStreamReader(in, charset);
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		char[] chars = new char[8192];
+		int length;
+		while ((length = reader.read(chars)) != -1) {
+			writer.write(chars, 0, length);
+		}
+		writer.flush();
+	}
+
 	/**
 	 * Generates an URL with protocol HTTP. Takes the hostname from the request,
 	 * the url's path from the given urlPath, and the query string again from
@@ -64,4 +269,29 @@ public class HttpHelpers {
 		return "http://" + requestHost + newUrlPath;
 	}
 
+	/**
+	 * Formats the given time (in ms since the epoch) as a HTTP date, e.g. for
+	 * the 'Last-Modified' header.
+	 */
+	public static String formatHttpDate(long millis) {
+		return HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(millis));
+	}
+
+	/**
+	 * Parses a HTTP date (e.g. from the 'If-Modified-Since' header) and
+	 * returns it in ms since the epoch. Returns -1 if the date is missing or
+	 * malformed.
+	 */
+	public static long parseHttpDate(String httpDate) {
+		if (httpDate == null) {
+			return -1;
+		}
+		try {
+			return ZonedDateTime.parse(httpDate, HTTP_DATE_FORMATTER)
+					.toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
 }
@@ -0,0 +1,169 @@
+package services.publix;
+
+import java.io.IOException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import daos.common.StudyRunCache;
+import general.common.Metrics;
+import models.common.Batch;
+import models.common.Component;
+import models.common.Study;
+import models.common.StudyResult;
+import utils.common.JsonUtils;
+
+/**
+ * Cache of the marshaled parts of the init data (study properties, batch
+ * properties, component list and component properties). The parts are stored
+ * as raw JSON bytes together with the entity's version from the
+ * {@link StudyRunCache}. With each initData request only the worker's study
+ * session data has to be added. It holds at most MAX_FRAGMENTS parts - the
+ * least recently used ones are dropped first.
+ *
+ * The init data's ETag is made of the same versions together with the
+ * version of the study session data - so the init data don't have to be
+ * hashed. The versions start anew with each JATOS start, therefore the ETag
+ * has the start time too.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class InitDataCache {
+
+	private static final String METRIC_PREFIX = "initDataCache.";
+
+	/**
+	 * Max number of cached parts: each study has two, each batch and each
+	 * component one
+	 */
+	private static final int MAX_FRAGMENTS = 10000;
+
+	private final JsonUtils jsonUtils;
+	private final StudyRunCache studyRunCache;
+	private final Metrics metrics;
+
+	/**
+	 * Distinguishes the ETags of this JATOS run from the ones of earlier runs
+	 */
+	private final String run = Long.toString(System.currentTimeMillis(),
+			Character.MAX_RADIX);
+
+	private final Cache<String, Fragment> fragmentCache = CacheBuilder
+			.newBuilder().maximumSize(MAX_FRAGMENTS).build();
+
+	@Inject
+	InitDataCache(JsonUtils jsonUtils, StudyRunCache studyRunCache,
+			Metrics metrics) {
+		this.jsonUtils = jsonUtils;
+		this.studyRunCache = studyRunCache;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Has to be called before the study, batch and component are loaded from
+	 * the DB. Its return value has to be passed on to
+	 * {@link #initData(long, Batch, StudyResult, Study, Component)}.
+	 */
+	public long getEpoch() {
+		return studyRunCache.getEpoch();
+	}
+
+	/**
+	 * Returns the init data as JSON (UTF-8 bytes) together with its ETag.
+	 * Only the parts that changed since the last call are marshaled.
+	 */
+	public InitData initData(long epoch, Batch batch, StudyResult studyResult,
+			Study study, Component component) throws IOException {
+		long studyVersion = studyRunCache.getStudyVersion(study.getId());
+		long batchVersion = studyRunCache.getBatchVersion(batch.getId());
+		long componentVersion = studyRunCache
+				.getComponentVersion(component.getId());
+		byte[] studyProperties = fragment("study-" + study.getId(),
+				studyVersion, epoch, () -> jsonUtils.asJsonBytesForPublix(study));
+		byte[] batchProperties = fragment("batch-" + batch.getId(),
+				batchVersion, epoch,
+				() -> jsonUtils.asJsonBytesForPublix(batch));
+		byte[] componentList = fragment("componentList-" + study.getId(),
+				studyVersion, epoch,
+				() -> jsonUtils.componentListForInitData(study));
+		byte[] componentProperties = fragment("component-" + component.getId(),
+				componentVersion, epoch,
+				() -> jsonUtils.asJsonBytesForPublix(component));
+		byte[] json = jsonUtils.initData(studyProperties, batchProperties,
+				componentList, componentProperties,
+				studyResult.getStudySessionData());
+		String eTag;
+		if (studyVersion <= epoch && batchVersion <= epoch
+				&& componentVersion <= epoch) {
+			eTag = "\"" + run + "-" + studyVersion + "-" + batchVersion + "-"
+					+ componentVersion + "-" + studyResult.getId() + "-"
+					+ studyResult.getStudySessionVersion() + "\"";
+		} else {
+			// Changed while we loaded it: we don't know the versions of the
+			// parts - only hashing is safe
+			metrics.increment(METRIC_PREFIX + "hashedETags");
+			eTag = "\"" + Hashing.sha1().hashBytes(json).toString() + "\"";
+		}
+		return new InitData(json, eTag);
+	}
+
+	private byte[] fragment(String key, long version, long epoch,
+			FragmentRenderer renderer) throws IOException {
+		Fragment fragment = fragmentCache.getIfPresent(key);
+		if (fragment != null && fragment.version == version) {
+			metrics.increment(METRIC_PREFIX + "hits");
+			return fragment.json;
+		}
+		metrics.increment(METRIC_PREFIX + "misses");
+		byte[] json = renderer.render();
+		// If the version is newer than the epoch the entity was changed while
+		// we loaded it: we don't know to which version our state belongs
+		if (version <= epoch) {
+			fragmentCache.put(key, new Fragment(version, json));
+		}
+		return json;
+	}
+
+	/**
+	 * Init data as JSON (UTF-8 bytes) and its entity tag (including the
+	 * quotes)
+	 */
+	public static class InitData {
+		private final byte[] json;
+		private final String eTag;
+
+		InitData(byte[] json, String eTag) {
+			this.json = json;
+			this.eTag = eTag;
+		}
+
+		public byte[] getJson() {
+			return json;
+		}
+
+		public String getETag() {
+			return eTag;
+		}
+	}
+
+	@FunctionalInterface
+	private interface FragmentRenderer {
+		byte[] render() throws IOException;
+	}
+
+	private static class Fragment {
+		private final long version;
+		private final byte[] json;
+
+		Fragment(long version, byte[] json) {
+			this.version = version;
+			this.json = json;
+		}
+	}
+
+}
@@ -17,8 +17,12 @@ public class PublixErrorMessages {
 	public static final String UNKNOWN_WORKER_TYPE = "Unknown worker type";
 	public static final String STUDY_CAN_BE_DONE_ONLY_ONCE = "Study can be done only once.";
 	public static final String SUBMITTED_DATA_UNKNOWN_FORMAT = "Submitted data have an unknown format.";
+	public static final String SUBMITTED_DATA_INVALID_JSON = "Submitted data aren't valid JSON.";
 	public static final String NO_WORKER_IN_SESSION = "Sorry this study is not available to you (any more). Maybe you tried to reload a component that wasn't allowed to be reloaded?";
 	public static final String GROUP_STUDY_NOT_POSSIBLE_TWICE = "It's not possible to run a group study twice.";
+	public static final String COULDNT_STORE_RESULT = "Couldn't store the submitted data. Please try again.";
+	public static final String STUDY_RUN_BUSY = "Another request of this study run is still being processed. Please try again.";
+	public static final String GROUPS_BUSY = "Too many members are joining the groups of this batch right now. Please try again.";
 
 	public String workerNotCorrectType(Long workerId) {
 		return "The worker with ID " + workerId
@@ -130,6 +134,10 @@ public class PublixErrorMessages {
 				+ " isn't member in any group.";
 	}
 
+	public String studyAssetsFileNotFound(String filePath) {
+		return "Resource \"" + filePath + "\" couldn't be found.";
+	}
+
 	public String studyAssetsNotAllowedOutsideRun(String filePath) {
 		return "You tried to access the file " + filePath
 				+ " but this study was never started.";
@@ -4,43 +4,14 @@ import java.util.List;
 
 import models.common.ComponentResult;
 import models.common.ComponentResult.ComponentState;
-import models.common.Study;
 import models.common.StudyResult;
 import models.common.StudyResult.StudyState;
-import models.common.workers.Worker;
 
 /**
  * @author Kristian Lange
  */
 public abstract class PublixHelpers {
 
-	/**
-	 * Checks if the worker finished this study already. 'Finished' includes
-	 * failed and aborted.
-	 */
-	public static boolean finishedStudyAlready(Worker worker, Study study) {
-		for (StudyResult studyResult : worker.getStudyResultList()) {
-			if (studyResult.getStudy().equals(study)
-					&& studyDone(studyResult)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	/**
-	 * Checks if the worker ever did this study independent of the study
-	 * result's state.
-	 */
-	public static boolean didStudyAlready(Worker worker, Study study) {
-		for (StudyResult studyResult : worker.getStudyResultList()) {
-			if (studyResult.getStudy().equals(study)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 	/**
 	 * True if StudyResult's state is in FINISHED or ABORTED or FAIL. False
 	 * otherwise.
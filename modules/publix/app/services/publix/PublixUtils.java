@@ -1,18 +1,22 @@
 package services.publix;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
 
-import daos.common.BatchDao;
-import daos.common.ComponentDao;
 import daos.common.ComponentResultDao;
-import daos.common.StudyDao;
+import daos.common.ResultDataFileStore;
+import daos.common.ResultDataFileStore.StoredData;
 import daos.common.StudyResultDao;
+import daos.common.StudyRunCache;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.ForbiddenReloadException;
+import exceptions.publix.InternalServerErrorPublixException;
 import exceptions.publix.NotFoundPublixException;
 import exceptions.publix.PublixException;
 import models.common.Batch;
@@ -23,6 +27,9 @@ import models.common.Study;
 import models.common.StudyResult;
 import models.common.StudyResult.StudyState;
 import models.common.workers.Worker;
+import play.Logger;
+import services.publix.journal.JournalEntry;
+import services.publix.journal.ResultJournal;
 
 /**
  * Service class with functions that are common for all classes that extend
@@ -32,28 +39,31 @@ import models.common.workers.Worker;
  */
 public abstract class PublixUtils<T extends Worker> {
 
+	private static final String CLASS_NAME = PublixUtils.class
+			.getSimpleName();
+
 	private final ResultCreator resultCreator;
 	protected final PublixErrorMessages errorMessages;
-	private final StudyDao studyDao;
 	private final StudyResultDao studyResultDao;
-	private final ComponentDao componentDao;
 	private final ComponentResultDao componentResultDao;
 	private final WorkerDao workerDao;
-	private final BatchDao batchDao;
+	private final StudyRunCache studyRunCache;
+	private final ResultJournal resultJournal;
+	private final ResultDataFileStore resultDataFileStore;
 
 	public PublixUtils(ResultCreator resultCreator,
-			PublixErrorMessages errorMessages, StudyDao studyDao,
-			StudyResultDao studyResultDao, ComponentDao componentDao,
+			PublixErrorMessages errorMessages, StudyResultDao studyResultDao,
 			ComponentResultDao componentResultDao, WorkerDao workerDao,
-			BatchDao batchDao) {
+			StudyRunCache studyRunCache, ResultJournal resultJournal,
+			ResultDataFileStore resultDataFileStore) {
 		this.resultCreator = resultCreator;
 		this.errorMessages = errorMessages;
-		this.studyDao = studyDao;
 		this.studyResultDao = studyResultDao;
-		this.componentDao = componentDao;
 		this.componentResultDao = componentResultDao;
 		this.workerDao = workerDao;
-		this.batchDao = batchDao;
+		this.studyRunCache = studyRunCache;
+		this.resultJournal = resultJournal;
+		this.resultDataFileStore = resultDataFileStore;
 	}
 
 	/**
@@ -124,6 +134,115 @@ public abstract class PublixUtils<T extends Worker> {
 		return resultCreator.createComponentResult(studyResult, component);
 	}
 
+	/**
+	 * Sets the study session data of the given StudyResult. If the result
+	 * journal is enabled the change is only written into the journal and gets
+	 * into the database later on.
+	 */
+	public void setStudySessionData(StudyResult studyResult,
+			String studySessionData) throws InternalServerErrorPublixException {
+		if (resultJournal.isEnabled()) {
+			appendToResultJournal(JournalEntry.studySessionData(
+					studyResult.getId(), studySessionData));
+			return;
+		}
+		studyResult.setStudySessionData(studySessionData);
+		studyResultDao.update(studyResult);
+	}
+
+	/**
+	 * Sets the result data of the given ComponentResult and puts it into state
+	 * RESULTDATA_POSTED. Result data that are too big to be held in memory are
+	 * streamed directly into the database. Otherwise, if the result journal is
+	 * enabled, the change is only written into the journal and gets into the
+	 * database later on.
+	 */
+	public void setResultData(StudyResult studyResult,
+			ComponentResult componentResult, ResultDataBuffer resultData)
+			throws InternalServerErrorPublixException {
+		if (resultDataFileStore.isEnabled()) {
+			storeResultDataInFile(componentResult, resultData);
+			return;
+		}
+		if (resultData.isInMemory()) {
+			setResultData(studyResult, componentResult, resultData.asString());
+			return;
+		}
+		try (Reader reader = resultData.openReader()) {
+			componentResultDao.updateData(componentResult, reader);
+		} catch (IOException e) {
+			Logger.error(CLASS_NAME + ".setResultData", e);
+			throw new InternalServerErrorPublixException(
+					PublixErrorMessages.COULDNT_STORE_RESULT);
+		}
+		componentResult.setComponentState(ComponentState.RESULTDATA_POSTED);
+		componentResultDao.update(componentResult);
+	}
+
+	private void storeResultDataInFile(ComponentResult componentResult,
+			ResultDataBuffer resultData)
+			throws InternalServerErrorPublixException {
+		StoredData storedData;
+		try (InputStream in = resultData.openInputStream()) {
+			storedData = resultDataFileStore.store(in);
+		} catch (IOException e) {
+			Logger.error(CLASS_NAME + ".storeResultDataInFile", e);
+			throw new InternalServerErrorPublixException(
+					PublixErrorMessages.COULDNT_STORE_RESULT);
+		}
+		componentResult.setDataRef(storedData.getRef(), storedData.getSize());
+		componentResult.setComponentState(ComponentState.RESULTDATA_POSTED);
+		componentResultDao.update(componentResult);
+	}
+
+	private void setResultData(StudyResult studyResult,
+			ComponentResult componentResult, String resultData)
+			throws InternalServerErrorPublixException {
+		if (resultJournal.isEnabled()) {
+			appendToResultJournal(JournalEntry.resultData(studyResult.getId(),
+					componentResult.getId(), resultData));
+			return;
+		}
+		componentResult.setData(resultData);
+		componentResult.setComponentState(ComponentState.RESULTDATA_POSTED);
+		componentResultDao.update(componentResult);
+	}
+
+	/**
+	 * Finishes the given ComponentResult with state FINISHED if successful or
+	 * FAIL otherwise and sets the error message. If the result journal is
+	 * enabled the change is only written into the journal and gets into the
+	 * database later on.
+	 */
+	public void finishComponent(StudyResult studyResult,
+			ComponentResult componentResult, boolean successful,
+			String errorMsg) throws InternalServerErrorPublixException {
+		if (resultJournal.isEnabled()) {
+			appendToResultJournal(JournalEntry.componentFinished(
+					studyResult.getId(), componentResult.getId(), successful,
+					errorMsg));
+			return;
+		}
+		if (successful) {
+			componentResult.setComponentState(ComponentState.FINISHED);
+		} else {
+			componentResult.setComponentState(ComponentState.FAIL);
+		}
+		componentResult.setErrorMsg(errorMsg);
+		componentResultDao.update(componentResult);
+	}
+
+	private void appendToResultJournal(JournalEntry entry)
+			throws InternalServerErrorPublixException {
+		try {
+			resultJournal.append(entry);
+		} catch (IOException e) {
+			Logger.error(CLASS_NAME + ".appendToResultJournal", e);
+			throw new InternalServerErrorPublixException(
+					PublixErrorMessages.COULDNT_STORE_RESULT);
+		}
+	}
+
 	private void finishComponentResult(ComponentResult componentResult,
 			ComponentState state) {
 		componentResult.setComponentState(state);
@@ -138,6 +257,9 @@ public abstract class PublixUtils<T extends Worker> {
 	 * message as an abort message.
 	 */
 	public void abortStudy(String message, StudyResult studyResult) {
+		// Pending journal entries must not bring back the data later on
+		resultJournal.applyPending(studyResult);
+
 		// Put current ComponentResult into state ABORTED
 		ComponentResult currentComponentResult = retrieveCurrentComponentResult(
 				studyResult);
@@ -179,6 +301,8 @@ public abstract class PublixUtils<T extends Worker> {
 	 */
 	public String finishStudyResult(Boolean successful, String errorMsg,
 			StudyResult studyResult) {
+		// Pending journal entries must not bring back the data later on
+		resultJournal.applyPending(studyResult);
 		String confirmationCode;
 		if (successful) {
 			finishAllComponentResults(studyResult);
@@ -228,21 +352,18 @@ public abstract class PublixUtils<T extends Worker> {
 	 * actually finishing the prior study run.
 	 * 
 	 * It should be max one StudyResult to be treated in this way since we call
-	 * this method during start of each study run, but we iterate over all
-	 * StudyResults of this worker just in case.
+	 * this method during start of each study run, but we query all unfinished
+	 * StudyResults of this worker and study just in case.
 	 */
 	private void finishAllPriorStudyResultsOfWorker(Worker worker,
 			Study study) {
-		List<StudyResult> studyResultList = worker.getStudyResultList();
+		List<StudyResult> studyResultList = studyResultDao
+				.findAllUnfinishedByWorkerAndStudy(worker, study);
 		for (StudyResult studyResult : studyResultList) {
-			if (study.getId().equals(studyResult.getStudy().getId())
-					&& !PublixHelpers.studyDone(studyResult)) {
-				// Should be max. one StudyResult to finish this way since we do
-				// this in every study start
-				finishStudyResult(false,
-						PublixErrorMessages.ABANDONED_STUDY_BY_WORKER,
-						studyResult);
-			}
+			// Should be max. one StudyResult to finish this way since we do
+			// this in every study start
+			finishStudyResult(false,
+					PublixErrorMessages.ABANDONED_STUDY_BY_WORKER, studyResult);
 		}
 	}
 
@@ -254,21 +375,19 @@ public abstract class PublixUtils<T extends Worker> {
 	 */
 	public StudyResult retrieveWorkersLastStudyResult(Worker worker,
 			Study study) throws ForbiddenPublixException {
-		int studyResultListSize = worker.getStudyResultList().size();
-		for (int i = (studyResultListSize - 1); i >= 0; i--) {
-			StudyResult studyResult = worker.getStudyResultList().get(i);
-			if (studyResult.getStudy().getId().equals(study.getId())) {
-				if (PublixHelpers.studyDone(studyResult)) {
-					throw new ForbiddenPublixException(errorMessages
-							.workerFinishedStudyAlready(worker, study.getId()));
-				} else {
-					return studyResult;
-				}
-			}
+		StudyResult studyResult = studyResultDao
+				.findLastByWorkerAndStudy(worker, study);
+		if (studyResult == null) {
+			// This worker never started a StudyResult of this study
+			throw new ForbiddenPublixException(
+					errorMessages.workerNeverDidStudy(worker, study.getId()));
+		}
+		if (PublixHelpers.studyDone(studyResult)) {
+			throw new ForbiddenPublixException(errorMessages
+					.workerFinishedStudyAlready(worker, study.getId()));
 		}
-		// This worker never started a StudyResult of this study
-		throw new ForbiddenPublixException(
-				errorMessages.workerNeverDidStudy(worker, study.getId()));
+		resultJournal.applyPending(studyResult);
+		return studyResult;
 	}
 
 	/**
@@ -381,7 +500,7 @@ public abstract class PublixUtils<T extends Worker> {
 	public Component retrieveComponent(Study study, Long componentId)
 			throws NotFoundPublixException, BadRequestPublixException,
 			ForbiddenPublixException {
-		Component component = componentDao.findById(componentId);
+		Component component = studyRunCache.findComponent(componentId);
 		if (component == null) {
 			throw new NotFoundPublixException(errorMessages
 					.componentNotExist(study.getId(), componentId));
@@ -419,7 +538,7 @@ public abstract class PublixUtils<T extends Worker> {
 	 * NotFoundPublixException if there is no such study.
 	 */
 	public Study retrieveStudy(Long studyId) throws NotFoundPublixException {
-		Study study = studyDao.findById(studyId);
+		Study study = studyRunCache.findStudy(studyId);
 		if (study == null) {
 			throw new NotFoundPublixException(
 					errorMessages.studyNotExist(studyId));
@@ -460,7 +579,7 @@ public abstract class PublixUtils<T extends Worker> {
 			// The default batch is always the first one in study's batch list
 			return study.getDefaultBatch();
 		} else {
-			return batchDao.findById(batchId);
+			return studyRunCache.findBatch(batchId);
 		}
 	}
 
@@ -482,7 +601,7 @@ public abstract class PublixUtils<T extends Worker> {
 					errorMessages.batchNotExist(batchIdStr));
 		}
 
-		Batch batch = batchDao.findById(batchId);
+		Batch batch = studyRunCache.findBatch(batchId);
 		if (batch == null) {
 			throw new ForbiddenPublixException(
 					errorMessages.batchNotExist(batchId));
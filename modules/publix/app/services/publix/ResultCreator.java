@@ -6,7 +6,6 @@ import javax.inject.Singleton;
 import daos.common.ComponentResultDao;
 import daos.common.GroupResultDao;
 import daos.common.StudyResultDao;
-import daos.common.worker.WorkerDao;
 import models.common.Batch;
 import models.common.Component;
 import models.common.ComponentResult;
@@ -26,16 +25,13 @@ public class ResultCreator {
 	private final ComponentResultDao componentResultDao;
 	private final StudyResultDao studyResultDao;
 	private final GroupResultDao groupResultDao;
-	private final WorkerDao workerDao;
 
 	@Inject
 	ResultCreator(ComponentResultDao componentResultDao,
-			StudyResultDao studyResultDao, GroupResultDao groupResultDao,
-			WorkerDao workerDao) {
+			StudyResultDao studyResultDao, GroupResultDao groupResultDao) {
 		this.componentResultDao = componentResultDao;
 		this.studyResultDao = studyResultDao;
 		this.groupResultDao = groupResultDao;
-		this.workerDao = workerDao;
 	}
 
 	/**
@@ -44,9 +40,9 @@ public class ResultCreator {
 	public StudyResult createStudyResult(Study study, Batch batch,
 			Worker worker) {
 		StudyResult studyResult = new StudyResult(study, batch);
+		// StudyResult owns the relationship - no need to update the worker
 		worker.addStudyResult(studyResult);
 		studyResultDao.create(studyResult);
-		workerDao.update(worker);
 		return studyResult;
 	}
 
@@ -0,0 +1,143 @@
+package services.publix;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import play.Logger;
+
+/**
+ * Holds submitted result data as UTF-8 encoded bytes. Up to MEMORY_THRESHOLD
+ * bytes are kept in memory - everything bigger is written into a temporary
+ * file, so a large result doesn't have to fit into the heap (several times).
+ * The temporary file is deleted with {@link #close()}.
+ *
+ * @author Kristian Lange
+ */
+public class ResultDataBuffer implements AutoCloseable {
+
+	private static final String CLASS_NAME = ResultDataBuffer.class
+			.getSimpleName();
+
+	public static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+	private File tempFile;
+	private OutputStream fileOut;
+	private long size;
+
+	/**
+	 * Returns a buffer that holds the given String
+	 */
+	public static ResultDataBuffer of(String data) throws IOException {
+		ResultDataBuffer buffer = new ResultDataBuffer();
+		if (data != null) {
+			try (OutputStream out = buffer.getOutputStream()) {
+				out.write(data.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns the stream to fill this buffer with UTF-8 encoded bytes. Closing
+	 * the stream finishes writing.
+	 */
+	public OutputStream getOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length)
+					throws IOException {
+				if (fileOut == null
+						&& size + length > MEMORY_THRESHOLD) {
+					spillToFile();
+				}
+				if (fileOut != null) {
+					fileOut.write(bytes, offset, length);
+				} else {
+					memory.write(bytes, offset, length);
+				}
+				size += length;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (fileOut != null) {
+					fileOut.close();
+				}
+			}
+		};
+	}
+
+	private void spillToFile() throws IOException {
+		tempFile = File.createTempFile("resultdata", ".tmp");
+		fileOut = new BufferedOutputStream(new FileOutputStream(tempFile));
+		memory.writeTo(fileOut);
+		memory = null;
+	}
+
+	/**
+	 * Size in bytes
+	 */
+	public long size() {
+		return size;
+	}
+
+	public boolean isInMemory() {
+		return tempFile == null;
+	}
+
+	/**
+	 * Returns the data as a String. Only allowed if the data are still in
+	 * memory.
+	 */
+	public String asString() {
+		if (!isInMemory()) {
+			throw new IllegalStateException(
+					"Result data too big to be held in memory");
+		}
+		return new String(memory.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	public InputStream openInputStream() throws IOException {
+		if (isInMemory()) {
+			return new ByteArrayInputStream(memory.toByteArray());
+		}
+		return new FileInputStream(tempFile);
+	}
+
+	public Reader openReader() throws IOException {
+		return new InputStreamReader(openInputStream(), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() {
+		if (tempFile == null) {
+			return;
+		}
+		try {
+			fileOut.close();
+		} catch (IOException e) {
+			// Nothing we can do
+		}
+		if (!tempFile.delete()) {
+			Logger.warn(CLASS_NAME + ".close: couldn't delete "
+					+ tempFile.getPath());
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package services.publix;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FilenameUtils;
+
+import general.common.Common;
+import general.common.Metrics;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
+import utils.common.IOUtils;
+
+/**
+ * Finds compressed variants of study assets files. Precompressed siblings
+ * (e.g. 'experiment.js.br' or 'experiment.js.gz' next to 'experiment.js') are
+ * used if they exist and aren't older than the file. Otherwise text files are
+ * compressed with gzip and the result is cached in a hidden directory in the
+ * study assets root. Brotli can't be generated with the JDK and is only used
+ * if a precompressed sibling exists.
+ *
+ * A cached gzip file has the size and the modification time of the file it
+ * was made of in its name: it's only used if both are still the same (an
+ * mtime alone isn't enough, e.g. a file copied with its old mtime). The
+ * compression doesn't run in the request's thread: a request that finds no
+ * cached gzip file gets the uncompressed file and the compression is queued
+ * in a background thread for the next request.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class StudyAssetsCompressor {
+
+	private static final String CLASS_NAME = StudyAssetsCompressor.class
+			.getSimpleName();
+
+	private static final String METRIC_PREFIX = "studyAssetsCompressor.";
+
+	/**
+	 * Directory within the study assets root where the generated gzip files
+	 * are stored. IOUtils removes a study's files with its study assets.
+	 */
+	public static final String COMPRESSED_DIR_NAME = IOUtils.COMPRESSED_DIR_NAME;
+
+	public static final String GZIP = "gzip";
+	public static final String BROTLI = "br";
+
+	/**
+	 * Smaller files aren't worth it
+	 */
+	private static final long MIN_SIZE = 1024;
+
+	private static final long MAX_SIZE = 50 * 1024 * 1024;
+
+	private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(
+			Arrays.asList("html", "htm", "js", "css", "json", "xml", "svg",
+					"txt", "csv", "tsv", "map", "md"));
+
+	/**
+	 * Max number of files waiting to be compressed - more are dropped (and
+	 * queued again with their next request)
+	 */
+	private static final int MAX_QUEUED = 256;
+
+	private final Common common;
+	private final Metrics metrics;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Cached gzip files that are queued or being compressed
+	 */
+	private final Set<File> pending = ConcurrentHashMap.newKeySet();
+
+	@Inject
+	StudyAssetsCompressor(Common common, Metrics metrics,
+			ApplicationLifecycle lifecycle) {
+		this.common = common;
+		this.metrics = metrics;
+		this.executor = new ThreadPoolExecutor(1, 1, 0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(MAX_QUEUED), runnable -> {
+					Thread thread = new Thread(runnable,
+							"study-assets-compressor");
+					thread.setDaemon(true);
+					return thread;
+				});
+		metrics.registerGauge(METRIC_PREFIX + "queueDepth",
+				() -> executor.getQueue().size());
+		lifecycle.addStopHook(() -> {
+			executor.shutdownNow();
+			return F.Promise.pure(null);
+		});
+	}
+
+	/**
+	 * Returns a compressed variant of the given file that is accepted by the
+	 * client or null if there is none (yet). The filePath is the path of the
+	 * file relative to the study assets root.
+	 */
+	public CompressedFile findCompressed(File file, String filePath,
+			String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		if (accepts(acceptEncoding, BROTLI)) {
+			File brotliFile = new File(file.getPath() + ".br");
+			if (isUpToDate(brotliFile, file)) {
+				return new CompressedFile(brotliFile, BROTLI);
+			}
+		}
+		if (!accepts(acceptEncoding, GZIP)) {
+			return null;
+		}
+		File gzipFile = new File(file.getPath() + ".gz");
+		if (isUpToDate(gzipFile, file)) {
+			return new CompressedFile(gzipFile, GZIP);
+		}
+		if (!isCompressible(file)) {
+			return null;
+		}
+		// Read size and mtime only once: they are the cached file's name
+		long size = file.length();
+		long lastModified = file.lastModified();
+		File cachedGzipFile = new File(common.getStudyAssetsRootPath()
+				+ File.separator + COMPRESSED_DIR_NAME + File.separator
+				+ filePath + "." + size + "-" + lastModified + ".gz");
+		if (cachedGzipFile.isFile()) {
+			metrics.increment(METRIC_PREFIX + "hits");
+			return new CompressedFile(cachedGzipFile, GZIP);
+		}
+		metrics.increment(METRIC_PREFIX + "misses");
+		queueGzip(file, cachedGzipFile);
+		return null;
+	}
+
+	/**
+	 * Compresses the given file into the given cached gzip file in the
+	 * background - unless it's queued already or the queue is full.
+	 */
+	private void queueGzip(File file, File cachedGzipFile) {
+		if (!pending.add(cachedGzipFile)) {
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					gzip(file, cachedGzipFile);
+					deleteOutdated(file, cachedGzipFile);
+				} catch (IOException e) {
+					Logger.warn(CLASS_NAME + ".queueGzip: couldn't compress "
+							+ file.getPath(), e);
+				} finally {
+					pending.remove(cachedGzipFile);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pending.remove(cachedGzipFile);
+			metrics.increment(METRIC_PREFIX + "dropped");
+		}
+	}
+
+	/**
+	 * Deletes the cached gzip files of older versions of the given file
+	 */
+	private void deleteOutdated(File file, File cachedGzipFile) {
+		File[] siblings = cachedGzipFile.getParentFile().listFiles();
+		if (siblings == null) {
+			return;
+		}
+		String prefix = file.getName() + ".";
+		for (File sibling : siblings) {
+			String name = sibling.getName();
+			if (!sibling.equals(cachedGzipFile) && name.startsWith(prefix)
+					&& name.substring(prefix.length())
+							.matches("\\d+-\\d+\\.gz")) {
+				sibling.delete();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the Accept-Encoding header contains the given encoding
+	 * and doesn't forbid it with 'q=0'.
+	 */
+	private boolean accepts(String acceptEncoding, String encoding) {
+		for (String part : acceptEncoding.split(",")) {
+			String[] tokens = part.trim().split(";");
+			if (!tokens[0].trim().equalsIgnoreCase(encoding)) {
+				continue;
+			}
+			for (int i = 1; i < tokens.length; i++) {
+				String param = tokens[i].trim().replace(" ", "");
+				if (param.matches("q=0(\\.0*)?")) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A precompressed sibling has nothing stored with it - it's used if it
+	 * isn't older than the file
+	 */
+	private boolean isUpToDate(File compressedFile, File file) {
+		return compressedFile.isFile()
+				&& compressedFile.lastModified() >= file.lastModified();
+	}
+
+	private boolean isCompressible(File file) {
+		String extension = FilenameUtils.getExtension(file.getName())
+				.toLowerCase();
+		return COMPRESSIBLE_EXTENSIONS.contains(extension)
+				&& file.length() >= MIN_SIZE && file.length() <= MAX_SIZE;
+	}
+
+	/**
+	 * Compresses the file into a temporary file first and then moves it into
+	 * place: concurrent requests never see a half written file.
+	 */
+	private void gzip(File file, File gzipFile) throws IOException {
+		File parentDir = gzipFile.getParentFile();
+		if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
+			throw new IOException(
+					"Couldn't create directory " + parentDir.getPath());
+		}
+		File tempFile = File.createTempFile(gzipFile.getName(), ".tmp",
+				parentDir);
+		try {
+			try (OutputStream out = new GZIPOutputStream(
+					new FileOutputStream(tempFile))) {
+				Files.copy(file.toPath(), out);
+			}
+			Files.move(tempFile.toPath(), gzipFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	/**
+	 * A compressed file together with its content encoding
+	 */
+	public static class CompressedFile {
+		private final File file;
+		private final String encoding;
+
+		CompressedFile(File file, String encoding) {
+			this.file = file;
+			this.encoding = encoding;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public String getEncoding() {
+			return encoding;
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package services.publix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import general.common.Metrics;
+
+/**
+ * In-memory cache for the content of small files in the study assets (e.g.
+ * the components' HTML files). Before each use an entry is validated against
+ * the file's last modification time and size, so changes in the study assets
+ * take effect immediately. Files bigger than MAX_FILE_SIZE aren't cached and
+ * the cache doesn't hold more than MAX_TOTAL_SIZE bytes.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class StudyAssetsFileCache {
+
+	private static final String METRIC_PREFIX = "studyAssetsFileCache.";
+
+	private static final long MAX_FILE_SIZE = 1024 * 1024;
+
+	private static final long MAX_TOTAL_SIZE = 64 * 1024 * 1024;
+
+	private final Metrics metrics;
+
+	private final ConcurrentMap<String, Entry> entryMap = new ConcurrentHashMap<>();
+
+	private final AtomicLong totalSize = new AtomicLong();
+
+	@Inject
+	StudyAssetsFileCache(Metrics metrics) {
+		this.metrics = metrics;
+		metrics.registerGauge(METRIC_PREFIX + "bytes", totalSize::get);
+	}
+
+	/**
+	 * Returns the content of the given file either from the cache or, if the
+	 * file isn't cached or was changed, from the disk.
+	 */
+	public byte[] read(File file) throws IOException {
+		String key = file.getPath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Entry entry = entryMap.get(key);
+		if (entry != null && entry.lastModified == lastModified
+				&& entry.content.length == length) {
+			metrics.increment(METRIC_PREFIX + "hits");
+			return entry.content;
+		}
+		metrics.increment(METRIC_PREFIX + "misses");
+		byte[] content = Files.readAllBytes(file.toPath());
+		if (content.length != length || file.lastModified() != lastModified) {
+			// File changed while we read it: don't cache
+			remove(key);
+			return content;
+		}
+		if (content.length <= MAX_FILE_SIZE) {
+			put(key, new Entry(lastModified, content));
+		}
+		return content;
+	}
+
+	private void put(String key, Entry entry) {
+		Entry oldEntry = entryMap.put(key, entry);
+		long sizeDelta = entry.content.length
+				- (oldEntry != null ? oldEntry.content.length : 0);
+		if (totalSize.addAndGet(sizeDelta) > MAX_TOTAL_SIZE) {
+			// Simple but sufficient for the few files a study has: start over
+			entryMap.clear();
+			totalSize.set(0);
+		}
+	}
+
+	private void remove(String key) {
+		Entry oldEntry = entryMap.remove(key);
+		if (oldEntry != null) {
+			totalSize.addAndGet(-oldEntry.content.length);
+		}
+	}
+
+	private static class Entry {
+		private final long lastModified;
+		private final byte[] content;
+
+		Entry(long lastModified, byte[] content) {
+			this.lastModified = lastModified;
+			this.content = content;
+		}
+	}
+
+}
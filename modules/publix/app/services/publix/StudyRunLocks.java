@@ -0,0 +1,96 @@
+package services.publix;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import general.common.Metrics;
+
+/**
+ * Locks that serialize the requests of the same study run (same worker and
+ * same study). jatos.js retries a request if its response takes too long -
+ * without these locks the retry and the still running original request would
+ * change the same StudyResult in two concurrent transactions and one update
+ * would be lost silently.
+ *
+ * The lock has to be held until the request's transaction is committed,
+ * therefore it's taken by the StudyRunLockAction before the transaction
+ * starts.
+ *
+ * Every study run gets its own lock - two study runs never wait for each
+ * other. A lock is only weakly referenced by the map, so it's gone as soon as
+ * no request holds or waits for it anymore.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class StudyRunLocks {
+
+	public static final String METRIC_PREFIX = "studyRunLocks.";
+
+	/**
+	 * How long a request waits for the request before it of the same study
+	 * run. It's kept short, so a request thread isn't parked for long: if
+	 * it's exceeded the request is rejected with a 503 and jatos.js retries
+	 * it. jatos.js itself doesn't look at the Retry-After header: its retry
+	 * plugin (jquery.ajax-retry) waits Retry-After seconds if the header is
+	 * there, otherwise jatos.httpRetryWait - both are 1 s.
+	 */
+	public static final long LOCK_TIMEOUT_MS = 300;
+
+	/**
+	 * Value of the Retry-After header of a rejected request
+	 */
+	public static final int RETRY_AFTER_SECONDS = 1;
+
+	private final Metrics metrics;
+
+	private final LoadingCache<String, Lock> locks = CacheBuilder.newBuilder()
+			.weakValues().build(new CacheLoader<String, Lock>() {
+				@Override
+				public Lock load(String studyRun) {
+					return new ReentrantLock();
+				}
+			});
+
+	@Inject
+	StudyRunLocks(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Acquires the lock of the study run of the given worker and study and
+	 * returns it. The caller has to unlock it. Returns null if the lock
+	 * couldn't be acquired within LOCK_TIMEOUT_MS.
+	 */
+	public Lock lock(String workerId, String studyId)
+			throws InterruptedException {
+		Lock lock = locks.getUnchecked(workerId + ":" + studyId);
+		if (lock.tryLock()) {
+			metrics.increment(METRIC_PREFIX + "acquired");
+			return lock;
+		}
+		// Another request of this study run is still running - most likely
+		// the original request of a jatos.js retry
+		metrics.increment(METRIC_PREFIX + "contended");
+		long start = System.nanoTime();
+		boolean acquired = lock.tryLock(LOCK_TIMEOUT_MS,
+				TimeUnit.MILLISECONDS);
+		metrics.add(METRIC_PREFIX + "waitMs", TimeUnit.NANOSECONDS
+				.toMillis(System.nanoTime() - start));
+		if (!acquired) {
+			metrics.increment(METRIC_PREFIX + "timeouts");
+			return null;
+		}
+		metrics.increment(METRIC_PREFIX + "acquired");
+		return lock;
+	}
+
+}
@@ -1,73 +1,80 @@
 package services.publix.group;
 
-import static akka.pattern.Patterns.ask;
-
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
-import akka.actor.ActorRef;
-import akka.util.Timeout;
-import exceptions.publix.InternalServerErrorPublixException;
 import models.common.GroupResult;
 import models.common.StudyResult;
-import play.Logger;
 import play.mvc.WebSocket;
-import scala.concurrent.Await;
-import scala.concurrent.Future;
-import scala.concurrent.duration.Duration;
+import services.publix.group.akka.GroupChannelFlowControl;
+import services.publix.group.akka.GroupChannelHeartbeats;
+import services.publix.group.akka.GroupDispatcherRegistry;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.Joined;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.Left;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.PoisonChannel;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.ReassignChannel;
-import services.publix.group.akka.messages.GroupDispatcherRegistryProtocol.Get;
-import services.publix.group.akka.messages.GroupDispatcherRegistryProtocol.GetOrCreate;
-import services.publix.group.akka.messages.GroupDispatcherRegistryProtocol.ItsThisOne;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ResumePosition;
+import services.publix.group.matching.GroupIndex;
 
 /**
  * Service class that handles of opening and closing of group channels with
  * Akka.
- * 
+ *
+ * None of its methods waits for an actor: messages are just told to the right
+ * GroupDispatcher, and a new GroupChannel looks up its GroupDispatcher itself.
+ * This way a request thread never parks, e.g. if many clients join at once.
+ *
+ * In multi-node mode (see GroupDispatcherRegistry) finding a group's
+ * GroupDispatcher the first time needs the database. The lookup is started
+ * here, but it runs in the GroupDbExecutor and the request doesn't wait for
+ * it.
+ *
  * @author Kristian Lange (2015)
  */
 @Singleton
 public class ChannelService {
 
-	private static final String CLASS_NAME = ChannelService.class
-			.getSimpleName();
-
-	/**
-	 * Time to wait for an answer after asking an Akka actor
-	 */
-	private static final Timeout TIMEOUT = new Timeout(
-			Duration.create(5000l, "millis"));
+	private final GroupDispatcherRegistry groupDispatcherRegistry;
+	private final GroupChannelFlowControl flowControl;
+	private final GroupChannelHeartbeats heartbeats;
 
-	/**
-	 * Akka Actor of the GroupDispatcherRegistry. It exists only one and it's
-	 * created during startup of JATOS.
-	 */
 	@Inject
-	@Named("group-dispatcher-registry-actor")
-	private ActorRef groupDispatcherRegistry;
+	ChannelService(GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupChannelFlowControl flowControl,
+			GroupChannelHeartbeats heartbeats) {
+		this.groupDispatcherRegistry = groupDispatcherRegistry;
+		this.flowControl = flowControl;
+		this.heartbeats = heartbeats;
+	}
 
 	/**
-	 * Opens a new group channel WebSocket for the given StudyResult.
+	 * Opens a new group channel WebSocket for the given StudyResult. The
+	 * GroupChannel gets (or creates) its GroupDispatcher after the WebSocket
+	 * is opened. If this GroupDispatcher already has a group channel for this
+	 * StudyResult (e.g. after a reload) the old one is closed by the
+	 * GroupDispatcher. If the group's GroupDispatcher can't be found (e.g. in
+	 * multi-node mode the database can't be reached) the group channel is
+	 * closed right away - the client can try again later.
+	 * 
+	 * @param studyResult
+	 *            StudyResult of the group member
+	 * @param protocolVersion
+	 *            Version of the group channel protocol the client speaks (see
+	 *            GroupDispatcherProtocol)
+	 * @param resumePosition
+	 *            Where the client wants to resume after it lost its group
+	 *            channel or null
 	 */
-	public WebSocket<JsonNode> openGroupChannel(StudyResult studyResult)
-			throws InternalServerErrorPublixException {
+	public WebSocket<String> openGroupChannel(StudyResult studyResult,
+			int protocolVersion, ResumePosition resumePosition) {
 		GroupResult groupResult = studyResult.getActiveGroupResult();
 		if (groupResult == null) {
 			return null;
 		}
-		// Get the GroupDispatcher that will handle this GroupResult.
-		ActorRef groupDispatcher = getOrCreateGroupDispatcher(groupResult);
-		// If this GroupDispatcher already has a group channel for this
-		// StudyResult, close the old one before opening a new one.
-		closeGroupChannel(studyResult, groupDispatcher);
+		groupDispatcherRegistry.prepare(groupResult.getId());
 		return WebSocketBuilder.withGroupChannel(studyResult.getId(),
-				groupDispatcher);
+				groupResult.getId(), protocolVersion, resumePosition,
+				groupDispatcherRegistry, flowControl, heartbeats);
 	}
 
 	/**
@@ -76,32 +83,18 @@ public class ChannelService {
 	 * to a different one that is associated with the given GroupResult.
 	 */
 	public void reassignGroupChannel(StudyResult studyResult,
-			GroupResult currentGroupResult, GroupResult differentGroupResult)
-					throws InternalServerErrorPublixException {
-		ActorRef currentGroupDispatcher = getGroupDispatcher(
-				currentGroupResult);
-		// Get or create, because if the dispatcher was empty it was shutdown
-		// and has to be recreated
-		ActorRef differentGroupDispatcher = getOrCreateGroupDispatcher(
-				differentGroupResult);
-		if (currentGroupDispatcher == null
-				|| differentGroupDispatcher == null) {
-			Logger.error(CLASS_NAME
-					+ ".reassignGroupChannel: couldn't reassign group channel "
-					+ "from current group result " + currentGroupResult.getId()
-					+ " to different group result "
-					+ differentGroupResult.getId()
-					+ ". One of the dispatchers doesn't exist.");
-			throw new InternalServerErrorPublixException(
-					"Couldn't reassign group channel.");
-		}
-
-		currentGroupDispatcher.tell(new ReassignChannel(studyResult.getId(),
-				differentGroupDispatcher), ActorRef.noSender());
-		currentGroupDispatcher.tell(new Left(studyResult.getId()),
-				ActorRef.noSender());
-		differentGroupDispatcher.tell(new Joined(studyResult.getId()),
-				ActorRef.noSender());
+			GroupResult currentGroupResult, GroupResult differentGroupResult) {
+		groupDispatcherRegistry.prepare(differentGroupResult.getId());
+		sendMsg(currentGroupResult, new ReassignChannel(studyResult.getId(),
+				differentGroupResult.getId()), false);
+		sendMsg(currentGroupResult, new Left(studyResult.getId(),
+				currentGroupResult.getGroupState(),
+				GroupIndex.isStarted(currentGroupResult)), false);
+		// Create, because if the dispatcher was empty it was shutdown and has
+		// to be recreated
+		sendMsg(differentGroupResult, new Joined(studyResult.getId(),
+				differentGroupResult.getGroupState(),
+				GroupIndex.isStarted(differentGroupResult)), true);
 	}
 
 	/**
@@ -113,12 +106,11 @@ public class ChannelService {
 	 * a GroupResult.
 	 */
 	public void closeGroupChannel(StudyResult studyResult,
-			GroupResult groupResult) throws InternalServerErrorPublixException {
+			GroupResult groupResult) {
 		if (groupResult == null) {
 			return;
 		}
-		sendMsg(studyResult, groupResult,
-				new PoisonChannel(studyResult.getId()));
+		sendMsg(groupResult, new PoisonChannel(studyResult.getId()), false);
 	}
 
 	/**
@@ -126,11 +118,12 @@ public class ChannelService {
 	 * studyResult is in). This message tells that this member has joined the
 	 * GroupResult.
 	 */
-	public void sendJoinedMsg(StudyResult studyResult)
-			throws InternalServerErrorPublixException {
+	public void sendJoinedMsg(StudyResult studyResult) {
 		GroupResult groupResult = studyResult.getActiveGroupResult();
 		if (groupResult != null) {
-			sendMsg(studyResult, groupResult, new Joined(studyResult.getId()));
+			sendMsg(groupResult, new Joined(studyResult.getId(),
+					groupResult.getGroupState(),
+					GroupIndex.isStarted(groupResult)), false);
 		}
 	}
 
@@ -138,90 +131,21 @@ public class ChannelService {
 	 * Sends a message to each member of the GroupResult that this member
 	 * (specified by StudyResult) has left the GroupResult.
 	 */
-	public void sendLeftMsg(StudyResult studyResult, GroupResult groupResult)
-			throws InternalServerErrorPublixException {
+	public void sendLeftMsg(StudyResult studyResult, GroupResult groupResult) {
 		if (groupResult != null) {
-			sendMsg(studyResult, groupResult, new Left(studyResult.getId()));
-		}
-	}
-
-	private void sendMsg(StudyResult studyResult, GroupResult groupResult,
-			Object msg) throws InternalServerErrorPublixException {
-		ActorRef groupDispatcher = getGroupDispatcher(groupResult);
-		if (groupDispatcher != null) {
-			groupDispatcher.tell(msg, ActorRef.noSender());
-		}
-	}
-
-	/**
-	 * Get the GroupDispatcher to this GroupResult.
-	 * 
-	 * @param groupResult
-	 * @return ActorRef of the GroupDispatcher
-	 * @throws InternalServerErrorPublixException
-	 */
-	private ActorRef getGroupDispatcher(GroupResult groupResult)
-			throws InternalServerErrorPublixException {
-		ItsThisOne answer = (ItsThisOne) askGroupDispatcherRegistry(
-				new Get(groupResult.getId()));
-		return answer.groupDispatcher;
-	}
-
-	/**
-	 * Create a new GroupDispatcher to this GroupResult or get the already
-	 * existing one.
-	 * 
-	 * @param groupResult
-	 * @return ActorRef of the GroupDispatcher
-	 * @throws InternalServerErrorPublixException
-	 */
-	private ActorRef getOrCreateGroupDispatcher(GroupResult groupResult)
-			throws InternalServerErrorPublixException {
-		ItsThisOne answer = (ItsThisOne) askGroupDispatcherRegistry(
-				new GetOrCreate(groupResult.getId()));
-		return answer.groupDispatcher;
-	}
-
-	/**
-	 * Asks the GroupDispatcherRegistry. Waits until it receives an answer.
-	 * 
-	 * @param msg
-	 *            Message Object to ask
-	 * @return Answer Object
-	 * @throws InternalServerErrorPublixException
-	 */
-	private Object askGroupDispatcherRegistry(Object msg)
-			throws InternalServerErrorPublixException {
-		Future<Object> future = ask(groupDispatcherRegistry, msg, TIMEOUT);
-		try {
-			return Await.result(future, TIMEOUT.duration());
-		} catch (Exception e) {
-			throw new InternalServerErrorPublixException(e.getMessage());
+			sendMsg(groupResult, new Left(studyResult.getId(),
+					groupResult.getGroupState(),
+					GroupIndex.isStarted(groupResult)), false);
 		}
 	}
 
 	/**
-	 * Closes the group channel that belongs to the given StudyResult and is
-	 * managed by the given GroupDispatcher. Waits until it receives a result
-	 * from the GroupDispatcher actor.
-	 * 
-	 * @param studyResult
-	 * @param groupDispatcher
-	 * @return true if the GroupChannel was managed by the GroupDispatcher and
-	 *         was successfully removed from the GroupDispatcher, false
-	 *         otherwise (it was probably never managed by the dispatcher).
-	 * @throws InternalServerErrorPublixException
+	 * Sends the message to the GroupDispatcher of the given GroupResult. If
+	 * there is no such GroupDispatcher the message is dropped - unless create
+	 * is true.
 	 */
-	private boolean closeGroupChannel(StudyResult studyResult,
-			ActorRef groupDispatcher)
-					throws InternalServerErrorPublixException {
-		Future<Object> future = ask(groupDispatcher,
-				new PoisonChannel(studyResult.getId()), TIMEOUT);
-		try {
-			return (boolean) Await.result(future, TIMEOUT.duration());
-		} catch (Exception e) {
-			throw new InternalServerErrorPublixException(e.getMessage());
-		}
+	private void sendMsg(GroupResult groupResult, Object msg, boolean create) {
+		groupDispatcherRegistry.tell(groupResult.getId(), msg, create);
 	}
 
 }
@@ -0,0 +1,331 @@
+package services.publix.group;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.hibernate.event.spi.EventSource;
+
+import daos.common.BatchDao;
+import daos.common.GroupResultDao;
+import general.common.Common;
+import general.common.Metrics;
+import models.common.Batch;
+import models.common.GroupResult;
+import models.common.GroupResult.GroupState;
+import play.Logger;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAApi;
+import services.publix.group.matching.GroupIndex;
+
+/**
+ * In-memory index of the open groups (GroupResults in state STARTED) of each
+ * batch together with their number of active and history members. With it
+ * the GroupService finds a group for a new member without querying (and
+ * loading) all groups of the batch. Which group it is decides the batch's
+ * GroupMatchingStrategy (and its waiting room) - see GroupIndex.
+ *
+ * Joining a group is serialized per batch: the group is picked and the member
+ * added while the batch's lock is held - and it's held until the transaction
+ * is committed. This way two members that join at the same time can't both
+ * take the last free place in a group. A join waits only BATCH_LOCK_TIMEOUT_MS
+ * for the lock - it's rejected afterwards so request threads aren't parked.
+ *
+ * Changes of the members are put into the index only after their transaction
+ * is committed - a rolled back join mustn't take a place in the index.
+ *
+ * The index is built during JATOS' start from all unfinished groups. A batch
+ * that isn't in the index yet is loaded the first time it's needed. Changes
+ * that don't go through the GroupService (e.g. a group fixed by its
+ * GroupDispatcher or results deleted in the GUI) are noticed when the group is
+ * picked: it's checked against the database and dropped or corrected.
+ *
+ * If several JATOS nodes share the database (multi-node mode) the other nodes
+ * change the groups too. Then joining is serialized across all nodes with a
+ * database lock on the batch and the batch's groups are loaded anew from the
+ * database every time.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class GroupAllocator {
+
+	public static final String METRIC_PREFIX = "groupAllocator.";
+
+	private static final String CLASS_NAME = GroupAllocator.class
+			.getSimpleName();
+
+	/**
+	 * How long a member waits for the lock of a batch before it's rejected
+	 */
+	public static final long BATCH_LOCK_TIMEOUT_MS = 500;
+
+	/**
+	 * Value of the Retry-After header of a rejected join
+	 */
+	public static final int RETRY_AFTER_SECONDS = 1;
+
+	private final JPAApi jpa;
+	private final GroupResultDao groupResultDao;
+	private final BatchDao batchDao;
+	private final Metrics metrics;
+	private final boolean multiNode;
+
+	/**
+	 * Maps the batch ID to the open groups of this batch
+	 */
+	private final ConcurrentMap<Long, GroupIndex> groupIndexMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Maps the batch ID to the lock that serializes joining its groups
+	 */
+	private final ConcurrentMap<Long, Lock> batchLockMap = new ConcurrentHashMap<>();
+
+	@Inject
+	GroupAllocator(JPAApi jpa, GroupResultDao groupResultDao,
+			BatchDao batchDao, Metrics metrics, Common common) {
+		this.jpa = jpa;
+		this.groupResultDao = groupResultDao;
+		this.batchDao = batchDao;
+		this.metrics = metrics;
+		this.multiNode = common.isMultiNodeEnabled();
+		metrics.registerGauge(METRIC_PREFIX + "openGroups",
+				this::countOpenGroups);
+		metrics.registerGauge(METRIC_PREFIX + "waitingGroups",
+				this::countWaitingGroups);
+		rebuild();
+	}
+
+	/**
+	 * Builds the index from all groups that aren't finished yet. If it fails
+	 * (e.g. the database isn't there yet) the batches are loaded one by one
+	 * when they are needed.
+	 */
+	private void rebuild() {
+		try {
+			jpa.withTransaction(() -> {
+				for (GroupResult groupResult : groupResultDao
+						.findAllNotFinished()) {
+					if (groupResult.getGroupState() == GroupState.STARTED) {
+						put(groupResult);
+					}
+				}
+			});
+			Logger.info(CLASS_NAME + ".rebuild: " + countOpenGroups()
+					+ " open groups in " + groupIndexMap.size()
+					+ " batches");
+		} catch (RuntimeException e) {
+			Logger.warn(CLASS_NAME + ".rebuild: couldn't load the open groups "
+					+ "- they are loaded when they are needed", e);
+			groupIndexMap.clear();
+		}
+	}
+
+	/**
+	 * Acquires and returns the lock that has to be held while a member joins
+	 * a group of the batch with the given ID - from picking the group until
+	 * the transaction is committed. The caller has to unlock it. Returns null
+	 * if the lock couldn't be acquired within BATCH_LOCK_TIMEOUT_MS.
+	 */
+	public Lock tryBatchLock(long batchId) throws InterruptedException {
+		Lock lock = batchLockMap.computeIfAbsent(batchId,
+				id -> new ReentrantLock());
+		if (lock.tryLock(BATCH_LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+			return lock;
+		}
+		metrics.increment(METRIC_PREFIX + "lockTimeouts");
+		return null;
+	}
+
+	/**
+	 * Returns the open group of the given batch that a new member with the
+	 * given tag (can be null) should join - according to the batch's
+	 * GroupMatchingStrategy and waiting room - or null if there is none with
+	 * a free place (maxActiveMembers and maxTotalMembers not reached). The
+	 * given group is left out (can be null). Has to be called within a
+	 * transaction and while holding the batch's lock.
+	 */
+	public GroupResult findOpenGroup(Batch batch, GroupResult excluded,
+			String tag) {
+		if (multiNode) {
+			batchDao.lock(batch);
+			groupIndexMap.remove(batch.getId());
+		}
+		GroupIndex groupIndex = getOrLoadGroupIndex(batch);
+		Long excludedId = (excluded != null) ? excluded.getId() : null;
+		while (true) {
+			Long groupResultId = groupIndex.match(batch, tag, excludedId);
+			if (groupResultId == null) {
+				return null;
+			}
+			GroupResult groupResult = groupResultDao.findById(groupResultId);
+			if (groupResult != null
+					&& groupResult.getGroupState() == GroupState.STARTED
+					&& batch.equals(groupResult.getBatch())) {
+				// Take the members from the database - they are always right
+				put(groupResult);
+				if (hasFreePlace(batch, groupResult)) {
+					metrics.increment(METRIC_PREFIX + "hits");
+					return groupResult;
+				}
+			} else {
+				groupIndex.remove(groupResultId);
+			}
+			metrics.increment(METRIC_PREFIX + "stale");
+		}
+	}
+
+	/**
+	 * Adds a newly created group to the index - after the transaction is
+	 * committed. Has to be called within the transaction.
+	 */
+	public void groupCreated(GroupResult groupResult) {
+		Batch batch = groupResult.getBatch();
+		Long groupResultId = groupResult.getId();
+		int activeMembers = groupResult.getActiveMemberList().size();
+		int historyMembers = groupResult.getHistoryMemberList().size();
+		String tag = groupResult.getMatchingTag();
+		afterCommit(() -> {
+			groupIndexMap
+					.computeIfAbsent(batch.getId(), id -> new GroupIndex(batch))
+					.put(groupResultId, activeMembers, historyMembers, tag);
+			metrics.increment(METRIC_PREFIX + "created");
+		});
+	}
+
+	/**
+	 * A member was added to the given group's active members. The index is
+	 * changed after the transaction is committed. Has to be called within the
+	 * transaction.
+	 */
+	public void memberJoined(GroupResult groupResult) {
+		changeMembersAfterCommit(groupResult, 1, 0);
+	}
+
+	/**
+	 * A member was removed from the given group's active members - and if
+	 * toHistory is true added to its history members. The index is changed
+	 * after the transaction is committed. Has to be called within the
+	 * transaction.
+	 */
+	public void memberLeft(GroupResult groupResult, boolean toHistory) {
+		changeMembersAfterCommit(groupResult, -1, toHistory ? 1 : 0);
+	}
+
+	/**
+	 * The given group isn't open anymore (e.g. FINISHED). The index is
+	 * changed after the transaction is committed. Has to be called within the
+	 * transaction.
+	 */
+	public void groupClosed(GroupResult groupResult) {
+		Long batchId = groupResult.getBatch().getId();
+		Long groupResultId = groupResult.getId();
+		afterCommit(() -> {
+			GroupIndex groupIndex = groupIndexMap.get(batchId);
+			if (groupIndex != null) {
+				groupIndex.remove(groupResultId);
+			}
+		});
+	}
+
+	private void changeMembersAfterCommit(GroupResult groupResult,
+			int activeDelta, int historyDelta) {
+		Long batchId = groupResult.getBatch().getId();
+		Long groupResultId = groupResult.getId();
+		afterCommit(() -> {
+			// A batch that isn't in the index yet is loaded with all its
+			// groups the next time one of them is needed
+			GroupIndex groupIndex = groupIndexMap.get(batchId);
+			if (groupIndex != null) {
+				groupIndex.changeMembers(groupResultId, activeDelta,
+						historyDelta);
+			}
+		});
+	}
+
+	/**
+	 * Runs the given change of the index after the current transaction is
+	 * committed. If the transaction is rolled back the change is dropped.
+	 */
+	private void afterCommit(Runnable indexChange) {
+		EventSource session = JPA.em().unwrap(EventSource.class);
+		if (!session.isTransactionInProgress()) {
+			indexChange.run();
+			return;
+		}
+		session.getActionQueue().registerProcess((success,
+				sessionImplementor) -> {
+			if (success) {
+				indexChange.run();
+			} else {
+				metrics.increment(METRIC_PREFIX + "rolledBack");
+			}
+		});
+	}
+
+	private boolean hasFreePlace(Batch batch, GroupResult groupResult) {
+		return GroupIndex.hasFreePlace(batch.getMaxActiveMembers(),
+				batch.getMaxTotalMembers(),
+				groupResult.getActiveMemberList().size(),
+				groupResult.getHistoryMemberList().size());
+	}
+
+	/**
+	 * Puts the given group with its current members into its batch's index
+	 */
+	private void put(GroupResult groupResult) {
+		getGroupIndex(groupResult).put(groupResult.getId(),
+				groupResult.getActiveMemberList().size(),
+				groupResult.getHistoryMemberList().size(),
+				groupResult.getMatchingTag());
+	}
+
+	private GroupIndex getGroupIndex(GroupResult groupResult) {
+		Batch batch = groupResult.getBatch();
+		return groupIndexMap.computeIfAbsent(batch.getId(),
+				id -> new GroupIndex(batch));
+	}
+
+	/**
+	 * Returns the index of the open groups of the given batch. If the batch
+	 * isn't in the index yet its groups are loaded from the database.
+	 */
+	private GroupIndex getOrLoadGroupIndex(Batch batch) {
+		GroupIndex groupIndex = groupIndexMap.get(batch.getId());
+		if (groupIndex != null) {
+			return groupIndex;
+		}
+		GroupIndex loaded = new GroupIndex(batch);
+		for (GroupResult groupResult : groupResultDao
+				.findAllStartedByBatch(batch)) {
+			loaded.put(groupResult.getId(),
+					groupResult.getActiveMemberList().size(),
+					groupResult.getHistoryMemberList().size(),
+					groupResult.getMatchingTag());
+		}
+		groupIndex = groupIndexMap.putIfAbsent(batch.getId(), loaded);
+		return (groupIndex != null) ? groupIndex : loaded;
+	}
+
+	private int countOpenGroups() {
+		int count = 0;
+		for (GroupIndex groupIndex : groupIndexMap.values()) {
+			count += groupIndex.size();
+		}
+		return count;
+	}
+
+	private int countWaitingGroups() {
+		int count = 0;
+		for (GroupIndex groupIndex : groupIndexMap.values()) {
+			count += groupIndex.waitingSize();
+		}
+		return count;
+	}
+
+}
@@ -1,6 +1,8 @@
 package services.publix.group;
 
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -10,7 +12,9 @@ import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.InternalServerErrorPublixException;
 import exceptions.publix.NoContentPublixException;
+import exceptions.publix.ServiceUnavailablePublixException;
 import models.common.Batch;
+import models.common.Batch.GroupMatching;
 import models.common.GroupResult;
 import models.common.GroupResult.GroupState;
 import models.common.Study;
@@ -18,7 +22,6 @@ import models.common.StudyResult;
 import models.common.workers.Worker;
 import play.db.jpa.JPAApi;
 import services.publix.PublixErrorMessages;
-import services.publix.PublixHelpers;
 import services.publix.ResultCreator;
 
 /**
@@ -38,21 +41,61 @@ public class GroupService {
 	private final ResultCreator resultCreator;
 	private final StudyResultDao studyResultDao;
 	private final GroupResultDao groupResultDao;
+	private final GroupAllocator groupAllocator;
 	private final JPAApi jpa;
 	private final PublixErrorMessages errorMessages;
 
 	@Inject
 	GroupService(ChannelService channelService, ResultCreator resultCreator,
 			StudyResultDao studyResultDao, GroupResultDao groupResultDao,
-			JPAApi jpa, PublixErrorMessages errorMessages) {
+			GroupAllocator groupAllocator, JPAApi jpa,
+			PublixErrorMessages errorMessages) {
 		this.channelService = channelService;
 		this.resultCreator = resultCreator;
 		this.studyResultDao = studyResultDao;
 		this.groupResultDao = groupResultDao;
+		this.groupAllocator = groupAllocator;
 		this.jpa = jpa;
 		this.errorMessages = errorMessages;
 	}
 
+	/**
+	 * Acquires and returns the lock that has to be held while joining a group
+	 * of the batch with the given ID - until the transaction is committed. The
+	 * caller has to unlock it. If the batch ID is invalid it returns a new
+	 * lock that isn't shared (the join will fail anyway). Throws a
+	 * ServiceUnavailablePublixException if the lock is busy for too long.
+	 */
+	public Lock lockBatch(String batchIdStr)
+			throws ServiceUnavailablePublixException {
+		long batchId;
+		try {
+			batchId = Long.parseLong(batchIdStr);
+		} catch (NumberFormatException e) {
+			Lock lock = new ReentrantLock();
+			lock.lock();
+			return lock;
+		}
+		return lockBatch(batchId);
+	}
+
+	private Lock lockBatch(long batchId)
+			throws ServiceUnavailablePublixException {
+		Lock lock;
+		try {
+			lock = groupAllocator.tryBatchLock(batchId);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			lock = null;
+		}
+		if (lock == null) {
+			throw new ServiceUnavailablePublixException(
+					PublixErrorMessages.GROUPS_BUSY,
+					GroupAllocator.RETRY_AFTER_SECONDS);
+		}
+		return lock;
+	}
+
 	/**
 	 * Checks whether this StudyResult has an history GroupResult, means it was
 	 * a member in a group in the past and it tries to run a second group study.
@@ -69,24 +112,32 @@ public class GroupService {
 	/**
 	 * Joins the a GroupResult or create a new one. Persists changes.
 	 * 
-	 * Looks in the database whether we have an incomplete GroupResult (state
-	 * STARTED, maxActiveMember not reached, maxTotalMembers not reached). If
-	 * there are more than one, return the one with the most active members. If
-	 * there is none, create a new GroupResult.
+	 * Asks the GroupAllocator for an incomplete GroupResult (state STARTED,
+	 * maxActiveMember not reached, maxTotalMembers not reached). If there are
+	 * more than one, the batch's group matching strategy chooses (e.g. the one
+	 * with the most active members). If there is none, create a new
+	 * GroupResult. The matchingTag is only used if the batch matches its
+	 * members by an attribute (can be null).
+	 * 
+	 * The batch's lock (lockBatch) has to be held until the transaction is
+	 * committed.
 	 */
-	public GroupResult join(StudyResult studyResult, Batch batch) {
-		List<GroupResult> groupResultList = groupResultDao
-				.findAllMaxNotReached(batch);
-		GroupResult groupResult;
-		if (groupResultList.isEmpty()) {
+	public GroupResult join(StudyResult studyResult, Batch batch,
+			String matchingTag) {
+		String tag = (batch.getGroupMatching() == GroupMatching.ATTRIBUTE)
+				? matchingTag : null;
+		GroupResult groupResult = groupAllocator.findOpenGroup(batch, null,
+				tag);
+		if (groupResult == null) {
 			groupResult = resultCreator.createGroupResult(batch);
-		} else {
-			groupResult = findGroupResultWithMostActiveMembers(groupResultList);
+			groupResult.setMatchingTag(tag);
+			groupAllocator.groupCreated(groupResult);
 		}
 		groupResult.addActiveMember(studyResult);
 		studyResult.setActiveGroupResult(groupResult);
 		groupResultDao.update(groupResult);
 		studyResultDao.update(studyResult);
+		groupAllocator.memberJoined(groupResult);
 		return groupResult;
 	}
 
@@ -94,58 +145,49 @@ public class GroupService {
 	 * Reassigns this StudyResult to a different GroupResult if possible.
 	 * Persists changes in it's own transaction.
 	 * 
-	 * Looks in the database whether we have other incomplete GroupResult (state
-	 * STARTED, maxActiveMember not reached, maxTotalMembers not reached). If
-	 * there are more than one, it returns the one with the most active members.
-	 * If there is no other GroupResult it throws a NoContentPublixException.
+	 * Asks the GroupAllocator for another incomplete GroupResult (state
+	 * STARTED, maxActiveMember not reached, maxTotalMembers not reached) with
+	 * the same matching tag. If there are more than one, the batch's group
+	 * matching strategy chooses. If there is no other GroupResult it throws a
+	 * NoContentPublixException. If the batch's lock is busy for too long it
+	 * throws a ServiceUnavailablePublixException.
 	 */
 	public GroupResult reassign(StudyResult studyResult, Batch batch)
-			throws NoContentPublixException, ForbiddenPublixException {
+			throws NoContentPublixException, ForbiddenPublixException,
+			ServiceUnavailablePublixException {
 		GroupResult currentGroupResult = studyResult.getActiveGroupResult();
 		if (currentGroupResult == null) {
 			throw new ForbiddenPublixException(errorMessages
 					.groupStudyResultNotMember(studyResult.getId()));
 		}
-		List<GroupResult> groupResultList = groupResultDao
-				.findAllMaxNotReached(batch);
-		groupResultList.remove(currentGroupResult);
-		if (groupResultList.isEmpty()) {
-			// No other possible group result
-			throw new NoContentPublixException(errorMessages
-					.groupNotFoundForReassigning(studyResult.getId()));
-		}
-		GroupResult differentGroupResult = findGroupResultWithMostActiveMembers(
-				groupResultList);
-		currentGroupResult.removeActiveMember(studyResult);
-		differentGroupResult.addActiveMember(studyResult);
-		studyResult.setActiveGroupResult(differentGroupResult);
-		checkAndFinishGroup(currentGroupResult);
-
-		// We need this transaction here because later on in the GroupDispatcher
-		// the updated data are needed
-		jpa.withTransaction(() -> {
-			groupResultDao.update(currentGroupResult);
-			groupResultDao.update(differentGroupResult);
-			studyResultDao.update(studyResult);
-		});
-		return differentGroupResult;
-	}
+		Lock batchLock = lockBatch(batch.getId());
+		try {
+			GroupResult differentGroupResult = groupAllocator.findOpenGroup(
+					batch, currentGroupResult,
+					currentGroupResult.getMatchingTag());
+			if (differentGroupResult == null) {
+				// No other possible group result
+				throw new NoContentPublixException(errorMessages
+						.groupNotFoundForReassigning(studyResult.getId()));
+			}
+			currentGroupResult.removeActiveMember(studyResult);
+			differentGroupResult.addActiveMember(studyResult);
+			studyResult.setActiveGroupResult(differentGroupResult);
+			checkAndFinishGroup(currentGroupResult);
 
-	/**
-	 * Finds the group result with the most active members. Assumes the given
-	 * list is not empty.
-	 */
-	private GroupResult findGroupResultWithMostActiveMembers(
-			List<GroupResult> groupResultList) {
-		if (groupResultList.size() == 1) {
-			return groupResultList.get(0);
+			// We need this transaction here because later on in the
+			// GroupDispatcher the updated data are needed
+			jpa.withTransaction(() -> {
+				groupResultDao.update(currentGroupResult);
+				groupResultDao.update(differentGroupResult);
+				studyResultDao.update(studyResult);
+				groupAllocator.memberLeft(currentGroupResult, false);
+				groupAllocator.memberJoined(differentGroupResult);
+			});
+			return differentGroupResult;
+		} finally {
+			batchLock.unlock();
 		}
-		GroupResult newGroupResult = groupResultList.stream()
-				.max((gr1, gr2) -> Integer.compare(
-						gr1.getActiveMemberList().size(),
-						gr2.getActiveMemberList().size()))
-				.get();
-		return newGroupResult;
 	}
 
 	/**
@@ -165,9 +207,40 @@ public class GroupService {
 		jpa.withTransaction(() -> {
 			groupResultDao.update(groupResult);
 			studyResultDao.update(studyResult);
+			groupAllocator.memberLeft(groupResult, false);
 		});
 	}
 
+	/**
+	 * Lets the given member leave its group like {@link #leave(StudyResult)}
+	 * and tells the other members that it left - it's called if the member's
+	 * group channel was closed because its client was silent and it didn't
+	 * come back within the eviction grace. It isn't moved to the group's
+	 * history, so its slot is free and the member can join a group again if
+	 * its client comes back. Persists changes in it's own transaction. Returns
+	 * false if the member isn't in a group anymore.
+	 */
+	public boolean leaveSilentMember(long studyResultId) {
+		boolean[] left = { false };
+		jpa.withTransaction(() -> {
+			StudyResult studyResult = studyResultDao.findById(studyResultId);
+			if (studyResult == null
+					|| studyResult.getActiveGroupResult() == null) {
+				return;
+			}
+			GroupResult groupResult = studyResult.getActiveGroupResult();
+			groupResult.removeActiveMember(studyResult);
+			studyResult.setActiveGroupResult(null);
+			checkAndFinishGroup(groupResult);
+			groupResultDao.update(groupResult);
+			studyResultDao.update(studyResult);
+			groupAllocator.memberLeft(groupResult, false);
+			channelService.sendLeftMsg(studyResult, groupResult);
+			left[0] = true;
+		});
+		return left[0];
+	}
+
 	/**
 	 * Checks if a GroupResult should be put in state FINISHED and does it.
 	 * There are there reasons to do this:<br>
@@ -202,10 +275,12 @@ public class GroupService {
 
 	private void finishGroupResult(GroupResult groupResult) {
 		groupResult.setGroupState(GroupState.FINISHED);
+		groupResultDao.update(groupResult);
 		// All session data are temporarily and have to be deleted when the
 		// group is finished
 		groupResult.setGroupSessionData(null);
-		groupResultDao.update(groupResult);
+		groupResultDao.clearGroupSession(groupResult.getId());
+		groupAllocator.groupClosed(groupResult);
 	}
 
 	/**
@@ -236,6 +311,7 @@ public class GroupService {
 		studyResult.setHistoryGroupResult(groupResult);
 		groupResultDao.update(groupResult);
 		studyResultDao.update(studyResult);
+		groupAllocator.memberLeft(groupResult, true);
 	}
 
 	/**
@@ -246,19 +322,19 @@ public class GroupService {
 	 * study a second time without actually finishing the prior study run.
 	 * 
 	 * It should be max one StudyResult to be treated in this way since we call
-	 * this method during start of each study run, but we iterate over all
-	 * StudyResults of this worker just in case.
+	 * this method during start of each study run, but we query all unfinished
+	 * StudyResults of this worker and study just in case.
 	 */
 	public void finishStudyInAllPriorGroups(Worker worker, Study study)
 			throws InternalServerErrorPublixException {
-		List<StudyResult> studyResultList = worker.getStudyResultList();
+		if (!study.isGroupStudy()) {
+			return;
+		}
+		List<StudyResult> studyResultList = studyResultDao
+				.findAllUnfinishedByWorkerAndStudy(worker, study);
 		for (StudyResult studyResult : studyResultList) {
-			if (study.getId().equals(studyResult.getStudy().getId())
-					&& !PublixHelpers.studyDone(studyResult)
-					&& study.isGroupStudy()) {
-				// Should be max. one StudyResult
-				finishStudyInGroup(study, studyResult);
-			}
+			// Should be max. one StudyResult
+			finishStudyInGroup(study, studyResult);
 		}
 	}
 
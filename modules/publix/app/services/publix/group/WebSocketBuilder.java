@@ -2,12 +2,14 @@ package services.publix.group;
 
 import play.mvc.Result;
 import play.mvc.WebSocket;
+import services.publix.group.akka.GroupChannelFlowControl;
+import services.publix.group.akka.GroupChannelHeartbeats;
+import services.publix.group.akka.GroupDispatcherRegistry;
 import services.publix.group.akka.actors.GroupChannel;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ResumePosition;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
 /**
  * Builds new WebSockets for group channel.
  * 
@@ -15,10 +17,14 @@ import com.fasterxml.jackson.databind.JsonNode;
  */
 public class WebSocketBuilder {
 
-	public static WebSocket<JsonNode> withGroupChannel(long studyResultId,
-			ActorRef groupDispatcher) {
-		return new WebSocket<JsonNode>() {
-			public void onReady(In<JsonNode> in, Out<JsonNode> out) {
+	public static WebSocket<String> withGroupChannel(long studyResultId,
+			long groupResultId, int protocolVersion,
+			ResumePosition resumePosition,
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupChannelFlowControl flowControl,
+			GroupChannelHeartbeats heartbeats) {
+		return new WebSocket<String>() {
+			public void onReady(In<String> in, Out<String> out) {
 			}
 
 			public boolean isActor() {
@@ -27,8 +33,9 @@ public class WebSocketBuilder {
 
 			public Props actorProps(ActorRef out) {
 				try {
-					return Props.create(GroupChannel.class, out, studyResultId,
-							groupDispatcher);
+					return GroupChannel.props(out, studyResultId,
+							groupResultId, protocolVersion, resumePosition,
+							groupDispatcherRegistry, flowControl, heartbeats);
 				} catch (RuntimeException e) {
 					throw e;
 				} catch (Error e) {
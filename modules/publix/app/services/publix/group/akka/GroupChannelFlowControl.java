@@ -0,0 +1,93 @@
+package services.publix.group.akka;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import general.common.Common;
+import general.common.Metrics;
+import play.Logger;
+import services.publix.group.akka.actors.OutboundQueue;
+import services.publix.group.akka.actors.OutboundQueue.OverflowPolicy;
+import utils.common.RateLimiter;
+
+/**
+ * Holds the flow control settings of all GroupChannels (from the application
+ * config) and creates each GroupChannel's outbound queue and rate limiters.
+ *
+ * A GroupChannel can't tell whether its client keeps up: the WebSocket's
+ * output actor takes every message without waiting for the client. That's why
+ * a GroupChannel sends at most outboundRate messages per second to its client
+ * and keeps the rest in a bounded OutboundQueue. A client on a bad connection
+ * (or a group that talks too much) can't pile up messages in memory anymore.
+ * The messages from a client can be limited to inboundRate messages per second
+ * (unlimited by default) - more are dropped and the client gets a SESSION_FAIL
+ * or an ERROR instead.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class GroupChannelFlowControl {
+
+	private static final String CLASS_NAME = GroupChannelFlowControl.class
+			.getSimpleName();
+
+	private final Metrics metrics;
+	private final int outboundQueueSize;
+	private final int outboundRate;
+	private final OverflowPolicy overflowPolicy;
+	private final int inboundRate;
+
+	/**
+	 * Number of queued messages of all GroupChannels
+	 */
+	private final LongAdder queuedTotal = new LongAdder();
+
+	@Inject
+	GroupChannelFlowControl(Common common, Metrics metrics) {
+		this(metrics, common.getGroupChannelOutboundQueueSize(),
+				common.getGroupChannelOutboundRate(),
+				parseOverflowPolicy(common.getGroupChannelOverflowPolicy()),
+				common.getGroupChannelInboundRate());
+	}
+
+	public GroupChannelFlowControl(Metrics metrics, int outboundQueueSize,
+			int outboundRate, OverflowPolicy overflowPolicy, int inboundRate) {
+		this.metrics = metrics;
+		this.outboundQueueSize = outboundQueueSize;
+		this.outboundRate = outboundRate;
+		this.overflowPolicy = overflowPolicy;
+		this.inboundRate = inboundRate;
+		metrics.registerGauge(OutboundQueue.METRIC_PREFIX + "outboundQueued",
+				queuedTotal::sum);
+	}
+
+	private static OverflowPolicy parseOverflowPolicy(String overflowPolicy) {
+		try {
+			return OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			Logger.warn(CLASS_NAME + ": Unknown group channel overflow policy "
+					+ overflowPolicy + " - using " + OverflowPolicy.COALESCE);
+			return OverflowPolicy.COALESCE;
+		}
+	}
+
+	public OutboundQueue newOutboundQueue() {
+		return new OutboundQueue(outboundQueueSize, overflowPolicy, metrics,
+				queuedTotal);
+	}
+
+	public RateLimiter newOutboundRateLimiter() {
+		return new RateLimiter(outboundRate);
+	}
+
+	public RateLimiter newInboundRateLimiter() {
+		return new RateLimiter(inboundRate);
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+}
@@ -0,0 +1,168 @@
+package services.publix.group.akka;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.ExecutionContexts;
+import general.common.Common;
+import general.common.Metrics;
+import play.Logger;
+import scala.concurrent.duration.Duration;
+import services.publix.group.GroupService;
+import services.publix.group.akka.actors.ChannelHeartbeat;
+import services.publix.group.akka.actors.OutboundQueue;
+
+/**
+ * Holds the heartbeat settings of all GroupChannels (from the application
+ * config), creates each GroupChannel's ChannelHeartbeat and counts the
+ * heartbeat metrics.
+ *
+ * A client that goes away without closing its WebSocket (e.g. the laptop lid
+ * is closed) leaves a half-open connection behind. Without heartbeats its
+ * GroupChannel (and maybe the GroupDispatcher) would stay until TCP gives up,
+ * which can take very long. That's why a GroupChannel pings its client every
+ * interval and closes itself if the client was silent for longer than the
+ * timeout. Closing goes the usual way: the GroupChannel unregisters from its
+ * GroupDispatcher and the other members get a CLOSED. The member stays in the
+ * group and its client can resume with a new group channel.
+ *
+ * If the member doesn't open a new group channel within the eviction grace
+ * it leaves the group (GroupService) and the other members get a LEFT -
+ * otherwise it would keep its place in the group forever. Only group channels
+ * of this node are noticed, so in multi-node mode, where the member can come
+ * back through any node, nobody is evicted.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class GroupChannelHeartbeats {
+
+	private static final String CLASS_NAME = GroupChannelHeartbeats.class
+			.getSimpleName();
+
+	private final Metrics metrics;
+	private final long interval;
+	private final long timeout;
+	private final long evictionGrace;
+	private final Provider<GroupService> groupService;
+	private final ActorSystem actorSystem;
+	private final GroupDbExecutor groupDbExecutor;
+
+	/**
+	 * Maps the study result ID of an evicted member to the token of its
+	 * eviction - as long as it has no new group channel
+	 */
+	private final ConcurrentMap<Long, Object> evictedMembers = new ConcurrentHashMap<>();
+
+	/**
+	 * The GroupService is a Provider because it depends on the GroupChannels
+	 * itself
+	 */
+	@Inject
+	GroupChannelHeartbeats(Common common, Metrics metrics,
+			Provider<GroupService> groupService, ActorSystem actorSystem,
+			GroupDbExecutor groupDbExecutor) {
+		this.metrics = metrics;
+		this.interval = common.getGroupChannelHeartbeatInterval();
+		this.timeout = common.getGroupChannelHeartbeatTimeout();
+		// This node doesn't see the group channels of the other nodes
+		this.evictionGrace = common.isMultiNodeEnabled() ? 0
+				: common.getGroupChannelEvictionGrace();
+		this.groupService = groupService;
+		this.actorSystem = actorSystem;
+		this.groupDbExecutor = groupDbExecutor;
+	}
+
+	/**
+	 * @param interval
+	 *            Interval in ms of the pings (0 is off)
+	 * @param timeout
+	 *            Time in ms a client can be silent
+	 */
+	public GroupChannelHeartbeats(Metrics metrics, long interval,
+			long timeout) {
+		this.metrics = metrics;
+		this.interval = interval;
+		this.timeout = timeout;
+		this.evictionGrace = 0;
+		this.groupService = null;
+		this.actorSystem = null;
+		this.groupDbExecutor = null;
+	}
+
+	public boolean isEnabled() {
+		return interval > 0;
+	}
+
+	/**
+	 * Interval of the pings in ms
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	public ChannelHeartbeat newHeartbeat(long now) {
+		return new ChannelHeartbeat(TimeUnit.MILLISECONDS.toNanos(timeout),
+				now);
+	}
+
+	/**
+	 * The group channel of the given member was closed because its client was
+	 * silent. If the member doesn't open a new group channel within the
+	 * eviction grace it leaves its group.
+	 */
+	public void evicted(long studyResultId) {
+		metrics.increment(OutboundQueue.METRIC_PREFIX + "heartbeatEvicted");
+		if (evictionGrace <= 0) {
+			return;
+		}
+		Object eviction = new Object();
+		evictedMembers.put(studyResultId, eviction);
+		// The GroupService works with the database - not in Akka's threads
+		actorSystem.scheduler().scheduleOnce(
+				Duration.create(evictionGrace, TimeUnit.MILLISECONDS),
+				() -> evictionGraceOver(studyResultId, eviction),
+				ExecutionContexts.fromExecutor(groupDbExecutor));
+	}
+
+	/**
+	 * The given member opened a group channel - it isn't evicted anymore
+	 */
+	public void channelOpened(long studyResultId) {
+		evictedMembers.remove(studyResultId);
+	}
+
+	private void evictionGraceOver(long studyResultId, Object eviction) {
+		if (!evictedMembers.remove(studyResultId, eviction)) {
+			// The member came back (or was evicted again meanwhile)
+			return;
+		}
+		try {
+			if (groupService.get().leaveSilentMember(studyResultId)) {
+				metrics.increment(
+						OutboundQueue.METRIC_PREFIX + "heartbeatLeft");
+			}
+		} catch (RuntimeException e) {
+			Logger.error(CLASS_NAME + ".evictionGraceOver: study result "
+					+ studyResultId + " couldn't leave its group", e);
+		}
+	}
+
+	/**
+	 * A pong came back after the given round-trip time in ns. The metrics
+	 * have the number of pongs and the sum of their round-trip times in ms
+	 * (their quotient is the mean).
+	 */
+	public void ponged(long rtt) {
+		metrics.increment(OutboundQueue.METRIC_PREFIX + "heartbeatPongs");
+		metrics.add(OutboundQueue.METRIC_PREFIX + "heartbeatRttMs",
+				TimeUnit.NANOSECONDS.toMillis(rtt));
+	}
+
+}
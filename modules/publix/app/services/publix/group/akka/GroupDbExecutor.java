@@ -0,0 +1,67 @@
+package services.publix.group.akka;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import general.common.Metrics;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
+
+/**
+ * Thread pool for the database work of the group subsystem (GroupDispatcher).
+ * Akka actors mustn't block their threads with JPA transactions - a slow
+ * database would stall all groups on this node. Instead they hand their
+ * database work to this executor and get the outcome back as a message
+ * (pipe-back). It's bounded in threads, so the group subsystem can't take all
+ * of the database's connections.
+ *
+ * @author Kristian Lange (2016)
+ */
+@Singleton
+public class GroupDbExecutor implements Executor {
+
+	public static final String METRIC_PREFIX = "groupDb.";
+
+	private static final int POOL_SIZE = 4;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Metrics metrics;
+
+	@Inject
+	GroupDbExecutor(Metrics metrics, ApplicationLifecycle lifecycle) {
+		this.metrics = metrics;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable,
+							"group-db-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		metrics.registerGauge(METRIC_PREFIX + "queueDepth",
+				() -> executor.getQueue().size());
+		metrics.registerGauge(METRIC_PREFIX + "active",
+				executor::getActiveCount);
+		lifecycle.addStopHook(() -> {
+			// Let the GroupDispatchers' last writes finish
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			return F.Promise.pure(null);
+		});
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		metrics.increment(METRIC_PREFIX + "tasks");
+		executor.execute(command);
+	}
+
+}
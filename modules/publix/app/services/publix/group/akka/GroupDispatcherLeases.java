@@ -0,0 +1,234 @@
+package services.publix.group.akka;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.PersistenceException;
+
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.actor.ExtendedActorSystem;
+import daos.common.GroupDispatcherLeaseDao;
+import general.common.Common;
+import models.common.GroupDispatcherLease;
+import play.Logger;
+import play.db.jpa.JPAApi;
+
+/**
+ * Leases on GroupDispatchers for several JATOS nodes that share the group
+ * dispatching (multi-node mode). Only the node that holds a group's lease runs
+ * the group's GroupDispatcher. A lease expires after the lease duration unless
+ * its owner renews it - this way the groups of a crashed node are taken over
+ * by the other nodes.
+ * 
+ * A node is known by its Akka address (e.g.
+ * akka.tcp://application@10.0.0.1:2552). Multi-node mode needs Akka remoting -
+ * without it it's switched off.
+ * 
+ * If the database can't be reached nobody is assumed to hold a lease - this
+ * node doesn't run a group it couldn't take the lease of. And it gives up its
+ * own leases as soon as they expire by its own clock, even if it couldn't
+ * renew them. This way two nodes never run the same group.
+ * 
+ * Each method runs in its own transaction, so it mustn't be called within a
+ * transaction of the calling thread.
+ * 
+ * @author Kristian Lange
+ */
+@Singleton
+public class GroupDispatcherLeases {
+
+	private static final String CLASS_NAME = GroupDispatcherLeases.class
+			.getSimpleName();
+
+	private final JPAApi jpa;
+	private final GroupDispatcherLeaseDao leaseDao;
+	private final boolean enabled;
+	private final String nodeAddress;
+	private final long leaseDuration;
+	private final LongSupplier clock;
+
+	/**
+	 * Maps the GroupResult's ID to the time (ms) this node's lease expires at
+	 * the latest - as far as this node knows. The lease in the database
+	 * expires at the same time or later.
+	 */
+	private final ConcurrentMap<Long, Long> expiresMap = new ConcurrentHashMap<>();
+
+	@Inject
+	GroupDispatcherLeases(Common common, JPAApi jpa,
+			GroupDispatcherLeaseDao leaseDao, ActorSystem actorSystem) {
+		this.jpa = jpa;
+		this.leaseDao = leaseDao;
+		this.leaseDuration = common.getMultiNodeLeaseDuration();
+		this.clock = System::currentTimeMillis;
+		Address address = ((ExtendedActorSystem) actorSystem).provider()
+				.getDefaultAddress();
+		this.nodeAddress = address.toString();
+		if (common.isMultiNodeEnabled() && !address.hasGlobalScope()) {
+			Logger.warn(CLASS_NAME + ": multi-node mode needs Akka remoting "
+					+ "(akka.actor.provider) - it's switched off");
+			this.enabled = false;
+		} else {
+			this.enabled = common.isMultiNodeEnabled();
+		}
+		if (enabled) {
+			Logger.info(CLASS_NAME + ": multi-node mode with node address "
+					+ nodeAddress);
+		}
+	}
+
+	/**
+	 * Creates enabled GroupDispatcherLeases for the node with the given
+	 * address. The clock gives the current time in ms.
+	 */
+	public GroupDispatcherLeases(JPAApi jpa, GroupDispatcherLeaseDao leaseDao,
+			String nodeAddress, long leaseDuration, LongSupplier clock) {
+		this.jpa = jpa;
+		this.leaseDao = leaseDao;
+		this.enabled = true;
+		this.nodeAddress = nodeAddress;
+		this.leaseDuration = leaseDuration;
+		this.clock = clock;
+	}
+
+	/**
+	 * Is true if several JATOS nodes share the group dispatching
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public String getNodeAddress() {
+		return nodeAddress;
+	}
+
+	public long getLeaseDuration() {
+		return leaseDuration;
+	}
+
+	public boolean isOwnNode(String owner) {
+		return nodeAddress.equals(owner);
+	}
+
+	/**
+	 * Takes the lease of the given GroupResult's GroupDispatcher if nobody
+	 * else holds it (or if it's expired) and returns the owner's address -
+	 * this node's or the node that holds the lease. Returns null if the
+	 * database can't be reached - then nobody may run the GroupDispatcher.
+	 */
+	public String acquire(long groupResultId) {
+		long now = clock.getAsLong();
+		String[] owner = { null };
+		try {
+			jpa.withTransaction(() -> {
+				if (leaseDao.takeOver(groupResultId, nodeAddress,
+						new Timestamp(now), new Timestamp(now + leaseDuration))) {
+					owner[0] = nodeAddress;
+					return;
+				}
+				GroupDispatcherLease lease = leaseDao.findById(groupResultId);
+				if (lease != null) {
+					owner[0] = lease.getOwner();
+					return;
+				}
+				leaseDao.create(new GroupDispatcherLease(groupResultId,
+						nodeAddress, new Timestamp(now + leaseDuration)));
+				owner[0] = nodeAddress;
+			});
+		} catch (PersistenceException e) {
+			// Another node created the lease at the same time
+			owner[0] = findOwner(groupResultId);
+		} catch (RuntimeException e) {
+			Logger.warn(CLASS_NAME + ".acquire: couldn't get lease of group "
+					+ "result " + groupResultId, e);
+		}
+		if (isOwnNode(owner[0])) {
+			expiresMap.put(groupResultId, now + leaseDuration);
+		}
+		return owner[0];
+	}
+
+	/**
+	 * Is true if this node holds the lease of the given GroupResult's
+	 * GroupDispatcher and it isn't expired by this node's clock. It doesn't
+	 * ask the database.
+	 */
+	public boolean isHeld(long groupResultId) {
+		return expiresMap.getOrDefault(groupResultId, 0l) > clock.getAsLong();
+	}
+
+	/**
+	 * Returns the address of the node that holds an unexpired lease of the
+	 * given GroupResult's GroupDispatcher or null if there is none.
+	 */
+	public String findOwner(long groupResultId) {
+		long now = clock.getAsLong();
+		String[] owner = { null };
+		try {
+			jpa.withTransaction(() -> {
+				GroupDispatcherLease lease = leaseDao.findById(groupResultId);
+				if (lease != null && lease.getExpires().getTime() >= now) {
+					owner[0] = lease.getOwner();
+				}
+			});
+		} catch (RuntimeException e) {
+			Logger.warn(CLASS_NAME + ".findOwner: couldn't get lease of group "
+					+ "result " + groupResultId, e);
+		}
+		return owner[0];
+	}
+
+	/**
+	 * Renews this node's leases of the given GroupResults. Returns the IDs of
+	 * the leases that this node lost (e.g. another node took them over after
+	 * they expired). If the database can't be reached the leases that expired
+	 * by this node's clock are lost.
+	 */
+	public Set<Long> renew(Collection<Long> groupResultIds) {
+		Set<Long> lost = new HashSet<>(groupResultIds);
+		if (lost.isEmpty()) {
+			return lost;
+		}
+		long now = clock.getAsLong();
+		List<Long> renewed = new ArrayList<>();
+		try {
+			jpa.withTransaction(() -> {
+				renewed.addAll(leaseDao.renew(groupResultIds, nodeAddress,
+						new Timestamp(now + leaseDuration)));
+			});
+			lost.removeAll(renewed);
+			renewed.forEach(id -> expiresMap.put(id, now + leaseDuration));
+		} catch (RuntimeException e) {
+			Logger.warn(CLASS_NAME + ".renew: couldn't renew leases", e);
+			lost.removeIf(id -> expiresMap.getOrDefault(id, 0l) > now);
+		}
+		lost.forEach(expiresMap::remove);
+		return lost;
+	}
+
+	/**
+	 * Gives up this node's lease of the given GroupResult's GroupDispatcher
+	 */
+	public void release(long groupResultId) {
+		expiresMap.remove(groupResultId);
+		try {
+			jpa.withTransaction(() -> {
+				leaseDao.release(groupResultId, nodeAddress);
+			});
+		} catch (RuntimeException e) {
+			Logger.warn(CLASS_NAME + ".release: couldn't release lease of "
+					+ "group result " + groupResultId, e);
+		}
+	}
+
+}
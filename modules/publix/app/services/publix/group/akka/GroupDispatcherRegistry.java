@@ -0,0 +1,441 @@
+package services.publix.group.akka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import daos.common.GroupResultDao;
+import general.common.Common;
+import general.common.Metrics;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.libs.Akka;
+import play.libs.F;
+import services.publix.group.akka.actors.GroupDispatcher;
+import services.publix.group.akka.actors.GroupDispatcherForwarder;
+import services.publix.group.akka.actors.GroupDispatcherGateway;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ForwardedMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.LeaseLost;
+
+/**
+ * Keeps track of all GroupDispatcher Actors: maps the GroupResult's ID to its
+ * GroupDispatcher. It's called by the ChannelService, the GroupChannels and the
+ * GroupDispatchers themselves, from whichever thread they are running in.
+ *
+ * It used to be an Akka Actor itself. But then every channel open, join,
+ * leave, reassign and close of all groups went through its one mailbox. Now
+ * it's a concurrent map: looking up an existing GroupDispatcher doesn't lock
+ * at all and creating one locks only a small part of the map.
+ *
+ * In multi-node mode several JATOS nodes share the groups. A node runs a
+ * group's GroupDispatcher only if it holds the group's lease (see
+ * GroupDispatcherLeases) and renews its leases periodically. If another node
+ * holds the lease the map gets a GroupDispatcherForwarder instead, that sends
+ * everything to the other node's GroupDispatcherGateway. Looking up the lease
+ * needs the database, so it runs in the GroupDbExecutor and nobody waits for
+ * it: getOrCreate returns a future and messages told meanwhile wait in the
+ * Lookup and are sent in order once the GroupDispatcher is found.
+ *
+ * @author Kristian Lange (2015)
+ */
+@Singleton
+public class GroupDispatcherRegistry {
+
+	public static final String METRIC_PREFIX = "groupDispatcherRegistry.";
+
+	private static final String CLASS_NAME = GroupDispatcherRegistry.class
+			.getSimpleName();
+
+	/**
+	 * Contains the GroupDispatchers that are currently registered. Maps the
+	 * GroupResult's ID to the ActorRef.
+	 */
+	private final ConcurrentMap<Long, ActorRef> groupDispatcherMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Lookups of GroupDispatchers that are running right now (multi-node
+	 * mode). Maps the GroupResult's ID to the Lookup.
+	 */
+	private final ConcurrentMap<Long, Lookup> lookups = new ConcurrentHashMap<>();
+
+	/**
+	 * IDs of the GroupResults whose leases this node holds (multi-node mode)
+	 */
+	private final Set<Long> ownedLeases = ConcurrentHashMap.newKeySet();
+
+	private final LongFunction<ActorRef> groupDispatcherFactory;
+	private final Metrics metrics;
+	private final GroupDispatcherLeases leases;
+	private final ActorSystem actorSystem;
+	private final GroupDbExecutor groupDbExecutor;
+
+	@Inject
+	GroupDispatcherRegistry(JPAApi jpa, GroupResultDao groupResultDao,
+			Metrics metrics, GroupDbExecutor groupDbExecutor, Common common,
+			GroupDispatcherLeases leases, ActorSystem actorSystem,
+			ApplicationLifecycle lifecycle) {
+		long persistInterval = common.getGroupSessionPersistInterval();
+		int replayBufferSize = common.getGroupChannelReplayBufferSize();
+		String leaseOwner = leases.isEnabled() ? leases.getNodeAddress()
+				: null;
+		this.metrics = metrics;
+		this.leases = leases;
+		this.actorSystem = actorSystem;
+		this.groupDbExecutor = groupDbExecutor;
+		this.groupDispatcherFactory = groupResultId -> Akka.system()
+				.actorOf(GroupDispatcher.props(jpa, this, groupResultDao,
+						metrics, groupDbExecutor, persistInterval,
+						replayBufferSize, groupResultId, leaseOwner));
+		registerGauge();
+		if (leases.isEnabled()) {
+			startMultiNode(lifecycle);
+		}
+	}
+
+	/**
+	 * Creates a GroupDispatcherRegistry that creates its GroupDispatchers with
+	 * the given factory. The factory gets the GroupResult's ID.
+	 */
+	public GroupDispatcherRegistry(Metrics metrics,
+			LongFunction<ActorRef> groupDispatcherFactory) {
+		this.metrics = metrics;
+		this.groupDispatcherFactory = groupDispatcherFactory;
+		this.leases = null;
+		this.actorSystem = null;
+		this.groupDbExecutor = null;
+		registerGauge();
+	}
+
+	private void registerGauge() {
+		metrics.registerGauge(GroupDispatcher.METRIC_PREFIX + "dispatchers",
+				groupDispatcherMap::size);
+	}
+
+	/**
+	 * Starts this node's GroupDispatcherGateway and the renewal of its
+	 * leases. When JATOS stops all leases are released, so the other nodes
+	 * can take the groups over right away.
+	 */
+	private void startMultiNode(ApplicationLifecycle lifecycle) {
+		actorSystem.actorOf(GroupDispatcherGateway.props(this, leases,
+				groupDbExecutor, metrics), GroupDispatcherGateway.NAME);
+		ScheduledExecutorService scheduler = Executors
+				.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable,
+							"group-dispatcher-leases");
+					thread.setDaemon(true);
+					return thread;
+				});
+		long renewInterval = leases.getLeaseDuration() / 3;
+		scheduler.scheduleWithFixedDelay(this::renewLeases, renewInterval,
+				renewInterval, TimeUnit.MILLISECONDS);
+		metrics.registerGauge(METRIC_PREFIX + "ownedLeases",
+				ownedLeases::size);
+		lifecycle.addStopHook(() -> {
+			scheduler.shutdownNow();
+			for (Long groupResultId : ownedLeases) {
+				leases.release(groupResultId);
+			}
+			return F.Promise.pure(null);
+		});
+	}
+
+	/**
+	 * Renews the leases of this node. The GroupDispatchers of lost leases are
+	 * stopped without persisting anything - another node runs them now.
+	 */
+	private void renewLeases() {
+		for (Long groupResultId : leases
+				.renew(new ArrayList<>(ownedLeases))) {
+			Logger.warn(CLASS_NAME + ".renewLeases: lost lease of group "
+					+ "result " + groupResultId);
+			metrics.increment(METRIC_PREFIX + "leasesLost");
+			ownedLeases.remove(groupResultId);
+			ActorRef groupDispatcher = groupDispatcherMap.get(groupResultId);
+			if (groupDispatcher != null) {
+				groupDispatcher.tell(LeaseLost.INSTANCE, ActorRef.noSender());
+			}
+		}
+	}
+
+	/**
+	 * Returns the GroupDispatcher for the given group result ID or null if it
+	 * doesn't exist.
+	 */
+	public ActorRef get(long groupResultId) {
+		return groupDispatcherMap.get(groupResultId);
+	}
+
+	/**
+	 * Returns a future of the GroupDispatcher for the given group result ID.
+	 * If it doesn't exist a new one is created - only one even if called
+	 * concurrently. In multi-node mode it's only created if this node gets the
+	 * lease - otherwise a GroupDispatcherForwarder to the node that holds it is
+	 * returned. Then the future is completed later in the GroupDbExecutor. It
+	 * completes with null if the lease's owner can't be found out (e.g. the
+	 * database can't be reached).
+	 */
+	public CompletableFuture<ActorRef> getOrCreate(long groupResultId) {
+		ActorRef groupDispatcher = groupDispatcherMap.get(groupResultId);
+		if (groupDispatcher != null) {
+			return CompletableFuture.completedFuture(groupDispatcher);
+		}
+		if (!isMultiNode()) {
+			return CompletableFuture.completedFuture(create(groupResultId));
+		}
+		Lookup lookup = lookup(groupResultId, true);
+		if (lookup.create) {
+			return lookup.groupDispatcher;
+		}
+		// A lookup that doesn't create is running - if it finds nothing we
+		// have to create
+		return lookup.groupDispatcher.thenCompose(found -> found != null
+				? CompletableFuture.completedFuture(found)
+				: getOrCreate(groupResultId));
+	}
+
+	/**
+	 * In multi-node mode it starts the database lookup of getOrCreate right
+	 * away, so a GroupChannel that needs this GroupDispatcher soon finds it
+	 * quicker. Otherwise it does nothing. Doesn't wait for anything.
+	 */
+	public void prepare(long groupResultId) {
+		if (isMultiNode() && !groupDispatcherMap.containsKey(groupResultId)) {
+			lookup(groupResultId, true);
+		}
+	}
+
+	/**
+	 * Is true if this node may run the GroupDispatcher of the given group
+	 * result ID: always in single-node mode and in multi-node mode as long as
+	 * its lease isn't expired by this node's clock
+	 */
+	public boolean holdsLease(long groupResultId) {
+		return !isMultiNode() || leases.isHeld(groupResultId);
+	}
+
+	private boolean isMultiNode() {
+		return leases != null && leases.isEnabled();
+	}
+
+	/**
+	 * Returns the running Lookup of the given group result ID or starts a new
+	 * one. A new one takes the lease if create is true - otherwise it only
+	 * looks for the lease's owner.
+	 */
+	private Lookup lookup(long groupResultId, boolean create) {
+		Lookup[] started = { null };
+		Lookup lookup = lookups.computeIfAbsent(groupResultId, id -> {
+			started[0] = new Lookup(groupResultId, create);
+			return started[0];
+		});
+		if (started[0] != null) {
+			started[0].start();
+		}
+		return lookup;
+	}
+
+	/**
+	 * The lease's owner of the given group result ID is found out: returns
+	 * the GroupDispatcher of this node, a GroupDispatcherForwarder to the
+	 * owner or null if there is no owner.
+	 */
+	private ActorRef ownerFound(long groupResultId, String owner) {
+		if (owner == null) {
+			return null;
+		} else if (leases.isOwnNode(owner)) {
+			return createOwned(groupResultId);
+		}
+		return groupDispatcherMap.computeIfAbsent(groupResultId, id -> {
+			metrics.increment(METRIC_PREFIX + "forwarders");
+			return actorSystem.actorOf(GroupDispatcherForwarder.props(id,
+					getGateway(owner), this, leases.getLeaseDuration()));
+		});
+	}
+
+	/**
+	 * Creates the GroupDispatcher for the given group result ID after this
+	 * node got its lease (multi-node mode)
+	 */
+	public ActorRef createOwned(long groupResultId) {
+		if (ownedLeases.add(groupResultId)) {
+			// A forwarder from when another node held the lease has to go
+			ActorRef forwarder = groupDispatcherMap.remove(groupResultId);
+			if (forwarder != null) {
+				forwarder.tell(PoisonPill.getInstance(), ActorRef.noSender());
+			}
+		}
+		return create(groupResultId);
+	}
+
+	/**
+	 * Returns the GroupDispatcher of this node for the given group result ID
+	 * or null if this node doesn't run it (multi-node mode)
+	 */
+	public ActorRef getOwned(long groupResultId) {
+		return ownedLeases.contains(groupResultId)
+				? groupDispatcherMap.get(groupResultId) : null;
+	}
+
+	private ActorRef create(long groupResultId) {
+		return groupDispatcherMap.computeIfAbsent(groupResultId, id -> {
+			metrics.increment(METRIC_PREFIX + "created");
+			return groupDispatcherFactory.apply(id);
+		});
+	}
+
+	/**
+	 * Sends the message to the GroupDispatcher of the given group result ID.
+	 * If this GroupDispatcher doesn't exist it's created if create is true -
+	 * otherwise the message is dropped. In multi-node mode a message that
+	 * isn't created for is sent to the node that holds the lease. Never waits
+	 * for the database: if the GroupDispatcher has to be looked up the
+	 * message waits in the Lookup.
+	 */
+	public void tell(long groupResultId, Object msg, boolean create) {
+		if (isMultiNode()) {
+			// Messages told earlier might wait in a Lookup
+			Lookup running = lookups.get(groupResultId);
+			if (running != null && running.await(msg, create)) {
+				return;
+			}
+		}
+		ActorRef groupDispatcher = groupDispatcherMap.get(groupResultId);
+		if (groupDispatcher != null) {
+			groupDispatcher.tell(msg, ActorRef.noSender());
+		} else if (isMultiNode()) {
+			if (!lookup(groupResultId, create).await(msg, create)) {
+				// Resolved just now (and it's removed from the lookups)
+				tell(groupResultId, msg, create);
+			}
+		} else if (create) {
+			create(groupResultId).tell(msg, ActorRef.noSender());
+		}
+	}
+
+	/**
+	 * A GroupDispatcher (or GroupDispatcherForwarder) closed down and
+	 * unregisters. It's only removed if it's still the registered one for this
+	 * group result ID. In multi-node mode its lease is released.
+	 */
+	public void unregister(long groupResultId, ActorRef groupDispatcher) {
+		if (groupDispatcherMap.remove(groupResultId, groupDispatcher)
+				&& ownedLeases.remove(groupResultId)) {
+			try {
+				CompletableFuture.runAsync(
+						() -> leases.release(groupResultId), groupDbExecutor);
+			} catch (RejectedExecutionException e) {
+				// JATOS is stopping - all leases were released already
+			}
+		}
+	}
+
+	private ActorSelection getGateway(String owner) {
+		return actorSystem
+				.actorSelection(owner + "/user/" + GroupDispatcherGateway.NAME);
+	}
+
+	/**
+	 * A running lookup of a group's GroupDispatcher in multi-node mode. It
+	 * takes the lease (or only looks for its owner if create is false) in the
+	 * GroupDbExecutor. Messages told meanwhile wait in it and are sent in the
+	 * order they were told once the GroupDispatcher is found.
+	 */
+	private class Lookup {
+
+		private final long groupResultId;
+		private final boolean create;
+		private final CompletableFuture<ActorRef> groupDispatcher = new CompletableFuture<>();
+
+		/**
+		 * Messages waiting for this lookup - null after it's resolved
+		 */
+		private List<Waiting> waiting = new ArrayList<>();
+
+		Lookup(long groupResultId, boolean create) {
+			this.groupResultId = groupResultId;
+			this.create = create;
+		}
+
+		void start() {
+			Supplier<String> findOwner = create
+					? () -> leases.acquire(groupResultId)
+					: () -> leases.findOwner(groupResultId);
+			try {
+				CompletableFuture
+						.supplyAsync(() -> ownerFound(groupResultId,
+								findOwner.get()), groupDbExecutor)
+						.whenComplete((found, e) -> resolve(
+								e == null ? found : null));
+			} catch (RejectedExecutionException e) {
+				// JATOS is stopping
+				resolve(null);
+			}
+		}
+
+		/**
+		 * Lets the message wait for this lookup. Returns false if it's
+		 * resolved already.
+		 */
+		synchronized boolean await(Object msg, boolean create) {
+			if (waiting == null) {
+				return false;
+			}
+			waiting.add(new Waiting(msg, create));
+			return true;
+		}
+
+		/**
+		 * Sends the waiting messages to the found GroupDispatcher. If nothing
+		 * was found, the messages that create are told again - with a lookup
+		 * that takes the lease.
+		 */
+		private void resolve(ActorRef found) {
+			List<Waiting> resolvedWaiting;
+			synchronized (this) {
+				resolvedWaiting = waiting;
+				waiting = null;
+				if (found != null) {
+					resolvedWaiting.forEach(w -> found.tell(w.msg,
+							ActorRef.noSender()));
+				}
+				lookups.remove(groupResultId, this);
+			}
+			if (found == null) {
+				metrics.increment(METRIC_PREFIX + "unresolved");
+				resolvedWaiting.stream().filter(w -> w.create)
+						.forEach(w -> tell(groupResultId, w.msg, true));
+			}
+			groupDispatcher.complete(found);
+		}
+	}
+
+	private static class Waiting {
+
+		final Object msg;
+		final boolean create;
+
+		Waiting(Object msg, boolean create) {
+			this.msg = msg;
+			this.create = create;
+		}
+	}
+
+}
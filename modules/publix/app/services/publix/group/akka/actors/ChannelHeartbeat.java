@@ -0,0 +1,83 @@
+package services.publix.group.akka.actors;
+
+/**
+ * Heartbeat of one group channel: it knows when its client sent the last
+ * message and which ping is waiting for its pong. Every message from the
+ * client counts - a busy client doesn't have to answer pings in time. A client
+ * that sends nothing for longer than the timeout (not even a pong) is silent
+ * and its group channel is closed.
+ * 
+ * Times are in ns (System.nanoTime).
+ * 
+ * It's not thread-safe - it's used only by its GroupChannel.
+ * 
+ * @author Kristian Lange
+ */
+public class ChannelHeartbeat {
+
+	private final long timeout;
+
+	/**
+	 * Time of the last message from the client
+	 */
+	private long lastReceived;
+
+	/**
+	 * Number of the last ping
+	 */
+	private long ping = 0;
+
+	/**
+	 * Time the last ping was sent or -1 if its pong came already
+	 */
+	private long pingSent = -1;
+
+	/**
+	 * @param timeout
+	 *            Time in ns a client can be silent
+	 * @param now
+	 *            The channel's start counts as the first message
+	 */
+	public ChannelHeartbeat(long timeout, long now) {
+		this.timeout = timeout;
+		this.lastReceived = now;
+	}
+
+	/**
+	 * The client sent a message
+	 */
+	public void received(long now) {
+		lastReceived = now;
+	}
+
+	/**
+	 * Returns true if the client didn't send anything for longer than the
+	 * timeout
+	 */
+	public boolean isSilent(long now) {
+		return now - lastReceived > timeout;
+	}
+
+	/**
+	 * A new ping is sent. Returns its number. An older ping's pong doesn't
+	 * count anymore for the round-trip time.
+	 */
+	public long ping(long now) {
+		pingSent = now;
+		return ++ping;
+	}
+
+	/**
+	 * The client sent the pong of the given ping. Returns the round-trip time
+	 * or -1 if it's not the pong of the last ping (or it came already).
+	 */
+	public long pong(long pongedPing, long now) {
+		if (pongedPing != ping || pingSent < 0) {
+			return -1;
+		}
+		long rtt = now - pingSent;
+		pingSent = -1;
+		return rtt;
+	}
+
+}
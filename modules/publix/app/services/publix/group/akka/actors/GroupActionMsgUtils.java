@@ -2,13 +2,13 @@ package services.publix.group.akka.actors;
 
 import java.util.Set;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import models.common.GroupResult;
-import models.common.StudyResult;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg.GroupAction;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupMsg;
 import utils.common.JsonUtils;
 
 /**
@@ -21,29 +21,38 @@ public class GroupActionMsgUtils {
 	/**
 	 * Creates a GroupActionMsg. The GroupActionMsg includes a whole bunch of
 	 * data including the action, all currently open channels, the group session
-	 * data and the group session version.
+	 * data and the group session version. It's a snapshot of the whole group,
+	 * so it carries the epoch of the sequence numbers too.
 	 * 
 	 * @param studyResultId
 	 *            Which group member initiated this action
 	 * @param action
 	 *            The action of the GroupActionMsg
-	 * @param GroupResult
-	 *            The GroupResult of this group
+	 * @param groupModel
+	 *            The in-memory model of this group
+	 * @param studyResultIdSet
+	 *            IDs of the StudyResults with an open group channel
+	 * @param seq
+	 *            Sequence number of this message
 	 */
 	public static GroupActionMsg buildFullActionMsg(Long studyResultId,
-			GroupAction action, GroupResult groupResult,
-			Set<Long> studyResultIdSet) {
+			GroupAction action, GroupModel groupModel,
+			Set<Long> studyResultIdSet, long seq) {
 		ObjectNode objectNode = JsonUtils.OBJECTMAPPER.createObjectNode();
 		objectNode.put(GroupActionMsg.ACTION, action.toString());
 		if (studyResultId != null) {
 			objectNode.put(GroupActionMsg.MEMBER_ID, studyResultId);
 		}
-		objectNode.put(GroupActionMsg.GROUP_RESULT_ID, groupResult.getId());
-		objectNode.put(GroupActionMsg.GROUP_STATE,
-				groupResult.getGroupState().name());
+		objectNode.put(GroupActionMsg.GROUP_RESULT_ID,
+				groupModel.getGroupResultId());
+		if (groupModel.getGroupState() != null) {
+			objectNode.put(GroupActionMsg.GROUP_STATE,
+					groupModel.getGroupState().name());
+		}
+		objectNode.put(GroupActionMsg.STARTED, groupModel.isStarted());
 		ArrayNode members = JsonUtils.OBJECTMAPPER.createArrayNode();
-		for (StudyResult studyResult : groupResult.getActiveMemberList()) {
-			members.add(String.valueOf(studyResult.getId()));
+		for (Long id : groupModel.getActiveMemberIds()) {
+			members.add(String.valueOf(id));
 		}
 		objectNode.set(GroupActionMsg.MEMBERS, members);
 		ArrayNode channels = JsonUtils.OBJECTMAPPER.createArrayNode();
@@ -52,29 +61,121 @@ public class GroupActionMsgUtils {
 		}
 		objectNode.set(GroupActionMsg.CHANNELS, channels);
 		objectNode.put(GroupActionMsg.GROUP_SESSION_DATA,
-				groupResult.getGroupSessionData());
+				groupModel.getGroupSessionData());
 		objectNode.put(GroupActionMsg.GROUP_SESSION_VERSION,
-				groupResult.getGroupSessionVersion());
+				groupModel.getGroupSessionVersion());
+		objectNode.put(GroupActionMsg.SEQ, seq);
+		objectNode.put(GroupActionMsg.EPOCH, groupModel.getEpoch());
 		return new GroupActionMsg(objectNode);
 	}
 
 	/**
-	 * Creates a SESSION group action message filled with the session data and
-	 * version of the given GroupResult.
+	 * Creates a GroupActionMsg that carries only the change (protocol version
+	 * 2): the action, the member it's about, the group's state (and whether
+	 * it's started) and the sequence number. The client applies it to its own
+	 * copy of the members and channels.
 	 * 
 	 * @param studyResultId
 	 *            Which group member initiated this action
-	 * @param GroupResult
-	 *            The GroupResult of this group
+	 * @param action
+	 *            The action of the GroupActionMsg
+	 * @param groupModel
+	 *            The in-memory model of this group
+	 * @param seq
+	 *            Sequence number of this message
+	 */
+	public static GroupActionMsg buildDeltaActionMsg(Long studyResultId,
+			GroupAction action, GroupModel groupModel, long seq) {
+		ObjectNode objectNode = JsonUtils.OBJECTMAPPER.createObjectNode();
+		objectNode.put(GroupActionMsg.ACTION, action.toString());
+		if (studyResultId != null) {
+			objectNode.put(GroupActionMsg.MEMBER_ID, studyResultId);
+		}
+		objectNode.put(GroupActionMsg.GROUP_RESULT_ID,
+				groupModel.getGroupResultId());
+		if (groupModel.getGroupState() != null) {
+			objectNode.put(GroupActionMsg.GROUP_STATE,
+					groupModel.getGroupState().name());
+		}
+		objectNode.put(GroupActionMsg.STARTED, groupModel.isStarted());
+		objectNode.put(GroupActionMsg.SEQ, seq);
+		return new GroupActionMsg(objectNode);
+	}
+
+	/**
+	 * Creates a SESSION group action message filled with the given session
+	 * data and version.
+	 * 
+	 * @param studyResultId
+	 *            Which group member initiated this action
+	 * @param groupSessionData
+	 *            Current group session data
+	 * @param groupSessionVersion
+	 *            Current group session version
+	 * @param seq
+	 *            Sequence number of this message
 	 */
 	public static GroupActionMsg buildSessionActionMsg(Long studyResultId,
-			GroupResult groupResult) {
+			String groupSessionData, long groupSessionVersion, long seq) {
 		ObjectNode objectNode = JsonUtils.OBJECTMAPPER.createObjectNode();
 		objectNode.put(GroupActionMsg.ACTION, GroupAction.SESSION.toString());
-		objectNode.put(GroupActionMsg.GROUP_SESSION_DATA,
-				groupResult.getGroupSessionData());
+		objectNode.put(GroupActionMsg.GROUP_SESSION_DATA, groupSessionData);
+		objectNode.put(GroupActionMsg.GROUP_SESSION_VERSION,
+				groupSessionVersion);
+		objectNode.put(GroupActionMsg.SEQ, seq);
+		return new GroupActionMsg(objectNode);
+	}
+
+	/**
+	 * Creates a SESSION group action message that carries only the given JSON
+	 * Patch and the group session version after it was applied (protocol
+	 * version 2).
+	 * 
+	 * @param studyResultId
+	 *            Which group member initiated this action
+	 * @param groupSessionPatch
+	 *            JSON Patch that was applied to the group session data
+	 * @param groupSessionVersion
+	 *            Current group session version
+	 * @param seq
+	 *            Sequence number of this message
+	 */
+	public static GroupActionMsg buildSessionPatchActionMsg(Long studyResultId,
+			JsonNode groupSessionPatch, long groupSessionVersion, long seq) {
+		ObjectNode objectNode = JsonUtils.OBJECTMAPPER.createObjectNode();
+		objectNode.put(GroupActionMsg.ACTION, GroupAction.SESSION.toString());
+		objectNode.set(GroupActionMsg.GROUP_SESSION_PATCH, groupSessionPatch);
 		objectNode.put(GroupActionMsg.GROUP_SESSION_VERSION,
-				groupResult.getGroupSessionVersion());
+				groupSessionVersion);
+		objectNode.put(GroupActionMsg.SEQ, seq);
+		return new GroupActionMsg(objectNode);
+	}
+
+	/**
+	 * Creates a message with only a sequence number. A group member that
+	 * broadcasts a message gets it instead of its own message, so it doesn't
+	 * miss the sequence number (protocol version 2).
+	 * 
+	 * @param seq
+	 *            Sequence number of the broadcast message
+	 */
+	public static GroupMsg buildReceiptMsg(long seq) {
+		ObjectNode objectNode = JsonUtils.OBJECTMAPPER.createObjectNode();
+		objectNode.put(GroupActionMsg.SEQ, seq);
+		return new GroupMsg(objectNode);
+	}
+
+	/**
+	 * Creates a PING group action message. The client answers with a PONG
+	 * with the same ping value (protocol version 3).
+	 * 
+	 * @param ping
+	 *            Number of the ping
+	 */
+	public static GroupActionMsg buildPingMsg(long ping) {
+		ObjectNode objectNode = JsonUtils.OBJECTMAPPER.createObjectNode();
+		objectNode.put(GroupActionMsg.ACTION, GroupAction.PING.toString());
+		objectNode.put(GroupActionMsg.PING, ping);
 		return new GroupActionMsg(objectNode);
 	}
 
@@ -1,16 +1,36 @@
 package services.publix.group.akka.actors;
 
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
-import akka.actor.UntypedActor;
+import akka.actor.Terminated;
+import akka.actor.UntypedActorWithStash;
+import general.common.Metrics;
+import play.Logger;
+import play.libs.Json;
+import scala.concurrent.duration.Duration;
+import services.publix.group.akka.GroupChannelFlowControl;
+import services.publix.group.akka.GroupChannelHeartbeats;
+import services.publix.group.akka.GroupDispatcherRegistry;
+import services.publix.group.akka.messages.GroupDispatcherProtocol;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.FlushChannel;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg.GroupAction;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupDispatcherFound;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.Heartbeat;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.PoisonChannel;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.ReassignChannel;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.RegisterChannel;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ResumePosition;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.UnregisterChannel;
+import utils.common.RateLimiter;
 
 /**
  * GroupChannel is an Akka Actor that represents the group channel's WebSocket.
@@ -23,77 +43,364 @@ import services.publix.group.akka.messages.GroupDispatcherProtocol.UnregisterCha
  * GroupResult.
  * 
  * A GroupChannel belongs to a GroupDispatcher. A GroupChannel is created by the
- * ChannelService and registers itself by sending a RegisterChannel message to
- * its GroupDispatcher. It closes down after receiving a PoisonChannel message
- * or if the WebSocket is closed. While closing down it unregisters from the
- * GroupDispatcher by sending a UnregisterChannel message. A GroupChannel can,
- * if it's told to, reassign itself to a different GroupDispatcher.
+ * ChannelService. When it starts it gets (or creates) its GroupDispatcher from
+ * the GroupDispatcherRegistry and registers itself by sending a
+ * RegisterChannel message to it. It closes down after receiving a
+ * PoisonChannel message or if the WebSocket is closed. While closing down it
+ * unregisters from the GroupDispatcher by sending a UnregisterChannel message.
+ * A GroupChannel can, if it's told to, reassign itself to a different
+ * GroupDispatcher.
+ * 
+ * A GroupChannel gets its GroupDispatcher from the GroupDispatcherRegistry
+ * without waiting: in multi-node mode it might have to be looked up in the
+ * database first. Then the found GroupDispatcher is sent to the GroupChannel
+ * (GroupDispatcherFound) and until it's there the messages of the client are
+ * stashed.
+ * 
+ * A GroupChannel watches its GroupDispatcher. If the GroupDispatcher stops
+ * while the GroupChannel is still registered (e.g. in multi-node mode another
+ * node took over the group) the GroupChannel closes, so its client reconnects
+ * and gets the group's current GroupDispatcher.
+ * 
+ * A GroupChannel doesn't hand its messages to the WebSocket unbounded: it
+ * sends at most a configured number of messages per second to its client and
+ * keeps the rest in its OutboundQueue. If the queue is full the OverflowPolicy
+ * decides which messages are dropped - or if the channel is closed. Messages
+ * from the client beyond the inbound rate limit are dropped and answered with
+ * a SESSION_FAIL or an ERROR (see GroupChannelFlowControl).
+ * 
+ * If its client speaks protocol version 3 a GroupChannel pings it
+ * periodically. If the client doesn't send anything (not even a pong) for too
+ * long the GroupChannel closes itself (see GroupChannelHeartbeats).
  * 
  * @author Kristian Lange (2015)
  */
-public class GroupChannel extends UntypedActor {
+public class GroupChannel extends UntypedActorWithStash {
+
+	/**
+	 * Akka dispatcher (thread pool) of all GroupChannels - configured in
+	 * application.conf
+	 */
+	public static final String DISPATCHER_NAME = "akka.group-channel-dispatcher";
+
+	private static final String CLASS_NAME = GroupChannel.class
+			.getSimpleName();
 
 	/**
 	 * Output of the WebSocket: JATOS -> client
 	 */
 	private final ActorRef out;
 	private final long studyResultId;
+	private final int protocolVersion;
+
+	/**
+	 * Where the client wants to resume after it lost its previous group
+	 * channel or null
+	 */
+	private final ResumePosition resumePosition;
+	private final GroupDispatcherRegistry groupDispatcherRegistry;
+	private final Metrics metrics;
+	private final OutboundQueue outboundQueue;
+	private final RateLimiter outboundRateLimiter;
+	private final RateLimiter inboundRateLimiter;
+	private final GroupChannelHeartbeats heartbeats;
+
+	/**
+	 * Group result of the current GroupDispatcher
+	 */
+	private long groupResultId;
+
+	/**
+	 * Null while the GroupDispatcher is looked up
+	 */
 	private ActorRef groupDispatcher;
 
+	/**
+	 * Is true after this channel was reassigned to a different
+	 * GroupDispatcher - then it doesn't resume anymore
+	 */
+	private boolean reassigned = false;
+
+	/**
+	 * Heartbeat of this channel or null if its client isn't pinged
+	 */
+	private ChannelHeartbeat heartbeat;
+
+	/**
+	 * Scheduled Heartbeat messages or null if none are scheduled
+	 */
+	private Cancellable heartbeatTask;
+
+	/**
+	 * Scheduled FlushChannel message or null if none is scheduled
+	 */
+	private Cancellable flushTask;
+
+	/**
+	 * Is true after the outbound queue overflowed with policy DISCONNECT
+	 */
+	private boolean disconnecting = false;
+
 	/**
 	 * Akka method to get this Actor started. Changes in props must be done in
 	 * the constructor too.
 	 */
 	public static Props props(ActorRef out, long studyResultId,
-			ActorRef groupDispatcher) {
+			long groupResultId, int protocolVersion,
+			ResumePosition resumePosition,
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupChannelFlowControl flowControl,
+			GroupChannelHeartbeats heartbeats) {
 		return Props.create(GroupChannel.class, out, studyResultId,
-				groupDispatcher);
+				groupResultId, protocolVersion, resumePosition,
+				groupDispatcherRegistry, flowControl, heartbeats)
+				.withDispatcher(DISPATCHER_NAME);
 	}
 
-	public GroupChannel(ActorRef out, long studyResultId,
-			ActorRef groupDispatcher) {
+	public GroupChannel(ActorRef out, long studyResultId, long groupResultId,
+			int protocolVersion, ResumePosition resumePosition,
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupChannelFlowControl flowControl,
+			GroupChannelHeartbeats heartbeats) {
 		this.out = out;
 		this.studyResultId = studyResultId;
-		this.groupDispatcher = groupDispatcher;
+		this.groupResultId = groupResultId;
+		this.protocolVersion = protocolVersion;
+		this.resumePosition = resumePosition;
+		this.groupDispatcherRegistry = groupDispatcherRegistry;
+		this.metrics = flowControl.getMetrics();
+		this.outboundQueue = flowControl.newOutboundQueue();
+		this.outboundRateLimiter = flowControl.newOutboundRateLimiter();
+		this.inboundRateLimiter = flowControl.newInboundRateLimiter();
+		this.heartbeats = heartbeats;
 	}
 
 	@Override
 	public void preStart() {
-		groupDispatcher.tell(new RegisterChannel(studyResultId), self());
+		heartbeats.channelOpened(studyResultId);
+		findGroupDispatcher(groupResultId);
+		if (heartbeats.isEnabled() && protocolVersion
+				>= GroupDispatcherProtocol.PROTOCOL_VERSION_HEARTBEAT) {
+			heartbeat = heartbeats.newHeartbeat(System.nanoTime());
+			Duration interval = Duration.create(heartbeats.getInterval(),
+					TimeUnit.MILLISECONDS);
+			heartbeatTask = getContext().system().scheduler().schedule(
+					interval, interval, self(), Heartbeat.INSTANCE,
+					getContext().dispatcher(), self());
+		}
 	}
 
 	@Override
 	public void postStop() {
-		groupDispatcher.tell(new UnregisterChannel(studyResultId), self());
+		if (flushTask != null) {
+			flushTask.cancel();
+		}
+		if (heartbeatTask != null) {
+			heartbeatTask.cancel();
+		}
+		outboundQueue.clear();
+		if (groupDispatcher != null) {
+			groupDispatcher.tell(new UnregisterChannel(studyResultId),
+					self());
+		}
 	}
 
 	@Override
 	// WebSocket's input channel: client -> JATOS
 	public void onReceive(Object msg) throws Exception {
-		if (msg instanceof ObjectNode) {
-			// If we receive a JsonNode (only from the client) wrap it in a
-			// GroupMsg and forward it to the GroupDispatcher
-			ObjectNode jsonNode = (ObjectNode) msg;
-			groupDispatcher.tell(new GroupMsg(jsonNode), self());
+		if (msg instanceof GroupDispatcherFound) {
+			groupDispatcherFound((GroupDispatcherFound) msg);
+		} else if (msg instanceof String && groupDispatcher == null) {
+			// Wait with the client's messages until we have a GroupDispatcher
+			stash();
+		} else if (msg instanceof String) {
+			// If we receive a String (only from the client) parse it, wrap it
+			// in a GroupMsg and forward it to the GroupDispatcher
+			receiveFromClient((String) msg);
 		} else if (msg instanceof GroupMsg) {
-			// If we receive a GroupMsg (only from the GroupDispatcher) send
-			// the wrapped JsonNode to the client
-			GroupMsg groupMsg = (GroupMsg) msg;
-			out.tell(groupMsg.jsonNode, self());
+			// If we receive a GroupMsg (only from the GroupDispatcher) queue
+			// it to be sent to the client
+			sendToClient((GroupMsg) msg);
+		} else if (msg == FlushChannel.INSTANCE) {
+			flushTask = null;
+			flush();
+		} else if (msg == Heartbeat.INSTANCE) {
+			heartbeat();
 		} else if (msg instanceof ReassignChannel) {
 			// This group channel has to reassign to a different dispatcher
 			ReassignChannel reassignChannel = (ReassignChannel) msg;
-			this.groupDispatcher.tell(new UnregisterChannel(studyResultId),
-					self());
-			this.groupDispatcher = reassignChannel.differentGroupDispatcher;
-			this.groupDispatcher.tell(new RegisterChannel(studyResultId),
+			groupDispatcher.tell(new UnregisterChannel(studyResultId),
 					self());
+			getContext().unwatch(groupDispatcher);
+			groupDispatcher = null;
+			reassigned = true;
+			findGroupDispatcher(reassignChannel.differentGroupResultId);
 		} else if (msg instanceof PoisonChannel) {
 			// Kill this group channel
 			self().tell(PoisonPill.getInstance(), self());
+		} else if (msg instanceof Terminated) {
+			// Our GroupDispatcher is gone - the client has to reconnect
+			if (((Terminated) msg).getActor().equals(groupDispatcher)) {
+				getContext().stop(self());
+			}
 		} else {
 			unhandled(msg);
 		}
 	}
 
+	/**
+	 * Gets the GroupDispatcher of the given group result ID from the
+	 * GroupDispatcherRegistry. It's sent to this GroupChannel as soon as it's
+	 * found.
+	 */
+	private void findGroupDispatcher(long groupResultId) {
+		this.groupResultId = groupResultId;
+		ActorRef self = self();
+		groupDispatcherRegistry.getOrCreate(groupResultId)
+				.whenComplete((found, e) -> self.tell(
+						new GroupDispatcherFound(e == null ? found : null),
+						ActorRef.noSender()));
+	}
+
+	/**
+	 * Registers this channel in the found GroupDispatcher and passes the
+	 * client's messages that waited for it
+	 */
+	private void groupDispatcherFound(GroupDispatcherFound found) {
+		if (found.groupDispatcher == null) {
+			// Can't find the GroupDispatcher - the client has to reconnect
+			getContext().stop(self());
+			return;
+		}
+		groupDispatcher = found.groupDispatcher;
+		getContext().watch(groupDispatcher);
+		groupDispatcher.tell(new RegisterChannel(studyResultId,
+				protocolVersion, reassigned ? null : resumePosition), self());
+		unstashAll();
+	}
+
+	/**
+	 * Parses the text received from the client. The text is kept with the
+	 * GroupMsg, so it doesn't have to be rendered again if the
+	 * GroupDispatcher forwards it to other members. Pongs don't count for the
+	 * inbound rate limit.
+	 */
+	private void receiveFromClient(String text) {
+		long now = System.nanoTime();
+		if (heartbeat != null) {
+			heartbeat.received(now);
+		}
+		JsonNode jsonNode;
+		try {
+			jsonNode = Json.parse(text);
+		} catch (RuntimeException e) {
+			unhandled(text);
+			return;
+		}
+		if (isPong(jsonNode)) {
+			pong(jsonNode, now);
+		} else if (!inboundRateLimiter.tryAcquire()) {
+			metrics.increment(OutboundQueue.METRIC_PREFIX + "inboundDropped");
+			rejectFromClient(jsonNode);
+		} else if (jsonNode instanceof ObjectNode) {
+			groupDispatcher.tell(new GroupMsg((ObjectNode) jsonNode, text),
+					self());
+		} else {
+			unhandled(text);
+		}
+	}
+
+	/**
+	 * Tells the client that its message was dropped because it sent too many:
+	 * a dropped group session change gets a SESSION_FAIL (like a failed one),
+	 * everything else an ERROR.
+	 */
+	private void rejectFromClient(JsonNode jsonNode) {
+		String action = jsonNode.path(GroupActionMsg.ACTION).asText();
+		if (GroupAction.SESSION.toString().equals(action)) {
+			sendToClient(GroupActionMsgUtils.buildSimpleActionMsg(
+					GroupAction.SESSION_FAIL, groupResultId));
+		} else {
+			sendToClient(GroupActionMsgUtils.buildErrorActionMsg(
+					"Too many messages - dropped " + action, groupResultId));
+		}
+	}
+
+	private boolean isPong(JsonNode jsonNode) {
+		return heartbeat != null && GroupAction.PONG.toString()
+				.equals(jsonNode.path(GroupActionMsg.ACTION).asText());
+	}
+
+	/**
+	 * The client answered a ping. Pongs aren't forwarded to the
+	 * GroupDispatcher.
+	 */
+	private void pong(JsonNode jsonNode, long now) {
+		long rtt = heartbeat.pong(jsonNode.path(GroupActionMsg.PING).asLong(),
+				now);
+		if (rtt >= 0) {
+			heartbeats.ponged(rtt);
+		}
+	}
+
+	/**
+	 * Closes this group channel if its client was silent for too long -
+	 * otherwise pings it. The ping doesn't wait in the outbound queue, so the
+	 * round-trip time is only the connection's.
+	 */
+	private void heartbeat() {
+		long now = System.nanoTime();
+		if (heartbeat.isSilent(now)) {
+			heartbeats.evicted(studyResultId);
+			Logger.info(CLASS_NAME + ".heartbeat: closing group channel of "
+					+ "study result " + studyResultId
+					+ " - its client is silent");
+			getContext().stop(self());
+			return;
+		}
+		out.tell(GroupActionMsgUtils.buildPingMsg(heartbeat.ping(now))
+				.getText(), self());
+	}
+
+	/**
+	 * Queues the GroupMsg and sends as many queued messages to the client as
+	 * the outbound rate limit allows. If the queue overflows with the policy
+	 * DISCONNECT this group channel is closed.
+	 */
+	private void sendToClient(GroupMsg groupMsg) {
+		if (disconnecting) {
+			return;
+		}
+		if (!outboundQueue.offer(groupMsg)) {
+			disconnecting = true;
+			metrics.increment(OutboundQueue.METRIC_PREFIX + "disconnected");
+			Logger.info(CLASS_NAME + ".sendToClient: closing group channel "
+					+ "of study result " + studyResultId
+					+ " - its client can't keep up");
+			getContext().stop(self());
+			return;
+		}
+		flush();
+	}
+
+	/**
+	 * Sends queued messages to the client while the outbound rate limit
+	 * allows it. The text of a GroupMsg is rendered only once for all
+	 * members. If messages are left, schedules a FlushChannel message for the
+	 * time the next one is allowed.
+	 */
+	private void flush() {
+		while (!outboundQueue.isEmpty() && outboundRateLimiter.tryAcquire()) {
+			out.tell(outboundQueue.poll().getText(), self());
+		}
+		if (!outboundQueue.isEmpty() && flushTask == null) {
+			Duration delay = Duration.create(
+					outboundRateLimiter.nanosUntilNextPermit(),
+					TimeUnit.NANOSECONDS);
+			flushTask = getContext().system().scheduler().scheduleOnce(delay,
+					self(), FlushChannel.INSTANCE, getContext().dispatcher(),
+					self());
+		}
+	}
+
 }
@@ -1,28 +1,45 @@
 package services.publix.group.akka.actors;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
-import akka.actor.UntypedActor;
+import akka.actor.UntypedActorWithStash;
 import daos.common.GroupResultDao;
+import general.common.Metrics;
 import models.common.GroupResult;
 import models.common.GroupResult.GroupState;
 import play.Logger;
 import play.db.jpa.JPAApi;
+import scala.concurrent.duration.Duration;
+import services.publix.group.akka.GroupDbExecutor;
+import services.publix.group.akka.GroupDispatcherRegistry;
 import services.publix.group.akka.messages.GroupDispatcherProtocol;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg.GroupAction;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupFixed;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupModelLoaded;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupSessionPersisted;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.Joined;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.LeaseLost;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.Left;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.PersistGroupSession;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.PoisonChannel;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.ReassignChannel;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.RegisterChannel;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ResumePosition;
 import services.publix.group.akka.messages.GroupDispatcherProtocol.UnregisterChannel;
-import services.publix.group.akka.messages.GroupDispatcherRegistryProtocol.Unregister;
+import utils.common.JsonPatch.JsonPatchException;
 
 /**
  * A GroupDispatcher is an Akka Actor responsible for distributing messages
@@ -31,7 +48,11 @@ import services.publix.group.akka.messages.GroupDispatcherRegistryProtocol.Unreg
  * A GroupDispatcher only handles the GroupChannels but is not responsible for
  * the actual joining of a GroupResult. This is done prior to creating a
  * GroupDispatcher by the GroupService which persists all data in a GroupResult.
- * Who's member in a group is defined by the GroupResult.
+ * Who's member in a group is defined by the GroupResult. The GroupDispatcher
+ * keeps a GroupModel: it's seeded from the GroupResult when the
+ * GroupDispatcher starts and then kept up to date by the Joined and Left
+ * messages from the GroupService/ChannelService. All group action messages
+ * are built from this model without any database access.
  * 
  * A GroupChannel is only opened after a StudyResult joined a GroupResult, which
  * is done in the GroupService. Group data (e.g. who's member) are persisted in
@@ -42,54 +63,190 @@ import services.publix.group.akka.messages.GroupDispatcherRegistryProtocol.Unreg
  * GroupDispatcherProtocol.
  * 
  * For the group session the GroupDispatcher is a message broker in a simple pub
- * sub system with receipt messages to assure delivery or its absence.
+ * sub system with receipt messages to assure delivery or its absence. The
+ * GroupModel holds the authoritative group session data and version and the
+ * GroupDispatcher answers from there. Changes are persisted in the GroupResult
+ * write-behind: coalesced every persistInterval, when the group is fixed and
+ * when the GroupDispatcher stops.
+ * 
+ * Together with the group session a compact snapshot of the GroupDispatcher
+ * is persisted: its epoch and sequence number (the members are in the
+ * database anyway). When the GroupDispatcher stops orderly the snapshot is
+ * marked as exact. A new GroupDispatcher of this group (e.g. after JATOS was
+ * restarted) is created lazily when the first member reconnects and continues
+ * with the exact snapshot - so its members can resume instead of getting a
+ * new snapshot of the whole group. After a crash the snapshot isn't exact and
+ * the new GroupDispatcher starts a new epoch.
  * 
  * A GroupChannel registers in a GroupDispatcher by sending the RegisterChannel
  * message and unregisters by sending a UnregisterChannel message.
  * 
+ * Every message that is sent to all group members gets the next sequence
+ * number and is kept in the ReplayBuffer. A member that lost its group channel
+ * can resume with a new one: it registers with the epoch and the last sequence
+ * number it got and is sent only the messages it missed.
+ * 
  * A new GroupDispatcher is created by the GroupDispatcherRegistry. If a
  * GroupDispatcher has no more members it closes itself.
  * 
+ * In multi-node mode a GroupDispatcher only runs while its node holds the
+ * group's lease. Its writes into the GroupResult are fenced by the lease, and
+ * it stops as soon as the lease is expired by its node's clock - even if the
+ * GroupDispatcherRegistry couldn't tell it (e.g. the renewal hangs).
+ * 
+ * A GroupDispatcher never blocks its thread with database work: the work runs
+ * in the GroupDbExecutor, one after another in the order it was started, and
+ * its outcome is sent back to the GroupDispatcher as a message. Until the
+ * GroupModel is loaded all other messages are stashed.
+ * 
  * @author Kristian Lange (2015)
  */
-public class GroupDispatcher extends UntypedActor {
+public class GroupDispatcher extends UntypedActorWithStash {
 
 	public static final String ACTOR_NAME = "GroupDispatcher";
 
+	/**
+	 * Akka dispatcher (thread pool) of all GroupDispatchers - configured in
+	 * application.conf
+	 */
+	public static final String DISPATCHER_NAME = "akka.group-dispatcher-dispatcher";
+
+	/**
+	 * Max time to wait for pending database work when stopping
+	 */
+	private static final long STOP_TIMEOUT_MS = 5000;
+
+	public static final String METRIC_PREFIX = "groupSession.";
+
 	private static final String CLASS_NAME = GroupDispatcher.class
 			.getSimpleName();
 
 	private GroupRegistry groupRegistry = new GroupRegistry();
 	private final JPAApi jpa;
-	private final ActorRef groupDispatcherRegistry;
+	private final GroupDispatcherRegistry groupDispatcherRegistry;
 	private final GroupResultDao groupResultDao;
+	private final Metrics metrics;
+	private final Executor dbExecutor;
+	private final long persistInterval;
+	private final ReplayBuffer replayBuffer;
 	private long groupResultId;
 
+	/**
+	 * Address of this node in multi-node mode (it holds the group's lease) or
+	 * null otherwise
+	 */
+	private final String leaseOwner;
+
+	/**
+	 * Current state, members and session of this group. It's authoritative
+	 * while this GroupDispatcher is running. It's null until it's loaded.
+	 */
+	private GroupModel groupModel;
+
+	/**
+	 * Database work of this GroupDispatcher: each one is chained to the one
+	 * before, so they run in order.
+	 */
+	private CompletableFuture<Void> dbWork = CompletableFuture
+			.completedFuture(null);
+
+	/**
+	 * Is true while the group session is being persisted
+	 */
+	private boolean persisting = false;
+
+	private Cancellable persistTask;
+
+	/**
+	 * Is true if this node lost the group's lease (multi-node mode): then
+	 * this GroupDispatcher mustn't write into the GroupResult anymore
+	 */
+	private boolean leaseLost = false;
+
 	/**
 	 * Akka method to get this Actor started. Changes in props must be done in
 	 * the constructor too.
 	 */
-	public static Props props(JPAApi jpa, ActorRef groupDispatcherRegistry,
-			GroupResultDao groupResultDao, long groupResultId) {
-		return Props.create(GroupDispatcher.class, jpa, groupDispatcherRegistry,
-				groupResultDao, groupResultId);
+	public static Props props(JPAApi jpa,
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupResultDao groupResultDao, Metrics metrics,
+			GroupDbExecutor dbExecutor, long persistInterval,
+			int replayBufferSize, long groupResultId, String leaseOwner) {
+		return Props
+				.create(GroupDispatcher.class, jpa, groupDispatcherRegistry,
+						groupResultDao, metrics, dbExecutor, persistInterval,
+						replayBufferSize, groupResultId, leaseOwner)
+				.withDispatcher(DISPATCHER_NAME);
 	}
 
-	public GroupDispatcher(JPAApi jpa, ActorRef groupDispatcherRegistry,
-			GroupResultDao groupResultDao, long groupResultId) {
+	public GroupDispatcher(JPAApi jpa,
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupResultDao groupResultDao, Metrics metrics,
+			GroupDbExecutor dbExecutor, long persistInterval,
+			int replayBufferSize, long groupResultId, String leaseOwner) {
 		this.jpa = jpa;
 		this.groupDispatcherRegistry = groupDispatcherRegistry;
 		this.groupResultDao = groupResultDao;
+		this.metrics = metrics;
+		this.dbExecutor = dbExecutor;
+		this.persistInterval = persistInterval;
+		this.replayBuffer = new ReplayBuffer(replayBufferSize);
 		this.groupResultId = groupResultId;
+		this.leaseOwner = leaseOwner;
 	}
 
+	@Override
+	public void preStart() {
+		runDbWork(this::loadGroupModel);
+		Duration interval = Duration.create(persistInterval,
+				TimeUnit.MILLISECONDS);
+		persistTask = getContext().system().scheduler().schedule(interval,
+				interval, self(), PersistGroupSession.INSTANCE,
+				getContext().dispatcher(), self());
+	}
+
+	/**
+	 * Waits for pending database work and then persists the group session one
+	 * last time - unless the lease was lost. It's the only place where this
+	 * GroupDispatcher blocks its thread - but it's stopping anyway.
+	 */
 	@Override
 	public void postStop() {
-		groupDispatcherRegistry.tell(new Unregister(groupResultId), self());
+		if (persistTask != null) {
+			persistTask.cancel();
+		}
+		try {
+			dbWork.get(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			Logger.warn(CLASS_NAME + ".postStop: pending database work of "
+					+ "group result " + groupResultId + " didn't finish");
+		}
+		if (groupModel != null && !leaseLost) {
+			persistSnapshot(groupModel.isGroupSessionDirty(),
+					groupModel.getGroupSessionData(),
+					groupModel.getGroupSessionVersion(),
+					groupModel.getSequenceNumber(), true);
+		}
+		groupDispatcherRegistry.unregister(groupResultId, self());
 	}
 
 	@Override
 	public void onReceive(Object msg) throws Exception {
+		if (msg == LeaseLost.INSTANCE) {
+			// Comes from GroupDispatcherRegistry: another node runs the group
+			leaseLost = true;
+			getContext().stop(self());
+			return;
+		}
+		if (groupModel == null) {
+			// Wait with everything until the GroupModel is loaded
+			if (msg instanceof GroupModelLoaded) {
+				groupModelLoaded((GroupModelLoaded) msg);
+			} else {
+				stash();
+			}
+			return;
+		}
 		if (msg instanceof GroupMsg) {
 			// We got a GroupMsg from a client
 			handleGroupMsg((GroupMsg) msg);
@@ -111,11 +268,37 @@ public class GroupDispatcher extends UntypedActor {
 		} else if (msg instanceof PoisonChannel) {
 			// Comes from ChannelService: close a group channel
 			poisonAGroupChannel((PoisonChannel) msg);
+		} else if (msg instanceof PersistGroupSession) {
+			// Comes from this GroupDispatcher itself
+			if (groupDispatcherRegistry.holdsLease(groupResultId)) {
+				persistSnapshotAsync();
+			} else {
+				leaseExpired();
+			}
+		} else if (msg instanceof GroupSessionPersisted) {
+			// Comes from this GroupDispatcher's database work
+			groupSessionPersisted((GroupSessionPersisted) msg);
+		} else if (msg instanceof GroupFixed) {
+			// Comes from this GroupDispatcher's database work
+			groupFixed((GroupFixed) msg);
 		} else {
 			unhandled(msg);
 		}
 	}
 
+	/**
+	 * This node's lease of the group expired by its own clock (multi-node
+	 * mode): maybe another node runs the group already. Stops without
+	 * persisting anything.
+	 */
+	private void leaseExpired() {
+		Logger.warn(CLASS_NAME + ".leaseExpired: lease of group result "
+				+ groupResultId + " expired");
+		metrics.increment(METRIC_PREFIX + "leasesExpired");
+		leaseLost = true;
+		getContext().stop(self());
+	}
+
 	/**
 	 * Handle a GroupMsg received from a client. What to do with it depends on
 	 * the JSON inside the GroupMsg.
@@ -151,6 +334,9 @@ public class GroupDispatcher extends UntypedActor {
 		case FIXED:
 			handleActionFix(jsonNode);
 			break;
+		case SNAPSHOT:
+			tellSenderOnlySnapshot();
+			break;
 		default:
 			String errorMsg = "Unknown action " + action;
 			sendErrorBackToSender(errorMsg);
@@ -159,61 +345,243 @@ public class GroupDispatcher extends UntypedActor {
 	}
 
 	/**
-	 * Persists GroupSession and tells everyone
+	 * Updates the group session in memory and tells everyone. It's persisted
+	 * later on. The client either sends the whole group session data together
+	 * with the version it's based on or a JSON Patch.
 	 */
 	private void handleActionGroupSession(ObjectNode jsonNode) {
-		jpa.withTransaction(() -> {
-			Long clientsVersion = Long.valueOf(jsonNode
-					.get(GroupActionMsg.GROUP_SESSION_VERSION).asText());
-			JsonNode updatedSessionData = jsonNode
-					.get(GroupActionMsg.GROUP_SESSION_DATA);
-			GroupResult groupResult = groupResultDao.findById(groupResultId);
-			boolean success = persistGroupSessionData(groupResult,
-					clientsVersion, updatedSessionData);
-			if (success) {
-				Long studyResultId = groupRegistry.getStudyResult(sender());
-				tellAllSessionGroupAction(studyResultId, groupResult);
-				tellSenderOnlySimpleGroupAction(GroupAction.SESSION_ACK);
-			} else {
-				tellSenderOnlySimpleGroupAction(GroupAction.SESSION_FAIL);
+		if (jsonNode.has(GroupActionMsg.GROUP_SESSION_PATCH)) {
+			handleGroupSessionPatch(
+					jsonNode.get(GroupActionMsg.GROUP_SESSION_PATCH));
+			return;
+		}
+		Long clientsVersion = null;
+		if (jsonNode.has(GroupActionMsg.GROUP_SESSION_VERSION)) {
+			try {
+				clientsVersion = Long.valueOf(jsonNode
+						.get(GroupActionMsg.GROUP_SESSION_VERSION).asText());
+			} catch (NumberFormatException e) {
+				// Handled like a wrong version
 			}
-		});
+		}
+		JsonNode updatedSessionData = jsonNode
+				.get(GroupActionMsg.GROUP_SESSION_DATA);
+		boolean success = groupModel.updateGroupSession(clientsVersion,
+				updatedSessionData);
+		if (success) {
+			metrics.increment(METRIC_PREFIX + "updates");
+			Long studyResultId = groupRegistry.getStudyResult(sender());
+			tellAllSessionGroupAction(studyResultId);
+			tellSenderOnlySimpleGroupAction(GroupAction.SESSION_ACK);
+		} else {
+			tellSenderOnlySimpleGroupAction(GroupAction.SESSION_FAIL);
+		}
+	}
+
+	/**
+	 * Applies the JSON Patch to the group session in memory and tells
+	 * everyone: members that speak protocol version 2 get only the patch,
+	 * the others the whole group session. Patches don't fail because of a
+	 * stale version, only if they can't be applied (conflict).
+	 */
+	private void handleGroupSessionPatch(JsonNode patch) {
+		try {
+			groupModel.patchGroupSession(patch);
+		} catch (JsonPatchException e) {
+			metrics.increment(METRIC_PREFIX + "patchConflicts");
+			Logger.debug(CLASS_NAME + ".handleGroupSessionPatch: groupResultId "
+					+ groupResultId + " - " + e.getMessage());
+			tellSenderOnlySimpleGroupAction(GroupAction.SESSION_FAIL);
+			return;
+		}
+		metrics.increment(METRIC_PREFIX + "patches");
+		Long studyResultId = groupRegistry.getStudyResult(sender());
+		tellAllSessionPatchGroupAction(studyResultId, patch);
+		tellSenderOnlySimpleGroupAction(GroupAction.SESSION_ACK);
 	}
 
 	/**
-	 * Changes state of GroupResult to FIXED and sends an update to all group
-	 * members
+	 * Changes state of GroupResult to FIXED and persists the group session
+	 * with it - unless the group is finished meanwhile. The update is sent to
+	 * all group members after it's persisted.
 	 */
 	private void handleActionFix(ObjectNode jsonNode) {
-		jpa.withTransaction(() -> {
-			GroupResult groupResult = groupResultDao.findById(groupResultId);
-			if (groupResult != null) {
-				groupResult.setGroupState(GroupState.FIXED);
-				updateGroupResult(groupResult);
-				tellAllFullGroupAction(GroupAction.UPDATE, groupResult);
-			} else {
-				String errorMsg = "Couldn't fix the group result.";
-				sendErrorBackToSender(errorMsg);
+		ActorRef requester = sender();
+		String sessionData = groupModel.getGroupSessionData();
+		long sessionVersion = groupModel.getGroupSessionVersion();
+		boolean sessionDirty = groupModel.isGroupSessionDirty();
+		groupModel.setGroupSessionDirty(false);
+		runDbWork(() -> {
+			boolean[] fixed = { false };
+			try {
+				jpa.withTransaction(() -> {
+					if (sessionDirty) {
+						persistGroupSession(sessionData, sessionVersion);
+					}
+					fixed[0] = groupResultDao.fix(groupResultId,
+							leaseOwner) > 0;
+				});
+			} catch (RuntimeException e) {
+				Logger.error(CLASS_NAME + ".handleActionFix: couldn't fix "
+						+ "group result " + groupResultId, e);
 			}
+			return new GroupFixed(requester, fixed[0]);
 		});
 	}
 
 	/**
-	 * Persists the given sessionData in the GroupResult and increases the
-	 * groupSessionVersion by 1 - but only if the stored version is equal to the
-	 * received one. Returns true if this was successful - otherwise false.
+	 * Outcome of fixing the group
+	 */
+	private void groupFixed(GroupFixed groupFixed) {
+		if (groupFixed.success) {
+			groupModel.setGroupState(GroupState.FIXED);
+			tellAllGroupAction(GroupAction.UPDATE);
+		} else {
+			// The group session might not be persisted either
+			groupModel.setGroupSessionDirty(true);
+			String errorMsg = "Couldn't fix the group result.";
+			GroupActionMsg msg = GroupActionMsgUtils
+					.buildErrorActionMsg(errorMsg, groupResultId);
+			groupFixed.requester.tell(msg, self());
+		}
+	}
+
+	/**
+	 * Database work: loads the GroupModel from the GroupResult. From now on
+	 * the GroupResult's snapshot isn't exact anymore - until this
+	 * GroupDispatcher stops orderly. The loaded GroupModel is null if the
+	 * GroupResult couldn't be loaded.
+	 */
+	private GroupModelLoaded loadGroupModel() {
+		GroupModel loadedGroupModel = new GroupModel(groupResultId);
+		boolean[] loaded = { false };
+		try {
+			jpa.withTransaction(() -> {
+				GroupResult groupResult = groupResultDao
+						.findById(groupResultId);
+				if (groupResult != null) {
+					loadedGroupModel.seed(groupResult);
+					groupResultDao.updateDispatcherSnapshot(groupResultId,
+							loadedGroupModel.getEpoch(),
+							loadedGroupModel.getSequenceNumber(), false,
+							leaseOwner);
+					loaded[0] = true;
+				} else {
+					Logger.warn(CLASS_NAME + ".loadGroupModel: couldn't find "
+							+ "group result with ID " + groupResultId);
+				}
+			});
+		} catch (RuntimeException e) {
+			Logger.error(CLASS_NAME + ".loadGroupModel: couldn't load "
+					+ "group result " + groupResultId, e);
+		}
+		if (!loaded[0]) {
+			return new GroupModelLoaded(null);
+		}
+		if (loadedGroupModel.isRehydrated()) {
+			metrics.increment(METRIC_PREFIX + "rehydrated");
+		}
+		return new GroupModelLoaded(loadedGroupModel);
+	}
+
+	/**
+	 * Continues with the stashed messages once the GroupModel is loaded. If it
+	 * couldn't be loaded this GroupDispatcher stops instead of running with an
+	 * empty group: its GroupChannels close too and their clients reconnect and
+	 * get a new GroupDispatcher.
+	 */
+	private void groupModelLoaded(GroupModelLoaded groupModelLoaded) {
+		if (groupModelLoaded.groupModel == null) {
+			metrics.increment(METRIC_PREFIX + "loadFailures");
+			getContext().stop(self());
+			return;
+		}
+		this.groupModel = groupModelLoaded.groupModel;
+		unstashAll();
+	}
+
+	/**
+	 * Starts persisting the snapshot (and the group session if it changed)
+	 * if anything changed since the last time and if it isn't already being
+	 * persisted.
+	 */
+	private void persistSnapshotAsync() {
+		if (!groupModel.isSnapshotDirty() || persisting) {
+			return;
+		}
+		boolean sessionDirty = groupModel.isGroupSessionDirty();
+		String sessionData = groupModel.getGroupSessionData();
+		long sessionVersion = groupModel.getGroupSessionVersion();
+		long seq = groupModel.getSequenceNumber();
+		groupModel.snapshotTaken(seq);
+		persisting = true;
+		runDbWork(() -> new GroupSessionPersisted(persistSnapshot(sessionDirty,
+				sessionData, sessionVersion, seq, false)));
+	}
+
+	/**
+	 * Outcome of persisting the snapshot. If it failed it's tried again next
+	 * time.
 	 */
-	private boolean persistGroupSessionData(GroupResult groupResult,
-			Long version, JsonNode sessionData) {
-		if (groupResult != null && version != null && sessionData != null
-				&& groupResult.getGroupSessionVersion().equals(version)) {
-			groupResult.setGroupSessionData(sessionData.toString());
-			long newVersion = groupResult.getGroupSessionVersion() + 1l;
-			groupResult.setGroupSessionVersion(newVersion);
-			updateGroupResult(groupResult);
+	private void groupSessionPersisted(
+			GroupSessionPersisted groupSessionPersisted) {
+		persisting = false;
+		if (!groupSessionPersisted.success) {
+			groupModel.snapshotFailed();
+		}
+	}
+
+	/**
+	 * Persists the snapshot with the given sequence number in the
+	 * GroupResult - and the given group session if sessionDirty is true.
+	 * Stopped is true if this GroupDispatcher stops and it's the exact
+	 * snapshot. The snapshot alone is written with a targeted update, so a
+	 * group that only chats doesn't rewrite its whole row. Returns true if
+	 * it was successful.
+	 */
+	private boolean persistSnapshot(boolean sessionDirty, String sessionData,
+			long sessionVersion, long seq, boolean stopped) {
+		long epoch = groupModel.getEpoch();
+		try {
+			jpa.withTransaction(() -> {
+				if (sessionDirty) {
+					persistGroupSession(sessionData, sessionVersion);
+				}
+				groupResultDao.updateDispatcherSnapshot(groupResultId, epoch,
+						seq, stopped, leaseOwner);
+			});
 			return true;
+		} catch (RuntimeException e) {
+			Logger.error(CLASS_NAME + ".persistSnapshot: couldn't persist "
+					+ "snapshot of group result " + groupResultId, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the given group session into the GroupResult. It's a conditional
+	 * update and not a merge of the whole GroupResult: a group that is
+	 * finished meanwhile (e.g. by the GroupService) has its session data
+	 * deleted already - they mustn't come back, and neither its old state.
+	 * Has to be called within a transaction.
+	 */
+	private void persistGroupSession(String sessionData,
+			long sessionVersion) {
+		if (groupResultDao.updateGroupSession(groupResultId, sessionData,
+				sessionVersion, leaseOwner) > 0) {
+			metrics.increment(METRIC_PREFIX + "persists");
 		}
-		return false;
+	}
+
+	/**
+	 * Runs the given database work in the GroupDbExecutor after all database
+	 * work started before and sends its outcome to this GroupDispatcher. The
+	 * work mustn't touch this actor's state.
+	 */
+	private void runDbWork(Supplier<Object> work) {
+		ActorRef self = self();
+		dbWork = dbWork.thenRunAsync(
+				() -> self.tell(work.get(), ActorRef.noSender()), dbExecutor);
 	}
 
 	/**
@@ -236,12 +604,52 @@ public class GroupDispatcher extends UntypedActor {
 
 	/**
 	 * Registers the given channel and sends an OPENED action group message to
-	 * everyone in this group.
+	 * everyone in this group. If the member wants to resume and the messages
+	 * it missed are still there it gets them first - and then the OPENED
+	 * delta instead of a snapshot.
 	 */
 	private void registerChannel(RegisterChannel registerChannel) {
 		long studyResultId = registerChannel.studyResultId;
-		groupRegistry.register(studyResultId, sender());
-		tellAllFullGroupAction(studyResultId, GroupAction.OPENED);
+		// If there is already a group channel for this StudyResult (e.g.
+		// after a reload) close the old one
+		ActorRef oldGroupChannel = groupRegistry.getGroupChannel(studyResultId);
+		if (oldGroupChannel != null && !oldGroupChannel.equals(sender())) {
+			oldGroupChannel.tell(new PoisonChannel(studyResultId), self());
+		}
+		groupRegistry.register(studyResultId, sender(),
+				registerChannel.protocolVersion);
+		boolean resumed = resumeChannel(studyResultId,
+				registerChannel.resumePosition);
+		tellAllGroupAction(studyResultId, GroupAction.OPENED, resumed);
+	}
+
+	/**
+	 * Sends the messages the member missed since the given ResumePosition to
+	 * its new group channel (the sender). Returns false if there is nothing to
+	 * resume from: no ResumePosition, a different epoch (this GroupDispatcher
+	 * was started after the member lost its channel) or the missed messages
+	 * aren't in the ReplayBuffer anymore.
+	 */
+	private boolean resumeChannel(long studyResultId,
+			ResumePosition resumePosition) {
+		if (resumePosition == null
+				|| !groupRegistry.speaksDeltaProtocol(studyResultId)) {
+			return false;
+		}
+		if (resumePosition.epoch != groupModel.getEpoch()
+				|| !replayBuffer.canReplay(resumePosition.seq,
+						groupModel.getSequenceNumber())) {
+			metrics.increment(METRIC_PREFIX + "resumeMisses");
+			return false;
+		}
+		List<GroupMsg> missedMsgs = replayBuffer
+				.getAfter(resumePosition.seq, studyResultId);
+		for (GroupMsg msg : missedMsgs) {
+			tellSenderOnly(msg);
+		}
+		metrics.increment(METRIC_PREFIX + "resumes");
+		metrics.add(METRIC_PREFIX + "replayedMsgs", missedMsgs.size());
+		return true;
 	}
 
 	/**
@@ -256,7 +664,7 @@ public class GroupDispatcher extends UntypedActor {
 		if (groupRegistry.containsStudyResult(studyResultId) && groupRegistry
 				.getGroupChannel(studyResultId).equals(sender())) {
 			groupRegistry.unregister(unregisterChannel.studyResultId);
-			tellAllFullGroupAction(studyResultId, GroupAction.CLOSED);
+			tellAllGroupAction(studyResultId, GroupAction.CLOSED);
 		}
 
 		// Tell this dispatcher to kill itself if it has no more members
@@ -283,89 +691,162 @@ public class GroupDispatcher extends UntypedActor {
 	}
 
 	/**
-	 * Send the JOINED group action message to all group members. Who's joined
-	 * the group is specified in the given Joined object.
+	 * Adds the new member to the GroupModel and sends the JOINED group action
+	 * message to all group members. Who's joined the group is specified in the
+	 * given Joined object.
 	 */
 	private void joined(Joined joined) {
-		tellAllFullGroupAction(joined.studyResultId, GroupAction.JOINED);
+		groupModel.addActiveMember(joined.studyResultId);
+		groupModel.setGroupState(joined.groupState);
+		groupModel.setStarted(joined.started);
+		tellAllGroupAction(joined.studyResultId, GroupAction.JOINED);
 	}
 
 	/**
-	 * Send the LEFT group action message to all group members. Who's left the
-	 * group is specified in the given Left object.
+	 * Removes the member from the GroupModel and sends the LEFT group action
+	 * message to all group members. Who's left the group is specified in the
+	 * given Left object.
 	 */
 	private void left(Left left) {
-		tellAllFullGroupAction(left.studyResultId, GroupAction.LEFT);
-	}
-
-	/**
-	 * Wrapper around {@link #tellAllFullGroupAction(Long, String, GroupResult)
-	 * tellGroupAction} but retrieves the GroupResult from the database before
-	 * calling it.
-	 */
-	private void tellAllFullGroupAction(long studyResultId,
-			GroupAction action) {
-		// The current group data are persisted in a GroupResult entity. The
-		// GroupResult determines who is member of the group - and not
-		// the group registry.
-		jpa.withTransaction(() -> {
-			GroupResult groupResult = groupResultDao.findById(groupResultId);
-			if (groupResult == null) {
-				String errorMsg = "Couldn't find group result with ID "
-						+ groupResultId + " in database.";
-				sendErrorBackToSender(errorMsg);
-				return;
-			}
-			tellAllFullGroupAction(studyResultId, action, groupResult);
-		});
+		groupModel.removeActiveMember(left.studyResultId);
+		groupModel.setGroupState(left.groupState);
+		groupModel.setStarted(left.started);
+		tellAllGroupAction(left.studyResultId, GroupAction.LEFT);
+	}
+
+	/**
+	 * Wrapper around {@link #tellAllGroupAction(Long, GroupAction)} but for an
+	 * action that originates in JATOS itself and not in a client.
+	 */
+	private void tellAllGroupAction(GroupAction action) {
+		tellAllGroupAction(null, action);
 	}
 
 	/**
-	 * Wrapper around {@link #tellAllFullGroupAction(Long, String, GroupResult)
-	 * but for an action that originates in JATOS itself and not in a client.
+	 * Wrapper around {@link #tellAllGroupAction(Long, GroupAction, boolean)}
+	 * for an action that isn't a resumed OPENED.
 	 */
-	private void tellAllFullGroupAction(GroupAction action,
-			GroupResult groupResult) {
-		tellAllFullGroupAction(null, action, groupResult);
+	private void tellAllGroupAction(Long studyResultId, GroupAction action) {
+		tellAllGroupAction(studyResultId, action, false);
 	}
 
 	/**
-	 * Sends a full group action message it to all group members. The message
-	 * includes a whole bunch of data including the action, all currently open
-	 * channels, the group session data and the group session version.
+	 * Sends a group action message to all group members. Members that speak
+	 * protocol version 1 get the full message: it includes a whole bunch of
+	 * data including the action, all currently open channels, the group
+	 * session data and the group session version. Members that speak protocol
+	 * version 2 get only the delta - except the member that just opened its
+	 * channel without resuming: it gets the full message as its snapshot.
+	 * Each message is built and rendered only once and has the next sequence
+	 * number. The delta is kept in the ReplayBuffer. All data are taken from
+	 * the GroupModel.
 	 * 
 	 * @param studyResultId
 	 *            Which group member initiated this action
 	 * @param action
 	 *            The action of the GroupActionMsg
-	 * @param GroupResult
-	 *            The GroupResult of this group
+	 * @param resumed
+	 *            True if the member that opened its channel resumed
 	 */
-	private void tellAllFullGroupAction(Long studyResultId, GroupAction action,
-			GroupResult groupResult) {
-		Logger.debug(CLASS_NAME + ".tellAllFullGroupAction: studyResultId "
+	private void tellAllGroupAction(Long studyResultId, GroupAction action,
+			boolean resumed) {
+		Logger.debug(CLASS_NAME + ".tellAllGroupAction: studyResultId "
 				+ studyResultId + ", action " + action + ", groupResultId "
-				+ groupResult.getId());
-		GroupActionMsg msg = GroupActionMsgUtils.buildFullActionMsg(
-				studyResultId, action, groupResult,
-				groupRegistry.getAllStudyResultIds());
-		tellAll(msg);
+				+ groupResultId);
+		long seq = groupModel.nextSequenceNumber();
+		GroupActionMsg deltaMsg = GroupActionMsgUtils
+				.buildDeltaActionMsg(studyResultId, action, groupModel, seq);
+		deltaMsg.getText();
+		replayBuffer.add(seq, deltaMsg);
+		GroupActionMsg fullMsg = null;
+		for (Long id : groupRegistry.getAllStudyResultIds()) {
+			boolean snapshot = !groupRegistry.speaksDeltaProtocol(id)
+					|| (action == GroupAction.OPENED && !resumed
+							&& id.equals(studyResultId));
+			GroupActionMsg msg;
+			if (snapshot) {
+				if (fullMsg == null) {
+					fullMsg = GroupActionMsgUtils.buildFullActionMsg(
+							studyResultId, action, groupModel,
+							groupRegistry.getAllStudyResultIds(), seq);
+					fullMsg.getText();
+				}
+				msg = fullMsg;
+			} else {
+				msg = deltaMsg;
+			}
+			groupRegistry.getGroupChannel(id).tell(msg, self());
+		}
+	}
+
+	/**
+	 * Sends the full group action message with the current sequence number
+	 * to the sender only. A client that speaks protocol version 2 asks for it
+	 * if it missed a delta.
+	 */
+	private void tellSenderOnlySnapshot() {
+		Logger.debug(CLASS_NAME + ".tellSenderOnlySnapshot: groupResultId "
+				+ groupResultId);
+		GroupActionMsg msg = GroupActionMsgUtils.buildFullActionMsg(null,
+				GroupAction.SNAPSHOT, groupModel,
+				groupRegistry.getAllStudyResultIds(),
+				groupModel.getSequenceNumber());
+		tellSenderOnly(msg);
 	}
 
 	/**
 	 * Sends a group action message with the current group session data and
-	 * version to all members.
+	 * version to all members. It has the next sequence number and is kept in
+	 * the ReplayBuffer.
 	 */
-	private void tellAllSessionGroupAction(Long studyResultId,
-			GroupResult groupResult) {
-		Logger.debug(CLASS_NAME + ".tellAllFullGroupAction: studyResultId "
+	private void tellAllSessionGroupAction(Long studyResultId) {
+		Logger.debug(CLASS_NAME + ".tellAllSessionGroupAction: studyResultId "
 				+ studyResultId + ", action " + GroupAction.SESSION
-				+ ", groupResultId " + groupResult.getId());
-		GroupActionMsg msg = GroupActionMsgUtils
-				.buildSessionActionMsg(studyResultId, groupResult);
+				+ ", groupResultId " + groupResultId);
+		long seq = groupModel.nextSequenceNumber();
+		GroupActionMsg msg = GroupActionMsgUtils.buildSessionActionMsg(
+				studyResultId, groupModel.getGroupSessionData(),
+				groupModel.getGroupSessionVersion(), seq);
+		replayBuffer.add(seq, msg);
 		tellAll(msg);
 	}
 
+	/**
+	 * Sends a group action message with the given group session patch and the
+	 * current version to all members that speak protocol version 2 and the
+	 * whole group session to all others. Each message is built and rendered
+	 * only once. Both have the next sequence number and the patch is kept in
+	 * the ReplayBuffer.
+	 */
+	private void tellAllSessionPatchGroupAction(Long studyResultId,
+			JsonNode patch) {
+		Logger.debug(CLASS_NAME + ".tellAllSessionPatchGroupAction: "
+				+ "studyResultId " + studyResultId + ", groupResultId "
+				+ groupResultId);
+		long seq = groupModel.nextSequenceNumber();
+		GroupActionMsg patchMsg = GroupActionMsgUtils
+				.buildSessionPatchActionMsg(studyResultId, patch,
+						groupModel.getGroupSessionVersion(), seq);
+		patchMsg.getText();
+		replayBuffer.add(seq, patchMsg);
+		GroupActionMsg fullMsg = null;
+		for (Long id : groupRegistry.getAllStudyResultIds()) {
+			GroupActionMsg msg;
+			if (groupRegistry.speaksDeltaProtocol(id)) {
+				msg = patchMsg;
+			} else {
+				if (fullMsg == null) {
+					fullMsg = GroupActionMsgUtils.buildSessionActionMsg(
+							studyResultId, groupModel.getGroupSessionData(),
+							groupModel.getGroupSessionVersion(), seq);
+					fullMsg.getText();
+				}
+				msg = fullMsg;
+			}
+			groupRegistry.getGroupChannel(id).tell(msg, self());
+		}
+	}
+
 	/**
 	 * Sends a simple group action message to the sender only.
 	 */
@@ -392,17 +873,13 @@ public class GroupDispatcher extends UntypedActor {
 	 * Tells the GroupChannel to close itself. The GroupChannel then sends a
 	 * ChannelClosed back to this GroupDispatcher during postStop and then we
 	 * can remove the channel from the group registry and tell all other members
-	 * about it. Also send false back to the sender (ChannelService) if the
-	 * GroupChannel wasn't handled by this GroupDispatcher.
+	 * about it.
 	 */
 	private void poisonAGroupChannel(PoisonChannel poison) {
 		long studyResultId = poison.studyResultIdOfTheOneToPoison;
 		ActorRef groupChannel = groupRegistry.getGroupChannel(studyResultId);
 		if (groupChannel != null) {
 			groupChannel.forward(poison, getContext());
-			tellSenderOnly(true);
-		} else {
-			tellSenderOnly(false);
 		}
 	}
 
@@ -430,20 +907,36 @@ public class GroupDispatcher extends UntypedActor {
 
 	/**
 	 * Sends the message to everyone in the group registry except the sender of
-	 * this message.
+	 * this message. The message gets the next sequence number and is rendered
+	 * to text only once for all. The sender gets a receipt with the sequence
+	 * number instead (if it speaks protocol version 2). Both are kept in the
+	 * ReplayBuffer.
 	 */
-	private void tellAllButSender(Object msg) {
-		for (ActorRef actorRef : groupRegistry.getAllGroupChannels()) {
-			if (actorRef != sender()) {
-				actorRef.tell(msg, self());
+	private void tellAllButSender(GroupMsg groupMsg) {
+		long seq = groupModel.nextSequenceNumber();
+		ObjectNode jsonNode = groupMsg.jsonNode;
+		jsonNode.put(GroupActionMsg.SEQ, seq);
+		GroupMsg msg = new GroupMsg(jsonNode);
+		msg.getText();
+		GroupMsg receipt = GroupActionMsgUtils.buildReceiptMsg(seq);
+		Long senderStudyResultId = groupRegistry.getStudyResult(sender());
+		replayBuffer.add(seq, msg, senderStudyResultId, receipt);
+		for (Long id : groupRegistry.getAllStudyResultIds()) {
+			ActorRef groupChannel = groupRegistry.getGroupChannel(id);
+			if (!groupChannel.equals(sender())) {
+				groupChannel.tell(msg, self());
+			} else if (groupRegistry.speaksDeltaProtocol(id)) {
+				groupChannel.tell(receipt, self());
 			}
 		}
 	}
 
 	/**
-	 * Sends the message to everyone in group registry.
+	 * Sends the message to everyone in group registry. The message is
+	 * rendered to text only once for all.
 	 */
-	private void tellAll(Object msg) {
+	private void tellAll(GroupMsg msg) {
+		msg.getText();
 		for (ActorRef actorRef : groupRegistry.getAllGroupChannels()) {
 			actorRef.tell(msg, self());
 		}
@@ -456,13 +949,4 @@ public class GroupDispatcher extends UntypedActor {
 		sender().tell(msg, self());
 	}
 
-	/**
-	 * Persists the changes in the GroupResult.
-	 */
-	private void updateGroupResult(GroupResult groupResult) {
-		jpa.withTransaction(() -> {
-			groupResultDao.update(groupResult);
-		});
-	}
-
 }
@@ -0,0 +1,129 @@
+package services.publix.group.akka.actors;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import akka.actor.ActorIdentity;
+import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.Identify;
+import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Terminated;
+import akka.actor.UntypedActor;
+import play.Logger;
+import scala.concurrent.duration.Duration;
+import services.publix.group.akka.GroupDispatcherRegistry;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ForwardedMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.Joined;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.NotOwner;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.RegisterChannel;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.UnregisterChannel;
+
+/**
+ * A GroupDispatcherForwarder is an Akka Actor that stands in for a
+ * GroupDispatcher that runs on another JATOS node (multi-node mode). The
+ * GroupDispatcherRegistry gives it to the GroupChannels of this node instead of
+ * a GroupDispatcher. It wraps every message in a ForwardedMsg and sends it to
+ * the GroupDispatcherGateway of the other node - with the original sender, so
+ * the GroupDispatcher answers the GroupChannel directly.
+ * 
+ * It watches the other node's gateway. If the other node goes away or doesn't
+ * hold the group's lease anymore (NotOwner) the GroupDispatcherForwarder stops.
+ * Its GroupChannels watch it and close too, and their clients reconnect - to
+ * the node that holds the lease then. If no GroupChannel of this node is
+ * registered for some time it stops as well.
+ * 
+ * @author Kristian Lange
+ */
+public class GroupDispatcherForwarder extends UntypedActor {
+
+	private static final String CLASS_NAME = GroupDispatcherForwarder.class
+			.getSimpleName();
+
+	private final long groupResultId;
+	private final ActorSelection gateway;
+	private final GroupDispatcherRegistry groupDispatcherRegistry;
+	private final long idleTimeout;
+
+	/**
+	 * GroupChannels of this node that are registered through this forwarder
+	 */
+	private final Set<ActorRef> groupChannels = new HashSet<>();
+
+	/**
+	 * Akka method to get this Actor started. Changes in props must be done in
+	 * the constructor too.
+	 */
+	public static Props props(long groupResultId, ActorSelection gateway,
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			long idleTimeout) {
+		return Props.create(GroupDispatcherForwarder.class, groupResultId,
+				gateway, groupDispatcherRegistry, idleTimeout)
+				.withDispatcher(GroupDispatcher.DISPATCHER_NAME);
+	}
+
+	public GroupDispatcherForwarder(long groupResultId, ActorSelection gateway,
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			long idleTimeout) {
+		this.groupResultId = groupResultId;
+		this.gateway = gateway;
+		this.groupDispatcherRegistry = groupDispatcherRegistry;
+		this.idleTimeout = idleTimeout;
+	}
+
+	@Override
+	public void preStart() {
+		gateway.tell(new Identify(groupResultId), self());
+		getContext().setReceiveTimeout(
+				Duration.create(idleTimeout, TimeUnit.MILLISECONDS));
+	}
+
+	@Override
+	public void postStop() {
+		groupDispatcherRegistry.unregister(groupResultId, self());
+	}
+
+	@Override
+	public void onReceive(Object msg) throws Exception {
+		if (msg instanceof ActorIdentity) {
+			ActorRef gatewayRef = ((ActorIdentity) msg).getRef();
+			if (gatewayRef != null) {
+				getContext().watch(gatewayRef);
+			} else {
+				stop("other node's gateway can't be reached");
+			}
+		} else if (msg instanceof Terminated) {
+			stop("other node is gone");
+		} else if (msg instanceof NotOwner) {
+			stop("other node doesn't hold the lease");
+		} else if (msg instanceof ReceiveTimeout) {
+			if (groupChannels.isEmpty()) {
+				getContext().stop(self());
+			}
+		} else if (msg instanceof RegisterChannel) {
+			groupChannels.add(sender());
+			forward(msg, true);
+		} else if (msg instanceof UnregisterChannel) {
+			groupChannels.remove(sender());
+			forward(msg, false);
+		} else if (msg instanceof Joined) {
+			forward(msg, true);
+		} else {
+			forward(msg, false);
+		}
+	}
+
+	private void forward(Object msg, boolean create) {
+		gateway.tell(new ForwardedMsg(groupResultId, msg, create, self()),
+				sender());
+	}
+
+	private void stop(String reason) {
+		Logger.info(CLASS_NAME + ": stopping forwarder of group result "
+				+ groupResultId + " - " + reason);
+		getContext().stop(self());
+	}
+
+}
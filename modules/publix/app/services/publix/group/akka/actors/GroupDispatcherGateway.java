@@ -0,0 +1,149 @@
+package services.publix.group.akka.actors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import general.common.Metrics;
+import services.publix.group.akka.GroupDispatcherLeases;
+import services.publix.group.akka.GroupDispatcherRegistry;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.ForwardedMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.LeaseResolved;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.NotOwner;
+
+/**
+ * A GroupDispatcherGateway is an Akka Actor that receives the messages other
+ * JATOS nodes send to the GroupDispatchers of this node (multi-node mode).
+ * There is one per node and it's always named NAME, so the other nodes can
+ * find it with the address of this node.
+ * 
+ * It hands each ForwardedMsg to the GroupDispatcher of this node with the
+ * original sender (e.g. a GroupChannel on another node). If there is no such
+ * GroupDispatcher and the message may create one, it takes the group's lease
+ * first - in the GroupDbExecutor, the outcome comes back as a LeaseResolved
+ * message. Until then all messages for this group wait. If another node holds
+ * the lease (or there is no GroupDispatcher and the message may not create
+ * one) the GroupDispatcherForwarder that sent it gets a NotOwner.
+ * 
+ * @author Kristian Lange
+ */
+public class GroupDispatcherGateway extends UntypedActor {
+
+	public static final String NAME = "group-dispatcher-gateway";
+
+	private final GroupDispatcherRegistry groupDispatcherRegistry;
+	private final GroupDispatcherLeases leases;
+	private final Executor dbExecutor;
+	private final Metrics metrics;
+
+	/**
+	 * Messages that wait for the lease of their group: maps the GroupResult's
+	 * ID to the messages in the order they arrived
+	 */
+	private final Map<Long, List<Pending>> pendingMap = new HashMap<>();
+
+	/**
+	 * Akka method to get this Actor started. Changes in props must be done in
+	 * the constructor too.
+	 */
+	public static Props props(GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupDispatcherLeases leases, Executor dbExecutor,
+			Metrics metrics) {
+		return Props.create(GroupDispatcherGateway.class,
+				groupDispatcherRegistry, leases, dbExecutor, metrics)
+				.withDispatcher(GroupDispatcher.DISPATCHER_NAME);
+	}
+
+	public GroupDispatcherGateway(
+			GroupDispatcherRegistry groupDispatcherRegistry,
+			GroupDispatcherLeases leases, Executor dbExecutor,
+			Metrics metrics) {
+		this.groupDispatcherRegistry = groupDispatcherRegistry;
+		this.leases = leases;
+		this.dbExecutor = dbExecutor;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void onReceive(Object msg) throws Exception {
+		if (msg instanceof ForwardedMsg) {
+			forwardedMsg((ForwardedMsg) msg);
+		} else if (msg instanceof LeaseResolved) {
+			leaseResolved((LeaseResolved) msg);
+		} else {
+			unhandled(msg);
+		}
+	}
+
+	private void forwardedMsg(ForwardedMsg forwardedMsg) {
+		metrics.increment(GroupDispatcherRegistry.METRIC_PREFIX + "received");
+		long groupResultId = forwardedMsg.groupResultId;
+		List<Pending> pendingList = pendingMap.get(groupResultId);
+		if (pendingList != null) {
+			pendingList.add(new Pending(forwardedMsg, sender()));
+			return;
+		}
+		ActorRef groupDispatcher = groupDispatcherRegistry
+				.getOwned(groupResultId);
+		if (groupDispatcher != null) {
+			groupDispatcher.tell(forwardedMsg.msg, sender());
+		} else if (forwardedMsg.create) {
+			pendingList = new ArrayList<>();
+			pendingList.add(new Pending(forwardedMsg, sender()));
+			pendingMap.put(groupResultId, pendingList);
+			ActorRef self = self();
+			CompletableFuture.runAsync(() -> {
+				String owner = leases.acquire(groupResultId);
+				self.tell(new LeaseResolved(groupResultId, owner),
+						ActorRef.noSender());
+			}, dbExecutor);
+		} else {
+			notOwner(forwardedMsg);
+		}
+	}
+
+	private void leaseResolved(LeaseResolved leaseResolved) {
+		List<Pending> pendingList = pendingMap
+				.remove(leaseResolved.groupResultId);
+		if (pendingList == null) {
+			return;
+		}
+		if (leases.isOwnNode(leaseResolved.owner)) {
+			ActorRef groupDispatcher = groupDispatcherRegistry
+					.createOwned(leaseResolved.groupResultId);
+			for (Pending pending : pendingList) {
+				groupDispatcher.tell(pending.forwardedMsg.msg, pending.sender);
+			}
+		} else {
+			for (Pending pending : pendingList) {
+				notOwner(pending.forwardedMsg);
+			}
+		}
+	}
+
+	private void notOwner(ForwardedMsg forwardedMsg) {
+		metrics.increment(GroupDispatcherRegistry.METRIC_PREFIX + "notOwner");
+		if (forwardedMsg.forwarder != null) {
+			forwardedMsg.forwarder.tell(
+					new NotOwner(forwardedMsg.groupResultId), self());
+		}
+	}
+
+	private static class Pending {
+
+		final ForwardedMsg forwardedMsg;
+		final ActorRef sender;
+
+		Pending(ForwardedMsg forwardedMsg, ActorRef sender) {
+			this.forwardedMsg = forwardedMsg;
+			this.sender = sender;
+		}
+	}
+
+}
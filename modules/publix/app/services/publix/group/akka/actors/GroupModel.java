@@ -0,0 +1,272 @@
+package services.publix.group.akka.actors;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import models.common.GroupResult;
+import models.common.GroupResult.GroupState;
+import models.common.StudyResult;
+import services.publix.group.matching.GroupIndex;
+import utils.common.JsonPatch;
+import utils.common.JsonPatch.JsonPatchException;
+import utils.common.JsonUtils;
+
+/**
+ * In-memory model of a group that is handled by a GroupDispatcher: the group's
+ * state, whether it's started (left the waiting room), its active members and
+ * the group session. It's seeded once from the
+ * GroupResult when the GroupDispatcher starts and from then on it's kept up to
+ * date by the messages the GroupDispatcher receives (e.g. Joined, Left). This
+ * way the GroupDispatcher doesn't have to load the GroupResult for every
+ * message it sends to the group members.
+ *
+ * The epoch and the sequence number are snapshotted in the GroupResult. If
+ * the last GroupDispatcher of this group stopped orderly (e.g. JATOS was
+ * restarted) a new one continues with them, so the members can resume.
+ *
+ * The open group channels are not part of this model - they are stored in the
+ * GroupRegistry.
+ *
+ * @author Kristian Lange (2016)
+ */
+public class GroupModel {
+
+	/**
+	 * Last epoch that was given to a GroupModel in this JATOS
+	 */
+	private static final AtomicLong LAST_EPOCH = new AtomicLong();
+
+	private final long groupResultId;
+
+	/**
+	 * Distinguishes this GroupModel (and its sequence numbers) from the ones
+	 * of earlier GroupDispatchers of the same group. It's the time of its
+	 * creation in ms - or a bit later if this was already taken - or the
+	 * epoch of the exact snapshot it continues.
+	 */
+	private long epoch;
+
+	private GroupState groupState;
+
+	/**
+	 * Is true if the group left the waiting room (see GroupIndex.isStarted)
+	 */
+	private boolean started;
+
+	/**
+	 * IDs of the StudyResults that are active members of this group
+	 */
+	private final Set<Long> activeMemberIds = new TreeSet<>();
+
+	/**
+	 * The group session data as text and as JSON: one of them can be null, then
+	 * it's created from the other one when it's needed. This way neither a
+	 * full update has to be rendered nor a patch parsed every time.
+	 */
+	private String groupSessionData;
+	private JsonNode groupSessionJson;
+
+	private long groupSessionVersion;
+
+	/**
+	 * Is true if the group session changed since it was persisted the last
+	 * time
+	 */
+	private boolean groupSessionDirty = false;
+
+	/**
+	 * Sequence number of the last message that was sent to all group members
+	 */
+	private long sequenceNumber = 0;
+
+	/**
+	 * Sequence number of the last snapshot that was persisted or -1 if the
+	 * last snapshot failed
+	 */
+	private long snapshotSequenceNumber = 0;
+
+	/**
+	 * Is true if this GroupModel continues the exact snapshot of an earlier
+	 * GroupDispatcher
+	 */
+	private boolean rehydrated = false;
+
+	public GroupModel(long groupResultId) {
+		this.groupResultId = groupResultId;
+		this.epoch = LAST_EPOCH.updateAndGet(
+				last -> Math.max(last + 1, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Takes state, active members and group session from the given
+	 * GroupResult. If the GroupResult has an exact snapshot (its last
+	 * GroupDispatcher stopped orderly) the epoch and sequence number are
+	 * taken from it too.
+	 */
+	public void seed(GroupResult groupResult) {
+		this.groupState = groupResult.getGroupState();
+		this.started = GroupIndex.isStarted(groupResult);
+		this.activeMemberIds.clear();
+		for (StudyResult studyResult : groupResult.getActiveMemberList()) {
+			activeMemberIds.add(studyResult.getId());
+		}
+		this.groupSessionData = groupResult.getGroupSessionData();
+		this.groupSessionJson = null;
+		this.groupSessionVersion = groupResult.getGroupSessionVersion();
+		this.groupSessionDirty = false;
+		if (groupResult.isDispatcherStopped()
+				&& groupResult.getDispatcherEpoch() != null
+				&& groupResult.getDispatcherSeq() != null) {
+			this.epoch = groupResult.getDispatcherEpoch();
+			this.sequenceNumber = groupResult.getDispatcherSeq();
+			this.rehydrated = true;
+		}
+		this.snapshotSequenceNumber = sequenceNumber;
+	}
+
+	public boolean isRehydrated() {
+		return rehydrated;
+	}
+
+	/**
+	 * Returns true if the group session or the sequence number changed since
+	 * the last snapshot
+	 */
+	public boolean isSnapshotDirty() {
+		return groupSessionDirty || sequenceNumber != snapshotSequenceNumber;
+	}
+
+	/**
+	 * A snapshot with the given sequence number is being persisted
+	 */
+	public void snapshotTaken(long snapshotSequenceNumber) {
+		this.groupSessionDirty = false;
+		this.snapshotSequenceNumber = snapshotSequenceNumber;
+	}
+
+	/**
+	 * Persisting the last snapshot failed - the next one has to write
+	 * everything
+	 */
+	public void snapshotFailed() {
+		this.groupSessionDirty = true;
+		this.snapshotSequenceNumber = -1;
+	}
+
+	public long getGroupResultId() {
+		return groupResultId;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public GroupState getGroupState() {
+		return groupState;
+	}
+
+	public void setGroupState(GroupState groupState) {
+		this.groupState = groupState;
+	}
+
+	public boolean isStarted() {
+		return started;
+	}
+
+	public void setStarted(boolean started) {
+		this.started = started;
+	}
+
+	public Set<Long> getActiveMemberIds() {
+		return Collections.unmodifiableSet(activeMemberIds);
+	}
+
+	public void addActiveMember(long studyResultId) {
+		activeMemberIds.add(studyResultId);
+	}
+
+	public void removeActiveMember(long studyResultId) {
+		activeMemberIds.remove(studyResultId);
+	}
+
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Increases the sequence number by 1 and returns it
+	 */
+	public long nextSequenceNumber() {
+		return ++sequenceNumber;
+	}
+
+	public String getGroupSessionData() {
+		if (groupSessionData == null && groupSessionJson != null) {
+			groupSessionData = groupSessionJson.toString();
+		}
+		return groupSessionData;
+	}
+
+	public long getGroupSessionVersion() {
+		return groupSessionVersion;
+	}
+
+	public boolean isGroupSessionDirty() {
+		return groupSessionDirty;
+	}
+
+	public void setGroupSessionDirty(boolean groupSessionDirty) {
+		this.groupSessionDirty = groupSessionDirty;
+	}
+
+	/**
+	 * Sets the given sessionData and increases the groupSessionVersion by 1 -
+	 * but only if the current version is equal to the received one. Returns
+	 * true if this was successful - otherwise false.
+	 */
+	public boolean updateGroupSession(Long version, JsonNode sessionData) {
+		if (version != null && sessionData != null
+				&& groupSessionVersion == version) {
+			groupSessionJson = sessionData;
+			groupSessionData = null;
+			groupSessionVersion++;
+			groupSessionDirty = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the given JSON Patch (RFC 6902) to the group session data and
+	 * increases the groupSessionVersion by 1. Unlike a full update it doesn't
+	 * depend on the version the client knows: patches are applied in the
+	 * order they arrive. If the patch can't be applied (e.g. a test operation
+	 * fails) the group session stays unchanged.
+	 */
+	public void patchGroupSession(JsonNode patch) throws JsonPatchException {
+		groupSessionJson = JsonPatch.apply(patch, getGroupSessionJson());
+		groupSessionData = null;
+		groupSessionVersion++;
+		groupSessionDirty = true;
+	}
+
+	private JsonNode getGroupSessionJson() throws JsonPatchException {
+		if (groupSessionJson == null && groupSessionData != null
+				&& !groupSessionData.isEmpty()) {
+			try {
+				groupSessionJson = JsonUtils.OBJECTMAPPER
+						.readTree(groupSessionData);
+			} catch (IOException e) {
+				throw new JsonPatchException(
+						"Group session data aren't valid JSON");
+			}
+		}
+		return groupSessionJson;
+	}
+
+}
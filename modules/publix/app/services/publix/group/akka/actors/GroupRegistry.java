@@ -1,12 +1,15 @@
 package services.publix.group.akka.actors;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.collections4.BidiMap;
 import org.apache.commons.collections4.bidimap.DualHashBidiMap;
 
 import akka.actor.ActorRef;
+import services.publix.group.akka.messages.GroupDispatcherProtocol;
 
 /**
  * This class stores the members of a group that is handled by a
@@ -28,12 +31,33 @@ public class GroupRegistry {
 	 */
 	private final BidiMap<Long, ActorRef> groupChannelMap = new DualHashBidiMap<>();
 
-	public void register(Long studyResultId, ActorRef groupChannel) {
+	/**
+	 * Maps StudyResult's IDs -> version of the group channel protocol their
+	 * group channel speaks
+	 */
+	private final Map<Long, Integer> protocolVersionMap = new HashMap<>();
+
+	public void register(Long studyResultId, ActorRef groupChannel,
+			int protocolVersion) {
 		groupChannelMap.put(studyResultId, groupChannel);
+		protocolVersionMap.put(studyResultId, protocolVersion);
 	}
 
 	public void unregister(Long studyResultId) {
 		groupChannelMap.remove(studyResultId);
+		protocolVersionMap.remove(studyResultId);
+	}
+
+	/**
+	 * Returns true if the group channel of the given StudyResult speaks
+	 * protocol version 2 or newer (delta group action messages)
+	 */
+	public boolean speaksDeltaProtocol(Long studyResultId) {
+		Integer protocolVersion = protocolVersionMap.get(studyResultId);
+		if (protocolVersion == null) {
+			return false;
+		}
+		return protocolVersion >= GroupDispatcherProtocol.PROTOCOL_VERSION_DELTA;
 	}
 
 	public ActorRef getGroupChannel(Long studyResultId) {
@@ -0,0 +1,164 @@
+package services.publix.group.akka.actors;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import general.common.Metrics;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg.GroupAction;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupMsg;
+
+/**
+ * Bounded queue of the messages that wait to be sent to one group channel's
+ * client. What happens if the queue is full is decided by the OverflowPolicy.
+ * Dropped messages don't break a client that speaks the group channel
+ * protocol version 2: it notices the gap in the sequence number or group
+ * session version and asks for a snapshot.
+ *
+ * It's not thread-safe - it's used only by its GroupChannel.
+ *
+ * @author Kristian Lange
+ */
+public class OutboundQueue {
+
+	public static final String METRIC_PREFIX = "groupChannel.";
+
+	/**
+	 * What to do if a message is offered but the queue is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Drop the oldest messages
+		 */
+		DROP_OLDEST,
+		/**
+		 * Drop the group session updates that are outdated by a newer one
+		 * with the whole group session data. If this doesn't make room drop
+		 * the oldest messages.
+		 */
+		COALESCE,
+		/**
+		 * Don't accept the message - the group channel has to be closed
+		 */
+		DISCONNECT
+	};
+
+	private final Deque<GroupMsg> queue = new ArrayDeque<>();
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final Metrics metrics;
+
+	/**
+	 * Number of queued messages of all OutboundQueues
+	 */
+	private final LongAdder queuedTotal;
+
+	public OutboundQueue(int capacity, OverflowPolicy overflowPolicy,
+			Metrics metrics, LongAdder queuedTotal) {
+		this.capacity = Math.max(1, capacity);
+		this.overflowPolicy = overflowPolicy;
+		this.metrics = metrics;
+		this.queuedTotal = queuedTotal;
+	}
+
+	/**
+	 * Adds the message to the end of the queue. If the queue is full the
+	 * OverflowPolicy decides what happens. Returns false if the message wasn't
+	 * accepted and the group channel has to be closed (DISCONNECT).
+	 */
+	public boolean offer(GroupMsg msg) {
+		if (queue.size() >= capacity) {
+			if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+				return false;
+			}
+			if (overflowPolicy == OverflowPolicy.COALESCE) {
+				coalesceSessionUpdates(msg);
+			}
+			while (queue.size() >= capacity) {
+				queue.poll();
+				queuedTotal.decrement();
+				metrics.increment(METRIC_PREFIX + "outboundDropped");
+			}
+		}
+		queue.add(msg);
+		queuedTotal.increment();
+		return true;
+	}
+
+	/**
+	 * Removes and returns the first message or returns null if the queue is
+	 * empty.
+	 */
+	public GroupMsg poll() {
+		GroupMsg msg = queue.poll();
+		if (msg != null) {
+			queuedTotal.decrement();
+		}
+		return msg;
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Removes all messages
+	 */
+	public void clear() {
+		queuedTotal.add(-queue.size());
+		queue.clear();
+	}
+
+	/**
+	 * A group session update with the whole group session data makes all
+	 * group session updates before it (whole data or patches) obsolete. Removes
+	 * those that are before the newest one - the new message included.
+	 */
+	private void coalesceSessionUpdates(GroupMsg newMsg) {
+		GroupMsg newest = isFullSessionUpdate(newMsg) ? newMsg : null;
+		if (newest == null) {
+			Iterator<GroupMsg> descending = queue.descendingIterator();
+			while (descending.hasNext() && newest == null) {
+				GroupMsg msg = descending.next();
+				if (isFullSessionUpdate(msg)) {
+					newest = msg;
+				}
+			}
+		}
+		if (newest == null) {
+			return;
+		}
+		Iterator<GroupMsg> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			GroupMsg msg = iterator.next();
+			if (msg == newest) {
+				break;
+			}
+			if (isSessionUpdate(msg)) {
+				iterator.remove();
+				queuedTotal.decrement();
+				metrics.increment(METRIC_PREFIX + "outboundCoalesced");
+			}
+		}
+	}
+
+	private static boolean isSessionUpdate(GroupMsg msg) {
+		JsonNode action = msg.jsonNode.get(GroupActionMsg.ACTION);
+		return action != null
+				&& GroupAction.SESSION.name().equals(action.asText());
+	}
+
+	private static boolean isFullSessionUpdate(GroupMsg msg) {
+		return isSessionUpdate(msg)
+				&& msg.jsonNode.has(GroupActionMsg.GROUP_SESSION_DATA);
+	}
+
+}
@@ -0,0 +1,125 @@
+package services.publix.group.akka.actors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupMsg;
+
+/**
+ * Ring buffer with the last messages a GroupDispatcher broadcasted to its
+ * group members (as sent to members that speak protocol version 2). Each
+ * message is kept together with its sequence number. A member that lost its
+ * group channel can get the messages it missed from here - as long as they
+ * weren't overwritten by newer ones.
+ *
+ * A broadcast message from a group member isn't sent back to this member,
+ * it gets a receipt with only the sequence number instead. So both are kept.
+ *
+ * It's not thread-safe - it's used only by its GroupDispatcher.
+ *
+ * @author Kristian Lange
+ */
+public class ReplayBuffer {
+
+	private final Entry[] entries;
+
+	/**
+	 * Index of the next entry to be written
+	 */
+	private int next = 0;
+	private int size = 0;
+
+	public ReplayBuffer(int capacity) {
+		this.entries = new Entry[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Adds a message that was sent to all group members. The sequence number
+	 * has to be the one following the sequence number of the last added
+	 * message.
+	 */
+	public void add(long seq, GroupMsg msg) {
+		add(seq, msg, null, null);
+	}
+
+	/**
+	 * Adds a message that was sent to all group members except its sender
+	 * who got the given receipt instead. The sequence number has to be the one
+	 * following the sequence number of the last added message.
+	 */
+	public void add(long seq, GroupMsg msg, Long senderStudyResultId,
+			GroupMsg receipt) {
+		entries[next] = new Entry(seq, msg, senderStudyResultId, receipt);
+		next = (next + 1) % entries.length;
+		if (size < entries.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * Returns true if all messages after lastSeq up to currentSeq (the last
+	 * sequence number that was sent) are still in this buffer.
+	 */
+	public boolean canReplay(long lastSeq, long currentSeq) {
+		if (lastSeq > currentSeq || lastSeq < 0) {
+			return false;
+		}
+		if (lastSeq == currentSeq) {
+			return true;
+		}
+		return size > 0 && oldest().seq <= lastSeq + 1
+				&& newest().seq == currentSeq;
+	}
+
+	/**
+	 * Returns the messages after lastSeq in the order they were added - as the
+	 * group member with the given study result ID got them. Check with
+	 * canReplay first whether they are all still there.
+	 */
+	public List<GroupMsg> getAfter(long lastSeq, long studyResultId) {
+		List<GroupMsg> msgs = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			Entry entry = entries[(next - size + i + entries.length)
+					% entries.length];
+			if (entry.seq <= lastSeq) {
+				continue;
+			}
+			if (entry.senderStudyResultId != null
+					&& entry.senderStudyResultId == studyResultId) {
+				msgs.add(entry.receipt);
+			} else {
+				msgs.add(entry.msg);
+			}
+		}
+		return msgs;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private Entry oldest() {
+		return entries[(next - size + entries.length) % entries.length];
+	}
+
+	private Entry newest() {
+		return entries[(next - 1 + entries.length) % entries.length];
+	}
+
+	private static class Entry {
+
+		final long seq;
+		final GroupMsg msg;
+		final Long senderStudyResultId;
+		final GroupMsg receipt;
+
+		Entry(long seq, GroupMsg msg, Long senderStudyResultId,
+				GroupMsg receipt) {
+			this.seq = seq;
+			this.msg = msg;
+			this.senderStudyResultId = senderStudyResultId;
+			this.receipt = receipt;
+		}
+	}
+
+}
@@ -1,29 +1,91 @@
 package services.publix.group.akka.messages;
 
+import java.io.Serializable;
+
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import akka.actor.ActorRef;
+import models.common.GroupResult.GroupState;
+import play.libs.Json;
+import services.publix.group.akka.actors.GroupModel;
 
 /**
  * Contains all messages that can be used by the GroupDispatcher Akka Actor.
  * Each message is a static class.
  * 
+ * Messages that can be sent from one JATOS node to another (multi-node mode)
+ * are Serializable.
+ * 
  * @author Kristian Lange (2015)
  */
 public class GroupDispatcherProtocol {
 
+	/**
+	 * Version 1 of the group channel protocol: every JOINED, LEFT, OPENED,
+	 * CLOSED and UPDATE group action message carries the full group (members,
+	 * channels and group session).
+	 */
+	public static final int PROTOCOL_VERSION_FULL = 1;
+
+	/**
+	 * Version 2 of the group channel protocol: JOINED, LEFT, OPENED, CLOSED
+	 * and UPDATE carry only what changed (delta). All messages that are sent
+	 * to the whole group carry a sequence number. The full group (snapshot)
+	 * is sent only when the channel is opened (or reassigned) without
+	 * resuming and if the client asks for it with a SNAPSHOT group action,
+	 * e.g. because it missed a sequence number.
+	 */
+	public static final int PROTOCOL_VERSION_DELTA = 2;
+
+	/**
+	 * Version 3 of the group channel protocol: like version 2, and the client
+	 * answers each PING group action message with a PONG that carries the
+	 * same 'ping' value. Only group channels of clients that speak version 3
+	 * are pinged and closed if their client is silent for too long.
+	 */
+	public static final int PROTOCOL_VERSION_HEARTBEAT = 3;
+
+	/**
+	 * Where a client that speaks protocol version 2 wants to resume after it
+	 * lost its group channel: the epoch of the GroupDispatcher and the last
+	 * sequence number it got. All messages a GroupDispatcher broadcasts carry
+	 * a sequence number and are kept for a while, so they can be sent again.
+	 * If the GroupDispatcher was restarted in between (different epoch) or
+	 * the messages aren't kept anymore the client gets a snapshot.
+	 */
+	public static class ResumePosition implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long epoch;
+		public final long seq;
+
+		public ResumePosition(long epoch, long seq) {
+			this.epoch = epoch;
+			this.seq = seq;
+		}
+	}
+
 	/**
 	 * Message to a GroupDispatcher. The GroupDispatcher will tell all other
 	 * members of its group about the new member. This will NOT open a new group
 	 * channel (a group channel is opened by the WebSocketBuilder and registers
-	 * only with a GroupDispatcher).
+	 * only with a GroupDispatcher). It carries the group's state after the
+	 * joining, so the GroupDispatcher can keep its GroupModel up to date.
 	 */
-	public static class Joined {
+	public static class Joined implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		public final long studyResultId;
+		public final GroupState groupState;
+		public final boolean started;
 
-		public Joined(long studyResultId) {
+		public Joined(long studyResultId, GroupState groupState,
+				boolean started) {
 			this.studyResultId = studyResultId;
+			this.groupState = groupState;
+			this.started = started;
 		}
 	}
 
@@ -31,14 +93,22 @@ public class GroupDispatcherProtocol {
 	 * Message to a GroupDispatcher. The GroupDispatcher will just tell all
 	 * other members of its GroupResult about the left member. This will NOT
 	 * close the group channel (a group channel is closed by sending a
-	 * PoisonChannel message.
+	 * PoisonChannel message. It carries the group's state after the leaving
+	 * (e.g. the group might be finished now).
 	 */
-	public static class Left {
+	public static class Left implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		public final long studyResultId;
+		public final GroupState groupState;
+		public final boolean started;
 
-		public Left(long studyResultId) {
+		public Left(long studyResultId, GroupState groupState,
+				boolean started) {
 			this.studyResultId = studyResultId;
+			this.groupState = groupState;
+			this.started = started;
 		}
 	}
 
@@ -46,7 +116,9 @@ public class GroupDispatcherProtocol {
 	 * Message an GroupChannel can send to its GroupDispatcher to indicate it's
 	 * closure.
 	 */
-	public static class UnregisterChannel {
+	public static class UnregisterChannel implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		public final long studyResultId;
 
@@ -64,21 +136,88 @@ public class GroupDispatcherProtocol {
 	 * For system messages the special GroupActionMsg is used. For sending an
 	 * error message the special GroupErrorMsg is used.
 	 * 
+	 * The JSON node is rendered to text only once, no matter to how many group
+	 * members the GroupMsg is sent: all GroupChannels send the same String.
+	 * Hence the JSON node mustn't be changed after the GroupMsg is sent.
+	 * 
+	 * If it's sent to another JATOS node only its text is serialized and the
+	 * JSON node is parsed again on the other side.
 	 */
-	public static class GroupMsg {
+	public static class GroupMsg implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		public static final String RECIPIENT = "recipient";
 
 		public final ObjectNode jsonNode;
 
+		/**
+		 * The jsonNode as text. It's rendered lazily (only messages that are
+		 * sent to a client need it).
+		 */
+		private volatile String text;
+
 		public GroupMsg(ObjectNode jsonNode) {
 			this.jsonNode = jsonNode;
 		}
 
+		/**
+		 * Constructor for a GroupMsg that was received as text (e.g. from a
+		 * client) - it doesn't have to be rendered again.
+		 */
+		public GroupMsg(ObjectNode jsonNode, String text) {
+			this.jsonNode = jsonNode;
+			this.text = text;
+		}
+
+		/**
+		 * Returns the jsonNode as text. It's rendered with the first call and
+		 * then reused.
+		 */
+		public String getText() {
+			String rendered = text;
+			if (rendered == null) {
+				rendered = Json.stringify(jsonNode);
+				text = rendered;
+			}
+			return rendered;
+		}
+
 		@Override
 		public String toString() {
 			return jsonNode.asText();
 		}
+
+		/**
+		 * Java serialization: the JSON node itself isn't Serializable
+		 */
+		protected Object writeReplace() {
+			return new SerializedGroupMsg(getText(),
+					this instanceof GroupActionMsg);
+		}
+	}
+
+	/**
+	 * Serialized form of a GroupMsg: the JSON node's text and whether it's a
+	 * GroupActionMsg
+	 */
+	private static class SerializedGroupMsg implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String text;
+		private final boolean action;
+
+		SerializedGroupMsg(String text, boolean action) {
+			this.text = text;
+			this.action = action;
+		}
+
+		private Object readResolve() {
+			ObjectNode jsonNode = (ObjectNode) Json.parse(text);
+			return action ? new GroupActionMsg(jsonNode, text)
+					: new GroupMsg(jsonNode, text);
+		}
 	}
 
 	/**
@@ -93,37 +232,59 @@ public class GroupDispatcherProtocol {
 		 * All possible group actions a group action message can have.
 		 */
 		public enum GroupAction {
-			JOINED, LEFT, OPENED, CLOSED, SESSION, SESSION_ACK, SESSION_FAIL, FIXED, UPDATE, ERROR
+			JOINED, LEFT, OPENED, CLOSED, SESSION, SESSION_ACK, SESSION_FAIL, FIXED, UPDATE, SNAPSHOT, ERROR, PING, PONG
 		};
 
 		public GroupActionMsg(ObjectNode jsonNode) {
 			super(jsonNode);
 		}
 
+		public GroupActionMsg(ObjectNode jsonNode, String text) {
+			super(jsonNode, text);
+		}
+
 		/**
 		 * JSON variables that can be send in a GroupActionMsg
 		 */
 		public static final String ACTION = "action";
 		public static final String GROUP_RESULT_ID = "groupResultId";
 		public static final String GROUP_STATE = "groupState";
+		public static final String STARTED = "started";
 		public static final String MEMBER_ID = "memberId";
 		public static final String MEMBERS = "members";
 		public static final String CHANNELS = "channels";
 		public static final String GROUP_SESSION_DATA = "groupSessionData";
 		public static final String GROUP_SESSION_VERSION = "groupSessionVersion";
+		public static final String GROUP_SESSION_PATCH = "groupSessionPatch";
 		public static final String ERROR_MSG = "errorMsg";
+		public static final String SEQ = "seq";
+		public static final String EPOCH = "epoch";
+		public static final String PING = "ping";
 
 	}
 
 	/**
-	 * Message a GroupChannel can send to register in a GroupDispatcher.
+	 * Message a GroupChannel can send to register in a GroupDispatcher. It
+	 * carries the version of the group channel protocol its client speaks
+	 * and, if the client wants to resume, its ResumePosition (otherwise null).
 	 */
-	public static class RegisterChannel {
+	public static class RegisterChannel implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		public final long studyResultId;
+		public final int protocolVersion;
+		public final ResumePosition resumePosition;
 
-		public RegisterChannel(long studyResultId) {
+		public RegisterChannel(long studyResultId, int protocolVersion) {
+			this(studyResultId, protocolVersion, null);
+		}
+
+		public RegisterChannel(long studyResultId, int protocolVersion,
+				ResumePosition resumePosition) {
 			this.studyResultId = studyResultId;
+			this.protocolVersion = protocolVersion;
+			this.resumePosition = resumePosition;
 		}
 	}
 
@@ -131,17 +292,20 @@ public class GroupDispatcherProtocol {
 	 * Message to signal that a GroupChannel has to change its GroupDispatcher.
 	 * It originates in the ChannelService and send to the GroupDispatcher who
 	 * currently handles the GroupChannel. There it is forwarded to the actual
-	 * GroupChannel.
+	 * GroupChannel which then gets the GroupDispatcher of the different group
+	 * result from the GroupDispatcherRegistry.
 	 */
-	public static class ReassignChannel {
+	public static class ReassignChannel implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		public final long studyResultId;
-		public final ActorRef differentGroupDispatcher;
+		public final long differentGroupResultId;
 
 		public ReassignChannel(long studyResultId,
-				ActorRef differentGroupDispatcher) {
+				long differentGroupResultId) {
 			this.studyResultId = studyResultId;
-			this.differentGroupDispatcher = differentGroupDispatcher;
+			this.differentGroupResultId = differentGroupResultId;
 		}
 	}
 
@@ -149,7 +313,9 @@ public class GroupDispatcherProtocol {
 	 * Message that forces a GroupChannel to close itself. Send to a
 	 * GroupDispatcher it will be forwarded to the right GroupChannel.
 	 */
-	public static class PoisonChannel {
+	public static class PoisonChannel implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		public final long studyResultIdOfTheOneToPoison;
 
@@ -158,4 +324,166 @@ public class GroupDispatcherProtocol {
 		}
 	}
 
+	/**
+	 * Message a GroupDispatcher sends itself periodically to persist changed
+	 * group session data and its snapshot.
+	 */
+	public static class PersistGroupSession {
+
+		public static final PersistGroupSession INSTANCE = new PersistGroupSession();
+
+		private PersistGroupSession() {
+		}
+	}
+
+	/**
+	 * Message a GroupChannel sends itself to send the next queued messages to
+	 * its client after its outbound rate limit allows it again.
+	 */
+	public static class FlushChannel {
+
+		public static final FlushChannel INSTANCE = new FlushChannel();
+
+		private FlushChannel() {
+		}
+	}
+
+	/**
+	 * Message a GroupChannel sends itself periodically to ping its client -
+	 * or to close itself if its client was silent for too long.
+	 */
+	public static class Heartbeat {
+
+		public static final Heartbeat INSTANCE = new Heartbeat();
+
+		private Heartbeat() {
+		}
+	}
+
+	/**
+	 * Message a GroupChannel gets after the GroupDispatcherRegistry found its
+	 * GroupDispatcher. The GroupDispatcher is null if it couldn't be found.
+	 */
+	public static class GroupDispatcherFound {
+
+		public final ActorRef groupDispatcher;
+
+		public GroupDispatcherFound(ActorRef groupDispatcher) {
+			this.groupDispatcher = groupDispatcher;
+		}
+	}
+
+	/**
+	 * Message a GroupDispatcher gets back from its database work after its
+	 * GroupModel was loaded. The GroupModel is null if the GroupResult
+	 * couldn't be loaded.
+	 */
+	public static class GroupModelLoaded {
+
+		public final GroupModel groupModel;
+
+		public GroupModelLoaded(GroupModel groupModel) {
+			this.groupModel = groupModel;
+		}
+	}
+
+	/**
+	 * Message a GroupDispatcher gets back from its database work after the
+	 * group session and its snapshot were persisted (or not).
+	 */
+	public static class GroupSessionPersisted {
+
+		public final boolean success;
+
+		public GroupSessionPersisted(boolean success) {
+			this.success = success;
+		}
+	}
+
+	/**
+	 * Message a GroupDispatcher gets back from its database work after the
+	 * GroupResult was put in state FIXED (or not). The requester is the
+	 * GroupChannel that asked for it.
+	 */
+	public static class GroupFixed {
+
+		public final ActorRef requester;
+		public final boolean success;
+
+		public GroupFixed(ActorRef requester, boolean success) {
+			this.requester = requester;
+			this.success = success;
+		}
+	}
+
+	/**
+	 * Message a node sends to the GroupDispatcherGateway of the node that
+	 * runs the GroupDispatcher of the given group (multi-node mode). The
+	 * gateway hands the wrapped message to this GroupDispatcher with the
+	 * original sender. If there is no such GroupDispatcher it's created if
+	 * create is true - otherwise the message is dropped. The forwarder is the
+	 * GroupDispatcherForwarder that sent it or null.
+	 */
+	public static class ForwardedMsg implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long groupResultId;
+		public final Object msg;
+		public final boolean create;
+		public final ActorRef forwarder;
+
+		public ForwardedMsg(long groupResultId, Object msg, boolean create,
+				ActorRef forwarder) {
+			this.groupResultId = groupResultId;
+			this.msg = msg;
+			this.create = create;
+			this.forwarder = forwarder;
+		}
+	}
+
+	/**
+	 * Answer of a GroupDispatcherGateway to a GroupDispatcherForwarder if its
+	 * node doesn't hold the lease of the group (anymore)
+	 */
+	public static class NotOwner implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final long groupResultId;
+
+		public NotOwner(long groupResultId) {
+			this.groupResultId = groupResultId;
+		}
+	}
+
+	/**
+	 * Message the GroupDispatcherRegistry sends to a GroupDispatcher whose
+	 * node lost the group's lease (multi-node mode). The GroupDispatcher stops
+	 * without persisting anything - the group belongs to another node now.
+	 */
+	public static class LeaseLost {
+
+		public static final LeaseLost INSTANCE = new LeaseLost();
+
+		private LeaseLost() {
+		}
+	}
+
+	/**
+	 * Message a GroupDispatcherGateway gets back from its database work after
+	 * it tried to take the lease of a group. The owner is the address of the
+	 * node that holds the lease now (see GroupDispatcherRegistry).
+	 */
+	public static class LeaseResolved {
+
+		public final long groupResultId;
+		public final String owner;
+
+		public LeaseResolved(long groupResultId, String owner) {
+			this.groupResultId = groupResultId;
+			this.owner = owner;
+		}
+	}
+
 }
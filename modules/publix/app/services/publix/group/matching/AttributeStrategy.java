@@ -0,0 +1,69 @@
+package services.publix.group.matching;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Matches a new member only with groups that have the same tag (e.g. the
+ * value of a URL query parameter like the language or condition). Members
+ * without a tag are matched with groups without a tag. Within the groups of a
+ * tag another strategy decides (by default FillFirstStrategy).
+ *
+ * @author Kristian Lange
+ */
+public class AttributeStrategy implements GroupMatchingStrategy {
+
+	private final Supplier<GroupMatchingStrategy> tagStrategySupplier;
+
+	/**
+	 * Maps the tag to the strategy with the groups of this tag
+	 */
+	private final Map<String, GroupMatchingStrategy> tagStrategyMap = new HashMap<>();
+
+	private int size = 0;
+
+	public AttributeStrategy() {
+		this(FillFirstStrategy::new);
+	}
+
+	public AttributeStrategy(
+			Supplier<GroupMatchingStrategy> tagStrategySupplier) {
+		this.tagStrategySupplier = tagStrategySupplier;
+	}
+
+	@Override
+	public void add(OpenGroup group) {
+		GroupMatchingStrategy tagStrategy = tagStrategyMap.computeIfAbsent(
+				group.getTag(), tag -> tagStrategySupplier.get());
+		int sizeBefore = tagStrategy.size();
+		tagStrategy.add(group);
+		size += tagStrategy.size() - sizeBefore;
+	}
+
+	@Override
+	public void remove(OpenGroup group) {
+		GroupMatchingStrategy tagStrategy = tagStrategyMap.get(group.getTag());
+		if (tagStrategy == null) {
+			return;
+		}
+		int sizeBefore = tagStrategy.size();
+		tagStrategy.remove(group);
+		size -= sizeBefore - tagStrategy.size();
+		if (tagStrategy.size() == 0) {
+			tagStrategyMap.remove(group.getTag());
+		}
+	}
+
+	@Override
+	public OpenGroup match(String tag) {
+		GroupMatchingStrategy tagStrategy = tagStrategyMap.get(tag);
+		return (tagStrategy != null) ? tagStrategy.match(tag) : null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+}
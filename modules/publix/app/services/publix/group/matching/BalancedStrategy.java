@@ -0,0 +1,43 @@
+package services.publix.group.matching;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Matches a new member with the group that has the fewest active members. This
+ * way the new members are spread evenly over all open groups. If two groups
+ * have the same number of active members the older one (lower ID) wins. It
+ * doesn't care about tags.
+ *
+ * @author Kristian Lange
+ */
+public class BalancedStrategy implements GroupMatchingStrategy {
+
+	private static final Comparator<OpenGroup> FEWEST_ACTIVE_MEMBERS_FIRST = Comparator
+			.comparingInt(OpenGroup::getActiveMembers)
+			.thenComparingLong(OpenGroup::getGroupResultId);
+
+	private final TreeSet<OpenGroup> groups = new TreeSet<>(
+			FEWEST_ACTIVE_MEMBERS_FIRST);
+
+	@Override
+	public void add(OpenGroup group) {
+		groups.add(group);
+	}
+
+	@Override
+	public void remove(OpenGroup group) {
+		groups.remove(group);
+	}
+
+	@Override
+	public OpenGroup match(String tag) {
+		return groups.isEmpty() ? null : groups.first();
+	}
+
+	@Override
+	public int size() {
+		return groups.size();
+	}
+
+}
@@ -0,0 +1,43 @@
+package services.publix.group.matching;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Matches a new member with the group that has the most active members. This
+ * way a group gets complete as soon as possible. If two groups have the same
+ * number of active members the older one (lower ID) wins. It doesn't care
+ * about tags.
+ *
+ * @author Kristian Lange
+ */
+public class FillFirstStrategy implements GroupMatchingStrategy {
+
+	private static final Comparator<OpenGroup> MOST_ACTIVE_MEMBERS_FIRST = Comparator
+			.comparingInt(OpenGroup::getActiveMembers).reversed()
+			.thenComparingLong(OpenGroup::getGroupResultId);
+
+	private final TreeSet<OpenGroup> groups = new TreeSet<>(
+			MOST_ACTIVE_MEMBERS_FIRST);
+
+	@Override
+	public void add(OpenGroup group) {
+		groups.add(group);
+	}
+
+	@Override
+	public void remove(OpenGroup group) {
+		groups.remove(group);
+	}
+
+	@Override
+	public OpenGroup match(String tag) {
+		return groups.isEmpty() ? null : groups.first();
+	}
+
+	@Override
+	public int size() {
+		return groups.size();
+	}
+
+}
@@ -0,0 +1,219 @@
+package services.publix.group.matching;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import models.common.Batch;
+import models.common.Batch.GroupMatching;
+import models.common.GroupResult;
+
+/**
+ * Index of the open groups (GroupResults in state STARTED) of one batch. It
+ * knows the number of active and history members of each group and matches a
+ * new member with one of the groups that still have a free place.
+ *
+ * If the batch has a waiting room (minStartMembers) a group waits until it has
+ * this many members. The waiting groups are a queue: new members fill the
+ * waiting group with the most members first. Only if there is no waiting group
+ * the batch's GroupMatchingStrategy chooses one of the started groups (if they
+ * still have a free place). A group counts as started as soon as its active
+ * and history members together reach minStartMembers.
+ *
+ * The batch's group properties can change any time. If they are different
+ * from the last match the groups are indexed anew.
+ *
+ * It's thread-safe.
+ *
+ * @author Kristian Lange
+ */
+public class GroupIndex {
+
+	/**
+	 * Maps the group result ID to the group
+	 */
+	private final Map<Long, OpenGroup> groups = new HashMap<>();
+
+	// Batch properties the groups are indexed with
+	private Integer maxActiveMembers;
+	private Integer maxTotalMembers;
+	private Integer minStartMembers;
+	private GroupMatching groupMatching;
+
+	/**
+	 * Started groups with a free place
+	 */
+	private GroupMatchingStrategy startedGroups;
+
+	/**
+	 * Waiting groups with a free place (waiting room)
+	 */
+	private GroupMatchingStrategy waitingGroups;
+
+	public GroupIndex() {
+		this(null, null, null, GroupMatching.FILL_FIRST);
+	}
+
+	public GroupIndex(Batch batch) {
+		this(batch.getMaxActiveMembers(), batch.getMaxTotalMembers(),
+				batch.getMinStartMembers(), batch.getGroupMatching());
+	}
+
+	private GroupIndex(Integer maxActiveMembers, Integer maxTotalMembers,
+			Integer minStartMembers, GroupMatching groupMatching) {
+		this.maxActiveMembers = maxActiveMembers;
+		this.maxTotalMembers = maxTotalMembers;
+		this.minStartMembers = minStartMembers;
+		this.groupMatching = GroupMatchingStrategies
+				.getOrDefault(groupMatching);
+		this.startedGroups = GroupMatchingStrategies
+				.create(this.groupMatching);
+		this.waitingGroups = newWaitingGroups();
+	}
+
+	/**
+	 * Adds the group or replaces it if it's already in the index
+	 */
+	public synchronized void put(long groupResultId, int activeMembers,
+			int historyMembers, String tag) {
+		unindex(groups.get(groupResultId));
+		OpenGroup group = new OpenGroup(groupResultId, activeMembers,
+				historyMembers, tag);
+		groups.put(groupResultId, group);
+		index(group);
+	}
+
+	public synchronized void remove(long groupResultId) {
+		unindex(groups.remove(groupResultId));
+	}
+
+	/**
+	 * Changes the number of members of the group by the given deltas. Does
+	 * nothing if the group isn't in the index.
+	 */
+	public synchronized void changeMembers(long groupResultId,
+			int activeDelta, int historyDelta) {
+		OpenGroup group = groups.get(groupResultId);
+		if (group == null) {
+			return;
+		}
+		unindex(group);
+		group = group.withMembersChanged(activeDelta, historyDelta);
+		groups.put(groupResultId, group);
+		index(group);
+	}
+
+	/**
+	 * Returns the ID of the group a new member with the given tag (can be
+	 * null) should join or null if there is none. The group with the given ID
+	 * (can be null) is left out.
+	 */
+	public synchronized Long match(Batch batch, String tag, Long excludedId) {
+		reindexIfChanged(batch);
+		OpenGroup excluded = (excludedId != null) ? groups.get(excludedId)
+				: null;
+		unindex(excluded);
+		OpenGroup match = waitingGroups.match(tag);
+		if (match == null) {
+			match = startedGroups.match(tag);
+		}
+		index(excluded);
+		return (match != null) ? match.getGroupResultId() : null;
+	}
+
+	public synchronized int size() {
+		return groups.size();
+	}
+
+	/**
+	 * Number of groups that wait for members to start
+	 */
+	public synchronized int waitingSize() {
+		return waitingGroups.size();
+	}
+
+	/**
+	 * Returns true if a group with the given number of members has still a
+	 * free place with the given limits (null means unlimited)
+	 */
+	public static boolean hasFreePlace(Integer maxActiveMembers,
+			Integer maxTotalMembers, int activeMembers, int historyMembers) {
+		return (maxActiveMembers == null || activeMembers < maxActiveMembers)
+				&& (maxTotalMembers == null
+						|| activeMembers + historyMembers < maxTotalMembers);
+	}
+
+	/**
+	 * Returns true if a group with the given number of members is started -
+	 * it left the waiting room (minStartMembers, null means there is none)
+	 */
+	public static boolean isStarted(Integer minStartMembers, int activeMembers,
+			int historyMembers) {
+		return minStartMembers == null
+				|| activeMembers + historyMembers >= minStartMembers;
+	}
+
+	/**
+	 * Returns true if the given group is started with its batch's current
+	 * minStartMembers
+	 */
+	public static boolean isStarted(GroupResult groupResult) {
+		return isStarted(groupResult.getBatch().getMinStartMembers(),
+				groupResult.getActiveMemberList().size(),
+				groupResult.getHistoryMemberList().size());
+	}
+
+	private boolean isWaiting(OpenGroup group) {
+		return !isStarted(minStartMembers, group.getActiveMembers(),
+				group.getHistoryMembers());
+	}
+
+	private void index(OpenGroup group) {
+		if (group == null || !hasFreePlace(maxActiveMembers, maxTotalMembers,
+				group.getActiveMembers(), group.getHistoryMembers())) {
+			return;
+		}
+		if (isWaiting(group)) {
+			waitingGroups.add(group);
+		} else {
+			startedGroups.add(group);
+		}
+	}
+
+	private void unindex(OpenGroup group) {
+		if (group != null) {
+			waitingGroups.remove(group);
+			startedGroups.remove(group);
+		}
+	}
+
+	private void reindexIfChanged(Batch batch) {
+		GroupMatching batchGroupMatching = GroupMatchingStrategies
+				.getOrDefault(batch.getGroupMatching());
+		if (Objects.equals(maxActiveMembers, batch.getMaxActiveMembers())
+				&& Objects.equals(maxTotalMembers, batch.getMaxTotalMembers())
+				&& Objects.equals(minStartMembers, batch.getMinStartMembers())
+				&& groupMatching == batchGroupMatching) {
+			return;
+		}
+		maxActiveMembers = batch.getMaxActiveMembers();
+		maxTotalMembers = batch.getMaxTotalMembers();
+		minStartMembers = batch.getMinStartMembers();
+		groupMatching = batchGroupMatching;
+		startedGroups = GroupMatchingStrategies.create(groupMatching);
+		waitingGroups = newWaitingGroups();
+		for (OpenGroup group : groups.values()) {
+			index(group);
+		}
+	}
+
+	/**
+	 * The waiting room is filled first - if the members are matched by their
+	 * tag then within the tag.
+	 */
+	private GroupMatchingStrategy newWaitingGroups() {
+		return (groupMatching == GroupMatching.ATTRIBUTE)
+				? new AttributeStrategy() : new FillFirstStrategy();
+	}
+
+}
@@ -0,0 +1,42 @@
+package services.publix.group.matching;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import models.common.Batch.GroupMatching;
+
+/**
+ * Creates the GroupMatchingStrategy for a Batch.GroupMatching.
+ *
+ * @author Kristian Lange
+ */
+public class GroupMatchingStrategies {
+
+	private static final Map<GroupMatching, Supplier<GroupMatchingStrategy>> STRATEGIES = new EnumMap<>(
+			GroupMatching.class);
+
+	static {
+		STRATEGIES.put(GroupMatching.FILL_FIRST, FillFirstStrategy::new);
+		STRATEGIES.put(GroupMatching.BALANCED, BalancedStrategy::new);
+		STRATEGIES.put(GroupMatching.ROUND_ROBIN, RoundRobinStrategy::new);
+		STRATEGIES.put(GroupMatching.ATTRIBUTE, AttributeStrategy::new);
+	}
+
+	private GroupMatchingStrategies() {
+	}
+
+	/**
+	 * Returns a new strategy for the given GroupMatching. If it's null (e.g.
+	 * batches from before there were strategies) it's FILL_FIRST.
+	 */
+	public static GroupMatchingStrategy create(GroupMatching groupMatching) {
+		return STRATEGIES.get(getOrDefault(groupMatching)).get();
+	}
+
+	public static GroupMatching getOrDefault(GroupMatching groupMatching) {
+		return (groupMatching != null) ? groupMatching
+				: GroupMatching.FILL_FIRST;
+	}
+
+}
@@ -0,0 +1,42 @@
+package services.publix.group.matching;
+
+/**
+ * A GroupMatchingStrategy decides which of a batch's open groups a new member
+ * joins. Each batch has its own instance - the strategy can keep state (e.g.
+ * whose turn it is). It only gets the groups that still have a free place.
+ *
+ * Implementations should keep the groups in an ordered structure so that
+ * adding, removing and matching stays cheap (O(log n)) even with thousands of
+ * groups. They don't have to be thread-safe - the GroupIndex that uses them
+ * takes care of this.
+ *
+ * To add a strategy add a constant to Batch.GroupMatching and its
+ * implementation to GroupMatchingStrategies.
+ *
+ * @author Kristian Lange
+ */
+public interface GroupMatchingStrategy {
+
+	/**
+	 * Adds a group that has a free place
+	 */
+	void add(OpenGroup group);
+
+	/**
+	 * Removes a group that was added before. It's the same OpenGroup instance
+	 * that was added.
+	 */
+	void remove(OpenGroup group);
+
+	/**
+	 * Returns the group a new member with the given tag (can be null) should
+	 * join or null if none of the groups fits.
+	 */
+	OpenGroup match(String tag);
+
+	/**
+	 * Number of groups in this strategy
+	 */
+	int size();
+
+}
@@ -0,0 +1,65 @@
+package services.publix.group.matching;
+
+/**
+ * An open group (GroupResult in state STARTED) of a batch as the
+ * GroupMatchingStrategies see it: its ID, number of active and history members
+ * and its tag. It's immutable - if the members change a new OpenGroup replaces
+ * the old one.
+ *
+ * @author Kristian Lange
+ */
+public class OpenGroup {
+
+	private final long groupResultId;
+	private final int activeMembers;
+	private final int historyMembers;
+	private final String tag;
+
+	public OpenGroup(long groupResultId, int activeMembers,
+			int historyMembers, String tag) {
+		this.groupResultId = groupResultId;
+		this.activeMembers = activeMembers;
+		this.historyMembers = historyMembers;
+		this.tag = tag;
+	}
+
+	public long getGroupResultId() {
+		return groupResultId;
+	}
+
+	public int getActiveMembers() {
+		return activeMembers;
+	}
+
+	public int getHistoryMembers() {
+		return historyMembers;
+	}
+
+	/**
+	 * Number of active and history members
+	 */
+	public int getTotalMembers() {
+		return activeMembers + historyMembers;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * Returns a new OpenGroup with the number of members changed by the given
+	 * deltas (but never below 0)
+	 */
+	public OpenGroup withMembersChanged(int activeDelta, int historyDelta) {
+		return new OpenGroup(groupResultId,
+				Math.max(0, activeMembers + activeDelta),
+				Math.max(0, historyMembers + historyDelta), tag);
+	}
+
+	@Override
+	public String toString() {
+		return groupResultId + " (" + activeMembers + "/" + historyMembers
+				+ ")";
+	}
+
+}
@@ -0,0 +1,51 @@
+package services.publix.group.matching;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches new members with the open groups in turn (ordered by their ID): each
+ * new member gets the group after the one the last member got. It doesn't care
+ * about tags.
+ *
+ * @author Kristian Lange
+ */
+public class RoundRobinStrategy implements GroupMatchingStrategy {
+
+	private final TreeMap<Long, OpenGroup> groups = new TreeMap<>();
+
+	/**
+	 * ID of the group that was matched last
+	 */
+	private long lastGroupResultId = Long.MIN_VALUE;
+
+	@Override
+	public void add(OpenGroup group) {
+		groups.put(group.getGroupResultId(), group);
+	}
+
+	@Override
+	public void remove(OpenGroup group) {
+		groups.remove(group.getGroupResultId(), group);
+	}
+
+	@Override
+	public OpenGroup match(String tag) {
+		if (groups.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Long, OpenGroup> next = groups
+				.higherEntry(lastGroupResultId);
+		if (next == null) {
+			next = groups.firstEntry();
+		}
+		lastGroupResultId = next.getKey();
+		return next.getValue();
+	}
+
+	@Override
+	public int size() {
+		return groups.size();
+	}
+
+}
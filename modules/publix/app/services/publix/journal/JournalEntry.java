@@ -0,0 +1,141 @@
+package services.publix.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One mutation of a StudyResult or one of its ComponentResults as it is
+ * written into the {@link ResultJournal}. Entries are immutable.
+ *
+ * @author Kristian Lange
+ */
+public class JournalEntry {
+
+	public enum Type {
+		/**
+		 * Result data of a component result were submitted
+		 */
+		RESULT_DATA,
+		/**
+		 * The study session data of a study result were set
+		 */
+		STUDY_SESSION_DATA,
+		/**
+		 * A component result was finished (successfully or not)
+		 */
+		COMPONENT_FINISHED
+	}
+
+	private final long sequence;
+	private final Type type;
+	private final long studyResultId;
+	private final Long componentResultId;
+	private final String data;
+	private final boolean successful;
+
+	private JournalEntry(long sequence, Type type, long studyResultId,
+			Long componentResultId, String data, boolean successful) {
+		this.sequence = sequence;
+		this.type = type;
+		this.studyResultId = studyResultId;
+		this.componentResultId = componentResultId;
+		this.data = data;
+		this.successful = successful;
+	}
+
+	public static JournalEntry resultData(long studyResultId,
+			long componentResultId, String resultData) {
+		return new JournalEntry(0, Type.RESULT_DATA, studyResultId,
+				componentResultId, resultData, false);
+	}
+
+	public static JournalEntry studySessionData(long studyResultId,
+			String studySessionData) {
+		return new JournalEntry(0, Type.STUDY_SESSION_DATA, studyResultId,
+				null, studySessionData, false);
+	}
+
+	public static JournalEntry componentFinished(long studyResultId,
+			long componentResultId, boolean successful, String errorMsg) {
+		return new JournalEntry(0, Type.COMPONENT_FINISHED, studyResultId,
+				componentResultId, errorMsg, successful);
+	}
+
+	/**
+	 * Returns a copy of this entry with the given sequence number
+	 */
+	JournalEntry withSequence(long sequence) {
+		return new JournalEntry(sequence, type, studyResultId,
+				componentResultId, data, successful);
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public long getStudyResultId() {
+		return studyResultId;
+	}
+
+	public Long getComponentResultId() {
+		return componentResultId;
+	}
+
+	/**
+	 * Result data, study session data or the error message, depending on the
+	 * type
+	 */
+	public String getData() {
+		return data;
+	}
+
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				64 + (data != null ? data.length() : 0));
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(sequence);
+		out.writeByte(type.ordinal());
+		out.writeLong(studyResultId);
+		out.writeLong(componentResultId != null ? componentResultId : -1);
+		out.writeBoolean(successful);
+		if (data != null) {
+			byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(dataBytes.length);
+			out.write(dataBytes);
+		} else {
+			out.writeInt(-1);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static JournalEntry fromBytes(DataInputStream in) throws IOException {
+		long sequence = in.readLong();
+		Type type = Type.values()[in.readByte()];
+		long studyResultId = in.readLong();
+		long componentResultId = in.readLong();
+		boolean successful = in.readBoolean();
+		int dataLength = in.readInt();
+		String data = null;
+		if (dataLength >= 0) {
+			byte[] dataBytes = new byte[dataLength];
+			in.readFully(dataBytes);
+			data = new String(dataBytes, StandardCharsets.UTF_8);
+		}
+		return new JournalEntry(sequence, type, studyResultId,
+				componentResultId >= 0 ? componentResultId : null, data,
+				successful);
+	}
+
+}
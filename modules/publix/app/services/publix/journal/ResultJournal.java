@@ -0,0 +1,618 @@
+package services.publix.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.hibernate.event.spi.EventSource;
+
+import com.google.common.util.concurrent.Striped;
+
+import general.common.Common;
+import general.common.Metrics;
+import models.common.ComponentResult;
+import models.common.ComponentResult.ComponentState;
+import models.common.StudyResult;
+import play.Logger;
+import play.db.jpa.JPA;
+import services.publix.PublixHelpers;
+
+/**
+ * Write-behind journal for the small, frequent result writes of the publix
+ * API (result data, study session data, finish component). Instead of
+ * updating the database within the request, the change is appended to a
+ * local journal file and the request returns as soon as the journal is
+ * fsync'ed. Concurrent appends share one fsync (group commit).
+ * {@link ResultJournalApplier} writes the entries into the database in the
+ * background.
+ *
+ * Reads stay consistent: the publix loads a StudyResult always via
+ * PublixUtils.retrieveWorkersLastStudyResult which applies all still pending
+ * entries of this StudyResult to the loaded entities (see
+ * {@link #applyPending(StudyResult)}).
+ *
+ * The journal is split into segment files of up to MAX_SEGMENT_SIZE. A full
+ * segment is closed and a new one is started. A closed segment is deleted as
+ * soon as all its entries are in the database, so a single StudyResult that
+ * is never applied can't let the journal grow forever.
+ *
+ * After a crash all entries in the journal's segments are applied again during
+ * the next start. This is fine since applying an entry is idempotent. A torn
+ * last frame (e.g. power loss during a write) is detected by its checksum and
+ * discarded - its request never got an answer.
+ *
+ * The journal is disabled by default (jatos.resultJournal.enabled).
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultJournal {
+
+	private static final String CLASS_NAME = ResultJournal.class
+			.getSimpleName();
+
+	public static final String METRIC_PREFIX = "resultJournal.";
+
+	private static final String SEGMENT_FILE_PREFIX = "results.journal.";
+
+	private static final Pattern SEGMENT_FILE_PATTERN = Pattern
+			.compile(Pattern.quote(SEGMENT_FILE_PREFIX) + "\\d+");
+
+	/**
+	 * A segment that reached this size is closed and a new one is started
+	 */
+	public static final long MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Each frame starts with the payload's length and its CRC32
+	 */
+	private static final int FRAME_HEADER_SIZE = 8;
+
+	/**
+	 * Upper bound of a frame's payload - anything bigger can only be garbage
+	 */
+	private static final int MAX_PAYLOAD_SIZE = 256 * 1024 * 1024;
+
+	private final boolean enabled;
+	private final Metrics metrics;
+	private final long maxSegmentSize;
+	private File journalDir;
+
+	/**
+	 * All segments that still have unapplied entries plus the current one,
+	 * mapped by the sequence of their first entry
+	 */
+	private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+
+	/**
+	 * The segment new entries are appended to
+	 */
+	private Segment current;
+
+	/**
+	 * Guards writing into the current segment, the segments, the sequence and
+	 * the pending map's order
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Guards the fsync: only one thread at a time forces the channel, all
+	 * others waiting meanwhile are covered by the next force
+	 */
+	private final Object syncLock = new Object();
+
+	private long lastSequence;
+	private volatile long syncedSequence;
+
+	/**
+	 * Entries that are in the journal but not yet in the database, mapped by
+	 * their StudyResult's ID and in the order they were appended
+	 */
+	private final ConcurrentMap<Long, List<JournalEntry>> pendingMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of entries in the journal file that aren't yet applied to the
+	 * database (pending or claimed)
+	 */
+	private final AtomicLong unappliedCount = new AtomicLong();
+
+	/**
+	 * Protects a StudyResult's entities while entries are applied to them, so
+	 * the applier and a request can't apply the same StudyResult's entries
+	 * concurrently.
+	 */
+	private final Striped<Lock> studyResultLocks = Striped.lazyWeakLock(1024);
+
+	/**
+	 * A journal file. Only the current segment has an open channel.
+	 */
+	private static class Segment {
+		private final long number;
+		private final File file;
+		private final long firstSequence;
+		private FileChannel channel;
+		private long unapplied;
+
+		private Segment(long number, File file, long firstSequence) {
+			this.number = number;
+			this.file = file;
+			this.firstSequence = firstSequence;
+		}
+	}
+
+	@Inject
+	ResultJournal(Common common, Metrics metrics) {
+		this(metrics, common.isResultJournalEnabled(),
+				common.getResultJournalPath(), MAX_SEGMENT_SIZE);
+	}
+
+	public ResultJournal(Metrics metrics, boolean enabled, String journalPath,
+			long maxSegmentSize) {
+		this.enabled = enabled;
+		this.metrics = metrics;
+		this.maxSegmentSize = maxSegmentSize;
+		if (!enabled) {
+			return;
+		}
+		journalDir = new File(journalPath);
+		try {
+			if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+				throw new IOException(
+						"Couldn't create directory " + journalDir.getPath());
+			}
+			recover();
+		} catch (IOException e) {
+			throw new RuntimeException(CLASS_NAME
+					+ ": couldn't open result journal in "
+					+ journalDir.getPath(), e);
+		}
+		metrics.registerGauge(METRIC_PREFIX + "pending", unappliedCount::get);
+		Logger.info(CLASS_NAME + ": result journal enabled in "
+				+ journalDir.getAbsolutePath());
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Reads all valid frames from the journal's segments into the pending map,
+	 * cuts each segment after its last valid frame and deletes segments that
+	 * are empty. The last segment becomes the current one.
+	 */
+	private void recover() throws IOException {
+		File[] files = journalDir.listFiles(
+				(dir, name) -> SEGMENT_FILE_PATTERN.matcher(name).matches());
+		long[] numbers = new long[files.length];
+		for (int i = 0; i < files.length; i++) {
+			numbers[i] = segmentNumber(files[i]);
+		}
+		Arrays.sort(numbers);
+		int recovered = 0;
+		for (int i = 0; i < numbers.length; i++) {
+			boolean last = i == numbers.length - 1;
+			Segment segment = recoverSegment(numbers[i], last);
+			recovered += segment.unapplied;
+			if (last) {
+				current = segment;
+			} else if (segment.unapplied == 0) {
+				deleteSegment(segment);
+			}
+		}
+		if (current == null) {
+			current = openSegment(1, lastSequence + 1);
+		}
+		syncedSequence = lastSequence;
+		if (recovered > 0) {
+			Logger.info(CLASS_NAME + ".recover: " + recovered
+					+ " result journal entries will be applied");
+		}
+	}
+
+	private Segment recoverSegment(long number, boolean last)
+			throws IOException {
+		File file = segmentFile(number);
+		List<JournalEntry> entries = new ArrayList<>();
+		long validLength = 0;
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+					break;
+				}
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				if (checksum != checksum(payload)) {
+					break;
+				}
+				entries.add(JournalEntry.fromBytes(new DataInputStream(
+						new ByteArrayInputStream(payload))));
+				validLength += FRAME_HEADER_SIZE + length;
+			}
+		} catch (EOFException e) {
+			// Reached the end of the file (maybe within a torn frame)
+		}
+
+		long firstSequence = entries.isEmpty() ? lastSequence + 1
+				: entries.get(0).getSequence();
+		Segment segment = new Segment(number, file, firstSequence);
+		segment.channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (segment.channel.size() > validLength) {
+			Logger.warn(CLASS_NAME + ".recoverSegment: discarded "
+					+ (segment.channel.size() - validLength) + " bytes of an "
+					+ "incomplete or corrupt tail in " + file.getName());
+			segment.channel.truncate(validLength);
+		}
+		segment.channel.position(validLength);
+		if (!last) {
+			segment.channel.close();
+			segment.channel = null;
+		}
+		segments.put(firstSequence, segment);
+		for (JournalEntry entry : entries) {
+			addPending(entry);
+			segment.unapplied++;
+			unappliedCount.incrementAndGet();
+			lastSequence = Math.max(lastSequence, entry.getSequence());
+		}
+		return segment;
+	}
+
+	private File segmentFile(long number) {
+		return new File(journalDir, SEGMENT_FILE_PREFIX + number);
+	}
+
+	private static long segmentNumber(File file) {
+		return Long.parseLong(
+				file.getName().substring(SEGMENT_FILE_PREFIX.length()));
+	}
+
+	/**
+	 * Creates a new segment file and opens it for appending
+	 */
+	private Segment openSegment(long number, long firstSequence)
+			throws IOException {
+		Segment segment = new Segment(number, segmentFile(number),
+				firstSequence);
+		segment.channel = FileChannel.open(segment.file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		segment.channel.position(segment.channel.size());
+		segments.put(firstSequence, segment);
+		return segment;
+	}
+
+	private void deleteSegment(Segment segment) {
+		segments.remove(segment.firstSequence);
+		if (!segment.file.delete()) {
+			Logger.warn(CLASS_NAME + ".deleteSegment: couldn't delete "
+					+ segment.file.getPath());
+		}
+	}
+
+	/**
+	 * Appends the entry to the journal and returns after it is durably stored
+	 * on disk. From now on the entry is visible via
+	 * {@link #applyPending(StudyResult)}.
+	 */
+	public void append(JournalEntry entry) throws IOException {
+		long sequence;
+		synchronized (writeLock) {
+			sequence = lastSequence + 1;
+			JournalEntry sequencedEntry = entry.withSequence(sequence);
+			byte[] payload = sequencedEntry.toBytes();
+			ByteBuffer frame = ByteBuffer
+					.allocate(FRAME_HEADER_SIZE + payload.length);
+			frame.putInt(payload.length);
+			frame.putInt(checksum(payload));
+			frame.put(payload);
+			frame.flip();
+			FileChannel channel = current.channel;
+			long framePosition = channel.position();
+			try {
+				while (frame.hasRemaining()) {
+					channel.write(frame);
+				}
+			} catch (IOException e) {
+				// Don't leave a partial frame: it would hide all later ones
+				channel.truncate(framePosition);
+				channel.position(framePosition);
+				throw e;
+			}
+			lastSequence = sequence;
+			current.unapplied++;
+			unappliedCount.incrementAndGet();
+			addPending(sequencedEntry);
+		}
+		sync(sequence);
+		rollOverIfFull();
+		metrics.increment(METRIC_PREFIX + "appends");
+	}
+
+	/**
+	 * Forces the journal to disk unless another thread's fsync already
+	 * covered the given sequence.
+	 */
+	private void sync(long sequence) throws IOException {
+		if (syncedSequence >= sequence) {
+			return;
+		}
+		synchronized (syncLock) {
+			if (syncedSequence >= sequence) {
+				return;
+			}
+			long covered;
+			FileChannel channel;
+			synchronized (writeLock) {
+				covered = lastSequence;
+				channel = current.channel;
+			}
+			// The current segment can only change while holding the syncLock
+			channel.force(false);
+			syncedSequence = covered;
+			metrics.increment(METRIC_PREFIX + "fsyncs");
+		}
+	}
+
+	/**
+	 * Closes the current segment if it's full and starts a new one. The full
+	 * segment is forced to disk before, so every entry in it is synced.
+	 */
+	private void rollOverIfFull() throws IOException {
+		synchronized (writeLock) {
+			if (current.channel.position() < maxSegmentSize) {
+				return;
+			}
+		}
+		synchronized (syncLock) {
+			synchronized (writeLock) {
+				if (current.channel.position() < maxSegmentSize) {
+					return;
+				}
+				Segment full = current;
+				full.channel.force(false);
+				syncedSequence = lastSequence;
+				full.channel.close();
+				full.channel = null;
+				current = openSegment(full.number + 1, lastSequence + 1);
+				if (full.unapplied == 0) {
+					deleteSegment(full);
+				}
+			}
+		}
+		metrics.increment(METRIC_PREFIX + "segments");
+	}
+
+	private void addPending(JournalEntry entry) {
+		pendingMap.compute(entry.getStudyResultId(), (id, entries) -> {
+			List<JournalEntry> list = entries != null ? entries
+					: new ArrayList<>();
+			list.add(entry);
+			return list;
+		});
+	}
+
+	/**
+	 * Applies all pending entries of the given StudyResult to it and its
+	 * ComponentResults. Has to be called within a transaction. The entries
+	 * count as applied once the transaction is committed - if it is rolled
+	 * back they are pending again. The StudyResult stays locked against the
+	 * applier until the transaction is completed.
+	 */
+	public void applyPending(StudyResult studyResult) {
+		if (!enabled || !pendingMap.containsKey(studyResult.getId())) {
+			return;
+		}
+		Lock lock = studyResultLocks.get(studyResult.getId());
+		lock.lock();
+		List<JournalEntry> entries;
+		try {
+			entries = claim(studyResult.getId());
+			entries.forEach(entry -> apply(entry, studyResult));
+			JPA.em().unwrap(EventSource.class).getActionQueue()
+					.registerProcess((success, session) -> {
+						try {
+							completeClaim(studyResult.getId(), entries,
+									success);
+						} finally {
+							lock.unlock();
+						}
+					});
+		} catch (RuntimeException e) {
+			lock.unlock();
+			throw e;
+		}
+		metrics.add(METRIC_PREFIX + "appliedByRequest", entries.size());
+	}
+
+	/**
+	 * Returns the lock that protects the given StudyResult's entities against
+	 * concurrent applying
+	 */
+	Lock getLock(long studyResultId) {
+		return studyResultLocks.get(studyResultId);
+	}
+
+	/**
+	 * Returns the IDs of all StudyResults that have pending entries
+	 */
+	List<Long> getPendingStudyResultIds(int max) {
+		List<Long> ids = new ArrayList<>();
+		for (Long id : pendingMap.keySet()) {
+			if (ids.size() >= max) {
+				break;
+			}
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Removes and returns all pending entries of the given StudyResult. They
+	 * have to be given back with {@link #completeClaim(long, List, boolean)}.
+	 */
+	List<JournalEntry> claim(long studyResultId) {
+		List<JournalEntry> entries = pendingMap.remove(studyResultId);
+		return entries != null ? entries : Collections.emptyList();
+	}
+
+	/**
+	 * Marks claimed entries as applied or, if they couldn't be applied, puts
+	 * them back in front of the entries that were appended meanwhile. A closed
+	 * segment whose entries are all applied is deleted.
+	 */
+	void completeClaim(long studyResultId, List<JournalEntry> entries,
+			boolean applied) {
+		if (entries.isEmpty()) {
+			return;
+		}
+		if (applied) {
+			synchronized (writeLock) {
+				for (JournalEntry entry : entries) {
+					markApplied(entry);
+				}
+			}
+			unappliedCount.addAndGet(-entries.size());
+			metrics.add(METRIC_PREFIX + "applied", entries.size());
+			return;
+		}
+		synchronized (writeLock) {
+			pendingMap.merge(studyResultId, entries, (newer, claimed) -> {
+				List<JournalEntry> list = new ArrayList<>(claimed);
+				list.addAll(newer);
+				return list;
+			});
+		}
+	}
+
+	private void markApplied(JournalEntry entry) {
+		Map.Entry<Long, Segment> segmentEntry = segments
+				.floorEntry(entry.getSequence());
+		if (segmentEntry == null) {
+			return;
+		}
+		Segment segment = segmentEntry.getValue();
+		segment.unapplied--;
+		if (segment.unapplied == 0 && segment != current) {
+			deleteSegment(segment);
+		}
+	}
+
+	/**
+	 * Applies the entry to the given StudyResult or one of its
+	 * ComponentResults. Applying is idempotent, so an entry can be applied
+	 * again after a crash. A finished or aborted study run isn't changed
+	 * anymore and neither is a done component (same as without the journal).
+	 */
+	void apply(JournalEntry entry, StudyResult studyResult) {
+		if (PublixHelpers.studyDone(studyResult)) {
+			return;
+		}
+		switch (entry.getType()) {
+		case STUDY_SESSION_DATA:
+			studyResult.setStudySessionData(entry.getData());
+			break;
+		case RESULT_DATA: {
+			ComponentResult componentResult = findComponentResult(
+					studyResult, entry.getComponentResultId());
+			if (componentResult == null
+					|| PublixHelpers.componentDone(componentResult)) {
+				break;
+			}
+			componentResult.setData(entry.getData());
+			componentResult.setComponentState(ComponentState.RESULTDATA_POSTED);
+			break;
+		}
+		case COMPONENT_FINISHED: {
+			ComponentResult componentResult = findComponentResult(
+					studyResult, entry.getComponentResultId());
+			if (componentResult == null
+					|| PublixHelpers.componentDone(componentResult)) {
+				break;
+			}
+			componentResult.setComponentState(entry.isSuccessful()
+					? ComponentState.FINISHED : ComponentState.FAIL);
+			componentResult.setErrorMsg(entry.getData());
+			break;
+		}
+		}
+	}
+
+	private ComponentResult findComponentResult(StudyResult studyResult,
+			Long componentResultId) {
+		for (ComponentResult componentResult : studyResult
+				.getComponentResultList()) {
+			if (componentResult.getId().equals(componentResultId)) {
+				return componentResult;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Empties the current segment if all its entries are in the database
+	 */
+	void truncateIfDrained() {
+		synchronized (writeLock) {
+			try {
+				FileChannel channel = current.channel;
+				if (current.unapplied == 0 && channel.size() > 0) {
+					channel.truncate(0);
+					channel.position(0);
+				}
+			} catch (IOException e) {
+				Logger.error(CLASS_NAME + ".truncateIfDrained", e);
+			}
+		}
+	}
+
+	public void close() {
+		synchronized (writeLock) {
+			if (current == null || current.channel == null) {
+				return;
+			}
+			try {
+				current.channel.close();
+			} catch (IOException e) {
+				Logger.error(CLASS_NAME + ".close", e);
+			}
+		}
+	}
+
+	public long getUnappliedCount() {
+		return unappliedCount.get();
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+}
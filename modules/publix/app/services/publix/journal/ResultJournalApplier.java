@@ -0,0 +1,159 @@
+package services.publix.journal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import daos.common.StudyResultDao;
+import models.common.StudyResult;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
+
+/**
+ * Writes the entries of the {@link ResultJournal} into the database. Every
+ * APPLY_INTERVAL_MS it takes the pending entries of up to
+ * MAX_STUDY_RESULTS_PER_TRANSACTION StudyResults and applies them within a
+ * single transaction. StudyResults that are currently used by a request are
+ * skipped and tried again next time. During shutdown everything that's left is
+ * applied.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultJournalApplier {
+
+	private static final String CLASS_NAME = ResultJournalApplier.class
+			.getSimpleName();
+
+	private static final long APPLY_INTERVAL_MS = 200;
+
+	private static final int MAX_STUDY_RESULTS_PER_TRANSACTION = 100;
+
+	private final ResultJournal resultJournal;
+	private final JPAApi jpa;
+	private final StudyResultDao studyResultDao;
+
+	@Inject
+	public ResultJournalApplier(ResultJournal resultJournal, JPAApi jpa,
+			StudyResultDao studyResultDao, ApplicationLifecycle lifecycle) {
+		this.resultJournal = resultJournal;
+		this.jpa = jpa;
+		this.studyResultDao = studyResultDao;
+		if (!resultJournal.isEnabled()) {
+			return;
+		}
+
+		ScheduledExecutorService executor = Executors
+				.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "result-journal");
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.scheduleWithFixedDelay(this::applyPendingSafely,
+				APPLY_INTERVAL_MS, APPLY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+		lifecycle.addStopHook(() -> {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			drain();
+			resultJournal.close();
+			return F.Promise.pure(null);
+		});
+	}
+
+	/**
+	 * Applies until nothing is pending anymore or nothing can be applied and
+	 * empties the journal's current segment if everything got applied
+	 */
+	private void drain() {
+		long unapplied = resultJournal.getUnappliedCount();
+		while (unapplied > 0) {
+			applyPendingSafely();
+			long stillUnapplied = resultJournal.getUnappliedCount();
+			if (stillUnapplied >= unapplied) {
+				Logger.warn(CLASS_NAME + ".drain: " + stillUnapplied
+						+ " entries stay in the result journal and are "
+						+ "applied during the next start");
+				return;
+			}
+			unapplied = stillUnapplied;
+		}
+		resultJournal.truncateIfDrained();
+	}
+
+	private void applyPendingSafely() {
+		try {
+			applyPending();
+		} catch (Throwable e) {
+			// Never let an exception cancel the scheduled task
+			Logger.error(CLASS_NAME + ".applyPendingSafely", e);
+		}
+	}
+
+	private void applyPending() {
+		List<Long> studyResultIds = resultJournal
+				.getPendingStudyResultIds(MAX_STUDY_RESULTS_PER_TRANSACTION);
+		if (studyResultIds.isEmpty()) {
+			resultJournal.truncateIfDrained();
+			return;
+		}
+
+		// Claim only StudyResults that aren't used by a request right now
+		List<Lock> locks = new ArrayList<>();
+		Map<Long, List<JournalEntry>> claimed = new LinkedHashMap<>();
+		for (Long studyResultId : studyResultIds) {
+			Lock lock = resultJournal.getLock(studyResultId);
+			if (!lock.tryLock()) {
+				continue;
+			}
+			locks.add(lock);
+			List<JournalEntry> entries = resultJournal.claim(studyResultId);
+			if (!entries.isEmpty()) {
+				claimed.put(studyResultId, entries);
+			}
+		}
+
+		boolean applied = false;
+		try {
+			jpa.withTransaction(() -> {
+				for (Map.Entry<Long, List<JournalEntry>> claimedEntry : claimed
+						.entrySet()) {
+					StudyResult studyResult = studyResultDao
+							.findById(claimedEntry.getKey());
+					if (studyResult == null) {
+						// StudyResult was removed meanwhile
+						continue;
+					}
+					for (JournalEntry entry : claimedEntry.getValue()) {
+						resultJournal.apply(entry, studyResult);
+					}
+				}
+			});
+			applied = true;
+		} catch (Throwable e) {
+			Logger.error(CLASS_NAME + ".applyPending: couldn't apply result "
+					+ "journal entries - will try again", e);
+		} finally {
+			for (Map.Entry<Long, List<JournalEntry>> claimedEntry : claimed
+					.entrySet()) {
+				resultJournal.completeClaim(claimedEntry.getKey(),
+						claimedEntry.getValue(), applied);
+			}
+			// Striped locks can be the same for different IDs
+			for (int i = locks.size() - 1; i >= 0; i--) {
+				locks.get(i).unlock();
+			}
+		}
+	}
+
+}
@@ -5,11 +5,10 @@ import javax.inject.Singleton;
 
 import controllers.publix.Publix;
 import controllers.publix.workers.GeneralSinglePublix;
-import daos.common.BatchDao;
-import daos.common.ComponentDao;
 import daos.common.ComponentResultDao;
-import daos.common.StudyDao;
+import daos.common.ResultDataFileStore;
 import daos.common.StudyResultDao;
+import daos.common.StudyRunCache;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Study;
@@ -19,6 +18,7 @@ import play.mvc.Http.Cookie;
 import services.publix.PublixErrorMessages;
 import services.publix.PublixUtils;
 import services.publix.ResultCreator;
+import services.publix.journal.ResultJournal;
 
 /**
  * GeneralSinglePublix' implementation of PublixUtils
@@ -32,12 +32,14 @@ public class GeneralSinglePublixUtils extends PublixUtils<GeneralSingleWorker> {
 
 	@Inject
 	GeneralSinglePublixUtils(ResultCreator resultCreator,
-			GeneralSingleErrorMessages errorMessages, StudyDao studyDao,
-			StudyResultDao studyResultDao, ComponentDao componentDao,
+			GeneralSingleErrorMessages errorMessages,
+			StudyResultDao studyResultDao,
 			ComponentResultDao componentResultDao, WorkerDao workerDao,
-			BatchDao batchDao) {
-		super(resultCreator, errorMessages, studyDao, studyResultDao,
-				componentDao, componentResultDao, workerDao, batchDao);
+			StudyRunCache studyRunCache, ResultJournal resultJournal,
+			ResultDataFileStore resultDataFileStore) {
+		super(resultCreator, errorMessages, studyResultDao, componentResultDao,
+				workerDao, studyRunCache, resultJournal,
+				resultDataFileStore);
 	}
 
 	@Override
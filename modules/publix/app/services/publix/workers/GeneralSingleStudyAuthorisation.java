@@ -3,12 +3,12 @@ package services.publix.workers;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
 import models.common.workers.GeneralSingleWorker;
 import services.publix.PublixErrorMessages;
-import services.publix.PublixHelpers;
 import services.publix.StudyAuthorisation;
 
 /**
@@ -21,11 +21,14 @@ public class GeneralSingleStudyAuthorisation
 		extends StudyAuthorisation<GeneralSingleWorker> {
 
 	private final GeneralSingleErrorMessages errorMessages;
+	private final StudyResultDao studyResultDao;
 
 	@Inject
-	GeneralSingleStudyAuthorisation(GeneralSingleErrorMessages errorMessages) {
+	GeneralSingleStudyAuthorisation(GeneralSingleErrorMessages errorMessages,
+			StudyResultDao studyResultDao) {
 		super(errorMessages);
 		this.errorMessages = errorMessages;
+		this.studyResultDao = studyResultDao;
 	}
 
 	@Override
@@ -49,7 +52,7 @@ public class GeneralSingleStudyAuthorisation
 							study.getId(), batch.getId()));
 		}
 		// General single workers can't repeat the same study
-		if (PublixHelpers.finishedStudyAlready(worker, study)) {
+		if (studyResultDao.existsDoneByWorkerAndStudy(worker, study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
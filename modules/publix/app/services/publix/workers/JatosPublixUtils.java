@@ -5,11 +5,10 @@ import javax.inject.Singleton;
 
 import controllers.publix.Publix;
 import controllers.publix.workers.JatosPublix;
-import daos.common.BatchDao;
-import daos.common.ComponentDao;
 import daos.common.ComponentResultDao;
-import daos.common.StudyDao;
+import daos.common.ResultDataFileStore;
 import daos.common.StudyResultDao;
+import daos.common.StudyRunCache;
 import daos.common.UserDao;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
@@ -18,6 +17,7 @@ import models.common.workers.JatosWorker;
 import models.common.workers.Worker;
 import services.publix.PublixUtils;
 import services.publix.ResultCreator;
+import services.publix.journal.ResultJournal;
 
 /**
  * JatosPublix' implementation of PublixUtils (studies or components started via
@@ -34,11 +34,13 @@ public class JatosPublixUtils extends PublixUtils<JatosWorker> {
 	@Inject
 	JatosPublixUtils(ResultCreator resultCreator,
 			JatosErrorMessages errorMessages, UserDao userDao,
-			StudyDao studyDao, StudyResultDao studyResultDao,
-			ComponentDao componentDao, ComponentResultDao componentResultDao,
-			WorkerDao workerDao, BatchDao batchDao) {
-		super(resultCreator, errorMessages, studyDao, studyResultDao,
-				componentDao, componentResultDao, workerDao, batchDao);
+			StudyResultDao studyResultDao,
+			ComponentResultDao componentResultDao, WorkerDao workerDao,
+			StudyRunCache studyRunCache, ResultJournal resultJournal,
+			ResultDataFileStore resultDataFileStore) {
+		super(resultCreator, errorMessages, studyResultDao, componentResultDao,
+				workerDao, studyRunCache, resultJournal,
+				resultDataFileStore);
 		this.errorMessages = errorMessages;
 		this.userDao = userDao;
 	}
@@ -3,17 +3,17 @@ package services.publix.workers;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import daos.common.BatchDao;
-import daos.common.ComponentDao;
 import daos.common.ComponentResultDao;
-import daos.common.StudyDao;
+import daos.common.ResultDataFileStore;
 import daos.common.StudyResultDao;
+import daos.common.StudyRunCache;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.workers.MTWorker;
 import models.common.workers.Worker;
 import services.publix.PublixUtils;
 import services.publix.ResultCreator;
+import services.publix.journal.ResultJournal;
 
 /**
  * MTPublix' implementation of PublixUtils (studies started via MTurk).
@@ -25,11 +25,13 @@ public class MTPublixUtils extends PublixUtils<MTWorker> {
 
 	@Inject
 	MTPublixUtils(ResultCreator resultCreator, MTErrorMessages errorMessages,
-			StudyDao studyDao, StudyResultDao studyResultDao,
-			ComponentDao componentDao, ComponentResultDao componentResultDao,
-			WorkerDao workerDao, BatchDao batchDao) {
-		super(resultCreator, errorMessages, studyDao, studyResultDao,
-				componentDao, componentResultDao, workerDao, batchDao);
+			StudyResultDao studyResultDao,
+			ComponentResultDao componentResultDao, WorkerDao workerDao,
+			StudyRunCache studyRunCache, ResultJournal resultJournal,
+			ResultDataFileStore resultDataFileStore) {
+		super(resultCreator, errorMessages, studyResultDao, componentResultDao,
+				workerDao, studyRunCache, resultJournal,
+				resultDataFileStore);
 	}
 
 	@Override
@@ -3,13 +3,13 @@ package services.publix.workers;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
 import models.common.workers.MTSandboxWorker;
 import models.common.workers.MTWorker;
 import services.publix.PublixErrorMessages;
-import services.publix.PublixHelpers;
 import services.publix.StudyAuthorisation;
 
 /**
@@ -21,11 +21,14 @@ import services.publix.StudyAuthorisation;
 public class MTStudyAuthorisation extends StudyAuthorisation<MTWorker> {
 
 	private final MTErrorMessages errorMessages;
+	private final StudyResultDao studyResultDao;
 
 	@Inject
-	MTStudyAuthorisation(MTErrorMessages errorMessages) {
+	MTStudyAuthorisation(MTErrorMessages errorMessages,
+			StudyResultDao studyResultDao) {
 		super(errorMessages);
 		this.errorMessages = errorMessages;
+		this.studyResultDao = studyResultDao;
 	}
 
 	@Override
@@ -36,7 +39,7 @@ public class MTStudyAuthorisation extends StudyAuthorisation<MTWorker> {
 					errorMessages.batchInactive(batch.getId()));
 		}
 		if (!(worker instanceof MTSandboxWorker)
-				&& PublixHelpers.didStudyAlready(worker, study)) {
+				&& studyResultDao.existsByWorkerAndStudy(worker, study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
@@ -58,7 +61,7 @@ public class MTStudyAuthorisation extends StudyAuthorisation<MTWorker> {
 			return;
 		}
 		// MTurk workers can't repeat studies
-		if (PublixHelpers.finishedStudyAlready(worker, study)) {
+		if (studyResultDao.existsDoneByWorkerAndStudy(worker, study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
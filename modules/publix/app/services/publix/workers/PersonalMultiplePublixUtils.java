@@ -3,17 +3,17 @@ package services.publix.workers;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import daos.common.BatchDao;
-import daos.common.ComponentDao;
 import daos.common.ComponentResultDao;
-import daos.common.StudyDao;
+import daos.common.ResultDataFileStore;
 import daos.common.StudyResultDao;
+import daos.common.StudyRunCache;
 import daos.common.worker.WorkerDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.workers.PersonalMultipleWorker;
 import models.common.workers.Worker;
 import services.publix.PublixUtils;
 import services.publix.ResultCreator;
+import services.publix.journal.ResultJournal;
 
 /**
  * PersonalMultiplePublix' implementation of PublixUtils
@@ -26,12 +26,14 @@ public class PersonalMultiplePublixUtils
 
 	@Inject
 	PersonalMultiplePublixUtils(ResultCreator resultCreator,
-			PersonalMultipleErrorMessages errorMessages, StudyDao studyDao,
-			StudyResultDao studyResultDao, ComponentDao componentDao,
+			PersonalMultipleErrorMessages errorMessages,
+			StudyResultDao studyResultDao,
 			ComponentResultDao componentResultDao, WorkerDao workerDao,
-			BatchDao batchDao) {
-		super(resultCreator, errorMessages, studyDao, studyResultDao,
-				componentDao, componentResultDao, workerDao, batchDao);
+			StudyRunCache studyRunCache, ResultJournal resultJournal,
+			ResultDataFileStore resultDataFileStore) {
+		super(resultCreator, errorMessages, studyResultDao, componentResultDao,
+				workerDao, studyRunCache, resultJournal,
+				resultDataFileStore);
 	}
 
 	@Override
@@ -3,12 +3,12 @@ package services.publix.workers;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import models.common.Batch;
 import models.common.Study;
 import models.common.workers.PersonalSingleWorker;
 import services.publix.PublixErrorMessages;
-import services.publix.PublixHelpers;
 import services.publix.StudyAuthorisation;
 
 /**
@@ -21,12 +21,15 @@ public class PersonalSingleStudyAuthorisation
 		extends StudyAuthorisation<PersonalSingleWorker> {
 
 	private final PersonalSingleErrorMessages errorMessages;
+	private final StudyResultDao studyResultDao;
 
 	@Inject
 	PersonalSingleStudyAuthorisation(
-			PersonalSingleErrorMessages errorMessages) {
+			PersonalSingleErrorMessages errorMessages,
+			StudyResultDao studyResultDao) {
 		super(errorMessages);
 		this.errorMessages = errorMessages;
+		this.studyResultDao = studyResultDao;
 	}
 
 	@Override
@@ -38,7 +41,7 @@ public class PersonalSingleStudyAuthorisation
 		}
 		// Personal Single Runs are used only once - don't start if worker has a
 		// study result
-		if (!worker.getStudyResultList().isEmpty()) {
+		if (studyResultDao.existsByWorker(worker)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
@@ -56,7 +59,7 @@ public class PersonalSingleStudyAuthorisation
 							study.getId(), batch.getId()));
 		}
 		// Personal single workers can't repeat the same study
-		if (PublixHelpers.finishedStudyAlready(worker, study)) {
+		if (studyResultDao.existsDoneByWorkerAndStudy(worker, study)) {
 			throw new ForbiddenPublixException(
 					PublixErrorMessages.STUDY_CAN_BE_DONE_ONLY_ONCE);
 		}
@@ -123,11 +123,49 @@ var groupSessionTimeout;
  * changes of the data.
  */
 var groupSessionVersion;
+/**
+ * onError callback of the group session patch that is currently sent
+ */
+var groupSessionPatchOnError;
 /**
  * Group channel WebSocket to exchange messages between workers of a group.
  * Not to be confused with 'jatos.groupChannels'. Accessible only by jatos.js.
  */
 var groupChannel;
+/**
+ * Version of the group channel protocol jatos.js speaks. With version 2 the
+ * JATOS server sends the whole group (members, channels, group session) only
+ * when the group channel is opened and afterwards only the changes, each with
+ * a sequence number. With version 3 jatos.js answers the server's pings, so
+ * the server knows this group channel is still alive.
+ */
+var groupProtocolVersion = 3;
+/**
+ * Sequence number of the last group message that was sent to all members of
+ * the group
+ */
+var groupSeq = null;
+/**
+ * Epoch of the sequence numbers: it changes if the JATOS server starts to
+ * handle this group anew
+ */
+var groupEpoch = null;
+/**
+ * Whether the group left the waiting room - like the JATOS server counts it
+ * (active and history members). It's null until the server sent it.
+ */
+var groupStarted = null;
+/**
+ * If the group channel was lost (and not closed because this member left the
+ * group) the group variables are kept here. Then the next jatos.joinGroup
+ * resumes the group channel: the JATOS server sends only the group messages
+ * that were missed in between.
+ */
+var groupResumeState = null;
+/**
+ * Is true after this member left the group until it joins again
+ */
+var groupLeft = false;
 /**
  * WebSocket support by the browser is needed for group channel.
  */
@@ -146,6 +184,7 @@ var joiningGroup = false;
 var reassigningGroup = false;
 var leavingGroup = false;
 var sendingGroupSession = false;
+var sendingGroupSessionPatch = false;
 var abortingComponent = false;
 
 /**
@@ -591,7 +630,11 @@ jatos.endComponent = function(successful, errorMsg, onSuccess, onError) {
 
 /**
  * Tries to join a group (actually a GroupResult) in the JATOS server and if it
- * succeeds opens the group channel's WebSocket.
+ * succeeds opens the group channel's WebSocket. If the group channel was lost
+ * before (e.g. the network was gone for a moment) it's resumed: the group
+ * variables are kept and only the group messages that were missed in between
+ * are received (if the JATOS server still has them - otherwise all group
+ * variables are received anew).
  * 
  * @param {Object} callbacks - Defining callback functions for group
  * 			events. All callbacks are optional. These callbacks functions can
@@ -623,6 +666,11 @@ jatos.endComponent = function(successful, errorMsg, onSuccess, onError) {
  *			following is called: onMemberJoin, onMemberOpen, onMemberLeave,
  *			onMemberClose, or onGroupSession (the group session can then be read
  *			via jatos.groupSessionData).
+ * 		The callbacks object can have one more property that's not a function:
+ *		matchingTag: only used if the batch matches its members by an
+ *			attribute - only members with the same tag get into the same group.
+ *			If it's not given the URL query parameter with the name of the
+ *			batch's group matching attribute is used.
  */
 jatos.joinGroup = function(callbacks) {
 	if (!webSocketSupported) {
@@ -640,11 +688,22 @@ jatos.joinGroup = function(callbacks) {
 		return;
 	}
 	joiningGroup = true;
+	groupLeft = false;
 	
-	groupChannel = new WebSocket(((
-			window.location.protocol === "https:") ? "wss://" : "ws://")
+	var url = ((window.location.protocol === "https:") ? "wss://" : "ws://")
 			+ window.location.host
-			+ "/publix/" + jatos.studyId + "/group/join");
+			+ "/publix/" + jatos.studyId + "/group/join"
+			+ "?protocolVersion=" + groupProtocolVersion;
+	if (groupResumeState) {
+		restoreGroupState(groupResumeState);
+		url += "&epoch=" + groupEpoch + "&lastSeq=" + groupSeq;
+	}
+	var matchingTag = getGroupMatchingTag(callbacks);
+	if (matchingTag !== null) {
+		url += "&matchingTag=" + encodeURIComponent(matchingTag);
+	}
+	groupResumeState = null;
+	groupChannel = new WebSocket(url);
 	groupChannel.onmessage = function(event) {
 		joiningGroup = false;
 		handleGroupMsg(event.data, callbacks);
@@ -656,6 +715,10 @@ jatos.joinGroup = function(callbacks) {
 	groupChannel.onclose = function() {
 		joiningGroup = false;
 		reassigningGroup = false;
+		if (!leavingGroup && !groupLeft && groupEpoch !== null
+				&& groupSeq !== null) {
+			groupResumeState = saveGroupState();
+		}
 		jatos.groupMemberId = null;
 		jatos.groupResultId = null;
 		jatos.groupState = null;
@@ -663,12 +726,44 @@ jatos.joinGroup = function(callbacks) {
 		jatos.groupChannels = [];
 		jatos.groupSessionData = null;
 		groupSessionVersion = null;
+		groupSeq = null;
+		groupEpoch = null;
+		groupStarted = null;
 		if (callbacks.onClose) {
 			callbacks.onClose();
 		}
 	};
 };
 
+/**
+ * Returns the tag this member should be matched by if the batch matches its
+ * members by an attribute (null otherwise): it's either given in the callbacks
+ * of jatos.joinGroup or it's the URL query parameter with the name of the
+ * batch's group matching attribute.
+ */
+function getGroupMatchingTag(callbacks) {
+	if (jatos.batchProperties.groupMatching != "ATTRIBUTE") {
+		return null;
+	}
+	if (typeof callbacks.matchingTag !== 'undefined'
+			&& callbacks.matchingTag !== null) {
+		return String(callbacks.matchingTag);
+	}
+	var attribute = jatos.batchProperties.groupMatchingAttribute;
+	if (!attribute) {
+		return null;
+	}
+	var params = window.location.search.substring(1).split("&");
+	for (var i = 0; i < params.length; i++) {
+		var keyValue = params[i].split("=");
+		if (decodeURIComponent(keyValue[0]) == attribute) {
+			return (keyValue.length > 1) ? decodeURIComponent(keyValue[1]
+					.replace(/\+/g, " ")) : "";
+		}
+	}
+	return null;
+}
+
 /**
  * A group message from the JATOS server can be an action, a message from an
  * other group member, or an error. An action usually comes with the current
@@ -677,7 +772,13 @@ jatos.joinGroup = function(callbacks) {
  */
 function handleGroupMsg(msg, callbacks) {
 	var groupMsg = jatos.jQuery.parseJSON(msg);
+	if (groupMsg.action == "PING") {
+		sendGroupPong(groupMsg.ping);
+		return;
+	}
+	applyGroupSessionPatch(groupMsg);
 	updateGroupVars(groupMsg);
+	applyGroupDelta(groupMsg);
 	// Now handle the action and map them to callbacks that were given as
 	// parameter to joinGroup
 	callGroupActionCallbacks(groupMsg, callbacks);
@@ -687,6 +788,18 @@ function handleGroupMsg(msg, callbacks) {
 	}
 };
 
+/**
+ * Answers a ping of the JATOS server
+ */
+function sendGroupPong(ping) {
+	if (groupChannel && groupChannel.readyState == 1) {
+		groupChannel.send(JSON.stringify({
+			"action" : "PONG",
+			"ping" : ping
+		}));
+	}
+}
+
 function callGroupActionCallbacks(groupMsg, callbacks) {
 	if (!groupMsg.action) {
 		return;
@@ -740,18 +853,27 @@ function callGroupActionCallbacks(groupMsg, callbacks) {
 		}
 		break;
 	case "UPDATE":
+	case "SNAPSHOT":
 		// onUpdate
 		// Got update
 		callOnUpdate(callbacks);
 		break;
 	case "SESSION_ACK":
 		sendingGroupSession = false;
+		sendingGroupSessionPatch = false;
 		window.clearTimeout(groupSessionTimeout);
 		break;
 	case "SESSION_FAIL":
 		sendingGroupSession = false;
 		window.clearTimeout(groupSessionTimeout);
-		uploadGroupSessionData(groupSessionDataFrozen);
+		if (sendingGroupSessionPatch) {
+			// A patch that couldn't be applied won't work a second time
+			sendingGroupSessionPatch = false;
+			callingOnError(groupSessionPatchOnError,
+					"Couldn't apply group session patch.");
+		} else {
+			uploadGroupSessionData(groupSessionDataFrozen);
+		}
 		break;
 	case "ERROR":
 		// onError or jatos.onError
@@ -773,6 +895,12 @@ function updateGroupVars(groupMsg) {
 	if (groupMsg.groupState) {
 		jatos.groupState = groupMsg.groupState;
 	}
+	if (typeof groupMsg.started === "boolean") {
+		groupStarted = groupMsg.started;
+	}
+	if (groupMsg.epoch) {
+		groupEpoch = groupMsg.epoch;
+	}
 	try {
 		if (groupMsg.members) {
 			jatos.groupMembers = groupMsg.members;
@@ -791,6 +919,226 @@ function updateGroupVars(groupMsg) {
 	}
 }
 
+/**
+ * A group action message with a sequence number but without the members is a
+ * delta (group channel protocol version 2): apply the change to the group
+ * members or channels. A message with the members is a snapshot of the whole
+ * group and was already taken over by updateGroupVars. If a sequence number is
+ * missing ask the JATOS server for a snapshot.
+ */
+function applyGroupDelta(groupMsg) {
+	if (typeof groupMsg.seq === "undefined") {
+		return;
+	}
+	if (groupMsg.members) {
+		groupSeq = groupMsg.seq;
+		return;
+	}
+	if (groupSeq !== null && groupMsg.seq != groupSeq + 1) {
+		requestGroupSnapshot();
+	}
+	groupSeq = groupMsg.seq;
+	if (typeof groupMsg.memberId === "undefined") {
+		return;
+	}
+	var memberId = groupMsg.memberId.toString();
+	switch(groupMsg.action) {
+	case "JOINED":
+		addToArray(jatos.groupMembers, memberId);
+		break;
+	case "LEFT":
+		removeFromArray(jatos.groupMembers, memberId);
+		break;
+	case "OPENED":
+		addToArray(jatos.groupChannels, memberId);
+		break;
+	case "CLOSED":
+		removeFromArray(jatos.groupChannels, memberId);
+		break;
+	}
+}
+
+function addToArray(array, item) {
+	if (array.indexOf(item) < 0) {
+		array.push(item);
+	}
+}
+
+function removeFromArray(array, item) {
+	var index = array.indexOf(item);
+	if (index >= 0) {
+		array.splice(index, 1);
+	}
+}
+
+/**
+ * A SESSION group action message might carry only a JSON Patch instead of the
+ * whole group session data (group channel protocol version 2). Apply it to
+ * jatos.groupSessionData - but only if it's based on our version of the group
+ * session data. Otherwise we missed something and ask the JATOS server for
+ * the whole group. A skipped patch's version mustn't be taken over by
+ * updateGroupVars - our group session data are still the old ones.
+ */
+function applyGroupSessionPatch(groupMsg) {
+	if (!groupMsg.groupSessionPatch) {
+		return;
+	}
+	if (groupMsg.groupSessionVersion != groupSessionVersion + 1) {
+		delete groupMsg.groupSessionVersion;
+		requestGroupSnapshot();
+		return;
+	}
+	try {
+		jatos.groupSessionData = applyJsonPatch(jatos.groupSessionData,
+				groupMsg.groupSessionPatch);
+	} catch (error) {
+		delete groupMsg.groupSessionVersion;
+		requestGroupSnapshot();
+	}
+}
+
+/**
+ * Applies a JSON Patch (RFC 6902) to a copy of the given document and returns
+ * the copy. The JATOS server already checked that the patch can be applied
+ * (including 'test' operations).
+ */
+function applyJsonPatch(document, patch) {
+	var result = (typeof document === "undefined" || document === null) ? {}
+			: JSON.parse(JSON.stringify(document));
+	for (var i = 0; i < patch.length; i++) {
+		var operation = patch[i];
+		var path = parseJsonPointer(operation.path);
+		var value;
+		switch(operation.op) {
+		case "add":
+			result = jsonPointerSet(result, path, copyJson(operation.value),
+					true);
+			break;
+		case "remove":
+			jsonPointerRemove(result, path);
+			break;
+		case "replace":
+			result = jsonPointerSet(result, path, copyJson(operation.value),
+					false);
+			break;
+		case "move":
+			var from = parseJsonPointer(operation.from);
+			value = jsonPointerGet(result, from);
+			jsonPointerRemove(result, from);
+			result = jsonPointerSet(result, path, value, true);
+			break;
+		case "copy":
+			value = jsonPointerGet(result, parseJsonPointer(operation.from));
+			result = jsonPointerSet(result, path, copyJson(value), true);
+			break;
+		}
+	}
+	return result;
+}
+
+function copyJson(value) {
+	return (typeof value === "undefined") ? value
+			: JSON.parse(JSON.stringify(value));
+}
+
+function parseJsonPointer(pointer) {
+	if (pointer === "") {
+		return [];
+	}
+	return pointer.substring(1).split("/").map(function(token) {
+		return token.replace(/~1/g, "/").replace(/~0/g, "~");
+	});
+}
+
+function jsonPointerGet(document, path) {
+	var node = document;
+	for (var i = 0; i < path.length; i++) {
+		node = node[path[i]];
+	}
+	return node;
+}
+
+/**
+ * Sets the value at the given path and returns the (maybe new) document. If
+ * insert is true a value in an array is inserted instead of replaced.
+ */
+function jsonPointerSet(document, path, value, insert) {
+	if (path.length === 0) {
+		return value;
+	}
+	var parent = jsonPointerGet(document, path.slice(0, -1));
+	var token = path[path.length - 1];
+	if (Array.isArray(parent)) {
+		if (token === "-") {
+			parent.push(value);
+		} else {
+			parent.splice(parseInt(token, 10), insert ? 0 : 1, value);
+		}
+	} else {
+		parent[token] = value;
+	}
+	return document;
+}
+
+function jsonPointerRemove(document, path) {
+	var parent = jsonPointerGet(document, path.slice(0, -1));
+	var token = path[path.length - 1];
+	if (Array.isArray(parent)) {
+		parent.splice(parseInt(token, 10), 1);
+	} else {
+		delete parent[token];
+	}
+}
+
+/**
+ * Returns a copy of the group variables to resume the group channel later on
+ */
+function saveGroupState() {
+	return {
+		groupMemberId : jatos.groupMemberId,
+		groupResultId : jatos.groupResultId,
+		groupState : jatos.groupState,
+		groupMembers : jatos.groupMembers,
+		groupChannels : jatos.groupChannels,
+		groupSessionData : jatos.groupSessionData,
+		groupSessionVersion : groupSessionVersion,
+		groupEpoch : groupEpoch,
+		groupSeq : groupSeq,
+		groupStarted : groupStarted
+	};
+}
+
+function restoreGroupState(state) {
+	jatos.groupMemberId = state.groupMemberId;
+	jatos.groupResultId = state.groupResultId;
+	jatos.groupState = state.groupState;
+	jatos.groupMembers = state.groupMembers;
+	jatos.groupChannels = state.groupChannels;
+	jatos.groupSessionData = state.groupSessionData;
+	groupSessionVersion = state.groupSessionVersion;
+	groupEpoch = state.groupEpoch;
+	groupSeq = state.groupSeq;
+	groupStarted = state.groupStarted;
+}
+
+/**
+ * Asks the JATOS server for the whole group (members, channels, group session)
+ */
+function requestGroupSnapshot() {
+	if (!groupChannel || groupChannel.readyState != 1) {
+		return;
+	}
+	var msgObj = {};
+	msgObj.action = "SNAPSHOT";
+	try {
+		groupChannel.send(JSON.stringify(msgObj));
+	} catch (error) {
+		if (onJatosError) {
+			onJatosError(error);
+		}
+	}
+}
+
 function callOnUpdate(callbacks) {
 	if (callbacks.onUpdate) {
 		callbacks.onUpdate();
@@ -893,6 +1241,52 @@ function uploadGroupSessionData(groupSessionData, onError) {
 	}
 }
 
+/**
+ * Sends a JSON Patch (RFC 6902) via the group channel WebSocket to the JATOS
+ * server where it's applied to the group session data and broadcasted to all
+ * members of this group. Unlike jatos.setGroupSessionData it doesn't send the
+ * whole group session data, and it doesn't fail if another member changed the
+ * group session in the meantime: the JATOS server applies all patches in the
+ * order they arrive. It only fails if the patch can't be applied (e.g. a
+ * 'test' operation fails) - then onError is called. jatos.groupSessionData is
+ * updated as soon as the JATOS server sends the patch back.
+ * 
+ * @param {Array} patch - JSON Patch: an array of operations, e.g.
+ *             [{"op": "add", "path": "/a", "value": 1}]
+ * @param {optional Object} onError - Function to be called if the patch
+ *             couldn't be applied
+ */
+jatos.patchGroupSessionData = function(patch, onError) {
+	if (!groupChannel || groupChannel.readyState != 1) {
+		callingOnError(onError, "No open group channel");
+		return;
+	}
+	if (sendingGroupSession) {
+		callingOnError(onError, "Can send only one group session at a time");
+		return;
+	}
+	sendingGroupSession = true;
+	sendingGroupSessionPatch = true;
+	groupSessionPatchOnError = onError;
+
+	var msgObj = {};
+	msgObj.action = "SESSION";
+	msgObj.groupSessionPatch = patch;
+	try {
+		groupChannel.send(JSON.stringify(msgObj));
+		// Setup timeout: How long to wait for an answer from JATOS.
+		groupSessionTimeout = window.setTimeout(function() {
+			sendingGroupSession = false;
+			sendingGroupSessionPatch = false;
+			callingOnError(onError, "Couldn't patch group session.");
+		}, jatos.groupSessionTimeoutTime);
+	} catch (error) {
+		sendingGroupSession = false;
+		sendingGroupSessionPatch = false;
+		callingOnError(onError, error);
+	}
+};
+
 /**
  * Ask the JATOS server to fix this group.
  */
@@ -942,6 +1336,23 @@ jatos.isMaxActiveMemberReached = function() {
 	}
 };
 
+/**
+ * @return {Boolean} True if the group has reached the minimum amount of members
+ *         to start (waiting room) like specified in the batch properties or if
+ *         the batch has no waiting room. Active members and members that
+ *         already finished count - the JATOS server tells. Only if it didn't
+ *         (older JATOS) the active members are counted.
+ */
+jatos.isGroupStarted = function() {
+	if (groupStarted !== null) {
+		return groupStarted;
+	} else if (jatos.batchProperties.minStartMembers == null) {
+		return true;
+	} else {
+		return jatos.groupMembers.length >= jatos.batchProperties.minStartMembers;
+	}
+};
+
 /**
  * @return {Boolean} True if the group has reached the maximum amount of active
  *         members like specified in the batch properties and each member has an
@@ -1019,6 +1430,8 @@ jatos.leaveGroup = function(onSuccess, onError) {
 		timeout : jatos.httpTimeout,
 		success : function(response) {
 			leavingGroup = false;
+			groupLeft = true;
+			groupResumeState = null;
 			if (onSuccess) {
 				onSuccess(response);
 			}
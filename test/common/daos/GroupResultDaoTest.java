@@ -0,0 +1,114 @@
+package common.daos;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import daos.common.GroupResultDao;
+import general.AbstractTest;
+import models.common.Batch;
+import models.common.GroupResult;
+import models.common.GroupResult.GroupState;
+import models.common.Study;
+import models.common.StudyResult;
+
+/**
+ * Tests GroupResultDao.finishAllOrphaned: only groups without active members
+ * are finished and their group session and dispatcher snapshot are deleted.
+ *
+ * @author Kristian Lange
+ */
+public class GroupResultDaoTest extends AbstractTest {
+
+	private GroupResultDao groupResultDao;
+
+	@Override
+	public void before() throws Exception {
+		groupResultDao = application.injector()
+				.instanceOf(GroupResultDao.class);
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private GroupResult createGroupResult(Batch batch, GroupState state) {
+		GroupResult groupResult = new GroupResult(batch);
+		groupResult.setGroupState(state);
+		groupResult.setGroupSessionData("{\"a\":1}");
+		groupResult.setDispatcherEpoch(1l);
+		groupResult.setDispatcherSeq(5l);
+		groupResult.setDispatcherStopped(true);
+		groupResultDao.create(groupResult);
+		return groupResult;
+	}
+
+	private void refresh(GroupResult... groupResults) {
+		entityManager.getTransaction().begin();
+		for (GroupResult groupResult : groupResults) {
+			groupResultDao.refresh(groupResult);
+		}
+		entityManager.getTransaction().commit();
+	}
+
+	private void checkCleared(GroupResult groupResult) {
+		assertThat(groupResult.getGroupState())
+				.isEqualTo(GroupState.FINISHED);
+		assertThat(groupResult.getGroupSessionData()).isNull();
+		assertThat(groupResult.getDispatcherEpoch()).isNull();
+		assertThat(groupResult.getDispatcherSeq()).isNull();
+		assertThat(groupResult.isDispatcherStopped()).isFalse();
+	}
+
+	@Test
+	public void checkFinishAllOrphaned() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+		Batch batch = study.getDefaultBatch();
+
+		entityManager.getTransaction().begin();
+		GroupResult withMember = createGroupResult(batch, GroupState.STARTED);
+		StudyResult studyResult = resultCreator.createStudyResult(study,
+				batch, admin.getWorker());
+		// Have to set worker manually in test - don't know why
+		studyResult.setWorker(admin.getWorker());
+		studyResult.setActiveGroupResult(withMember);
+		withMember.addActiveMember(studyResult);
+		studyResultDao.update(studyResult);
+		GroupResult emptyStarted = createGroupResult(batch,
+				GroupState.STARTED);
+		GroupResult emptyFixed = createGroupResult(batch, GroupState.FIXED);
+		entityManager.getTransaction().commit();
+
+		entityManager.getTransaction().begin();
+		int finished = groupResultDao.finishAllOrphaned();
+		entityManager.getTransaction().commit();
+		assertThat(finished).isGreaterThanOrEqualTo(2);
+
+		refresh(withMember, emptyStarted, emptyFixed);
+
+		// A group with active members is kept as it is
+		assertThat(withMember.getGroupState()).isEqualTo(GroupState.STARTED);
+		assertThat(withMember.getGroupSessionData()).isEqualTo("{\"a\":1}");
+		assertThat(withMember.getDispatcherEpoch()).isEqualTo(1l);
+		assertThat(withMember.getDispatcherSeq()).isEqualTo(5l);
+		assertThat(withMember.isDispatcherStopped()).isTrue();
+
+		// Empty groups are finished - no matter if STARTED or FIXED
+		checkCleared(emptyStarted);
+		checkCleared(emptyFixed);
+
+		// Finished groups aren't touched a second time
+		entityManager.getTransaction().begin();
+		int finishedAgain = groupResultDao.finishAllOrphaned();
+		entityManager.getTransaction().commit();
+		assertThat(finishedAgain).isEqualTo(0);
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+}
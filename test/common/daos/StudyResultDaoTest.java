@@ -0,0 +1,128 @@
+package common.daos;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+
+/**
+ * Tests the queries of the StudyResultDao that look up a worker's
+ * StudyResults
+ *
+ * @author Kristian Lange
+ */
+public class StudyResultDaoTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private void setStudyState(StudyResult studyResult, StudyState state) {
+		entityManager.getTransaction().begin();
+		studyResult.setStudyState(state);
+		studyResultDao.update(studyResult);
+		entityManager.getTransaction().commit();
+	}
+
+	@Test
+	public void checkExistsDoneByWorkerAndStudy() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+
+		entityManager.getTransaction().begin();
+		StudyResult studyResult = resultCreator.createStudyResult(study,
+				study.getDefaultBatch(), admin.getWorker());
+		// Have to set worker manually in test - don't know why
+		studyResult.setWorker(admin.getWorker());
+		entityManager.getTransaction().commit();
+
+		// FINISHED, ABORTED, FAIL must return true
+		setStudyState(studyResult, StudyState.FINISHED);
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				study)).isTrue();
+		setStudyState(studyResult, StudyState.ABORTED);
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				study)).isTrue();
+		setStudyState(studyResult, StudyState.FAIL);
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				study)).isTrue();
+
+		// DATA_RETRIEVED, STARTED must return false
+		setStudyState(studyResult, StudyState.DATA_RETRIEVED);
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				study)).isFalse();
+		setStudyState(studyResult, StudyState.STARTED);
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				study)).isFalse();
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+	@Test
+	public void checkExistsDoneByWorkerAndStudyWrong() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+
+		entityManager.getTransaction().begin();
+		Study clone = studyService.clone(study);
+		studyService.createAndPersistStudy(admin, clone);
+		entityManager.getTransaction().commit();
+
+		// A done StudyResult of a different study doesn't count
+		entityManager.getTransaction().begin();
+		StudyResult studyResult = resultCreator.createStudyResult(clone,
+				study.getDefaultBatch(), admin.getWorker());
+		studyResult.setStudyState(StudyState.FINISHED);
+		// Have to set worker manually in test - don't know why
+		studyResult.setWorker(admin.getWorker());
+		entityManager.getTransaction().commit();
+
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				study)).isFalse();
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				clone)).isTrue();
+
+		// Clean-up
+		removeStudy(study);
+		removeStudy(clone);
+	}
+
+	@Test
+	public void checkExistsByWorkerAndStudy() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+
+		assertThat(studyResultDao.existsByWorkerAndStudy(admin.getWorker(),
+				study)).isFalse();
+
+		entityManager.getTransaction().begin();
+		StudyResult studyResult = resultCreator.createStudyResult(study,
+				study.getDefaultBatch(), admin.getWorker());
+		// Have to set worker manually in test - don't know why
+		studyResult.setWorker(admin.getWorker());
+		entityManager.getTransaction().commit();
+
+		// No matter in which state
+		assertThat(studyResultDao.existsByWorkerAndStudy(admin.getWorker(),
+				study)).isTrue();
+		assertThat(studyResultDao.existsDoneByWorkerAndStudy(admin.getWorker(),
+				study)).isFalse();
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+}
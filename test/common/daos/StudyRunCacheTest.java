@@ -0,0 +1,141 @@
+package common.daos;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import daos.common.StudyRunCache;
+import general.AbstractTest;
+import models.common.Batch;
+import models.common.Component;
+import models.common.Study;
+
+/**
+ * Tests the StudyRunCache and its Hibernate event listener: the versions of a
+ * study, batch or component must change once a transaction that changed them
+ * is completed.
+ *
+ * @author Kristian Lange
+ */
+public class StudyRunCacheTest extends AbstractTest {
+
+	private StudyRunCache studyRunCache;
+
+	@Override
+	public void before() throws Exception {
+		studyRunCache = application.injector().instanceOf(StudyRunCache.class);
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Test
+	public void checkFind() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+		Component component = study.getFirstComponent();
+		Batch batch = study.getDefaultBatch();
+
+		entityManager.getTransaction().begin();
+		assertThat(studyRunCache.findStudy(study.getId()).getId())
+				.isEqualTo(study.getId());
+		assertThat(studyRunCache.findComponent(component.getId()).getId())
+				.isEqualTo(component.getId());
+		assertThat(studyRunCache.findBatch(batch.getId()).getId())
+				.isEqualTo(batch.getId());
+		assertThat(studyRunCache.findStudy(-1l)).isNull();
+		entityManager.getTransaction().commit();
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+	@Test
+	public void checkStudyUpdateInvalidates() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+		long studyVersion = studyRunCache.getStudyVersion(study.getId());
+		long epoch = studyRunCache.getEpoch();
+
+		entityManager.getTransaction().begin();
+		study.setTitle("Changed title");
+		studyDao.update(study);
+		entityManager.flush();
+		// Not before the transaction is completed
+		assertThat(studyRunCache.getStudyVersion(study.getId()))
+				.isEqualTo(studyVersion);
+		entityManager.getTransaction().commit();
+
+		assertThat(studyRunCache.getStudyVersion(study.getId()))
+				.isGreaterThan(studyVersion);
+		assertThat(studyRunCache.getEpoch()).isGreaterThan(epoch);
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+	@Test
+	public void checkComponentUpdateInvalidatesStudy() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+		Component component = study.getFirstComponent();
+		long studyVersion = studyRunCache.getStudyVersion(study.getId());
+		long componentVersion = studyRunCache
+				.getComponentVersion(component.getId());
+
+		entityManager.getTransaction().begin();
+		component.setTitle("Changed title");
+		componentDao.update(component);
+		entityManager.getTransaction().commit();
+
+		assertThat(studyRunCache.getComponentVersion(component.getId()))
+				.isGreaterThan(componentVersion);
+		// The study's component list changed too
+		assertThat(studyRunCache.getStudyVersion(study.getId()))
+				.isGreaterThan(studyVersion);
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+	@Test
+	public void checkChangePositionInvalidatesStudy() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+		Component component = study.getFirstComponent();
+		long studyVersion = studyRunCache.getStudyVersion(study.getId());
+
+		// A bulk update that doesn't go through the persistence context
+		entityManager.getTransaction().begin();
+		componentDao.changePosition(component, 2);
+		entityManager.getTransaction().commit();
+
+		assertThat(studyRunCache.getStudyVersion(study.getId()))
+				.isGreaterThan(studyVersion);
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+	@Test
+	public void checkRollbackInvalidatesToo() throws IOException {
+		Study study = importExampleStudy();
+		addStudy(study);
+		long studyVersion = studyRunCache.getStudyVersion(study.getId());
+
+		entityManager.getTransaction().begin();
+		studyRunCache.invalidateStudy(study.getId());
+		entityManager.getTransaction().rollback();
+
+		assertThat(studyRunCache.getStudyVersion(study.getId()))
+				.isGreaterThan(studyVersion);
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+}
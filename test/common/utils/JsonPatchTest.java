@@ -0,0 +1,121 @@
+package common.utils;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.fest.assertions.Fail;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import general.AbstractTest;
+import utils.common.JsonPatch;
+import utils.common.JsonPatch.JsonPatchException;
+import utils.common.JsonUtils;
+
+/**
+ * Tests JsonPatch
+ *
+ * @author Kristian Lange
+ */
+public class JsonPatchTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private JsonNode json(String json) throws IOException {
+		return JsonUtils.OBJECTMAPPER.readTree(json.replace('\'', '"'));
+	}
+
+	private JsonNode patch(String patch, String document)
+			throws IOException, JsonPatchException {
+		return JsonPatch.apply(json(patch), json(document));
+	}
+
+	@Test
+	public void checkAdd() throws Exception {
+		assertThat(patch("[{'op':'add','path':'/b','value':2}]", "{'a':1}"))
+				.isEqualTo(json("{'a':1,'b':2}"));
+		assertThat(patch("[{'op':'add','path':'/a/1','value':9}]",
+				"{'a':[1,2]}")).isEqualTo(json("{'a':[1,9,2]}"));
+		assertThat(patch("[{'op':'add','path':'/a/-','value':3}]",
+				"{'a':[1,2]}")).isEqualTo(json("{'a':[1,2,3]}"));
+		assertThat(patch("[{'op':'add','path':'','value':[1]}]", "{'a':1}"))
+				.isEqualTo(json("[1]"));
+	}
+
+	@Test
+	public void checkRemoveAndReplace() throws Exception {
+		assertThat(patch("[{'op':'remove','path':'/a/0'}]", "{'a':[1,2]}"))
+				.isEqualTo(json("{'a':[2]}"));
+		assertThat(patch("[{'op':'replace','path':'/a','value':{'b':1}}]",
+				"{'a':1}")).isEqualTo(json("{'a':{'b':1}}"));
+	}
+
+	@Test
+	public void checkMoveAndCopy() throws Exception {
+		assertThat(patch("[{'op':'move','from':'/a','path':'/b/c'}]",
+				"{'a':1,'b':{}}")).isEqualTo(json("{'b':{'c':1}}"));
+		assertThat(patch("[{'op':'copy','from':'/a','path':'/b'}]",
+				"{'a':[1]}")).isEqualTo(json("{'a':[1],'b':[1]}"));
+	}
+
+	@Test
+	public void checkEscapedPointer() throws Exception {
+		assertThat(patch("[{'op':'add','path':'/a~1b~0c','value':1}]", "{}"))
+				.isEqualTo(json("{'a/b~c':1}"));
+	}
+
+	@Test
+	public void checkTest() throws Exception {
+		assertThat(patch("[{'op':'test','path':'/a','value':[1]}]",
+				"{'a':[1]}")).isEqualTo(json("{'a':[1]}"));
+		try {
+			patch("[{'op':'test','path':'/a','value':2}]", "{'a':1}");
+			Fail.fail();
+		} catch (JsonPatchException e) {
+			assertThat(e.getMessage()).isEqualTo("Test failed at /a");
+		}
+	}
+
+	@Test
+	public void checkFailedPatchLeavesDocumentUnchanged() throws Exception {
+		JsonNode document = json("{'a':1}");
+		try {
+			JsonPatch.apply(json("[{'op':'add','path':'/b','value':2},"
+					+ "{'op':'remove','path':'/c'}]"), document);
+			Fail.fail();
+		} catch (JsonPatchException e) {
+			// Expected
+		}
+		assertThat(document).isEqualTo(json("{'a':1}"));
+	}
+
+	@Test
+	public void checkInvalidPatches() throws Exception {
+		String[] invalidPatches = { "{}", "[{'op':'foo','path':'/a'}]",
+				"[{'op':'add','path':'/a'}]", "[{'op':'add','value':1}]",
+				"[{'op':'add','path':'a','value':1}]",
+				"[{'op':'add','path':'/x/y','value':1}]",
+				"[{'op':'add','path':'/l/5','value':1}]",
+				"[{'op':'remove','path':'/l/01'}]",
+				"[{'op':'move','from':'/l','path':'/l/0'}]" };
+		for (String invalidPatch : invalidPatches) {
+			try {
+				patch(invalidPatch, "{'a':1,'l':[1,2]}");
+				Fail.fail(invalidPatch);
+			} catch (JsonPatchException e) {
+				// Expected
+			}
+		}
+	}
+
+}
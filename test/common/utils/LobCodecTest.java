@@ -0,0 +1,126 @@
+package common.utils;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import utils.common.LobCodec;
+
+/**
+ * Tests LobCodec
+ *
+ * @author Kristian Lange
+ */
+public class LobCodecTest extends AbstractTest {
+
+	// Compression is off by default
+	private final LobCodec lobCodec = new LobCodec(true);
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private String repetitiveJson() {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 200; i++) {
+			json.append("{\"x\":").append(i % 7).append(",\"y\":\"äöü\"},");
+		}
+		return json.append("{}]").toString();
+	}
+
+	@Test
+	public void checkEncodeDecode() {
+		String json = repetitiveJson();
+		String encoded = lobCodec.encode(json);
+		assertThat(LobCodec.isCompressed(encoded)).isTrue();
+		assertThat(encoded.length()).isLessThan(json.length());
+		assertThat(LobCodec.decode(encoded)).isEqualTo(json);
+
+		// An encoded value given as plain value comes back unchanged
+		assertThat(LobCodec.decode(lobCodec.encode(encoded)))
+				.isEqualTo(encoded);
+		assertThat(lobCodec.getCompressedCount()).isEqualTo(1);
+		assertThat(lobCodec.getBytesAfterCompression())
+				.isLessThan(lobCodec.getBytesBeforeCompression());
+	}
+
+	@Test
+	public void checkForgedHeaderStaysPlain() {
+		String forged = LobCodec.DEFLATE_HEADER + "not base64 at all";
+		String encoded = lobCodec.encode(forged);
+		assertThat(encoded).isEqualTo(LobCodec.PLAIN_HEADER + forged);
+		assertThat(LobCodec.decode(encoded)).isEqualTo(forged);
+
+		String forgedPlain = LobCodec.PLAIN_HEADER + "text";
+		assertThat(LobCodec.decode(lobCodec.encode(forgedPlain)))
+				.isEqualTo(forgedPlain);
+
+		// Also without compression
+		LobCodec plainCodec = new LobCodec(false);
+		assertThat(LobCodec.decode(plainCodec.encode(forged)))
+				.isEqualTo(forged);
+		assertThat(plainCodec.encode(repetitiveJson()))
+				.isEqualTo(repetitiveJson());
+		assertThat(plainCodec.getCompressedCount()).isEqualTo(0);
+	}
+
+	private String read(Reader reader) throws IOException {
+		StringBuilder value = new StringBuilder();
+		char[] chars = new char[100];
+		int length;
+		while ((length = reader.read(chars)) != -1) {
+			value.append(chars, 0, length);
+		}
+		return value.toString();
+	}
+
+	@Test
+	public void checkEncodeReader() throws IOException {
+		// Streamed data are never compressed
+		String json = repetitiveJson();
+		assertThat(read(LobCodec.encode(new StringReader(json))))
+				.isEqualTo(json);
+		assertThat(read(LobCodec.encode(new StringReader("")))).isEmpty();
+
+		// But escaped like Strings
+		String forged = LobCodec.DEFLATE_HEADER + "not base64 at all";
+		String encoded = read(LobCodec.encode(new StringReader(forged)));
+		assertThat(encoded).isEqualTo(LobCodec.PLAIN_HEADER + forged);
+		assertThat(LobCodec.decode(encoded)).isEqualTo(forged);
+	}
+
+	@Test
+	public void checkShortValuesStayPlain() {
+		assertThat(lobCodec.encode("{\"a\":1}")).isEqualTo("{\"a\":1}");
+		assertThat(lobCodec.encode(null)).isNull();
+	}
+
+	@Test
+	public void checkInjectedCodecIsConfigured() {
+		LobCodec injected = application.injector().instanceOf(LobCodec.class);
+		assertThat(injected.isCompressionEnabled())
+				.isEqualTo(common.isLobCompressionEnabled());
+		assertThat(application.injector().instanceOf(LobCodec.class))
+				.isSameAs(injected);
+	}
+
+	@Test
+	public void checkPlainValuesAreReadable() {
+		// Rows written before compression existed
+		assertThat(LobCodec.decode("That's a test result data."))
+				.isEqualTo("That's a test result data.");
+		assertThat(LobCodec.decode(null)).isNull();
+	}
+
+}
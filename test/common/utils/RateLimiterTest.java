@@ -0,0 +1,61 @@
+package common.utils;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import utils.common.RateLimiter;
+
+/**
+ * Tests RateLimiter
+ *
+ * @author Kristian Lange
+ */
+public class RateLimiterTest extends AbstractTest {
+
+	private long now = 0;
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private int acquireAll(RateLimiter rateLimiter) {
+		int acquired = 0;
+		while (rateLimiter.tryAcquire()) {
+			acquired++;
+		}
+		return acquired;
+	}
+
+	@Test
+	public void checkBurstAndRefill() {
+		RateLimiter rateLimiter = new RateLimiter(10, () -> now);
+		assertThat(acquireAll(rateLimiter)).isEqualTo(10);
+		assertThat(rateLimiter.nanosUntilNextPermit()).isEqualTo(100000000l);
+
+		now += 100000000l;
+		assertThat(rateLimiter.nanosUntilNextPermit()).isEqualTo(0);
+		assertThat(acquireAll(rateLimiter)).isEqualTo(1);
+
+		// Never more than one second worth of permits
+		now += 10000000000l;
+		assertThat(acquireAll(rateLimiter)).isEqualTo(10);
+	}
+
+	@Test
+	public void checkUnlimited() {
+		RateLimiter rateLimiter = new RateLimiter(0, () -> now);
+		for (int i = 0; i < 1000; i++) {
+			assertThat(rateLimiter.tryAcquire()).isTrue();
+		}
+		assertThat(rateLimiter.nanosUntilNextPermit()).isEqualTo(0);
+	}
+
+}
@@ -2,26 +2,40 @@ package publix.controllers;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static play.mvc.Http.Status.NOT_FOUND;
+import static play.mvc.Http.Status.NOT_MODIFIED;
 import static play.mvc.Http.Status.OK;
+import static play.mvc.Http.Status.PARTIAL_CONTENT;
+import static play.mvc.Http.Status.REQUESTED_RANGE_NOT_SATISFIABLE;
+import static play.test.Helpers.contentAsBytes;
 import static play.test.Helpers.contentAsString;
 import static play.test.Helpers.route;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.fest.assertions.Fail;
 import org.junit.Test;
 
+import controllers.publix.Publix;
 import controllers.publix.StudyAssets;
 import exceptions.publix.NotFoundPublixException;
 import general.AbstractTest;
 import general.common.MessagesStrings;
+import models.common.Component;
 import models.common.Study;
 import play.mvc.Call;
+import play.mvc.Http;
 import play.mvc.Http.RequestBuilder;
 import play.mvc.Result;
 import play.test.Helpers;
 import services.publix.HttpHelpers;
+import services.publix.StudyAssetsFileCache;
+import utils.common.IOUtils;
 
 /**
  * Testing controller.publix.StudyAssets
@@ -73,6 +87,165 @@ public class StudyAssetsTest extends AbstractTest {
 		removeStudy(studyClone);
 	}
 
+	/**
+	 * Writes a compressible JavaScript file into the study assets of the
+	 * example study and returns it
+	 */
+	private File writeAssetsFile(String fileName) throws IOException {
+		StringBuilder js = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			js.append("console.log(\"line ").append(i).append("\");\n");
+		}
+		File file = new File(ioUtils.generateStudyAssetsPath(
+				studyExample.getDirName()), fileName);
+		FileUtils.writeStringToFile(file, js.toString(), "UTF-8");
+		return file;
+	}
+
+	private RequestBuilder assetsRequest(String fileName) {
+		Call call = controllers.publix.routes.StudyAssets
+				.versioned(studyExample.getDirName() + "/" + fileName);
+		return new RequestBuilder().method(Helpers.GET).uri(call.url())
+				.session(Publix.STUDY_ASSETS, studyExample.getDirName());
+	}
+
+	@Test
+	public void testAtNotModified() throws IOException {
+		writeAssetsFile("test.js");
+		Result result = route(assetsRequest("test.js"));
+		assertThat(result.status()).isEqualTo(OK);
+		String eTag = result.headers().get(Http.HeaderNames.ETAG);
+		String lastModified = result.headers()
+				.get(Http.HeaderNames.LAST_MODIFIED);
+		assertThat(eTag).isNotNull();
+
+		// Same ETag
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.IF_NONE_MATCH, eTag));
+		assertThat(result.status()).isEqualTo(NOT_MODIFIED);
+		assertThat(contentAsBytes(result)).isEmpty();
+
+		// Different ETag
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.IF_NONE_MATCH, "\"other\""));
+		assertThat(result.status()).isEqualTo(OK);
+
+		// Not modified since
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.IF_MODIFIED_SINCE, lastModified));
+		assertThat(result.status()).isEqualTo(NOT_MODIFIED);
+
+		// A changed file gets a new ETag
+		File file = writeAssetsFile("test.js");
+		file.setLastModified(file.lastModified() + 10000);
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.IF_NONE_MATCH, eTag));
+		assertThat(result.status()).isEqualTo(OK);
+		assertThat(result.headers().get(Http.HeaderNames.ETAG))
+				.isNotEqualTo(eTag);
+	}
+
+	@Test
+	public void testAtRange() throws IOException {
+		File file = writeAssetsFile("test.js");
+		byte[] content = FileUtils.readFileToByteArray(file);
+		Result result = route(assetsRequest("test.js"));
+		String eTag = result.headers().get(Http.HeaderNames.ETAG);
+
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.RANGE, "bytes=10-19"));
+		assertThat(result.status()).isEqualTo(PARTIAL_CONTENT);
+		assertThat(result.headers().get(Http.HeaderNames.CONTENT_RANGE))
+				.isEqualTo("bytes 10-19/" + content.length);
+		assertThat(contentAsBytes(result))
+				.isEqualTo(Arrays.copyOfRange(content, 10, 20));
+
+		// If-Range with the current ETag: the range
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.RANGE, "bytes=10-19")
+				.header(Http.HeaderNames.IF_RANGE, eTag));
+		assertThat(result.status()).isEqualTo(PARTIAL_CONTENT);
+
+		// If-Range with an outdated ETag: the whole file
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.RANGE, "bytes=10-19")
+				.header(Http.HeaderNames.IF_RANGE, "\"outdated\""));
+		assertThat(result.status()).isEqualTo(OK);
+		assertThat(contentAsBytes(result)).isEqualTo(content);
+
+		// Outside of the file
+		result = route(assetsRequest("test.js").header(
+				Http.HeaderNames.RANGE, "bytes=" + content.length + "-"));
+		assertThat(result.status()).isEqualTo(REQUESTED_RANGE_NOT_SATISFIABLE);
+	}
+
+	@Test
+	public void testAtPrecompressed() throws IOException {
+		File file = writeAssetsFile("test.js");
+		File brotliFile = new File(file.getPath() + ".br");
+		FileUtils.writeStringToFile(brotliFile, "not really brotli", "UTF-8");
+		brotliFile.setLastModified(file.lastModified() + 10000);
+
+		Result result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.ACCEPT_ENCODING, "gzip, br"));
+		assertThat(result.status()).isEqualTo(OK);
+		assertThat(result.headers().get(Http.HeaderNames.CONTENT_ENCODING))
+				.isEqualTo("br");
+		assertThat(result.headers().get(Http.HeaderNames.ETAG))
+				.endsWith("-br\"");
+		assertThat(contentAsString(result)).isEqualTo("not really brotli");
+
+		// Not if the client doesn't accept it
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.ACCEPT_ENCODING, "br;q=0"));
+		assertThat(result.headers().get(Http.HeaderNames.CONTENT_ENCODING))
+				.isNull();
+	}
+
+	@Test
+	public void testAtGzip() throws IOException, InterruptedException {
+		File file = writeAssetsFile("test.js");
+		byte[] content = FileUtils.readFileToByteArray(file);
+
+		// The first request queues the compression and gets the plain file
+		Result result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.ACCEPT_ENCODING, "gzip"));
+		assertThat(result.status()).isEqualTo(OK);
+		File compressedDir = new File(ioUtils.generateStudyAssetsPath(
+				IOUtils.COMPRESSED_DIR_NAME), studyExample.getDirName());
+		File cachedGzipFile = new File(compressedDir, "test.js."
+				+ file.length() + "-" + file.lastModified() + ".gz");
+		for (int i = 0; i < 50 && !cachedGzipFile.isFile(); i++) {
+			Thread.sleep(100);
+		}
+		assertThat(cachedGzipFile.isFile()).isTrue();
+
+		// Now it gets the gzip variant
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.ACCEPT_ENCODING, "gzip"));
+		assertThat(result.headers().get(Http.HeaderNames.CONTENT_ENCODING))
+				.isEqualTo("gzip");
+		String eTag = result.headers().get(Http.HeaderNames.ETAG);
+		assertThat(eTag).endsWith("-gzip\"");
+		try (InputStream in = new GZIPInputStream(
+				new ByteArrayInputStream(contentAsBytes(result)))) {
+			assertThat(org.apache.commons.io.IOUtils.toByteArray(in)).isEqualTo(content);
+		}
+
+		// The variant's ETag is valid too
+		result = route(assetsRequest("test.js")
+				.header(Http.HeaderNames.ACCEPT_ENCODING, "gzip")
+				.header(Http.HeaderNames.IF_NONE_MATCH, eTag));
+		assertThat(result.status()).isEqualTo(NOT_MODIFIED);
+
+		// Renaming the study assets removes the cached files
+		ioUtils.renameStudyAssetsDir(studyExample.getDirName(),
+				studyExample.getDirName() + "_renamed");
+		assertThat(compressedDir.exists()).isFalse();
+		ioUtils.renameStudyAssetsDir(studyExample.getDirName() + "_renamed",
+				studyExample.getDirName());
+	}
+
 	@Test
 	public void testAtNotFound() {
 		Call call = controllers.publix.routes.StudyAssets
@@ -148,15 +321,12 @@ public class StudyAssetsTest extends AbstractTest {
 	}
 
 	@Test
-	public void testForwardTo() throws IOException, NotFoundPublixException {
+	public void testRetrieveComponentHtmlFile()
+			throws IOException, NotFoundPublixException {
 		Study studyClone = cloneAndPersistStudy(studyExample);
 
-		String urlPath = StudyAssets.getComponentUrlPath(
+		Result result = studyAssets.retrieveComponentHtmlFile(
 				studyClone.getDirName(), studyClone.getFirstComponent());
-		Result result = studyAssets
-				.forwardTo("http://localhost:"
-						+ play.api.test.Helpers.testServerPort() + urlPath)
-				.get(10000);
 
 		assertThat(result.status()).isEqualTo(OK);
 		assertThat(result.charset()).isEqualTo("utf-8");
@@ -164,24 +334,59 @@ public class StudyAssetsTest extends AbstractTest {
 		// And check a random line of the JS code
 		assertThat(contentAsString(result))
 				.contains("jatos.onLoad(function() {");
+		byte[] html = contentAsBytes(result);
+
+		// Second time it comes from the cache
+		result = studyAssets.retrieveComponentHtmlFile(studyClone.getDirName(),
+				studyClone.getFirstComponent());
+		assertThat(contentAsBytes(result)).isEqualTo(html);
 
 		// Clean up
 		removeStudy(studyClone);
 	}
 
 	@Test
-	public void testForwardToNotFound()
-			throws IOException, NotFoundPublixException {
-		Study studyClone = cloneAndPersistStudy(studyExample);
+	public void testStudyAssetsFileCache() throws IOException {
+		StudyAssetsFileCache studyAssetsFileCache = application.injector()
+				.instanceOf(StudyAssetsFileCache.class);
+		File file = writeAssetsFile("cached.js");
+		long lastModified = file.lastModified();
+
+		// Second read returns the cached bytes
+		byte[] content = studyAssetsFileCache.read(file);
+		assertThat(content).isEqualTo(FileUtils.readFileToByteArray(file));
+		assertThat(studyAssetsFileCache.read(file)).isSameAs(content);
+
+		// Same size but a different mtime: reloaded
+		byte[] changed = content.clone();
+		changed[0] = (byte) '/';
+		FileUtils.writeByteArrayToFile(file, changed);
+		file.setLastModified(lastModified + 10000);
+		byte[] reloaded = studyAssetsFileCache.read(file);
+		assertThat(reloaded).isNotSameAs(content).isEqualTo(changed);
+		assertThat(studyAssetsFileCache.read(file)).isSameAs(reloaded);
+
+		// Same mtime but a different size: reloaded
+		byte[] longer = Arrays.copyOf(changed, changed.length + 1);
+		longer[changed.length] = (byte) '\n';
+		FileUtils.writeByteArrayToFile(file, longer);
+		file.setLastModified(lastModified + 10000);
+		assertThat(studyAssetsFileCache.read(file)).isEqualTo(longer);
+	}
 
-		Result result = studyAssets.forwardTo(
-				"http://localhost:" + play.api.test.Helpers.testServerPort()
-						+ "/someNotExistingPath")
-				.get(10000);
+	@Test
+	public void testRetrieveComponentHtmlFileNotFound() throws IOException {
+		Study studyClone = cloneAndPersistStudy(studyExample);
+		Component component = studyClone.getFirstComponent();
+		component.setHtmlFilePath("someNotExistingPath.html");
 
-		assertThat(result.status()).isEqualTo(OK);
-		assertThat(contentAsString(result)).contains(
-				"Requested page &quot;/someNotExistingPath&quot; couldn&#x27;t be found.");
+		try {
+			studyAssets.retrieveComponentHtmlFile(studyClone.getDirName(),
+					component);
+			Fail.fail();
+		} catch (NotFoundPublixException e) {
+			assertThat(e.getMessage()).contains("someNotExistingPath.html");
+		}
 
 		// Clean up
 		removeStudy(studyClone);
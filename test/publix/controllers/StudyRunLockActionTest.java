@@ -0,0 +1,175 @@
+package publix.controllers;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static play.test.Helpers.contentAsString;
+import static play.test.Helpers.contentType;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.Test;
+
+import controllers.publix.Publix;
+import controllers.publix.StudyRunLockAction;
+import general.AbstractTest;
+import play.api.mvc.RequestHeader;
+import play.libs.F.Promise;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import services.publix.PublixErrorMessages;
+import services.publix.StudyRunLocks;
+
+/**
+ * Tests StudyRunLockAction: a request of a study run waits for the running
+ * one and is rejected with a 503 if it waits too long.
+ *
+ * @author Kristian Lange
+ */
+public class StudyRunLockActionTest extends AbstractTest {
+
+	private static final String WORKER_ID = "1";
+	private static final String STUDY_ID = "2";
+
+	private StudyRunLocks studyRunLocks;
+	private StudyRunLockAction studyRunLockAction;
+	private Action<?> delegate;
+
+	@Override
+	public void before() throws Exception {
+		studyRunLocks = application.injector().instanceOf(StudyRunLocks.class);
+		studyRunLockAction = application.injector()
+				.instanceOf(StudyRunLockAction.class);
+		delegate = mock(Action.class);
+		when(delegate.call(any(Http.Context.class)))
+				.thenReturn(Promise.<Result> pure(Results.ok()));
+		studyRunLockAction.delegate = delegate;
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private Http.Context mockContext(boolean ajax) {
+		Map<String, String> sessionData = new HashMap<>();
+		sessionData.put(Publix.WORKER_ID, WORKER_ID);
+		Map<String, String> flashData = Collections.emptyMap();
+		Map<String, Object> argData = Collections.emptyMap();
+		Map<String, String[]> headers = new HashMap<>();
+		if (ajax) {
+			headers.put("X-Requested-With",
+					new String[] { "XMLHttpRequest" });
+		}
+		Http.Request request = mock(Http.Request.class);
+		when(request.path()).thenReturn(
+				"/publix/" + STUDY_ID + "/3/submitResultData");
+		when(request.headers()).thenReturn(headers);
+		Http.Context context = new Http.Context(1l,
+				mock(RequestHeader.class), request, sessionData, flashData,
+				argData);
+		Http.Context.current.set(context);
+		return context;
+	}
+
+	/**
+	 * Holds the lock of the study run in a different thread until the
+	 * returned latch is counted down
+	 */
+	private CountDownLatch holdLockInOtherThread()
+			throws InterruptedException {
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		new Thread(() -> {
+			try {
+				Lock lock = studyRunLocks.lock(WORKER_ID, STUDY_ID);
+				if (lock == null) {
+					return;
+				}
+				locked.countDown();
+				release.await();
+				lock.unlock();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}).start();
+		assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+		return release;
+	}
+
+	@Test
+	public void checkFreeLock() throws Throwable {
+		Http.Context context = mockContext(true);
+		Result result = studyRunLockAction.call(context).get(5000);
+
+		assertThat(result.status()).isEqualTo(Http.Status.OK);
+		verify(delegate).call(context);
+
+		// The lock was released
+		CountDownLatch release = holdLockInOtherThread();
+		release.countDown();
+	}
+
+	@Test
+	public void checkBusyLockAjax() throws Throwable {
+		CountDownLatch release = holdLockInOtherThread();
+		Http.Context context = mockContext(true);
+		Result result;
+		try {
+			result = studyRunLockAction.call(context).get(5000);
+		} finally {
+			release.countDown();
+		}
+
+		assertThat(result.status())
+				.isEqualTo(Http.Status.SERVICE_UNAVAILABLE);
+		assertThat(contentAsString(result))
+				.isEqualTo(PublixErrorMessages.STUDY_RUN_BUSY);
+		assertThat(context.response().getHeaders()
+				.get(Http.HeaderNames.RETRY_AFTER)).isEqualTo(
+						String.valueOf(StudyRunLocks.RETRY_AFTER_SECONDS));
+		verify(delegate, never()).call(any(Http.Context.class));
+	}
+
+	@Test
+	public void checkBusyLockErrorPage() throws Throwable {
+		CountDownLatch release = holdLockInOtherThread();
+		Http.Context context = mockContext(false);
+		Result result;
+		try {
+			result = studyRunLockAction.call(context).get(5000);
+		} finally {
+			release.countDown();
+		}
+
+		assertThat(result.status())
+				.isEqualTo(Http.Status.SERVICE_UNAVAILABLE);
+		assertThat(contentType(result)).isEqualTo("text/html");
+		assertThat(contentAsString(result))
+				.contains(PublixErrorMessages.STUDY_RUN_BUSY);
+		verify(delegate, never()).call(any(Http.Context.class));
+	}
+
+	@Test
+	public void checkOtherStudyRunIsntBlocked() throws Throwable {
+		CountDownLatch release = holdLockInOtherThread();
+		try {
+			Lock lock = studyRunLocks.lock(WORKER_ID, "other");
+			assertThat(lock).isNotNull();
+			lock.unlock();
+		} finally {
+			release.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import services.publix.ByteRange;
+
+/**
+ * Tests ByteRange
+ *
+ * @author Kristian Lange
+ */
+public class ByteRangeTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Test
+	public void checkParse() {
+		ByteRange range = ByteRange.parse("bytes=0-99", 1000);
+		assertThat(range.getStart()).isEqualTo(0);
+		assertThat(range.getEnd()).isEqualTo(99);
+		assertThat(range.getLength()).isEqualTo(100);
+		assertThat(range.toContentRange(1000)).isEqualTo("bytes 0-99/1000");
+	}
+
+	@Test
+	public void checkParseOpenEnded() {
+		ByteRange range = ByteRange.parse("bytes=900-", 1000);
+		assertThat(range.getStart()).isEqualTo(900);
+		assertThat(range.getEnd()).isEqualTo(999);
+
+		// End after the file's end
+		range = ByteRange.parse("bytes=900-5000", 1000);
+		assertThat(range.getEnd()).isEqualTo(999);
+	}
+
+	@Test
+	public void checkParseSuffix() {
+		ByteRange range = ByteRange.parse("bytes=-100", 1000);
+		assertThat(range.getStart()).isEqualTo(900);
+		assertThat(range.getEnd()).isEqualTo(999);
+
+		// Suffix longer than the file
+		range = ByteRange.parse("bytes=-5000", 1000);
+		assertThat(range.getStart()).isEqualTo(0);
+		assertThat(range.getEnd()).isEqualTo(999);
+	}
+
+	@Test
+	public void checkParseUnsatisfiable() {
+		assertThat(ByteRange.parse("bytes=1000-", 1000))
+				.isEqualTo(ByteRange.UNSATISFIABLE);
+		assertThat(ByteRange.parse("bytes=-0", 1000))
+				.isEqualTo(ByteRange.UNSATISFIABLE);
+		assertThat(ByteRange.parse("bytes=0-", 0))
+				.isEqualTo(ByteRange.UNSATISFIABLE);
+		assertThat(ByteRange.UNSATISFIABLE.toContentRange(1000))
+				.isEqualTo("bytes */1000");
+	}
+
+	@Test
+	public void checkParseIgnored() {
+		assertThat(ByteRange.parse(null, 1000)).isNull();
+		assertThat(ByteRange.parse("items=0-1", 1000)).isNull();
+		assertThat(ByteRange.parse("bytes=0-1,5-6", 1000)).isNull();
+		assertThat(ByteRange.parse("bytes=10-5", 1000)).isNull();
+		assertThat(ByteRange.parse("bytes=a-b", 1000)).isNull();
+	}
+
+	@Test
+	public void checkLimit() {
+		ByteRange range = ByteRange.parse("bytes=100-", 1000).limit(10);
+		assertThat(range.getStart()).isEqualTo(100);
+		assertThat(range.getEnd()).isEqualTo(109);
+
+		// Shorter ranges stay the same
+		range = ByteRange.parse("bytes=100-104", 1000).limit(10);
+		assertThat(range.getEnd()).isEqualTo(104);
+	}
+
+}
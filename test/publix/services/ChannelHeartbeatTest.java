@@ -0,0 +1,60 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import services.publix.group.akka.actors.ChannelHeartbeat;
+
+/**
+ * Tests the ChannelHeartbeat of the GroupChannels
+ *
+ * @author Kristian Lange
+ */
+public class ChannelHeartbeatTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Test
+	public void silentAfterTimeout() {
+		ChannelHeartbeat heartbeat = new ChannelHeartbeat(100, 0);
+		assertThat(heartbeat.isSilent(100)).isFalse();
+		assertThat(heartbeat.isSilent(101)).isTrue();
+
+		// Any message from the client counts
+		heartbeat.received(50);
+		assertThat(heartbeat.isSilent(101)).isFalse();
+		assertThat(heartbeat.isSilent(151)).isTrue();
+	}
+
+	@Test
+	public void roundTripTime() {
+		ChannelHeartbeat heartbeat = new ChannelHeartbeat(100, 0);
+		long ping = heartbeat.ping(10);
+		assertThat(heartbeat.pong(ping, 25)).isEqualTo(15);
+
+		// Second pong of the same ping doesn't count
+		assertThat(heartbeat.pong(ping, 30)).isEqualTo(-1);
+	}
+
+	@Test
+	public void onlyLastPingCounts() {
+		ChannelHeartbeat heartbeat = new ChannelHeartbeat(100, 0);
+		long firstPing = heartbeat.ping(10);
+		long secondPing = heartbeat.ping(20);
+		assertThat(secondPing).isNotEqualTo(firstPing);
+
+		assertThat(heartbeat.pong(firstPing, 25)).isEqualTo(-1);
+		assertThat(heartbeat.pong(secondPing, 28)).isEqualTo(8);
+	}
+
+}
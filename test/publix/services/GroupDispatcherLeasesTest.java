@@ -0,0 +1,145 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.PersistenceException;
+
+import org.junit.Test;
+
+import daos.common.GroupDispatcherLeaseDao;
+import general.AbstractTest;
+import services.publix.group.akka.GroupDispatcherLeases;
+
+/**
+ * Tests the GroupDispatcherLeases of two JATOS nodes sharing one database
+ *
+ * @author Kristian Lange
+ */
+public class GroupDispatcherLeasesTest extends AbstractTest {
+
+	private static final String NODE_A = "akka.tcp://application@127.0.0.1:2552";
+	private static final String NODE_B = "akka.tcp://application@127.0.0.1:2553";
+	private static final long LEASE_DURATION = 30000;
+
+	private final AtomicLong clock = new AtomicLong(1000000);
+	private GroupDispatcherLeases nodeA;
+	private GroupDispatcherLeases nodeB;
+	private GroupDispatcherLeaseDao leaseDao;
+
+	@Override
+	public void before() throws Exception {
+		leaseDao = application.injector()
+				.instanceOf(GroupDispatcherLeaseDao.class);
+		nodeA = new GroupDispatcherLeases(jpa, leaseDao, NODE_A,
+				LEASE_DURATION, clock::get);
+		nodeB = new GroupDispatcherLeases(jpa, leaseDao, NODE_B,
+				LEASE_DURATION, clock::get);
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Test
+	public void acquire() {
+		assertThat(nodeA.acquire(1l)).isEqualTo(NODE_A);
+		// Acquiring again keeps it
+		assertThat(nodeA.acquire(1l)).isEqualTo(NODE_A);
+		assertThat(nodeB.acquire(1l)).isEqualTo(NODE_A);
+		assertThat(nodeB.findOwner(1l)).isEqualTo(NODE_A);
+		assertThat(nodeB.findOwner(2l)).isNull();
+
+		nodeA.release(1l);
+	}
+
+	@Test
+	public void takeOverExpiredLease() {
+		nodeA.acquire(3l);
+
+		clock.addAndGet(LEASE_DURATION + 1);
+		assertThat(nodeA.findOwner(3l)).isNull();
+		assertThat(nodeB.acquire(3l)).isEqualTo(NODE_B);
+
+		// Node A lost it
+		assertThat(nodeA.renew(Arrays.asList(3l))).containsOnly(3l);
+
+		nodeB.release(3l);
+	}
+
+	@Test
+	public void renew() {
+		nodeA.acquire(4l);
+		nodeA.acquire(5l);
+
+		clock.addAndGet(LEASE_DURATION / 2);
+		assertThat(nodeA.renew(Arrays.asList(4l, 5l))).isEmpty();
+
+		// Renewed leases aren't expired after the first lease duration
+		clock.addAndGet(LEASE_DURATION / 2 + 1);
+		assertThat(nodeB.acquire(4l)).isEqualTo(NODE_A);
+		assertThat(nodeB.acquire(5l)).isEqualTo(NODE_A);
+
+		nodeA.release(4l);
+		nodeA.release(5l);
+	}
+
+	@Test
+	public void release() {
+		nodeA.acquire(6l);
+
+		// Only the owner can release it
+		nodeB.release(6l);
+		assertThat(nodeB.findOwner(6l)).isEqualTo(NODE_A);
+
+		nodeA.release(6l);
+		assertThat(nodeB.findOwner(6l)).isNull();
+		assertThat(nodeB.acquire(6l)).isEqualTo(NODE_B);
+
+		nodeB.release(6l);
+	}
+
+	@Test
+	public void isHeldUntilExpired() {
+		nodeA.acquire(9l);
+		assertThat(nodeA.isHeld(9l)).isTrue();
+		assertThat(nodeB.isHeld(9l)).isFalse();
+
+		// Expired by the node's own clock - without asking the database
+		clock.addAndGet(LEASE_DURATION);
+		assertThat(nodeA.isHeld(9l)).isFalse();
+
+		nodeA.release(9l);
+	}
+
+	@Test
+	public void databaseDown() {
+		GroupDispatcherLeaseDao failingDao = spy(leaseDao);
+		GroupDispatcherLeases node = new GroupDispatcherLeases(jpa,
+				failingDao, NODE_A, LEASE_DURATION, clock::get);
+		assertThat(node.acquire(7l)).isEqualTo(NODE_A);
+
+		doThrow(new PersistenceException("down")).when(failingDao)
+				.takeOver(any(Long.class), any(String.class), any(), any());
+		doThrow(new PersistenceException("down")).when(failingDao)
+				.renew(any(), any(String.class), any());
+
+		// Nobody gets a lease without the database
+		assertThat(node.acquire(8l)).isNull();
+
+		// The lease is kept until it expires by the node's own clock
+		clock.addAndGet(LEASE_DURATION / 2);
+		assertThat(node.renew(Arrays.asList(7l))).isEmpty();
+		clock.addAndGet(LEASE_DURATION / 2);
+		assertThat(node.renew(Arrays.asList(7l))).containsOnly(7l);
+
+		nodeA.release(7l);
+	}
+
+}
@@ -0,0 +1,162 @@
+package publix.services;
+
+import static akka.pattern.Patterns.ask;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.util.Timeout;
+import general.common.Metrics;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import services.publix.group.akka.GroupDispatcherRegistry;
+
+/**
+ * Compares the throughput of looking up (and creating) GroupDispatchers in the
+ * GroupDispatcherRegistry with the former registry: a single Akka Actor with a
+ * HashMap that was asked and waited for. The GroupDispatchers are replaced by
+ * actors that do nothing.
+ *
+ * It's not a unit test. Run it with
+ * 'test:runMain publix.services.GroupDispatcherRegistryBenchmark' in the
+ * activator console.
+ *
+ * @author Kristian Lange
+ */
+public class GroupDispatcherRegistryBenchmark {
+
+	private static final int THREADS = 16;
+	private static final int GROUPS = 1000;
+	private static final int OPS_PER_THREAD = 20000;
+	private static final int WARMUP_OPS_PER_THREAD = 2000;
+
+	private static final Timeout TIMEOUT = new Timeout(
+			Duration.create(5000l, "millis"));
+
+	public static void main(String[] args) throws Exception {
+		ActorSystem system = ActorSystem.create("registry-benchmark");
+		try {
+			ActorRef singleActorRegistry = system
+					.actorOf(Props.create(SingleActorRegistry.class));
+			GroupDispatcherRegistry concurrentRegistry = new GroupDispatcherRegistry(
+					new Metrics(), groupResultId -> system
+							.actorOf(Props.create(NoOpDispatcher.class)));
+
+			Operation singleActor = groupResultId -> Await.result(
+					ask(singleActorRegistry, groupResultId, TIMEOUT),
+					TIMEOUT.duration());
+			Operation concurrent = groupResultId -> concurrentRegistry
+					.getOrCreate(groupResultId).get();
+
+			run(singleActor, WARMUP_OPS_PER_THREAD);
+			run(concurrent, WARMUP_OPS_PER_THREAD);
+			report("single actor registry", run(singleActor, OPS_PER_THREAD));
+			report("concurrent registry", run(concurrent, OPS_PER_THREAD));
+		} finally {
+			system.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the given operation OPS_PER_THREAD times in each of the THREADS
+	 * threads, each time with a random group result ID. Returns the time in
+	 * nanoseconds. A thread stops with the first failed operation (it threw
+	 * or found no GroupDispatcher) - if any thread failed the run throws, so
+	 * a broken registry can't show up as a fast one.
+	 */
+	private static long run(Operation operation, int opsPerThread)
+			throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(THREADS);
+		AtomicInteger failures = new AtomicInteger();
+		AtomicReference<Exception> firstFailure = new AtomicReference<>();
+		for (int i = 0; i < THREADS; i++) {
+			executor.execute(() -> {
+				try {
+					start.await();
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int j = 0; j < opsPerThread; j++) {
+						if (operation.getOrCreate(
+								random.nextInt(GROUPS)) == null) {
+							throw new IllegalStateException(
+									"No GroupDispatcher found");
+						}
+					}
+				} catch (Exception e) {
+					failures.incrementAndGet();
+					firstFailure.compareAndSet(null, e);
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		long time = System.nanoTime() - startTime;
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		if (failures.get() > 0) {
+			throw new IllegalStateException(failures.get() + " of " + THREADS
+					+ " threads failed", firstFailure.get());
+		}
+		return time;
+	}
+
+	private static void report(String name, long timeNanos) {
+		long ops = (long) THREADS * OPS_PER_THREAD;
+		double opsPerSecond = ops / (timeNanos / 1e9);
+		System.out.println(String.format(
+				"%-25s %,12.0f ops/s (%d threads, %d groups)", name,
+				opsPerSecond, THREADS, GROUPS));
+	}
+
+	@FunctionalInterface
+	private interface Operation {
+		Object getOrCreate(long groupResultId) throws Exception;
+	}
+
+	/**
+	 * The former registry: one actor, one mailbox, one HashMap
+	 */
+	public static class SingleActorRegistry extends UntypedActor {
+
+		private final Map<Long, ActorRef> groupDispatcherMap = new HashMap<>();
+
+		@Override
+		public void onReceive(Object msg) throws Exception {
+			Long groupResultId = (Long) msg;
+			ActorRef groupDispatcher = groupDispatcherMap.get(groupResultId);
+			if (groupDispatcher == null) {
+				groupDispatcher = getContext().system()
+						.actorOf(Props.create(NoOpDispatcher.class));
+				groupDispatcherMap.put(groupResultId, groupDispatcher);
+			}
+			sender().tell(groupDispatcher, self());
+		}
+	}
+
+	/**
+	 * Stands in for a GroupDispatcher
+	 */
+	public static class NoOpDispatcher extends UntypedActor {
+
+		@Override
+		public void onReceive(Object msg) throws Exception {
+			unhandled(msg);
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import models.common.Batch;
+import models.common.Batch.GroupMatching;
+import services.publix.group.matching.GroupIndex;
+
+/**
+ * Tests the GroupIndex and its GroupMatchingStrategies
+ *
+ * @author Kristian Lange
+ */
+public class GroupIndexTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private Batch batch(GroupMatching groupMatching, Integer maxActiveMembers,
+			Integer minStartMembers) {
+		Batch batch = new Batch();
+		batch.setId(1l);
+		batch.setGroupMatching(groupMatching);
+		batch.setMaxActiveMembers(maxActiveMembers);
+		batch.setMinStartMembers(minStartMembers);
+		return batch;
+	}
+
+	@Test
+	public void fillFirst() {
+		Batch batch = batch(GroupMatching.FILL_FIRST, 3, null);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 1, 0, null);
+		groupIndex.put(2l, 2, 0, null);
+		groupIndex.put(3l, 3, 0, null);
+
+		// Group 3 is full - group 2 has the most active members
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(2l);
+
+		groupIndex.changeMembers(2l, 1, 0);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(1l);
+
+		groupIndex.changeMembers(1l, 2, 0);
+		assertThat(groupIndex.match(batch, null, null)).isNull();
+	}
+
+	@Test
+	public void fillFirstIsDefault() {
+		Batch batch = batch(null, null, null);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 1, 0, null);
+		groupIndex.put(2l, 2, 0, null);
+
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(2l);
+	}
+
+	@Test
+	public void balanced() {
+		Batch batch = batch(GroupMatching.BALANCED, 3, null);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 2, 0, null);
+		groupIndex.put(2l, 1, 0, null);
+
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(2l);
+
+		groupIndex.changeMembers(2l, 1, 0);
+		// Same number of active members - the older group wins
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(1l);
+	}
+
+	@Test
+	public void roundRobin() {
+		Batch batch = batch(GroupMatching.ROUND_ROBIN, null, null);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 0, 0, null);
+		groupIndex.put(2l, 5, 0, null);
+		groupIndex.put(3l, 1, 0, null);
+
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(1l);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(2l);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(3l);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(1l);
+
+		groupIndex.remove(2l);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(3l);
+	}
+
+	@Test
+	public void attribute() {
+		Batch batch = batch(GroupMatching.ATTRIBUTE, 2, null);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 1, 0, "en");
+		groupIndex.put(2l, 1, 0, "de");
+		groupIndex.put(3l, 1, 0, null);
+
+		assertThat(groupIndex.match(batch, "de", null)).isEqualTo(2l);
+		assertThat(groupIndex.match(batch, "en", null)).isEqualTo(1l);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(3l);
+		assertThat(groupIndex.match(batch, "fr", null)).isNull();
+
+		groupIndex.changeMembers(2l, 1, 0);
+		assertThat(groupIndex.match(batch, "de", null)).isNull();
+	}
+
+	@Test
+	public void waitingRoom() {
+		Batch batch = batch(GroupMatching.BALANCED, 4, 3);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 3, 0, null);
+		groupIndex.put(2l, 1, 0, null);
+		groupIndex.put(3l, 2, 0, null);
+
+		// Waiting groups are filled first - the one with most members first
+		assertThat(groupIndex.waitingSize()).isEqualTo(2);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(3l);
+
+		// Group 3 starts - now group 2 is the only waiting one
+		groupIndex.changeMembers(3l, 1, 0);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(2l);
+
+		// No waiting group: the strategy picks from the started ones
+		groupIndex.remove(2l);
+		assertThat(groupIndex.waitingSize()).isEqualTo(0);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(1l);
+	}
+
+	@Test
+	public void waitingRoomCountsHistoryMembers() {
+		Batch batch = batch(GroupMatching.FILL_FIRST, null, 2);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 1, 0, null);
+
+		assertThat(groupIndex.waitingSize()).isEqualTo(1);
+		groupIndex.changeMembers(1l, 0, 1);
+		assertThat(groupIndex.waitingSize()).isEqualTo(0);
+	}
+
+	@Test
+	public void excluded() {
+		Batch batch = batch(GroupMatching.FILL_FIRST, null, null);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 1, 0, null);
+		groupIndex.put(2l, 2, 0, null);
+
+		assertThat(groupIndex.match(batch, null, 2l)).isEqualTo(1l);
+		// The excluded group is still there afterwards
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(2l);
+		assertThat(groupIndex.match(batch, null, 1l)).isEqualTo(2l);
+
+		groupIndex.remove(1l);
+		assertThat(groupIndex.match(batch, null, 2l)).isNull();
+	}
+
+	@Test
+	public void reindexWhenBatchChanges() {
+		Batch batch = batch(GroupMatching.FILL_FIRST, null, null);
+		GroupIndex groupIndex = new GroupIndex(batch);
+		groupIndex.put(1l, 1, 0, null);
+		groupIndex.put(2l, 2, 0, null);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(2l);
+
+		batch.setMaxActiveMembers(2);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(1l);
+
+		batch.setMaxActiveMembers(null);
+		batch.setGroupMatching(GroupMatching.BALANCED);
+		assertThat(groupIndex.match(batch, null, null)).isEqualTo(1l);
+
+		batch.setMaxTotalMembers(1);
+		assertThat(groupIndex.match(batch, null, null)).isNull();
+	}
+
+}
@@ -0,0 +1,115 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import models.common.Batch;
+import models.common.GroupResult;
+import models.common.GroupResult.GroupState;
+import models.common.StudyResult;
+import services.publix.group.akka.actors.GroupModel;
+
+/**
+ * Tests the snapshot of the GroupModel
+ *
+ * @author Kristian Lange
+ */
+public class GroupModelTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private GroupResult groupResult(Long epoch, Long seq, boolean stopped) {
+		GroupResult groupResult = new GroupResult();
+		groupResult.setId(1l);
+		groupResult.setBatch(new Batch());
+		groupResult.setGroupState(GroupState.STARTED);
+		groupResult.setDispatcherEpoch(epoch);
+		groupResult.setDispatcherSeq(seq);
+		groupResult.setDispatcherStopped(stopped);
+		return groupResult;
+	}
+
+	@Test
+	public void rehydrateExactSnapshot() {
+		GroupModel groupModel = new GroupModel(1l);
+		groupModel.seed(groupResult(42l, 7l, true));
+
+		assertThat(groupModel.isRehydrated()).isTrue();
+		assertThat(groupModel.getEpoch()).isEqualTo(42l);
+		assertThat(groupModel.getSequenceNumber()).isEqualTo(7l);
+		assertThat(groupModel.isSnapshotDirty()).isFalse();
+		assertThat(groupModel.nextSequenceNumber()).isEqualTo(8l);
+	}
+
+	@Test
+	public void newEpochAfterCrash() {
+		GroupModel groupModel = new GroupModel(1l);
+		long epoch = groupModel.getEpoch();
+		// The last GroupDispatcher didn't stop orderly
+		groupModel.seed(groupResult(42l, 7l, false));
+
+		assertThat(groupModel.isRehydrated()).isFalse();
+		assertThat(groupModel.getEpoch()).isEqualTo(epoch);
+		assertThat(groupModel.getSequenceNumber()).isEqualTo(0l);
+	}
+
+	@Test
+	public void newEpochAfterMembersChanged() {
+		GroupResult groupResult = groupResult(42l, 7l, true);
+		// A member joined while no GroupDispatcher was running
+		StudyResult studyResult = new StudyResult();
+		studyResult.setId(2l);
+		groupResult.addActiveMember(studyResult);
+		GroupModel groupModel = new GroupModel(1l);
+		groupModel.seed(groupResult);
+
+		assertThat(groupModel.isRehydrated()).isFalse();
+		assertThat(groupModel.getEpoch()).isNotEqualTo(42l);
+	}
+
+	@Test
+	public void startedCountsHistoryMembers() {
+		GroupResult groupResult = groupResult(null, null, false);
+		groupResult.getBatch().setMinStartMembers(2);
+		StudyResult activeMember = new StudyResult();
+		activeMember.setId(2l);
+		groupResult.addActiveMember(activeMember);
+		GroupModel groupModel = new GroupModel(1l);
+		groupModel.seed(groupResult);
+		assertThat(groupModel.isStarted()).isFalse();
+
+		// A member that finished already counts too
+		StudyResult historyMember = new StudyResult();
+		historyMember.setId(3l);
+		groupResult.addHistoryMember(historyMember);
+		groupModel.seed(groupResult);
+		assertThat(groupModel.isStarted()).isTrue();
+	}
+
+	@Test
+	public void snapshotDirty() {
+		GroupModel groupModel = new GroupModel(1l);
+		groupModel.seed(groupResult(null, null, false));
+		assertThat(groupModel.isSnapshotDirty()).isFalse();
+
+		groupModel.nextSequenceNumber();
+		assertThat(groupModel.isSnapshotDirty()).isTrue();
+		groupModel.snapshotTaken(groupModel.getSequenceNumber());
+		assertThat(groupModel.isSnapshotDirty()).isFalse();
+
+		groupModel.snapshotFailed();
+		assertThat(groupModel.isSnapshotDirty()).isTrue();
+		assertThat(groupModel.isGroupSessionDirty()).isTrue();
+	}
+
+}
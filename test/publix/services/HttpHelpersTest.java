@@ -0,0 +1,182 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.fest.assertions.Fail;
+import org.junit.Test;
+
+import controllers.publix.PublixInterceptor;
+import exceptions.publix.BadRequestPublixException;
+import exceptions.publix.PublixException;
+import exceptions.publix.UnsupportedMediaTypePublixException;
+import general.AbstractTest;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import services.publix.HttpHelpers;
+import services.publix.PublixErrorMessages;
+import services.publix.ResultDataBuffer;
+
+/**
+ * Tests HttpHelpers.readDataFromRequestBody: the raw (streamed) request body
+ * is normalized and written into a ResultDataBuffer.
+ *
+ * @author Kristian Lange
+ */
+public class HttpHelpersTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private Http.Request mockRequest(String contentType, Http.RawBuffer raw) {
+		Http.RequestBody body = mock(Http.RequestBody.class);
+		when(body.asRaw()).thenReturn(raw);
+		Http.Request request = mock(Http.Request.class);
+		when(request.body()).thenReturn(body);
+		when(request.getHeader(Http.HeaderNames.CONTENT_TYPE))
+				.thenReturn(contentType);
+		return request;
+	}
+
+	private Http.Request mockRequest(String contentType, byte[] bytes) {
+		Http.RawBuffer raw = mock(Http.RawBuffer.class);
+		when(raw.asBytes()).thenReturn(bytes);
+		return mockRequest(contentType, raw);
+	}
+
+	private Http.Request mockRequest(String contentType, String data) {
+		return mockRequest(contentType,
+				data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void checkBodyParserMaxLength() throws NoSuchMethodException {
+		BodyParser.Of bodyParser = PublixInterceptor.class
+				.getMethod("submitResultData", Long.class, Long.class)
+				.getAnnotation(BodyParser.Of.class);
+		assertThat(bodyParser.value()).isEqualTo(BodyParser.Raw.class);
+		assertThat(bodyParser.maxLength())
+				.isEqualTo(PublixInterceptor.RESULT_DATA_MAX_LENGTH);
+		assertThat(PublixInterceptor.RESULT_DATA_MAX_LENGTH)
+				.isEqualTo(64 * 1024 * 1024);
+	}
+
+	@Test
+	public void checkJsonIsNormalized() throws PublixException {
+		Http.Request request = mockRequest("application/json; charset=utf-8",
+				"{ \"a\" : [1, 2],\n  \"b\" : \"äöü\" }");
+		try (ResultDataBuffer buffer = HttpHelpers
+				.readDataFromRequestBody(request)) {
+			assertThat(buffer.isInMemory()).isTrue();
+			assertThat(buffer.asString())
+					.isEqualTo("{\"a\":[1,2],\"b\":\"äöü\"}");
+		}
+	}
+
+	@Test
+	public void checkInvalidJson() {
+		for (String json : Arrays.asList("{\"a\":", "", "{} {}")) {
+			try {
+				HttpHelpers.readDataFromRequestBody(
+						mockRequest("application/json", json));
+				Fail.fail();
+			} catch (BadRequestPublixException e) {
+				assertThat(e.getMessage()).isEqualTo(
+						PublixErrorMessages.SUBMITTED_DATA_INVALID_JSON);
+			} catch (PublixException e) {
+				Fail.fail();
+			}
+		}
+	}
+
+	@Test
+	public void checkXmlIsNormalized() throws PublixException {
+		Http.Request request = mockRequest("text/xml",
+				"<?xml version=\"1.0\"?><a><b>äöü</b></a>");
+		try (ResultDataBuffer buffer = HttpHelpers
+				.readDataFromRequestBody(request)) {
+			assertThat(buffer.asString()).contains("<a><b>äöü</b></a>");
+		}
+	}
+
+	@Test
+	public void checkTextIsConvertedToUtf8() throws PublixException {
+		Http.Request request = mockRequest("text/plain; charset=ISO-8859-1",
+				"äöü text".getBytes(StandardCharsets.ISO_8859_1));
+		try (ResultDataBuffer buffer = HttpHelpers
+				.readDataFromRequestBody(request)) {
+			assertThat(buffer.asString()).isEqualTo("äöü text");
+		}
+	}
+
+	@Test
+	public void checkUnknownMediaType() {
+		try {
+			HttpHelpers.readDataFromRequestBody(
+					mockRequest("application/octet-stream", "data"));
+			Fail.fail();
+		} catch (UnsupportedMediaTypePublixException e) {
+			assertThat(e.getMessage()).isEqualTo(
+					PublixErrorMessages.SUBMITTED_DATA_UNKNOWN_FORMAT);
+		} catch (PublixException e) {
+			Fail.fail();
+		}
+	}
+
+	/**
+	 * A large body is kept in a file by the raw body parser and must be
+	 * streamed into a file again - without being held in memory.
+	 */
+	@Test
+	public void checkLargeBodyIsStreamed()
+			throws IOException, PublixException {
+		File file = File.createTempFile("HttpHelpersTest", ".json");
+		file.deleteOnExit();
+		StringBuilder element = new StringBuilder("{\"x\" : \"");
+		for (int i = 0; i < 1000; i++) {
+			element.append('a');
+		}
+		element.append("\"}");
+		int count = 2 * ResultDataBuffer.MEMORY_THRESHOLD / 1000;
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write('[');
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				out.write(element.toString()
+						.getBytes(StandardCharsets.UTF_8));
+			}
+			out.write(']');
+		}
+		Http.RawBuffer raw = mock(Http.RawBuffer.class);
+		when(raw.asBytes()).thenReturn(null);
+		when(raw.asFile()).thenReturn(file);
+
+		try (ResultDataBuffer buffer = HttpHelpers
+				.readDataFromRequestBody(mockRequest("application/json", raw))) {
+			assertThat(buffer.isInMemory()).isFalse();
+			// Normalized: the spaces around the colon are gone
+			long elementSize = element.length() - 2;
+			assertThat(buffer.size())
+					.isEqualTo(count * elementSize + count - 1 + 2);
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,131 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import general.AbstractTest;
+import general.common.Metrics;
+import play.libs.Json;
+import services.publix.group.akka.actors.OutboundQueue;
+import services.publix.group.akka.actors.OutboundQueue.OverflowPolicy;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupActionMsg.GroupAction;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupMsg;
+
+/**
+ * Tests the OutboundQueue of the GroupChannels
+ *
+ * @author Kristian Lange
+ */
+public class OutboundQueueTest extends AbstractTest {
+
+	private Metrics metrics;
+	private LongAdder queuedTotal;
+
+	@Override
+	public void before() throws Exception {
+		metrics = new Metrics();
+		queuedTotal = new LongAdder();
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private OutboundQueue queue(OverflowPolicy overflowPolicy) {
+		return new OutboundQueue(3, overflowPolicy, metrics, queuedTotal);
+	}
+
+	private GroupMsg msg(int number) {
+		return new GroupMsg(Json.newObject().put("number", number));
+	}
+
+	private GroupMsg sessionMsg(int version) {
+		ObjectNode jsonNode = Json.newObject();
+		jsonNode.put(GroupActionMsg.ACTION, GroupAction.SESSION.name());
+		jsonNode.put(GroupActionMsg.GROUP_SESSION_VERSION, version);
+		jsonNode.set(GroupActionMsg.GROUP_SESSION_DATA, Json.newObject());
+		return new GroupActionMsg(jsonNode);
+	}
+
+	private GroupMsg sessionPatchMsg(int version) {
+		ObjectNode jsonNode = Json.newObject();
+		jsonNode.put(GroupActionMsg.ACTION, GroupAction.SESSION.name());
+		jsonNode.put(GroupActionMsg.GROUP_SESSION_VERSION, version);
+		jsonNode.set(GroupActionMsg.GROUP_SESSION_PATCH, Json.newArray());
+		return new GroupActionMsg(jsonNode);
+	}
+
+	@Test
+	public void checkDropOldest() {
+		OutboundQueue queue = queue(OverflowPolicy.DROP_OLDEST);
+		GroupMsg[] msgs = { msg(1), msg(2), msg(3), msg(4) };
+		for (GroupMsg msg : msgs) {
+			assertThat(queue.offer(msg)).isTrue();
+		}
+		assertThat(queue.size()).isEqualTo(3);
+		assertThat(queuedTotal.sum()).isEqualTo(3);
+		assertThat(metrics.getCount("groupChannel.outboundDropped"))
+				.isEqualTo(1);
+		assertThat(queue.poll()).isSameAs(msgs[1]);
+		assertThat(queue.poll()).isSameAs(msgs[2]);
+		assertThat(queue.poll()).isSameAs(msgs[3]);
+		assertThat(queue.poll()).isNull();
+		assertThat(queuedTotal.sum()).isEqualTo(0);
+	}
+
+	@Test
+	public void checkCoalesce() {
+		OutboundQueue queue = queue(OverflowPolicy.COALESCE);
+		GroupMsg msg = msg(1);
+		queue.offer(sessionMsg(1));
+		queue.offer(msg);
+		queue.offer(sessionPatchMsg(2));
+		GroupMsg newestSession = sessionMsg(3);
+		queue.offer(newestSession);
+
+		// Both older session updates are gone, the other message stays
+		assertThat(queue.size()).isEqualTo(2);
+		assertThat(metrics.getCount("groupChannel.outboundCoalesced"))
+				.isEqualTo(2);
+		assertThat(metrics.getCount("groupChannel.outboundDropped"))
+				.isEqualTo(0);
+		assertThat(queue.poll()).isSameAs(msg);
+		assertThat(queue.poll()).isSameAs(newestSession);
+	}
+
+	@Test
+	public void checkCoalesceFallsBackToDropOldest() {
+		OutboundQueue queue = queue(OverflowPolicy.COALESCE);
+		GroupMsg patch = sessionPatchMsg(1);
+		queue.offer(patch);
+		queue.offer(msg(1));
+		queue.offer(msg(2));
+		queue.offer(msg(3));
+		assertThat(queue.size()).isEqualTo(3);
+		assertThat(queue.poll()).isNotSameAs(patch);
+		assertThat(metrics.getCount("groupChannel.outboundDropped"))
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void checkDisconnect() {
+		OutboundQueue queue = queue(OverflowPolicy.DISCONNECT);
+		assertThat(queue.offer(msg(1))).isTrue();
+		assertThat(queue.offer(msg(2))).isTrue();
+		assertThat(queue.offer(msg(3))).isTrue();
+		assertThat(queue.offer(msg(4))).isFalse();
+		assertThat(queue.size()).isEqualTo(3);
+
+		queue.clear();
+		assertThat(queue.isEmpty()).isTrue();
+		assertThat(queuedTotal.sum()).isEqualTo(0);
+	}
+
+}
@@ -746,89 +746,6 @@ public abstract class PublixUtilsTest<T extends Worker> extends AbstractTest {
 		removeStudy(clone);
 	}
 
-	@Test
-	public void checkFinishedStudyAlready() throws IOException {
-		Study study = importExampleStudy();
-		addStudy(study);
-
-		entityManager.getTransaction().begin();
-		StudyResult studyResult = resultCreator.createStudyResult(study,
-				study.getDefaultBatch(), admin.getWorker());
-		// Have to set worker manually in test - don't know why
-		studyResult.setWorker(admin.getWorker());
-		entityManager.getTransaction().commit();
-
-		// FINISHED, ABORTED, FAIL must return true
-		studyResult.setStudyState(StudyState.FINISHED);
-		assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(), study))
-				.isTrue();
-		studyResult.setStudyState(StudyState.ABORTED);
-		assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(), study))
-				.isTrue();
-		studyResult.setStudyState(StudyState.FAIL);
-		assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(), study))
-				.isTrue();
-
-		// DATA_RETRIEVED, STARTED must return false
-		studyResult.setStudyState(StudyState.DATA_RETRIEVED);
-		assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(), study))
-				.isFalse();
-		studyResult.setStudyState(StudyState.STARTED);
-		assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(), study))
-				.isFalse();
-
-		// Clean-up
-		removeStudy(study);
-	}
-
-	@Test
-	public void checkFinishedStudyAlreadyWrong() throws IOException {
-		Study study = importExampleStudy();
-		addStudy(study);
-
-		entityManager.getTransaction().begin();
-		Study clone = studyService.clone(study);
-		studyService.createAndPersistStudy(admin, clone);
-		entityManager.getTransaction().commit();
-
-		entityManager.getTransaction().begin();
-		StudyResult studyResult = resultCreator.createStudyResult(clone,
-				study.getDefaultBatch(), admin.getWorker());
-		studyResult.setStudyState(StudyState.FINISHED);
-		// Have to set worker manually in test - don't know why
-		studyResult.setWorker(admin.getWorker());
-		entityManager.getTransaction().commit();
-
-		assertThat(PublixHelpers.finishedStudyAlready(admin.getWorker(), study))
-				.isFalse();
-
-		// Clean-up
-		removeStudy(study);
-		removeStudy(clone);
-	}
-
-	@Test
-	public void checkDidStudyAlready() throws IOException {
-		Study study = importExampleStudy();
-		addStudy(study);
-
-		assertThat(PublixHelpers.didStudyAlready(admin.getWorker(), study))
-				.isFalse();
-
-		entityManager.getTransaction().begin();
-		StudyResult studyResult = resultCreator.createStudyResult(study,
-				study.getDefaultBatch(), admin.getWorker());
-		// Have to set worker manually in test - don't know why
-		studyResult.setWorker(admin.getWorker());
-		entityManager.getTransaction().commit();
-
-		assertThat(PublixHelpers.didStudyAlready(admin.getWorker(), study))
-				.isTrue();
-
-		// Clean-up
-		removeStudy(study);
-	}
-
 	@Test
 	public void checkStudyDone() throws IOException {
 		Study study = importExampleStudy();
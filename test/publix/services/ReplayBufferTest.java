@@ -0,0 +1,86 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import general.AbstractTest;
+import play.libs.Json;
+import services.publix.group.akka.actors.ReplayBuffer;
+import services.publix.group.akka.messages.GroupDispatcherProtocol.GroupMsg;
+
+/**
+ * Tests the ReplayBuffer of the GroupDispatchers
+ *
+ * @author Kristian Lange
+ */
+public class ReplayBufferTest extends AbstractTest {
+
+	@Override
+	public void before() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	@Override
+	public void after() throws Exception {
+		// Nothing additional to AbstractTest
+	}
+
+	private GroupMsg msg(long seq) {
+		return new GroupMsg(Json.newObject().put("seq", seq));
+	}
+
+	@Test
+	public void checkReplay() {
+		ReplayBuffer replayBuffer = new ReplayBuffer(3);
+		GroupMsg[] msgs = { msg(1), msg(2), msg(3) };
+		for (int i = 0; i < msgs.length; i++) {
+			replayBuffer.add(i + 1, msgs[i]);
+		}
+		assertThat(replayBuffer.canReplay(0, 3)).isTrue();
+		assertThat(replayBuffer.canReplay(3, 3)).isTrue();
+		List<GroupMsg> missed = replayBuffer.getAfter(1, 7l);
+		assertThat(missed).isEqualTo(Arrays.asList(msgs[1], msgs[2]));
+		assertThat(replayBuffer.getAfter(3, 7l)).isEmpty();
+	}
+
+	@Test
+	public void checkOverwrittenMsgsCantBeReplayed() {
+		ReplayBuffer replayBuffer = new ReplayBuffer(3);
+		for (long seq = 1; seq <= 5; seq++) {
+			replayBuffer.add(seq, msg(seq));
+		}
+		assertThat(replayBuffer.size()).isEqualTo(3);
+		assertThat(replayBuffer.canReplay(1, 5)).isFalse();
+		assertThat(replayBuffer.canReplay(2, 5)).isTrue();
+		assertThat(replayBuffer.getAfter(2, 7l)).hasSize(3);
+
+		// A sequence number from the future or a different epoch
+		assertThat(replayBuffer.canReplay(6, 5)).isFalse();
+		assertThat(replayBuffer.canReplay(4, 6)).isFalse();
+	}
+
+	@Test
+	public void checkSenderGetsReceipt() {
+		ReplayBuffer replayBuffer = new ReplayBuffer(3);
+		GroupMsg msg = msg(1);
+		GroupMsg receipt = msg(1);
+		replayBuffer.add(1, msg, 7l, receipt);
+		assertThat(replayBuffer.getAfter(0, 7l))
+				.isEqualTo(Arrays.asList(receipt));
+		assertThat(replayBuffer.getAfter(0, 8l))
+				.isEqualTo(Arrays.asList(msg));
+	}
+
+	@Test
+	public void checkEmptyBuffer() {
+		ReplayBuffer replayBuffer = new ReplayBuffer(3);
+		assertThat(replayBuffer.canReplay(0, 0)).isTrue();
+		assertThat(replayBuffer.canReplay(0, 1)).isFalse();
+		assertThat(replayBuffer.getAfter(0, 7l)).isEmpty();
+	}
+
+}
@@ -0,0 +1,238 @@
+package publix.services;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import general.AbstractTest;
+import general.common.Metrics;
+import models.common.ComponentResult;
+import models.common.ComponentResult.ComponentState;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import play.db.jpa.JPA;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
+import services.publix.journal.JournalEntry;
+import services.publix.journal.ResultJournal;
+import services.publix.journal.ResultJournalApplier;
+
+/**
+ * Tests the ResultJournal: applying its entries, its recovery after a restart
+ * and the rotation of its segments
+ *
+ * @author Kristian Lange
+ */
+public class ResultJournalTest extends AbstractTest {
+
+	private File journalDir;
+
+	@Override
+	public void before() throws Exception {
+		journalDir = Files.createTempDirectory("resultJournal").toFile();
+	}
+
+	@Override
+	public void after() throws Exception {
+		FileUtils.deleteQuietly(journalDir);
+	}
+
+	private ResultJournal newJournal(long maxSegmentSize) {
+		return new ResultJournal(new Metrics(), true, journalDir.getPath(),
+				maxSegmentSize);
+	}
+
+	private File[] segmentFiles() {
+		return journalDir.listFiles();
+	}
+
+	private long journalLength() {
+		long length = 0;
+		for (File file : segmentFiles()) {
+			length += file.length();
+		}
+		return length;
+	}
+
+	/**
+	 * Applies everything that's pending with a ResultJournalApplier by stopping
+	 * it - like it happens during shutdown. This closes the journal.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void applyAll(ResultJournal resultJournal) throws Exception {
+		ApplicationLifecycle lifecycle = mock(ApplicationLifecycle.class);
+		new ResultJournalApplier(resultJournal, jpa, studyResultDao,
+				lifecycle);
+		ArgumentCaptor<Callable> stopHook = ArgumentCaptor
+				.forClass(Callable.class);
+		verify(lifecycle).addStopHook(stopHook.capture());
+		((Callable<F.Promise<Void>>) stopHook.getValue()).call();
+		// The applier's transaction unbinds the EntityManager
+		JPA.bindForSync(entityManager);
+	}
+
+	private StudyResult createStudyResult(Study study) {
+		entityManager.getTransaction().begin();
+		StudyResult studyResult = resultCreator.createStudyResult(study,
+				study.getDefaultBatch(), admin.getWorker());
+		// Have to set worker manually in test - don't know why
+		studyResult.setWorker(admin.getWorker());
+		resultCreator.createComponentResult(studyResult,
+				study.getFirstComponent());
+		entityManager.getTransaction().commit();
+		return studyResult;
+	}
+
+	private void refresh(StudyResult studyResult) {
+		entityManager.getTransaction().begin();
+		entityManager.refresh(studyResult);
+		studyResult.getComponentResultList().forEach(entityManager::refresh);
+		entityManager.getTransaction().commit();
+	}
+
+	@Test
+	public void applyPendingWithinTransaction() throws Exception {
+		Study study = importExampleStudy();
+		addStudy(study);
+		StudyResult studyResult = createStudyResult(study);
+		ComponentResult componentResult = studyResult.getComponentResultList()
+				.get(0);
+
+		ResultJournal resultJournal = newJournal(
+				ResultJournal.MAX_SEGMENT_SIZE);
+		resultJournal.append(JournalEntry
+				.studySessionData(studyResult.getId(), "{\"a\":1}"));
+		resultJournal.append(JournalEntry.resultData(studyResult.getId(),
+				componentResult.getId(), "data"));
+
+		entityManager.getTransaction().begin();
+		resultJournal.applyPending(studyResult);
+		entityManager.getTransaction().commit();
+		assertThat(resultJournal.getUnappliedCount()).isEqualTo(0l);
+
+		refresh(studyResult);
+		assertThat(studyResult.getStudySessionData()).isEqualTo("{\"a\":1}");
+		assertThat(componentResult.getData()).isEqualTo("data");
+		assertThat(componentResult.getComponentState())
+				.isEqualTo(ComponentState.RESULTDATA_POSTED);
+		resultJournal.close();
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+	@Test
+	public void doneResultsAreNotChanged() throws Exception {
+		Study study = importExampleStudy();
+		addStudy(study);
+		StudyResult studyResult = createStudyResult(study);
+		ComponentResult componentResult = studyResult.getComponentResultList()
+				.get(0);
+		StudyResult abortedStudyResult = createStudyResult(study);
+
+		entityManager.getTransaction().begin();
+		componentResult.setComponentState(ComponentState.FINISHED);
+		componentResultDao.update(componentResult);
+		abortedStudyResult.setStudyState(StudyState.ABORTED);
+		studyResultDao.update(abortedStudyResult);
+		entityManager.getTransaction().commit();
+
+		ResultJournal resultJournal = newJournal(
+				ResultJournal.MAX_SEGMENT_SIZE);
+		// Result data of a finished component are dropped
+		resultJournal.append(JournalEntry.resultData(studyResult.getId(),
+				componentResult.getId(), "late data"));
+		// Nothing of an aborted study run gets back into the database
+		resultJournal.append(JournalEntry
+				.studySessionData(abortedStudyResult.getId(), "{\"a\":1}"));
+		resultJournal.append(JournalEntry.resultData(
+				abortedStudyResult.getId(), abortedStudyResult
+						.getComponentResultList().get(0).getId(),
+				"late data"));
+		applyAll(resultJournal);
+		assertThat(resultJournal.getUnappliedCount()).isEqualTo(0l);
+
+		refresh(studyResult);
+		refresh(abortedStudyResult);
+		assertThat(componentResult.getData()).isNull();
+		assertThat(componentResult.getComponentState())
+				.isEqualTo(ComponentState.FINISHED);
+		assertThat(abortedStudyResult.getStudySessionData())
+				.isNotEqualTo("{\"a\":1}");
+		assertThat(abortedStudyResult.getComponentResultList().get(0)
+				.getData()).isNull();
+
+		// Clean-up
+		removeStudy(study);
+	}
+
+	@Test
+	public void recoverAndTruncate() throws Exception {
+		ResultJournal resultJournal = newJournal(
+				ResultJournal.MAX_SEGMENT_SIZE);
+		resultJournal.append(JournalEntry.studySessionData(9001l, "{}"));
+		resultJournal.append(JournalEntry.resultData(9001l, 9002l, "data"));
+		resultJournal.append(JournalEntry.studySessionData(9003l, "{}"));
+		// Restart without applying
+		resultJournal.close();
+		assertThat(journalLength()).isGreaterThan(0l);
+
+		ResultJournal recoveredJournal = newJournal(
+				ResultJournal.MAX_SEGMENT_SIZE);
+		assertThat(recoveredJournal.getUnappliedCount()).isEqualTo(3l);
+
+		applyAll(recoveredJournal);
+		assertThat(recoveredJournal.getUnappliedCount()).isEqualTo(0l);
+		assertThat(journalLength()).isEqualTo(0l);
+	}
+
+	@Test
+	public void appendAfterRecover() throws Exception {
+		ResultJournal resultJournal = newJournal(
+				ResultJournal.MAX_SEGMENT_SIZE);
+		resultJournal.append(JournalEntry.studySessionData(9001l, "{}"));
+		resultJournal.close();
+
+		ResultJournal recoveredJournal = newJournal(
+				ResultJournal.MAX_SEGMENT_SIZE);
+		recoveredJournal
+				.append(JournalEntry.studySessionData(9001l, "{\"a\":1}"));
+		assertThat(recoveredJournal.getUnappliedCount()).isEqualTo(2l);
+
+		applyAll(recoveredJournal);
+		assertThat(recoveredJournal.getUnappliedCount()).isEqualTo(0l);
+		assertThat(journalLength()).isEqualTo(0l);
+	}
+
+	@Test
+	public void rotateAndDeleteAppliedSegments() throws Exception {
+		// Every append fills a segment
+		ResultJournal resultJournal = newJournal(1);
+		resultJournal.append(JournalEntry.studySessionData(9001l, "{}"));
+		resultJournal.append(JournalEntry.resultData(9001l, 9002l, "data"));
+		resultJournal.append(JournalEntry.studySessionData(9003l, "{}"));
+		// Three full segments and the empty current one
+		assertThat(segmentFiles().length).isEqualTo(4);
+		resultJournal.close();
+
+		// Recovers the entries of all segments
+		ResultJournal recoveredJournal = newJournal(1);
+		assertThat(recoveredJournal.getUnappliedCount()).isEqualTo(3l);
+
+		// Only the current segment is left
+		applyAll(recoveredJournal);
+		assertThat(recoveredJournal.getUnappliedCount()).isEqualTo(0l);
+		assertThat(segmentFiles().length).isEqualTo(1);
+		assertThat(journalLength()).isEqualTo(0l);
+	}
+
+}